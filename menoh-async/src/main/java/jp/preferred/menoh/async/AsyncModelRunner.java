@@ -0,0 +1,192 @@
+package jp.preferred.menoh.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerPool;
+
+/**
+ * <p>An asynchronous wrapper of {@link ModelRunnerPool}. Every <code>runAsync()</code> returns immediately
+ * and the inference is executed on the dedicated inference executor, so that the callers on event loops can
+ * pipeline the requests without blocking.</p>
+ *
+ * <p>The results are returned either as an immutable {@link Outputs} copied from the output variables, or as
+ * a {@link LeasedOutputs} which keeps the replica checked out until it is closed.</p>
+ *
+ * <p>Closing this object shuts down the default executor if it is used. It doesn't close the pool.</p>
+ */
+public class AsyncModelRunner implements AutoCloseable {
+    private static final AtomicInteger executorNumber = new AtomicInteger();
+
+    private final ModelRunnerPool pool;
+
+    private final Executor executor;
+
+    private final ExecutorService ownedExecutor;
+
+    private final List<String> outputNames;
+
+    private AsyncModelRunner(
+            ModelRunnerPool pool, Executor executor, ExecutorService ownedExecutor, String[] outputNames) {
+        this.pool = pool;
+        this.executor = executor;
+        this.ownedExecutor = ownedExecutor;
+        this.outputNames = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(outputNames)));
+    }
+
+    /**
+     * <p>Creates an {@link AsyncModelRunner} which runs the inference on its own executor having as many
+     * threads as the replicas in the pool.</p>
+     *
+     * @param pool the pool of the replicas
+     * @param outputNames the names of the output variables to be returned
+     */
+    public static AsyncModelRunner create(ModelRunnerPool pool, String... outputNames) {
+        final int number = executorNumber.incrementAndGet();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(pool.size(), r -> {
+            final Thread t = new Thread(r,
+                    String.format("menoh-async-%d-worker-%d", number, threadNumber.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        });
+
+        return new AsyncModelRunner(pool, executor, executor, outputNames);
+    }
+
+    /**
+     * <p>Creates an {@link AsyncModelRunner} which runs the inference on the specified executor. The executor
+     * should be dedicated to the inference because a task occupies the thread while the model is running.</p>
+     *
+     * @param pool the pool of the replicas
+     * @param executor the executor on which the inference is run
+     * @param outputNames the names of the output variables to be returned
+     */
+    public static AsyncModelRunner create(ModelRunnerPool pool, Executor executor, String... outputNames) {
+        return new AsyncModelRunner(pool, executor, null, outputNames);
+    }
+
+    /**
+     * The names of the output variables returned by <code>runAsync()</code>.
+     */
+    public List<String> outputNames() {
+        return this.outputNames;
+    }
+
+    /**
+     * <p>Runs the model asynchronously after assigning the array to the specified variable.</p>
+     *
+     * @param name the name of the input variable
+     * @param values the values to be copied to the input variable
+     * @return the future completed with the copy of the output variables
+     */
+    public CompletableFuture<Outputs> runAsync(String name, float[] values) {
+        return runAsync(Collections.singletonMap(name, values));
+    }
+
+    /**
+     * <p>Runs the model asynchronously after assigning the arrays to the specified variables.</p>
+     *
+     * @param inputs the values to be copied to the input variables
+     * @return the future completed with the copy of the output variables
+     */
+    public CompletableFuture<Outputs> runAsync(Map<String, float[]> inputs) {
+        return runAsync(runner -> {
+            assign(runner, inputs);
+            runner.run();
+            return Outputs.copyOf(runner, outputNames);
+        });
+    }
+
+    /**
+     * <p>Runs the task asynchronously with a replica checked out from the pool.</p>
+     *
+     * @return the future completed with the result of the task
+     */
+    public <T> CompletableFuture<T> runAsync(ModelRunnerPool.Task<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.execute(task);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * <p>Runs the model asynchronously after assigning the arrays to the specified variables, and leases the
+     * replica to the caller instead of copying the outputs.</p>
+     *
+     * <p>Make sure to {@link LeasedOutputs#close()} the result to give back the replica to the pool. If the
+     * future is cancelled or completed by the caller before the run finishes, the replica is given back
+     * immediately. Otherwise, it is not given back until the result is closed, so a dependent stage must not
+     * drop the result without closing it.</p>
+     *
+     * @param inputs the values to be copied to the input variables
+     * @return the future completed with the views of the output variables
+     */
+    public CompletableFuture<LeasedOutputs> runLeasedAsync(Map<String, float[]> inputs) {
+        final CompletableFuture<LeasedOutputs> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (result.isDone()) {
+                // cancelled before starting
+                return;
+            }
+
+            final LeasedOutputs outputs;
+            try {
+                outputs = runLeased(inputs);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return;
+            }
+
+            // nobody can receive the lease if the future has already been cancelled or failed
+            if (!result.complete(outputs)) {
+                outputs.close();
+            }
+        });
+
+        return result;
+    }
+
+    private LeasedOutputs runLeased(Map<String, float[]> inputs) throws InterruptedException {
+        final ModelRunner runner = pool.acquire();
+        try {
+            assign(runner, inputs);
+            runner.run();
+            return new LeasedOutputs(pool, runner, outputNames);
+        } catch (Throwable t) {
+            pool.release(runner);
+            throw t;
+        }
+    }
+
+    private static void assign(ModelRunner runner, Map<String, float[]> inputs) {
+        for (Map.Entry<String, float[]> e : inputs.entrySet()) {
+            runner.assign(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Shuts down the default executor if it is used. The submitted tasks are still executed.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+}
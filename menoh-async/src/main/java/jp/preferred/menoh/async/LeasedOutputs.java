@@ -0,0 +1,71 @@
+package jp.preferred.menoh.async;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerPool;
+
+/**
+ * <p>The output variables of a run which are read directly from the replica without copying. The replica is
+ * kept checked out from the pool until this object is closed.</p>
+ *
+ * <p>Make sure to {@link #close()} this object after reading the outputs. The buffers must not be used after
+ * closing it. The replica is not given back to the pool until then, even if this object is garbage
+ * collected, because the buffers may still be read.</p>
+ */
+public final class LeasedOutputs implements AutoCloseable {
+    private final ModelRunnerPool pool;
+
+    private final List<String> names;
+
+    private ModelRunner runner;
+
+    LeasedOutputs(ModelRunnerPool pool, ModelRunner runner, List<String> names) {
+        this.pool = pool;
+        this.runner = runner;
+        this.names = names;
+    }
+
+    /**
+     * The names of the output variables.
+     */
+    public List<String> names() {
+        return this.names;
+    }
+
+    /**
+     * A read-only {@link FloatBuffer} which points to the native buffer of the specified output variable.
+     *
+     * @throws IllegalArgumentException if the variable is not found
+     * @throws IllegalStateException if this object is closed
+     */
+    public FloatBuffer buffer(String name) {
+        if (!names.contains(name)) {
+            throw new IllegalArgumentException("the output variable is not found: " + name);
+        }
+
+        synchronized (this) {
+            if (runner == null) {
+                throw new IllegalStateException("the outputs have already been released");
+            }
+            return runner.variable(name).buffer().asFloatBuffer().asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Gives back the replica to the pool. It does nothing if this object has already been closed.
+     */
+    @Override
+    public void close() {
+        final ModelRunner r;
+        synchronized (this) {
+            r = runner;
+            runner = null;
+        }
+
+        if (r != null) {
+            pool.release(r);
+        }
+    }
+}
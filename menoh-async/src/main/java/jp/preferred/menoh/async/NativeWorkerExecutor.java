@@ -0,0 +1,281 @@
+package jp.preferred.menoh.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerPool;
+
+/**
+ * <p>An executor which keeps the native calls off the threads of the callers.</p>
+ *
+ * <p>A long native call such as <code>menoh_model_run</code> pins the carrier thread when it is called from a
+ * virtual thread, which starves the scheduler while many requests are in flight. This executor runs the
+ * model on a small bounded set of platform "native worker" threads, one for each replica in the pool. The
+ * callers hand their runs to the workers and park until they complete, which only unmounts a virtual thread
+ * from its carrier.</p>
+ *
+ * <p>The hand-off uses only {@link java.util.concurrent.locks.LockSupport}-based primitives to avoid pinning
+ * the virtual threads by monitors. The queue in front of the workers is bounded, so the callers also park
+ * when it is full.</p>
+ *
+ * <p>A worker checks out a replica from the pool for each run, so the pool can be shared with the other
+ * users such as {@link AsyncModelRunner}.</p>
+ *
+ * <p>Closing this object stops the workers after the queued runs are completed. It doesn't close the
+ * pool.</p>
+ */
+public class NativeWorkerExecutor implements AutoCloseable {
+    private static final AtomicInteger executorNumber = new AtomicInteger();
+
+    private final ModelRunnerPool pool;
+
+    private final List<String> outputNames;
+
+    private final BlockingQueue<Job<?>> queue;
+
+    private final List<Thread> workers;
+
+    /**
+     * A job enqueued by {@link #close()} for each worker, which stops the worker taking it.
+     */
+    private final Job<Void> stop = new Job<>(null);
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private NativeWorkerExecutor(ModelRunnerPool pool, int queueCapacity, String[] outputNames) {
+        this.pool = pool;
+        this.outputNames = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(outputNames)));
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        final int number = executorNumber.incrementAndGet();
+        final List<Thread> threads = new ArrayList<>(pool.size());
+        for (int i = 0; i < pool.size(); i++) {
+            // `new Thread` always creates a platform thread even if the caller is virtual
+            final Thread t = new Thread(this::work, String.format("menoh-native-worker-%d-%d", number, i + 1));
+            t.setDaemon(true);
+            threads.add(t);
+        }
+        this.workers = Collections.unmodifiableList(threads);
+    }
+
+    /**
+     * <p>Creates a {@link NativeWorkerExecutor} which has as many workers as the replicas in the pool and
+     * queues up to <code>(16 * pool.size())</code> runs.</p>
+     *
+     * @param pool the pool of the replicas
+     * @param outputNames the names of the output variables to be returned
+     */
+    public static NativeWorkerExecutor create(ModelRunnerPool pool, String... outputNames) {
+        return create(pool, 16 * pool.size(), outputNames);
+    }
+
+    /**
+     * <p>Creates a {@link NativeWorkerExecutor} which has as many workers as the replicas in the pool.</p>
+     *
+     * @param pool the pool of the replicas
+     * @param queueCapacity the maximum number of the runs waiting for the workers
+     * @param outputNames the names of the output variables to be returned
+     */
+    public static NativeWorkerExecutor create(ModelRunnerPool pool, int queueCapacity, String... outputNames) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+
+        final NativeWorkerExecutor executor = new NativeWorkerExecutor(pool, queueCapacity, outputNames);
+        for (Thread t : executor.workers) {
+            t.start();
+        }
+
+        return executor;
+    }
+
+    /**
+     * The number of the native worker threads.
+     */
+    public int workerCount() {
+        return workers.size();
+    }
+
+    /**
+     * <p>Runs the model on a native worker after assigning the array to the specified variable. The calling
+     * thread parks until the run completes.</p>
+     *
+     * @param name the name of the input variable
+     * @param values the values to be copied to the input variable
+     * @return the copy of the output variables
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Outputs run(String name, float[] values) throws Exception {
+        return run(Collections.singletonMap(name, values));
+    }
+
+    /**
+     * <p>Runs the model on a native worker after assigning the arrays to the specified variables. The calling
+     * thread parks until the run completes.</p>
+     *
+     * @param inputs the values to be copied to the input variables
+     * @return the copy of the output variables
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Outputs run(Map<String, float[]> inputs) throws Exception {
+        return call(runner -> {
+            for (Map.Entry<String, float[]> e : inputs.entrySet()) {
+                runner.assign(e.getKey(), e.getValue());
+            }
+            runner.run();
+            return Outputs.copyOf(runner, outputNames);
+        });
+    }
+
+    /**
+     * <p>Runs the task on a native worker with a replica. The calling thread parks until the task
+     * completes.</p>
+     *
+     * @return the result of the task
+     * @throws InterruptedException if interrupted while waiting
+     * @throws Exception if the task throws an exception
+     */
+    public <T> T call(ModelRunnerPool.Task<T> task) throws Exception {
+        final CompletableFuture<T> future = submit(task);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Submits the task to run on a native worker with a replica. The calling thread parks only while the
+     * queue is full.</p>
+     *
+     * @return the future completed with the result of the task
+     * @throws InterruptedException if interrupted while waiting for the queue
+     * @throws RejectedExecutionException if this executor is closed
+     */
+    public <T> CompletableFuture<T> submit(ModelRunnerPool.Task<T> task) throws InterruptedException {
+        if (closed.get()) {
+            throw new RejectedExecutionException("the executor has already been closed");
+        }
+
+        final Job<T> job = new Job<>(task);
+        queue.put(job);
+
+        // close() may have stopped the workers between the check and put()
+        if (closed.get() && queue.remove(job)) {
+            job.future.completeExceptionally(new RejectedExecutionException("the executor has already been closed"));
+        }
+
+        return job.future;
+    }
+
+    /**
+     * Stops the workers after completing the queued runs.
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        if (closed.compareAndSet(false, true)) {
+            // the jobs queued so far precede the stop jobs, and a running task is not interrupted
+            int stops = 0;
+            while (stops < workers.size()) {
+                try {
+                    queue.put(stop);
+                    stops++;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        for (Thread t : workers) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        // fail the jobs which raced with close()
+        for (Job<?> job = queue.poll(); job != null; job = queue.poll()) {
+            job.future.completeExceptionally(new RejectedExecutionException("the executor has already been closed"));
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            final Job<?> job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                // a task may have left the interrupt, but only close() stops the worker
+                continue;
+            }
+            if (job == stop) {
+                return;
+            }
+            job.run(pool);
+        }
+    }
+
+    private static final class Job<T> {
+        private final ModelRunnerPool.Task<T> task;
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Job(ModelRunnerPool.Task<T> task) {
+            this.task = task;
+        }
+
+        void run(ModelRunnerPool pool) {
+            if (future.isDone()) {
+                return;
+            }
+
+            final ModelRunner runner;
+            try {
+                runner = pool.acquire();
+            } catch (IllegalStateException e) {
+                future.completeExceptionally(new RejectedExecutionException("the pool has already been closed", e));
+                return;
+            } catch (InterruptedException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+
+            // give back the replica before completing the future to make it available to the caller
+            final T result;
+            try {
+                result = task.run(runner);
+            } catch (Throwable t) {
+                pool.release(runner);
+                future.completeExceptionally(t);
+                return;
+            }
+            pool.release(runner);
+            future.complete(result);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package jp.preferred.menoh.async;
+
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.OutputBinding;
+
+/**
+ * An immutable copy of the output variables of a run.
+ */
+public final class Outputs {
+    private final Map<String, float[]> values;
+
+    private Outputs(Map<String, float[]> values) {
+        this.values = values;
+    }
+
+    static Outputs copyOf(ModelRunner runner, List<String> names) {
+        final Map<String, float[]> values = new LinkedHashMap<>();
+        for (String name : names) {
+            final OutputBinding output = runner.outputBinding(name);
+            final float[] copy = new float[output.buffer().remaining()];
+            output.get(copy);
+            values.put(name, copy);
+        }
+
+        return new Outputs(Collections.unmodifiableMap(values));
+    }
+
+    /**
+     * The names of the output variables.
+     */
+    public Set<String> names() {
+        return values.keySet();
+    }
+
+    /**
+     * A read-only {@link FloatBuffer} of the specified output variable.
+     *
+     * @throws IllegalArgumentException if the variable is not found
+     */
+    public FloatBuffer buffer(String name) {
+        return FloatBuffer.wrap(valuesOf(name)).asReadOnlyBuffer();
+    }
+
+    /**
+     * A copy of the values of the specified output variable.
+     *
+     * @throws IllegalArgumentException if the variable is not found
+     */
+    public float[] toArray(String name) {
+        return valuesOf(name).clone();
+    }
+
+    /**
+     * Returns the value at the specified index in the output variable.
+     *
+     * @throws IllegalArgumentException if the variable is not found
+     */
+    public float get(String name, int index) {
+        return valuesOf(name)[index];
+    }
+
+    private float[] valuesOf(String name) {
+        final float[] v = values.get(name);
+        if (v == null) {
+            throw new IllegalArgumentException("the output variable is not found: " + name);
+        }
+        return v;
+    }
+}
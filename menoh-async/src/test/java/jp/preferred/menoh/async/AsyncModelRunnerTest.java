@@ -0,0 +1,110 @@
+package jp.preferred.menoh.async;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.async.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerBuilder;
+import jp.preferred.menoh.ModelRunnerPool;
+import org.junit.jupiter.api.Test;
+
+public class AsyncModelRunnerTest {
+    private static final float[][] inputs = new float[][] {{0f, 0f}, {0f, 1f}, {1f, 0f}, {1f, 1f}};
+    private static final float[] expectedOutputs = new float[] {0f, 0f, 0f, 1f};
+
+    @Test
+    public void runAsync() throws Exception {
+        final int requestNum = 100;
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(2);
+                AsyncModelRunner runner = AsyncModelRunner.create(pool, "output")
+        ) {
+            final List<CompletableFuture<Outputs>> futures = new ArrayList<>();
+            for (int i = 0; i < requestNum; i++) {
+                futures.add(runner.runAsync("input", inputs[i % inputs.length]));
+            }
+
+            for (int i = 0; i < requestNum; i++) {
+                final Outputs outputs = futures.get(i).get(10, TimeUnit.SECONDS);
+                final float expected = expectedOutputs[i % inputs.length];
+                assertAll("outputs",
+                        () -> assertEquals(Collections.singleton("output"), outputs.names()),
+                        () -> assertArrayEquals(new float[] {expected}, outputs.toArray("output")),
+                        () -> assertEquals(expected, outputs.get("output", 0)),
+                        () -> assertTrue(outputs.buffer("output").isReadOnly(), "buffer should be read-only")
+                );
+            }
+        }
+    }
+
+    @Test
+    public void runLeasedAsync() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1);
+                AsyncModelRunner runner = AsyncModelRunner.create(pool, "output")
+        ) {
+            try (LeasedOutputs outputs = runner
+                    .runLeasedAsync(Collections.singletonMap("input", new float[] {1f, 1f}))
+                    .get(10, TimeUnit.SECONDS)) {
+                assertEquals(0, pool.available());
+                assertEquals(1f, outputs.buffer("output").get(0));
+            }
+
+            // the replica is given back to the pool
+            assertEquals(1, pool.available());
+        }
+    }
+
+    @Test
+    public void reclaimCancelledLease() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1);
+                AsyncModelRunner runner = AsyncModelRunner.create(pool, executor, "output")
+        ) {
+            // keep the task waiting for the replica until the future is cancelled
+            final ModelRunner replica = pool.acquire();
+            final CompletableFuture<LeasedOutputs> future =
+                    runner.runLeasedAsync(Collections.singletonMap("input", new float[] {1f, 1f}));
+            assertTrue(future.cancel(false));
+            pool.release(replica);
+
+            // the lease is closed after the run finishes
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(1, pool.available());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runAsyncFailsWithInvalidInput() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1);
+                AsyncModelRunner runner = AsyncModelRunner.create(pool, "output")
+        ) {
+            final CompletableFuture<Outputs> f = runner.runAsync("input", new float[] {1f, 1f, 1f}); // test case
+
+            final ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(10, TimeUnit.SECONDS));
+            assertNotNull(e.getCause());
+            assertEquals(1, pool.available());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package jp.preferred.menoh.async;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.async.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import jp.preferred.menoh.MenohRunnerException;
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerBuilder;
+import jp.preferred.menoh.ModelRunnerPool;
+import org.junit.jupiter.api.Test;
+
+public class NativeWorkerExecutorTest {
+    private static final float[][] inputs = new float[][] {{0f, 0f}, {0f, 1f}, {1f, 0f}, {1f, 1f}};
+    private static final float[] expectedOutputs = new float[] {0f, 0f, 0f, 1f};
+
+    @Test
+    public void runOnNativeWorkers() throws Exception {
+        final int callerNum = 32;
+        final int requestNum = 256;
+        final ExecutorService callers = Executors.newFixedThreadPool(callerNum);
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(2);
+                NativeWorkerExecutor executor = NativeWorkerExecutor.create(pool, 4, "output")
+        ) {
+            assertEquals(2, executor.workerCount());
+
+            final List<Future<Outputs>> futures = new ArrayList<>();
+            for (int i = 0; i < requestNum; i++) {
+                final float[] input = inputs[i % inputs.length];
+                futures.add(callers.submit(() -> executor.run("input", input)));
+            }
+
+            for (int i = 0; i < requestNum; i++) {
+                assertArrayEquals(
+                        new float[] {expectedOutputs[i % inputs.length]},
+                        futures.get(i).get(10, TimeUnit.SECONDS).toArray("output"));
+            }
+
+            // the workers run on their own threads
+            final String workerName = executor.call(runner -> Thread.currentThread().getName());
+            assertTrue(workerName.startsWith("menoh-native-worker-"), workerName);
+        } finally {
+            callers.shutdown();
+        }
+    }
+
+    @Test
+    public void callRethrowsTheCause() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1);
+                NativeWorkerExecutor executor = NativeWorkerExecutor.create(pool, "output")
+        ) {
+            assertThrows(MenohRunnerException.class, () -> executor.run("input", new float[] {1f, 1f, 1f}));
+        }
+    }
+
+    @Test
+    public void closeExecutor() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1)
+        ) {
+            final NativeWorkerExecutor executor = NativeWorkerExecutor.create(pool, "output");
+            final CompletableFuture<Outputs> f = executor.submit(runner -> {
+                runner.run("input", new float[] {1f, 1f});
+                return null;
+            });
+
+            executor.close();
+            assertTrue(f.isDone(), "the queued run should be completed");
+            assertThrows(RejectedExecutionException.class, () -> executor.submit(runner -> null));
+
+            // the replica is given back to the pool
+            assertEquals(1, pool.available());
+        }
+    }
+
+    @Test
+    public void closeExecutorWithoutInterruptingRunningTask() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1)
+        ) {
+            final NativeWorkerExecutor executor = NativeWorkerExecutor.create(pool, "output");
+            final CountDownLatch running = new CountDownLatch(1);
+            final CompletableFuture<String> f = executor.submit(runner -> {
+                running.countDown();
+                Thread.sleep(100);
+                return "done";
+            });
+
+            running.await();
+            executor.close();
+            assertEquals("done", f.get());
+        }
+    }
+
+    @Test
+    public void shareReplicasWithOtherUsers() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1);
+                NativeWorkerExecutor executor = NativeWorkerExecutor.create(pool, "output")
+        ) {
+            assertArrayEquals(new float[] {expectedOutputs[3]}, executor.run("input", inputs[3]).toArray("output"));
+
+            // the idle workers don't keep the replica
+            assertEquals(1, pool.available());
+            final ModelRunner runner = pool.tryAcquire(0, TimeUnit.SECONDS);
+            assertNotNull(runner);
+            pool.release(runner);
+        }
+    }
+}
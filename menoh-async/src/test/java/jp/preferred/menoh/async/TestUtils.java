@@ -0,0 +1,35 @@
+package jp.preferred.menoh.async;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Paths;
+
+import jp.preferred.menoh.DType;
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerBuilder;
+
+public class TestUtils {
+    /**
+     * Convert resource name into file path.
+     */
+    public static String getResourceFilePath(String name) throws IOException, URISyntaxException {
+        URL url = TestUtils.class.getClassLoader().getResource(name);
+        if (url != null) {
+            return Paths.get(url.toURI()).toFile().getCanonicalPath();
+        } else {
+            throw new FileNotFoundException("The specified resource not found: " + name);
+        }
+    }
+
+    /**
+     * A builder of <code>and_op.onnx</code> whose input has the specified batch size.
+     */
+    public static ModelRunnerBuilder andOpBuilder(int batchSize) throws IOException, URISyntaxException {
+        return ModelRunner
+                .fromOnnxFile(getResourceFilePath("models/and_op.onnx"))
+                .addInputProfile("input", DType.FLOAT, new int[] {batchSize, 2})
+                .addOutputProfile("output", DType.FLOAT);
+    }
+}
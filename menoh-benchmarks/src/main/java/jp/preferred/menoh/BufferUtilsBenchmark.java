@@ -0,0 +1,71 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the variants of {@link BufferUtils#copyToNativeMemory}. It is placed in the same package as
+ * the core module to access the package-private API.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferUtilsBenchmark {
+    @Param({"64", "602112"}) // 602112 is the size of an image for VGG16 (3 * 224 * 224 floats)
+    public int bytes;
+
+    private ByteBuffer directBuffer;
+
+    private ByteBuffer heapBuffer;
+
+    private ByteBuffer readOnlyBuffer;
+
+    private float[] floatArray;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directBuffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        heapBuffer = ByteBuffer.allocate(bytes).order(ByteOrder.nativeOrder());
+        readOnlyBuffer = heapBuffer.asReadOnlyBuffer();
+        floatArray = new float[bytes / 4];
+    }
+
+    @Benchmark
+    public Pointer directByteBuffer() {
+        return BufferUtils.copyToNativeMemory(directBuffer);
+    }
+
+    @Benchmark
+    public Pointer heapByteBuffer() {
+        return BufferUtils.copyToNativeMemory(heapBuffer);
+    }
+
+    @Benchmark
+    public Pointer readOnlyByteBuffer() {
+        return BufferUtils.copyToNativeMemory(readOnlyBuffer);
+    }
+
+    @Benchmark
+    public Pointer floatArray() {
+        return BufferUtils.copyToNativeMemory(floatArray, 0, floatArray.length);
+    }
+}
@@ -0,0 +1,100 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.preferred.menoh.benchmarks.BenchmarkModels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the overhead of the raw JNA calls to {@link MenohNative}. The native functions except
+ * <code>menoh_model_run</code> do almost nothing, so they show the cost of the binding itself. It is placed
+ * in the same package as the core module to access the package-private API.</p>
+ *
+ * <p>It compares the interface mapping (<code>jna</code>) with the direct mapping (<code>jna-direct</code>),
+ * and the variable names passed as <code>String</code> with the pre-encoded ones. The Foreign Function &amp;
+ * Memory API binding can be added by <code>-p binding=jna,jna-direct,panama</code> when the benchmarks are
+ * built and run on JDK 22 or later.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MenohNativeBenchmark {
+    @Param({"jna", "jna-direct"})
+    public String binding;
+
+    private MenohNative lib;
+
+    private ModelRunnerBuilder builder;
+
+    private ModelRunner runner;
+
+    private Pointer handle;
+
+    private Pointer outputName;
+
+    private final IntByReference intRef = new IntByReference();
+
+    private final PointerByReference pointerRef = new PointerByReference();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        lib = MenohNativeLoader.load(binding);
+        outputName = BufferUtils.copyToNativeString("output");
+        builder = ModelRunner
+                .fromOnnxFile(BenchmarkModels.andOp())
+                .addInputProfile("input", DType.FLOAT, new int[] {1, 2})
+                .addOutputProfile("output", DType.FLOAT);
+        runner = builder.build();
+        handle = runner.model().nativeHandle();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runner.close();
+        builder.close();
+    }
+
+    @Benchmark
+    public int getVariableDtype() {
+        return lib.menoh_model_get_variable_dtype(handle, "output", intRef);
+    }
+
+    @Benchmark
+    public int getVariableDtypePreEncoded() {
+        return lib.menoh_model_get_variable_dtype(handle, outputName, intRef);
+    }
+
+    @Benchmark
+    public int getVariableBufferHandle() {
+        return lib.menoh_model_get_variable_buffer_handle(handle, "output", pointerRef);
+    }
+
+    @Benchmark
+    public int getVariableBufferHandlePreEncoded() {
+        return lib.menoh_model_get_variable_buffer_handle(handle, outputName, pointerRef);
+    }
+
+    @Benchmark
+    public int modelRun() {
+        return lib.menoh_model_run(handle);
+    }
+}
@@ -0,0 +1,48 @@
+package jp.preferred.menoh.benchmarks;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The models used in the benchmarks.
+ */
+public final class BenchmarkModels {
+    private BenchmarkModels() {
+    }
+
+    /**
+     * Returns the path to <code>and_op.onnx</code> bundled in the benchmark JAR.
+     */
+    public static String andOp() throws IOException {
+        return extractResource("models/and_op.onnx");
+    }
+
+    /**
+     * Returns the path to a synthetic model of multi-layer perceptron. See {@link SyntheticModel} for the
+     * details.
+     */
+    public static String mlp(int width, int depth) throws IOException {
+        return SyntheticModel.writeMlp(width, depth, 0);
+    }
+
+    /**
+     * Extracts the resource to a temporary file because the model is bundled in the benchmark JAR.
+     */
+    private static String extractResource(String name) throws IOException {
+        try (InputStream in = BenchmarkModels.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new FileNotFoundException("The specified resource not found: " + name);
+            }
+
+            final Path path = Files.createTempFile("menoh-benchmarks-", ".onnx");
+            path.toFile().deleteOnExit();
+            Files.copy(in, path, StandardCopyOption.REPLACE_EXISTING);
+
+            return path.toString();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package jp.preferred.menoh.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.preferred.menoh.DType;
+import jp.preferred.menoh.InputBinding;
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerBuilder;
+import jp.preferred.menoh.OutputBinding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures a whole inference: writing the input, running the model and reading the output.</p>
+ *
+ * <p><code>and_op</code> is the bundled tiny model dominated by the binding overhead, and <code>mlp</code>
+ * is a synthetic model which consists of <code>depth</code> fully-connected layers with <code>width</code>
+ * units.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+    @Param({"and_op", "mlp"})
+    public String model;
+
+    @Param({"1", "32"})
+    public int batchSize;
+
+    @Param({"1024"})
+    public int width;
+
+    @Param({"8"})
+    public int depth;
+
+    private ModelRunnerBuilder builder;
+
+    private ModelRunner runner;
+
+    private InputBinding input;
+
+    private OutputBinding output;
+
+    private float[] inputData;
+
+    private float[] outputData;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final int inputDim;
+        final String path;
+        if ("mlp".equals(model)) {
+            inputDim = width;
+            path = BenchmarkModels.mlp(width, depth);
+        } else {
+            inputDim = 2;
+            path = BenchmarkModels.andOp();
+        }
+
+        builder = ModelRunner
+                .fromOnnxFile(path)
+                .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                .addOutputProfile("output", DType.FLOAT);
+        runner = builder.build();
+        input = runner.inputBinding("input");
+        output = runner.outputBinding("output");
+
+        inputData = new float[input.buffer().capacity()];
+        for (int i = 0; i < inputData.length; i++) {
+            inputData[i] = (i % 7) / 7f;
+        }
+        outputData = new float[output.buffer().capacity()];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runner.close();
+        builder.close();
+    }
+
+    @Benchmark
+    public float[] inference() {
+        input.put(inputData);
+        runner.run();
+        output.get(outputData);
+        return outputData;
+    }
+}
@@ -0,0 +1,150 @@
+package jp.preferred.menoh.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.preferred.menoh.DType;
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerBuilder;
+import jp.preferred.menoh.OutputBinding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Compares the latency of {@link ModelRunner#run()} with the buffers backed by huge pages to the one with
+ * the standard allocation, on a synthetic <code>mlp</code> model whose input is attached as an external
+ * buffer.</p>
+ *
+ * <p><code>steadyState</code> measures the average latency of the runs on a built runner, and
+ * <code>firstRun</code> measures the first run on a runner built for each iteration, which pays for the page
+ * faults on the buffers unless they are pre-faulted. The huge pages are used only on Linux and fall back to
+ * the standard allocation otherwise.</p>
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HugePagesBenchmark {
+    @State(Scope.Thread)
+    public static class Config {
+        @Param({"false", "true"})
+        public boolean hugePages;
+
+        @Param({"1", "64"})
+        public int batchSize;
+
+        @Param({"4096"})
+        public int width;
+
+        @Param({"4"})
+        public int depth;
+
+        private String path;
+
+        private float[] inputData;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            path = BenchmarkModels.mlp(width, depth);
+
+            inputData = new float[batchSize * width];
+            for (int i = 0; i < inputData.length; i++) {
+                inputData[i] = (i % 7) / 7f;
+            }
+        }
+
+        ModelRunnerBuilder newBuilder() {
+            return ModelRunner
+                    .fromOnnxFile(path)
+                    .addInputProfile("input", DType.FLOAT, new int[] {batchSize, width})
+                    .addOutputProfile("output", DType.FLOAT)
+                    .hugePages(hugePages)
+                    .attachExternalBuffer("input", inputData);
+        }
+    }
+
+    /**
+     * A runner built once for the trial.
+     */
+    @State(Scope.Thread)
+    public static class SteadyRunner {
+        private ModelRunnerBuilder builder;
+
+        private ModelRunner runner;
+
+        private OutputBinding output;
+
+        private float[] outputData;
+
+        @Setup(Level.Trial)
+        public void setUp(Config config) {
+            builder = config.newBuilder();
+            runner = builder.build();
+            output = runner.outputBinding("output");
+            outputData = new float[output.buffer().capacity()];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            runner.close();
+            builder.close();
+        }
+    }
+
+    /**
+     * A runner built for each iteration, which is not run yet.
+     */
+    @State(Scope.Thread)
+    public static class FreshRunner {
+        private ModelRunnerBuilder builder;
+
+        private ModelRunner runner;
+
+        private OutputBinding output;
+
+        private float[] outputData;
+
+        @Setup(Level.Iteration)
+        public void setUp(Config config) {
+            builder = config.newBuilder();
+            runner = builder.build();
+            output = runner.outputBinding("output");
+            outputData = new float[output.buffer().capacity()];
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            runner.close();
+            builder.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public float[] steadyState(SteadyRunner state) {
+        state.runner.run();
+        state.output.get(state.outputData);
+        return state.outputData;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 20)
+    public float[] firstRun(FreshRunner state) {
+        state.runner.run();
+        state.output.get(state.outputData);
+        return state.outputData;
+    }
+}
@@ -0,0 +1,100 @@
+package jp.preferred.menoh.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import jp.preferred.menoh.DType;
+import jp.preferred.menoh.InputBinding;
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ModelRunner#run} of <code>and_op.onnx</code> with the various types of the input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelRunnerBenchmark {
+    @Param({"1", "256"})
+    public int batchSize;
+
+    private ModelRunnerBuilder builder;
+
+    private ModelRunner runner;
+
+    private InputBinding binding;
+
+    private float[] floatArray;
+
+    private ByteBuffer heapBuffer;
+
+    private ByteBuffer directBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        builder = ModelRunner
+                .fromOnnxFile(BenchmarkModels.andOp())
+                .addInputProfile("input", DType.FLOAT, new int[] {batchSize, 2})
+                .addOutputProfile("output", DType.FLOAT);
+        runner = builder.build();
+        binding = runner.inputBinding("input");
+
+        floatArray = new float[batchSize * 2];
+        for (int i = 0; i < floatArray.length; i++) {
+            floatArray[i] = i % 2;
+        }
+        heapBuffer = ByteBuffer.allocate(floatArray.length * 4).order(ByteOrder.nativeOrder());
+        heapBuffer.asFloatBuffer().put(floatArray);
+        directBuffer = ByteBuffer.allocateDirect(floatArray.length * 4).order(ByteOrder.nativeOrder());
+        directBuffer.asFloatBuffer().put(floatArray);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runner.close();
+        builder.close();
+    }
+
+    @Benchmark
+    public void floatArray() {
+        runner.run("input", floatArray);
+    }
+
+    @Benchmark
+    public void heapByteBuffer() {
+        runner.run("input", heapBuffer);
+    }
+
+    @Benchmark
+    public void directByteBuffer() {
+        runner.run("input", directBuffer);
+    }
+
+    @Benchmark
+    public void inputBinding() {
+        binding.put(floatArray);
+        runner.run();
+    }
+
+    @Benchmark
+    public void runOnly() {
+        runner.run();
+    }
+}
@@ -0,0 +1,83 @@
+package jp.preferred.menoh.benchmarks;
+
+import static jp.preferred.menoh.testing.OnnxWriter.DATA_TYPE_FLOAT;
+import static jp.preferred.menoh.testing.OnnxWriter.floatAttr;
+import static jp.preferred.menoh.testing.OnnxWriter.floatTensor;
+import static jp.preferred.menoh.testing.OnnxWriter.graphWithValueInfos;
+import static jp.preferred.menoh.testing.OnnxWriter.inputs;
+import static jp.preferred.menoh.testing.OnnxWriter.intAttr;
+import static jp.preferred.menoh.testing.OnnxWriter.model;
+import static jp.preferred.menoh.testing.OnnxWriter.node;
+import static jp.preferred.menoh.testing.OnnxWriter.valueInfo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Generates a synthetic ONNX model of multi-layer perceptron with random weights, which consists of
+ * <code>depth</code> pairs of <code>Gemm</code> and <code>Relu</code> like the models exported by
+ * onnx-chainer.</p>
+ *
+ * <p>The input is named "input" with the shape <code>(batch, width)</code> and the output is named "output"
+ * with the same shape.</p>
+ */
+final class SyntheticModel {
+    private static final long OPSET_VERSION = 4;
+
+    private SyntheticModel() {
+    }
+
+    /**
+     * Writes the model to a temporary file and returns its path.
+     */
+    static String writeMlp(int width, int depth, long seed) throws IOException {
+        final Random random = new Random(seed);
+        final String w1 = Integer.toString(width);
+        final List<byte[]> nodes = new ArrayList<>();
+        final List<byte[]> initializers = new ArrayList<>();
+        final List<byte[]> inputInfos = new ArrayList<>();
+
+        inputInfos.add(valueInfo("input", DATA_TYPE_FLOAT, "1", w1));
+        String x = "input";
+        for (int i = 0; i < depth; i++) {
+            final String w = "w" + i;
+            final String b = "b" + i;
+            final String h = "h" + i;
+            final String y = (i == depth - 1) ? "output" : "r" + i;
+
+            nodes.add(node("Gemm", inputs(x, w, b), h,
+                    floatAttr("alpha", 1f), floatAttr("beta", 1f), intAttr("transA", 0), intAttr("transB", 1)));
+            nodes.add(node("Relu", inputs(h), y));
+
+            // He initialization keeps the activations from vanishing
+            final float scale = (float) Math.sqrt(2.0 / width);
+            initializers.add(floatTensor(w, new long[] {width, width}, randomValues(random, width * width, scale)));
+            initializers.add(floatTensor(b, new long[] {width}, new float[width]));
+            inputInfos.add(valueInfo(w, DATA_TYPE_FLOAT, w1, w1));
+            inputInfos.add(valueInfo(b, DATA_TYPE_FLOAT, w1));
+
+            x = y;
+        }
+        final byte[] graph = graphWithValueInfos(nodes, initializers, inputInfos,
+                Collections.singletonList(valueInfo("output", DATA_TYPE_FLOAT, "1", w1)));
+
+        final Path path = Files.createTempFile("menoh-benchmarks-mlp-", ".onnx");
+        path.toFile().deleteOnExit();
+        Files.write(path, model(OPSET_VERSION, graph));
+
+        return path.toString();
+    }
+
+    private static float[] randomValues(Random random, int length, float scale) {
+        final float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (float) random.nextGaussian() * scale;
+        }
+        return values;
+    }
+}
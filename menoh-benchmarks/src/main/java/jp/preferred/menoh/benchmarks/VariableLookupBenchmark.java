@@ -0,0 +1,88 @@
+package jp.preferred.menoh.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import jp.preferred.menoh.DType;
+import jp.preferred.menoh.Model;
+import jp.preferred.menoh.ModelBuilder;
+import jp.preferred.menoh.ModelData;
+import jp.preferred.menoh.Variable;
+import jp.preferred.menoh.VariableProfileTable;
+import jp.preferred.menoh.VariableProfileTableBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of looking up a {@link Variable} in {@link Model} and getting its buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariableLookupBenchmark {
+    private ModelData modelData;
+
+    private VariableProfileTableBuilder vptBuilder;
+
+    private VariableProfileTable vpt;
+
+    private ModelBuilder modelBuilder;
+
+    private Model model;
+
+    private Variable variable;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        modelData = ModelData.fromOnnxFile(BenchmarkModels.andOp());
+        vptBuilder = VariableProfileTable.builder()
+                .addInputProfile("input", DType.FLOAT, new int[] {1, 2})
+                .addOutputProfile("output", DType.FLOAT);
+        vpt = vptBuilder.build(modelData);
+        modelBuilder = Model.builder(vpt);
+        model = modelBuilder.build(modelData, "mkldnn", "");
+        variable = model.variable("output");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        model.close();
+        modelBuilder.close();
+        vpt.close();
+        vptBuilder.close();
+        modelData.close();
+    }
+
+    @Benchmark
+    public Variable variable() {
+        return model.variable("output");
+    }
+
+    @Benchmark
+    public ByteBuffer variableAndBuffer() {
+        return model.variable("output").buffer();
+    }
+
+    @Benchmark
+    public ByteBuffer buffer() {
+        return variable.buffer();
+    }
+
+    @Benchmark
+    public int[] dims() {
+        return variable.dims();
+    }
+}
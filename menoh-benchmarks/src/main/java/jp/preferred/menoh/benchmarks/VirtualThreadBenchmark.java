@@ -0,0 +1,85 @@
+package jp.preferred.menoh.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.preferred.menoh.DType;
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerBuilder;
+import jp.preferred.menoh.ModelRunnerPool;
+import jp.preferred.menoh.async.NativeWorkerExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * <p>Compares the throughput and the tail latency of the runs called directly from virtual threads with the
+ * runs handed to {@link NativeWorkerExecutor}.</p>
+ *
+ * <p>The benchmark threads are virtual threads, so it requires JDK 21 or later.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(256)
+@Fork(value = 1, jvmArgsAppend = "-Djmh.executor=VIRTUAL")
+public class VirtualThreadBenchmark {
+    @Param({"direct", "worker"})
+    public String mode;
+
+    @Param({"4"})
+    public int replicas;
+
+    private ModelRunnerBuilder builder;
+
+    private ModelRunnerPool pool;
+
+    private NativeWorkerExecutor executor;
+
+    private final float[] input = new float[] {1f, 1f};
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        builder = ModelRunner
+                .fromOnnxFile(BenchmarkModels.andOp())
+                .addInputProfile("input", DType.FLOAT, new int[] {1, 2})
+                .addOutputProfile("output", DType.FLOAT);
+        pool = builder.buildPool(replicas);
+        if ("worker".equals(mode)) {
+            // the workers keep all the replicas checked out
+            executor = NativeWorkerExecutor.create(pool, "output");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.close();
+        }
+        pool.close();
+        builder.close();
+    }
+
+    @Benchmark
+    public float run() throws Exception {
+        final ModelRunnerPool.Task<Float> task = runner -> {
+            runner.run("input", input);
+            return runner.variable("output").buffer().getFloat(0);
+        };
+
+        if ("worker".equals(mode)) {
+            return executor.call(task);
+        } else {
+            // the native call pins the carrier of the virtual thread
+            return pool.execute(task);
+        }
+    }
+}
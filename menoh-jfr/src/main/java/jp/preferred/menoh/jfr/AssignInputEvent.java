@@ -0,0 +1,16 @@
+package jp.preferred.menoh.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An event of copying an input to a variable in {@link jp.preferred.menoh.ModelRunner}.
+ */
+@Name("jp.preferred.menoh.AssignInput")
+@Label("Assign Input")
+@Description("Copying an input to a variable")
+@StackTrace(false)
+final class AssignInputEvent extends MenohEvent {
+}
@@ -0,0 +1,14 @@
+package jp.preferred.menoh.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An event of {@link jp.preferred.menoh.ModelBuilder#build(jp.preferred.menoh.ModelData, String, String)}.
+ */
+@Name("jp.preferred.menoh.BuildModel")
+@Label("Build Model")
+@Description("Building a model with the backend")
+final class BuildModelEvent extends MenohEvent {
+}
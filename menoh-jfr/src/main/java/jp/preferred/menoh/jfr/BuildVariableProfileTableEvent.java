@@ -0,0 +1,14 @@
+package jp.preferred.menoh.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An event of {@link jp.preferred.menoh.VariableProfileTableBuilder#build(jp.preferred.menoh.ModelData)}.
+ */
+@Name("jp.preferred.menoh.BuildVariableProfileTable")
+@Label("Build Variable Profile Table")
+@Description("Building a variable profile table")
+final class BuildVariableProfileTableEvent extends MenohEvent {
+}
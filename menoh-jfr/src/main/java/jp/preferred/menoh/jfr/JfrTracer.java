@@ -0,0 +1,78 @@
+package jp.preferred.menoh.jfr;
+
+import jdk.jfr.EventType;
+
+import jp.preferred.menoh.MenohTracer;
+
+/**
+ * <p>A {@link MenohTracer} which emits the events of Java Flight Recorder in the <code>Menoh</code> category.
+ * It is loaded automatically when this module is in the class path.</p>
+ *
+ * <p>The events are named <code>jp.preferred.menoh.*</code> (e.g. <code>jp.preferred.menoh.RunModel</code>)
+ * and can be configured in the JFR settings like the built-in events. No event object is allocated unless
+ * a recording enables it.</p>
+ */
+public final class JfrTracer implements MenohTracer {
+    /**
+     * The event types indexed by the ordinal of {@link MenohTracer.Operation}.
+     */
+    private final EventType[] eventTypes;
+
+    public JfrTracer() {
+        final Operation[] operations = Operation.values();
+        this.eventTypes = new EventType[operations.length];
+        for (Operation op : operations) {
+            eventTypes[op.ordinal()] = EventType.getEventType(eventClass(op));
+        }
+    }
+
+    @Override
+    public Span begin(Operation operation) {
+        if (!eventTypes[operation.ordinal()].isEnabled()) {
+            return null;
+        }
+
+        final MenohEvent event = newEvent(operation);
+        event.begin();
+
+        return event;
+    }
+
+    private static Class<? extends MenohEvent> eventClass(Operation operation) {
+        switch (operation) {
+            case LOAD_MODEL_DATA:
+                return LoadModelDataEvent.class;
+            case BUILD_VARIABLE_PROFILE_TABLE:
+                return BuildVariableProfileTableEvent.class;
+            case OPTIMIZE_MODEL_DATA:
+                return OptimizeModelDataEvent.class;
+            case BUILD_MODEL:
+                return BuildModelEvent.class;
+            case RUN_MODEL:
+                return RunModelEvent.class;
+            case ASSIGN_INPUT:
+                return AssignInputEvent.class;
+            default:
+                throw new IllegalArgumentException("unknown operation: " + operation);
+        }
+    }
+
+    private static MenohEvent newEvent(Operation operation) {
+        switch (operation) {
+            case LOAD_MODEL_DATA:
+                return new LoadModelDataEvent();
+            case BUILD_VARIABLE_PROFILE_TABLE:
+                return new BuildVariableProfileTableEvent();
+            case OPTIMIZE_MODEL_DATA:
+                return new OptimizeModelDataEvent();
+            case BUILD_MODEL:
+                return new BuildModelEvent();
+            case RUN_MODEL:
+                return new RunModelEvent();
+            case ASSIGN_INPUT:
+                return new AssignInputEvent();
+            default:
+                throw new IllegalArgumentException("unknown operation: " + operation);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package jp.preferred.menoh.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An event of {@link jp.preferred.menoh.ModelData#fromOnnxFile(String)}.
+ */
+@Name("jp.preferred.menoh.LoadModelData")
+@Label("Load Model Data")
+@Description("Loading an ONNX model")
+final class LoadModelDataEvent extends MenohEvent {
+}
@@ -0,0 +1,50 @@
+package jp.preferred.menoh.jfr;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+import jp.preferred.menoh.MenohTracer;
+
+/**
+ * The base class of the events emitted by {@link JfrTracer}.
+ */
+@Category("Menoh")
+@SuppressFBWarnings(value = "URF_UNREAD_FIELD", justification = "The fields are read by JFR")
+abstract class MenohEvent extends Event implements MenohTracer.Span {
+    @Label("Model Path")
+    String modelPath;
+
+    @Label("Backend Name")
+    String backendName;
+
+    @Label("Backend Config")
+    String backendConfig;
+
+    @Label("Variables")
+    @Description("The names and the dims of the variables")
+    String variables;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Failed")
+    @Description("Whether the operation threw an exception")
+    boolean failed;
+
+    @Override
+    public void end(String modelPath, String backendName, String backendConfig, String variables, long bytes,
+            boolean failed) {
+        this.modelPath = modelPath;
+        this.backendName = backendName;
+        this.backendConfig = backendConfig;
+        this.variables = variables;
+        this.bytes = bytes;
+        this.failed = failed;
+        commit();
+    }
+}
@@ -0,0 +1,14 @@
+package jp.preferred.menoh.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An event of {@link jp.preferred.menoh.ModelData#optimize(jp.preferred.menoh.VariableProfileTable)}.
+ */
+@Name("jp.preferred.menoh.OptimizeModelData")
+@Label("Optimize Model Data")
+@Description("Optimizing a model data")
+final class OptimizeModelDataEvent extends MenohEvent {
+}
@@ -0,0 +1,16 @@
+package jp.preferred.menoh.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An event of {@link jp.preferred.menoh.Model#run()}.
+ */
+@Name("jp.preferred.menoh.RunModel")
+@Label("Run Model")
+@Description("Running a model")
+@StackTrace(false)
+final class RunModelEvent extends MenohEvent {
+}
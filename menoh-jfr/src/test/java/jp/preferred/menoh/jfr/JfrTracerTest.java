@@ -0,0 +1,127 @@
+package jp.preferred.menoh.jfr;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.jfr.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.ServiceLoader;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import jp.preferred.menoh.DType;
+import jp.preferred.menoh.MenohTracer;
+import jp.preferred.menoh.ModelRunner;
+import jp.preferred.menoh.ModelRunnerBuilder;
+import org.junit.jupiter.api.Test;
+
+public class JfrTracerTest {
+    @Test
+    public void loadJfrTracer() {
+        final MenohTracer tracer = ServiceLoader.load(MenohTracer.class).iterator().next();
+        assertTrue(tracer instanceof JfrTracer);
+    }
+
+    @Test
+    public void beginWithoutRecording() {
+        final JfrTracer tracer = new JfrTracer();
+        for (MenohTracer.Operation op : MenohTracer.Operation.values()) {
+            assertNull(tracer.begin(op), op.toString());
+        }
+    }
+
+    @Test
+    public void recordEvent() throws Exception {
+        final JfrTracer tracer = new JfrTracer();
+        final Path file = Files.createTempFile("menoh-jfr-test", ".jfr");
+
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("jp.preferred.menoh.AssignInput");
+                recording.disable("jp.preferred.menoh.RunModel");
+                recording.start();
+
+                assertNull(tracer.begin(MenohTracer.Operation.RUN_MODEL));
+                final MenohTracer.Span span = tracer.begin(MenohTracer.Operation.ASSIGN_INPUT);
+                assertNotNull(span);
+                span.end("and_op.onnx", "mkldnn", "", "input[4, 2]", 32L, true);
+
+                recording.stop();
+                recording.dump(file);
+            }
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size());
+
+            final RecordedEvent e = events.get(0);
+            assertAll("event",
+                    () -> assertEquals("jp.preferred.menoh.AssignInput", e.getEventType().getName()),
+                    () -> assertEquals("and_op.onnx", e.getString("modelPath")),
+                    () -> assertEquals("mkldnn", e.getString("backendName")),
+                    () -> assertEquals("", e.getString("backendConfig")),
+                    () -> assertEquals("input[4, 2]", e.getString("variables")),
+                    () -> assertEquals(32L, e.getLong("bytes")),
+                    () -> assertTrue(e.getBoolean("failed"))
+            );
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void recordRunsAndFailures() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final Path file = Files.createTempFile("menoh-jfr-test", ".jfr");
+
+        try {
+            try (
+                    ModelRunnerBuilder builder = ModelRunner
+                            .fromOnnxFile(path)
+                            .addInputProfile("input", DType.FLOAT, new int[] {4, 2})
+                            .addOutputProfile("output", DType.FLOAT);
+                    ModelRunner runner = builder.build();
+                    Recording recording = new Recording()
+            ) {
+                recording.enable("jp.preferred.menoh.AssignInput");
+                recording.enable("jp.preferred.menoh.RunModel");
+                recording.start();
+
+                runner.run("input", new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f});
+                assertThrows(RuntimeException.class, () -> runner.assign("unknown", new float[] {1f}));
+
+                recording.stop();
+                recording.dump(file);
+            }
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(3, events.size());
+
+            final RecordedEvent assign = find(events, "jp.preferred.menoh.AssignInput", false);
+            final RecordedEvent run = find(events, "jp.preferred.menoh.RunModel", false);
+            final RecordedEvent failure = find(events, "jp.preferred.menoh.AssignInput", true);
+            assertAll("events",
+                    () -> assertEquals("input[4, 2]", assign.getString("variables")),
+                    () -> assertEquals(32L, assign.getLong("bytes")),
+                    () -> assertEquals("input[4, 2]", run.getString("variables")),
+                    () -> assertEquals(32L, run.getLong("bytes")),
+                    () -> assertEquals("unknown", failure.getString("variables"))
+            );
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name, boolean failed) {
+        for (RecordedEvent e : events) {
+            if (e.getEventType().getName().equals(name) && e.getBoolean("failed") == failed) {
+                return e;
+            }
+        }
+
+        throw new AssertionError("the event is not found: " + name);
+    }
+}
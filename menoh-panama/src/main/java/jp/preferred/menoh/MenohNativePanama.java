@@ -0,0 +1,511 @@
+package jp.preferred.menoh;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+import java.io.File;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * <p>A {@link MenohNative} backed by the downcall handles of the Foreign Function &amp; Memory API
+ * (JDK 22 or later). The handles and the pointers are converted from and to JNA types at the boundary,
+ * so the rest of the binding is unchanged. The temporary memory for the strings and the output parameters
+ * is allocated in a confined arena and released as soon as the call returns.</p>
+ *
+ * <p>The library is looked up in <code>jna.library.path</code> first and then in the default search path
+ * of the platform.</p>
+ */
+final class MenohNativePanama implements MenohNative {
+    private static final Linker LINKER = Linker.nativeLinker();
+
+    private static final SymbolLookup LIBRARY = lookupLibrary("menoh");
+
+    /**
+     * An option for the functions which return immediately without blocking or calling back into Java.
+     */
+    private static final Linker.Option CRITICAL = Linker.Option.critical(false);
+
+    private static final MethodHandle MENOH_GET_LAST_ERROR_MESSAGE = downcall(
+            "menoh_get_last_error_message", FunctionDescriptor.of(ADDRESS));
+
+    private static final MethodHandle MENOH_MAKE_MODEL_DATA_FROM_ONNX = downcall(
+            "menoh_make_model_data_from_onnx", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+
+    private static final MethodHandle MENOH_MAKE_MODEL_DATA_FROM_ONNX_DATA_ON_MEMORY = downcall(
+            "menoh_make_model_data_from_onnx_data_on_memory",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, ADDRESS));
+
+    private static final MethodHandle MENOH_DELETE_MODEL_DATA = downcall(
+            "menoh_delete_model_data", FunctionDescriptor.ofVoid(ADDRESS));
+
+    private static final MethodHandle MENOH_MODEL_DATA_OPTIMIZE = downcall(
+            "menoh_model_data_optimize", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+
+    private static final MethodHandle MENOH_MAKE_VARIABLE_PROFILE_TABLE_BUILDER = downcall(
+            "menoh_make_variable_profile_table_builder", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+
+    private static final MethodHandle MENOH_DELETE_VARIABLE_PROFILE_TABLE_BUILDER = downcall(
+            "menoh_delete_variable_profile_table_builder", FunctionDescriptor.ofVoid(ADDRESS));
+
+    private static final MethodHandle MENOH_VARIABLE_PROFILE_TABLE_BUILDER_ADD_INPUT_PROFILE_DIMS_2 = downcall(
+            "menoh_variable_profile_table_builder_add_input_profile_dims_2",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT));
+
+    private static final MethodHandle MENOH_VARIABLE_PROFILE_TABLE_BUILDER_ADD_INPUT_PROFILE_DIMS_4 = downcall(
+            "menoh_variable_profile_table_builder_add_input_profile_dims_4",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT));
+
+    private static final MethodHandle MENOH_VARIABLE_PROFILE_TABLE_BUILDER_ADD_OUTPUT_PROFILE = downcall(
+            "menoh_variable_profile_table_builder_add_output_profile",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT));
+
+    private static final MethodHandle MENOH_BUILD_VARIABLE_PROFILE_TABLE = downcall(
+            "menoh_build_variable_profile_table", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+
+    private static final MethodHandle MENOH_DELETE_VARIABLE_PROFILE_TABLE = downcall(
+            "menoh_delete_variable_profile_table", FunctionDescriptor.ofVoid(ADDRESS));
+
+    private static final MethodHandle MENOH_VARIABLE_PROFILE_TABLE_GET_DTYPE = downcall(
+            "menoh_variable_profile_table_get_dtype", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+
+    private static final MethodHandle MENOH_VARIABLE_PROFILE_TABLE_GET_DIMS_SIZE = downcall(
+            "menoh_variable_profile_table_get_dims_size", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+
+    private static final MethodHandle MENOH_VARIABLE_PROFILE_TABLE_GET_DIMS_AT = downcall(
+            "menoh_variable_profile_table_get_dims_at",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS));
+
+    private static final MethodHandle MENOH_MAKE_MODEL_BUILDER = downcall(
+            "menoh_make_model_builder", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+
+    private static final MethodHandle MENOH_DELETE_MODEL_BUILDER = downcall(
+            "menoh_delete_model_builder", FunctionDescriptor.ofVoid(ADDRESS));
+
+    private static final MethodHandle MENOH_MODEL_BUILDER_ATTACH_EXTERNAL_BUFFER = downcall(
+            "menoh_model_builder_attach_external_buffer", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+
+    private static final MethodHandle MENOH_BUILD_MODEL = downcall(
+            "menoh_build_model", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+
+    private static final MethodHandle MENOH_DELETE_MODEL = downcall(
+            "menoh_delete_model", FunctionDescriptor.ofVoid(ADDRESS));
+
+    private static final MethodHandle MENOH_MODEL_GET_VARIABLE_DTYPE = downcall(
+            "menoh_model_get_variable_dtype", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS), CRITICAL);
+
+    private static final MethodHandle MENOH_MODEL_RUN = downcall(
+            "menoh_model_run", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+
+    private static final MethodHandle MENOH_MODEL_GET_VARIABLE_DIMS_SIZE = downcall(
+            "menoh_model_get_variable_dims_size", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS), CRITICAL);
+
+    private static final MethodHandle MENOH_MODEL_GET_VARIABLE_DIMS_AT = downcall(
+            "menoh_model_get_variable_dims_at",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS), CRITICAL);
+
+    private static final MethodHandle MENOH_MODEL_GET_VARIABLE_BUFFER_HANDLE = downcall(
+            "menoh_model_get_variable_buffer_handle",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS), CRITICAL);
+
+    @Override
+    public String menoh_get_last_error_message() {
+        try {
+            return string((MemorySegment) MENOH_GET_LAST_ERROR_MESSAGE.invokeExact());
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_make_model_data_from_onnx(String onnxFilename, PointerByReference dstHandle) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstHandleSeg = arena.allocate(ADDRESS);
+            final int ret = (int) MENOH_MAKE_MODEL_DATA_FROM_ONNX.invokeExact(arena.allocateFrom(onnxFilename),
+                    dstHandleSeg);
+            dstHandle.setValue(pointer(dstHandleSeg.get(ADDRESS, 0)));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_make_model_data_from_onnx_data_on_memory(Pointer onnxData, int size,
+            PointerByReference dstHandle) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstHandleSeg = arena.allocate(ADDRESS);
+            final int ret = (int) MENOH_MAKE_MODEL_DATA_FROM_ONNX_DATA_ON_MEMORY.invokeExact(address(onnxData), size,
+                    dstHandleSeg);
+            dstHandle.setValue(pointer(dstHandleSeg.get(ADDRESS, 0)));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public void menoh_delete_model_data(Pointer modelData) {
+        try {
+            MENOH_DELETE_MODEL_DATA.invokeExact(address(modelData));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_data_optimize(Pointer modelData, Pointer variableProfileTable) {
+        try {
+            return (int) MENOH_MODEL_DATA_OPTIMIZE.invokeExact(address(modelData), address(variableProfileTable));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_make_variable_profile_table_builder(PointerByReference dstHandle) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstHandleSeg = arena.allocate(ADDRESS);
+            final int ret = (int) MENOH_MAKE_VARIABLE_PROFILE_TABLE_BUILDER.invokeExact(dstHandleSeg);
+            dstHandle.setValue(pointer(dstHandleSeg.get(ADDRESS, 0)));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public void menoh_delete_variable_profile_table_builder(Pointer builder) {
+        try {
+            MENOH_DELETE_VARIABLE_PROFILE_TABLE_BUILDER.invokeExact(address(builder));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_input_profile_dims_2(Pointer builder, String name, int dtype,
+            int num, int size) {
+        try (Arena arena = Arena.ofConfined()) {
+            return (int) MENOH_VARIABLE_PROFILE_TABLE_BUILDER_ADD_INPUT_PROFILE_DIMS_2.invokeExact(address(builder),
+                    arena.allocateFrom(name), dtype, num, size);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_input_profile_dims_4(Pointer builder, String name, int dtype,
+            int num, int channel, int height, int width) {
+        try (Arena arena = Arena.ofConfined()) {
+            return (int) MENOH_VARIABLE_PROFILE_TABLE_BUILDER_ADD_INPUT_PROFILE_DIMS_4.invokeExact(address(builder),
+                    arena.allocateFrom(name), dtype, num, channel, height, width);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_output_profile(Pointer builder, String name, int dtype) {
+        try (Arena arena = Arena.ofConfined()) {
+            return (int) MENOH_VARIABLE_PROFILE_TABLE_BUILDER_ADD_OUTPUT_PROFILE.invokeExact(address(builder),
+                    arena.allocateFrom(name), dtype);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_build_variable_profile_table(Pointer builder, Pointer modelData, PointerByReference dstHandle) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstHandleSeg = arena.allocate(ADDRESS);
+            final int ret = (int) MENOH_BUILD_VARIABLE_PROFILE_TABLE.invokeExact(address(builder), address(modelData),
+                    dstHandleSeg);
+            dstHandle.setValue(pointer(dstHandleSeg.get(ADDRESS, 0)));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public void menoh_delete_variable_profile_table(Pointer variableProfileTable) {
+        try {
+            MENOH_DELETE_VARIABLE_PROFILE_TABLE.invokeExact(address(variableProfileTable));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dtype(Pointer variableProfileTable, String variableName,
+            IntByReference dstDtype) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstDtypeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_VARIABLE_PROFILE_TABLE_GET_DTYPE.invokeExact(address(variableProfileTable),
+                    arena.allocateFrom(variableName), dstDtypeSeg);
+            dstDtype.setValue(dstDtypeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dims_size(Pointer variableProfileTable, String variableName,
+            IntByReference dstSize) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstSizeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_VARIABLE_PROFILE_TABLE_GET_DIMS_SIZE.invokeExact(address(variableProfileTable),
+                    arena.allocateFrom(variableName), dstSizeSeg);
+            dstSize.setValue(dstSizeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dims_at(Pointer variableProfileTable, String variableName, int index,
+            IntByReference dstSize) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstSizeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_VARIABLE_PROFILE_TABLE_GET_DIMS_AT.invokeExact(address(variableProfileTable),
+                    arena.allocateFrom(variableName), index, dstSizeSeg);
+            dstSize.setValue(dstSizeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_make_model_builder(Pointer variableProfileTable, PointerByReference dstHandle) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstHandleSeg = arena.allocate(ADDRESS);
+            final int ret = (int) MENOH_MAKE_MODEL_BUILDER.invokeExact(address(variableProfileTable), dstHandleSeg);
+            dstHandle.setValue(pointer(dstHandleSeg.get(ADDRESS, 0)));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public void menoh_delete_model_builder(Pointer modelBuilder) {
+        try {
+            MENOH_DELETE_MODEL_BUILDER.invokeExact(address(modelBuilder));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_builder_attach_external_buffer(Pointer builder, String variableName, Pointer bufferHandle) {
+        try (Arena arena = Arena.ofConfined()) {
+            return (int) MENOH_MODEL_BUILDER_ATTACH_EXTERNAL_BUFFER.invokeExact(address(builder),
+                    arena.allocateFrom(variableName), address(bufferHandle));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_build_model(Pointer builder, Pointer modelData, String backendName, String backendConfig,
+            PointerByReference dstModelHandle) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstModelHandleSeg = arena.allocate(ADDRESS);
+            final int ret = (int) MENOH_BUILD_MODEL.invokeExact(address(builder), address(modelData),
+                    arena.allocateFrom(backendName), arena.allocateFrom(backendConfig), dstModelHandleSeg);
+            dstModelHandle.setValue(pointer(dstModelHandleSeg.get(ADDRESS, 0)));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public void menoh_delete_model(Pointer model) {
+        try {
+            MENOH_DELETE_MODEL.invokeExact(address(model));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_get_variable_dtype(Pointer model, String variableName, IntByReference dstDtype) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstDtypeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_MODEL_GET_VARIABLE_DTYPE.invokeExact(address(model),
+                    arena.allocateFrom(variableName), dstDtypeSeg);
+            dstDtype.setValue(dstDtypeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_get_variable_dtype(Pointer model, Pointer variableName, IntByReference dstDtype) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstDtypeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_MODEL_GET_VARIABLE_DTYPE.invokeExact(address(model), address(variableName),
+                    dstDtypeSeg);
+            dstDtype.setValue(dstDtypeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_run(Pointer model) {
+        try {
+            return (int) MENOH_MODEL_RUN.invokeExact(address(model));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_size(Pointer model, String variableName, IntByReference dstSize) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstSizeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_MODEL_GET_VARIABLE_DIMS_SIZE.invokeExact(address(model),
+                    arena.allocateFrom(variableName), dstSizeSeg);
+            dstSize.setValue(dstSizeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_size(Pointer model, Pointer variableName, IntByReference dstSize) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstSizeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_MODEL_GET_VARIABLE_DIMS_SIZE.invokeExact(address(model), address(variableName),
+                    dstSizeSeg);
+            dstSize.setValue(dstSizeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_at(Pointer model, String variableName, int index, IntByReference dstSize) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstSizeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_MODEL_GET_VARIABLE_DIMS_AT.invokeExact(address(model),
+                    arena.allocateFrom(variableName), index, dstSizeSeg);
+            dstSize.setValue(dstSizeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_at(Pointer model, Pointer variableName, int index,
+            IntByReference dstSize) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstSizeSeg = arena.allocate(JAVA_INT);
+            final int ret = (int) MENOH_MODEL_GET_VARIABLE_DIMS_AT.invokeExact(address(model), address(variableName),
+                    index, dstSizeSeg);
+            dstSize.setValue(dstSizeSeg.get(JAVA_INT, 0));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_get_variable_buffer_handle(Pointer model, String variableName, PointerByReference dstData) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstDataSeg = arena.allocate(ADDRESS);
+            final int ret = (int) MENOH_MODEL_GET_VARIABLE_BUFFER_HANDLE.invokeExact(address(model),
+                    arena.allocateFrom(variableName), dstDataSeg);
+            dstData.setValue(pointer(dstDataSeg.get(ADDRESS, 0)));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public int menoh_model_get_variable_buffer_handle(Pointer model, Pointer variableName, PointerByReference dstData) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment dstDataSeg = arena.allocate(ADDRESS);
+            final int ret = (int) MENOH_MODEL_GET_VARIABLE_BUFFER_HANDLE.invokeExact(address(model),
+                    address(variableName), dstDataSeg);
+            dstData.setValue(pointer(dstDataSeg.get(ADDRESS, 0)));
+            return ret;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    private static SymbolLookup lookupLibrary(String name) {
+        final String libraryName = System.mapLibraryName(name);
+        try {
+            final String paths = System.getProperty("jna.library.path");
+            if (paths != null) {
+                for (String dir : paths.split(File.pathSeparator)) {
+                    final Path path = Paths.get(dir, libraryName);
+                    if (Files.exists(path)) {
+                        return SymbolLookup.libraryLookup(path, Arena.global());
+                    }
+                }
+            }
+
+            return SymbolLookup.libraryLookup(libraryName, Arena.global());
+        } catch (IllegalArgumentException e) {
+            final UnsatisfiedLinkError error = new UnsatisfiedLinkError("Unable to load library '" + name + "'");
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    private static MethodHandle downcall(String name, FunctionDescriptor function, Linker.Option... options) {
+        final MemorySegment symbol = LIBRARY.find(name)
+                .orElseThrow(() -> new UnsatisfiedLinkError("Unable to find the native function: " + name));
+
+        return LINKER.downcallHandle(symbol, function, options);
+    }
+
+    private static MemorySegment address(Pointer pointer) {
+        return MemorySegment.ofAddress(Pointer.nativeValue(pointer));
+    }
+
+    private static Pointer pointer(MemorySegment segment) {
+        final long address = segment.address();
+        return address != 0 ? new Pointer(address) : null;
+    }
+
+    private static String string(MemorySegment segment) {
+        return segment.equals(MemorySegment.NULL) ? null : segment.reinterpret(Long.MAX_VALUE).getString(0);
+    }
+
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+
+        return new IllegalStateException(t);
+    }
+}
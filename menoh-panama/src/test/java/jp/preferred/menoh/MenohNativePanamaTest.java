@@ -0,0 +1,71 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class MenohNativePanamaTest {
+    @Test
+    public void panamaIsOptIn() {
+        assertAll("binding",
+                () -> assertFalse(MenohNativeLoader.load(MenohNativeLoader.AUTO) instanceof MenohNativePanama),
+                () -> assertTrue(MenohNativeLoader.load(MenohNativeLoader.PANAMA) instanceof MenohNativePanama)
+        );
+    }
+
+    @Test
+    public void panamaBindingIsCompatible() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final MenohNative panama = MenohNativeLoader.load(MenohNativeLoader.PANAMA);
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {4, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                ModelRunner runner = builder.build()
+        ) {
+            final Pointer handle = runner.model().nativeHandle();
+            final Pointer name = BufferUtils.copyToNativeString("output");
+            final IntByReference dtype = new IntByReference();
+            final IntByReference size = new IntByReference();
+            final PointerByReference buffer = new PointerByReference();
+
+            assertEquals(ErrorCode.SUCCESS.getId(), panama.menoh_model_get_variable_dtype(handle, "output", dtype));
+            assertEquals(DType.FLOAT.getId(), dtype.getValue());
+
+            assertEquals(ErrorCode.SUCCESS.getId(), panama.menoh_model_get_variable_dims_size(handle, name, size));
+            assertEquals(2, size.getValue());
+
+            assertEquals(ErrorCode.SUCCESS.getId(), panama.menoh_model_get_variable_buffer_handle(handle, name, buffer));
+            assertEquals(runner.variable("output").buffer(), buffer.getValue().getByteBuffer(0, 4 * 4));
+
+            runner.run("input", new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f});
+            assertEquals(ErrorCode.SUCCESS.getId(), panama.menoh_model_run(handle));
+            final FloatBuffer output = runner.variable("output").buffer().order(ByteOrder.nativeOrder()).asFloatBuffer();
+            assertEquals(1f, output.get(3));
+        }
+    }
+
+    @Test
+    public void panamaBindingReportsErrors() {
+        final MenohNative panama = MenohNativeLoader.load(MenohNativeLoader.PANAMA);
+        final PointerByReference handle = new PointerByReference();
+
+        final int err = panama.menoh_make_model_data_from_onnx("__NON_EXISTENT_FILENAME__", handle);
+        assertAll("non-existent onnx file",
+                () -> assertEquals(ErrorCode.INVALID_FILENAME.getId(), err),
+                () -> assertNotNull(panama.menoh_get_last_error_message())
+        );
+    }
+}
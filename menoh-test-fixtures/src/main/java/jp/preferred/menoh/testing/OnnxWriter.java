@@ -0,0 +1,210 @@
+package jp.preferred.menoh.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A minimal writer of ONNX models in the protocol buffers wire format for the tests and the benchmarks.
+ */
+public final class OnnxWriter {
+    /**
+     * <code>TensorProto.DataType.FLOAT</code>.
+     */
+    public static final int DATA_TYPE_FLOAT = 1;
+
+    /**
+     * <code>TensorProto.DataType.INT64</code>.
+     */
+    public static final int DATA_TYPE_INT64 = 7;
+
+    private OnnxWriter() {
+    }
+
+    /**
+     * Lists the names of the inputs of a node.
+     */
+    public static List<String> inputs(String... names) {
+        return Arrays.asList(names);
+    }
+
+    /**
+     * Writes a ModelProto of the graph with the default operator set of the version.
+     */
+    public static byte[] model(long opsetVersion, byte[] graph) {
+        final Proto opset = new Proto().string(1, "").varint(2, opsetVersion);
+        return new Proto().varint(1, 3).message(8, opset.toByteArray()).message(7, graph).toByteArray();
+    }
+
+    /**
+     * Writes a GraphProto whose inputs and outputs have only the names.
+     */
+    public static byte[] graph(
+            List<byte[]> nodes, List<byte[]> initializers, List<String> inputs, List<String> outputs) {
+        final List<byte[]> inputInfos = new ArrayList<>();
+        for (String name : inputs) {
+            inputInfos.add(valueInfo(name));
+        }
+        final List<byte[]> outputInfos = new ArrayList<>();
+        for (String name : outputs) {
+            outputInfos.add(valueInfo(name));
+        }
+        return graphWithValueInfos(nodes, initializers, inputInfos, outputInfos);
+    }
+
+    /**
+     * Writes a GraphProto whose inputs and outputs are ValueInfoProtos.
+     */
+    public static byte[] graphWithValueInfos(
+            List<byte[]> nodes, List<byte[]> initializers, List<byte[]> inputs, List<byte[]> outputs) {
+        final Proto p = new Proto();
+        for (byte[] node : nodes) {
+            p.message(1, node);
+        }
+        p.string(2, "test");
+        for (byte[] t : initializers) {
+            p.message(5, t);
+        }
+        for (byte[] v : inputs) {
+            p.message(11, v);
+        }
+        for (byte[] v : outputs) {
+            p.message(12, v);
+        }
+        return p.toByteArray();
+    }
+
+    /**
+     * Writes a ValueInfoProto which has only the name.
+     */
+    public static byte[] valueInfo(String name) {
+        return new Proto().string(1, name).toByteArray();
+    }
+
+    /**
+     * Writes a ValueInfoProto of a tensor, where a dimension is either a number or a symbol.
+     */
+    public static byte[] valueInfo(String name, int elemType, String... dims) {
+        final Proto shape = new Proto();
+        for (String d : dims) {
+            final Proto dim = d.matches("[0-9]+") ? new Proto().varint(1, Long.parseLong(d)) : new Proto().string(2, d);
+            shape.message(1, dim.toByteArray());
+        }
+        final Proto tensorType = new Proto().varint(1, elemType).message(2, shape.toByteArray());
+        final Proto type = new Proto().message(1, tensorType.toByteArray());
+        return new Proto().string(1, name).message(2, type.toByteArray()).toByteArray();
+    }
+
+    /**
+     * Writes a NodeProto which has a single output.
+     */
+    public static byte[] node(String opType, List<String> inputs, String output, byte[]... attributes) {
+        final Proto p = new Proto();
+        for (String name : inputs) {
+            p.string(1, name);
+        }
+        p.string(2, output).string(4, opType);
+        for (byte[] a : attributes) {
+            p.message(5, a);
+        }
+        return p.toByteArray();
+    }
+
+    /**
+     * Writes an AttributeProto of a float.
+     */
+    public static byte[] floatAttr(String name, float value) {
+        return new Proto().string(1, name).fixed32(2, Float.floatToIntBits(value)).varint(20, 1).toByteArray();
+    }
+
+    /**
+     * Writes an AttributeProto of an integer.
+     */
+    public static byte[] intAttr(String name, long value) {
+        return new Proto().string(1, name).varint(3, value).varint(20, 2).toByteArray();
+    }
+
+    /**
+     * Writes an AttributeProto of integers.
+     */
+    public static byte[] intsAttr(String name, long... values) {
+        final Proto p = new Proto().string(1, name);
+        for (long v : values) {
+            p.varint(8, v);
+        }
+        return p.varint(20, 7).toByteArray();
+    }
+
+    /**
+     * Writes a TensorProto of floats in <code>raw_data</code>.
+     */
+    public static byte[] floatTensor(String name, long[] dims, float... values) {
+        final ByteBuffer raw = ByteBuffer.allocate(4 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+        raw.asFloatBuffer().put(values);
+        final Proto p = new Proto();
+        for (long d : dims) {
+            p.varint(1, d);
+        }
+        return p.varint(2, DATA_TYPE_FLOAT).string(8, name).message(9, raw.array()).toByteArray();
+    }
+
+    /**
+     * Writes a TensorProto of integers in <code>int64_data</code>.
+     */
+    public static byte[] int64Tensor(String name, long[] dims, long... values) {
+        final Proto packed = new Proto();
+        for (long v : values) {
+            packed.rawVarint(v);
+        }
+        final Proto p = new Proto();
+        for (long d : dims) {
+            p.varint(1, d);
+        }
+        return p.varint(2, DATA_TYPE_INT64).message(7, packed.toByteArray()).string(8, name)
+                .toByteArray();
+    }
+
+    private static final class Proto {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Proto rawVarint(long value) {
+            long v = value;
+            while ((v & ~0x7fL) != 0) {
+                out.write((int) ((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+            return this;
+        }
+
+        Proto varint(int field, long value) {
+            return rawVarint(field << 3).rawVarint(value);
+        }
+
+        Proto fixed32(int field, int value) {
+            rawVarint((field << 3) | 5);
+            for (int i = 0; i < 4; i++) {
+                out.write(value >>> (8 * i));
+            }
+            return this;
+        }
+
+        Proto message(int field, byte[] bytes) {
+            rawVarint((field << 3) | 2).rawVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Proto string(int field, String value) {
+            return message(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package jp.preferred.menoh;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>An executor which coalesces single-sample requests into batched runs of {@link ModelRunner}.</p>
+ *
+ * <p>The first dimension of the input and output variables is regarded as the batch. The executor collects
+ * the samples submitted concurrently until <code>maxBatchSize</code> samples arrive or <code>maxWaitTime</code>
+ * elapses since the first one, packs them into the rows of the input variable, pads the remaining rows with
+ * zeros, and runs the model once. Then it splits the rows of the output variable back to the callers.</p>
+ *
+ * <p>The runner is used only by the dispatcher thread owned by this executor, so it must not be used by
+ * others until this executor is closed. The executor doesn't close the runner.</p>
+ */
+public class BatchingExecutor implements AutoCloseable {
+    private static final AtomicInteger executorNumber = new AtomicInteger();
+
+    private final ModelRunner runner;
+
+    private final InputBinding input;
+
+    private final OutputBinding output;
+
+    private final int maxBatchSize;
+
+    private final long maxWaitNanos;
+
+    private final int inputRowLength;
+
+    private final int outputRowLength;
+
+    private final int batchDim;
+
+    private final float[] zeros;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * A request enqueued by {@link #close()} to wake up the dispatcher, after which it stops.
+     */
+    private final Request shutdown = new Request(null);
+
+    private final Thread dispatcher;
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates an executor which packs up to the batch size of the input variable into a run.
+     *
+     * @param runner the runner whose input and output have the batch dimension first
+     * @param inputName the name of the input variable
+     * @param outputName the name of the output variable
+     * @param maxWaitTime the maximum time to wait for the following samples after the first one arrives
+     */
+    public BatchingExecutor(
+            ModelRunner runner, String inputName, String outputName, long maxWaitTime, TimeUnit unit) {
+        this(runner, inputName, outputName, runner.variable(inputName).dims()[0], maxWaitTime, unit);
+    }
+
+    /**
+     * Creates an executor.
+     *
+     * @param runner the runner whose input and output have the batch dimension first
+     * @param inputName the name of the input variable
+     * @param outputName the name of the output variable
+     * @param maxBatchSize the maximum number of samples in a run, which must not exceed the batch dimension
+     * @param maxWaitTime the maximum time to wait for the following samples after the first one arrives
+     * @throws IllegalArgumentException if the variables can't be batched
+     */
+    public BatchingExecutor(
+            ModelRunner runner,
+            String inputName,
+            String outputName,
+            int maxBatchSize,
+            long maxWaitTime,
+            TimeUnit unit) {
+        this.runner = runner;
+        this.input = runner.inputBinding(inputName);
+        this.output = runner.outputBinding(outputName);
+
+        final int[] inputDims = input.variable().dims();
+        final int[] outputDims = output.variable().dims();
+        this.batchDim = inputDims[0];
+        if (outputDims.length == 0 || outputDims[0] != batchDim) {
+            throw new IllegalArgumentException(String.format(
+                    "the batch dimension of `%s` must be %d", outputName, batchDim));
+        }
+        if (maxBatchSize <= 0 || batchDim < maxBatchSize) {
+            throw new IllegalArgumentException(String.format(
+                    "maxBatchSize must be in [1, %d]: %d", batchDim, maxBatchSize));
+        }
+        if (maxWaitTime < 0) {
+            throw new IllegalArgumentException("maxWaitTime must not be negative: " + maxWaitTime);
+        }
+
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWaitTime);
+        this.inputRowLength = input.buffer().capacity() / batchDim;
+        this.outputRowLength = output.buffer().capacity() / batchDim;
+        this.zeros = new float[inputRowLength];
+
+        this.dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "menoh-batching-executor-" + executorNumber.incrementAndGet());
+        this.dispatcher.setDaemon(true);
+    }
+
+    /**
+     * The maximum number of samples in a run.
+     */
+    public int maxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * The number of elements in a sample of the input variable.
+     */
+    public int inputRowLength() {
+        return this.inputRowLength;
+    }
+
+    /**
+     * The number of elements in a sample of the output variable.
+     */
+    public int outputRowLength() {
+        return this.outputRowLength;
+    }
+
+    /**
+     * The number of runs executed so far.
+     */
+    public long batchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * The number of samples processed so far.
+     */
+    public long sampleCount() {
+        return sampleCount.get();
+    }
+
+    /**
+     * <p>Submits a single sample. The returned future completes with the corresponding row of the output
+     * variable.</p>
+     *
+     * @param sample the values of the sample with the length of {@link #inputRowLength()}
+     * @throws IllegalArgumentException if the length of <code>sample</code> mismatches
+     * @throws IllegalStateException if this executor is closed
+     */
+    public Future<float[]> submit(float[] sample) {
+        if (sample == null || sample.length != inputRowLength) {
+            throw new IllegalArgumentException(String.format(
+                    "the length of the sample must be %d", inputRowLength));
+        }
+        if (closed) {
+            throw new IllegalStateException("the executor has already been closed");
+        }
+
+        // start the dispatcher on the first request
+        if (!started.get() && started.compareAndSet(false, true)) {
+            dispatcher.start();
+        }
+
+        final Request request = new Request(sample);
+        queue.add(request);
+
+        // close() may have drained the queue between the check and add()
+        if (closed && queue.remove(request) && request.start()) {
+            request.fail(new IllegalStateException("the executor has already been closed"));
+        }
+
+        return request;
+    }
+
+    /**
+     * <p>Stops accepting new samples and waits until the samples submitted so far are processed.</p>
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (!started.compareAndSet(false, true)) {
+            queue.add(shutdown);
+        }
+
+        boolean interrupted = false;
+        while (dispatcher.isAlive()) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        // fail the requests which raced with close()
+        Request r;
+        while ((r = queue.poll()) != null) {
+            if (r.start()) {
+                r.fail(new IllegalStateException("the executor has already been closed"));
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch() {
+        final List<Request> batch = new ArrayList<>(maxBatchSize);
+
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                // only close() stops the dispatcher
+            }
+
+            // the requests submitted before close() precede the shutdown request in the queue
+            stopping = batch.remove(shutdown);
+            if (!batch.isEmpty()) {
+                runBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void collect(List<Request> batch) throws InterruptedException {
+        final Request first = queue.take();
+        batch.add(first);
+
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatchSize && first != shutdown) {
+            // take the requests which have already arrived without waiting
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            if (batch.size() >= maxBatchSize || closed) {
+                break;
+            }
+
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+
+            final Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            if (next == shutdown) {
+                break;
+            }
+        }
+    }
+
+    private void runBatch(List<Request> batch) {
+        final FloatBuffer inputBuf = input.buffer();
+        int rows = 0;
+        for (Request r : batch) {
+            // skip the cancelled requests and move the others to the head of the list
+            if (r.start()) {
+                inputBuf.position(rows * inputRowLength);
+                inputBuf.put(r.sample);
+                batch.set(rows++, r);
+            }
+        }
+        if (rows == 0) {
+            return;
+        }
+
+        // pad the rest of the batch
+        inputBuf.position(rows * inputRowLength);
+        for (int i = rows; i < batchDim; i++) {
+            inputBuf.put(zeros);
+        }
+
+        final float[][] results = new float[rows][];
+        try {
+            runner.run();
+
+            final FloatBuffer outputBuf = output.buffer();
+            for (int i = 0; i < rows; i++) {
+                results[i] = new float[outputRowLength];
+                outputBuf.position(i * outputRowLength);
+                outputBuf.get(results[i]);
+            }
+        } catch (Throwable t) {
+            for (int i = 0; i < rows; i++) {
+                batch.get(i).fail(t);
+            }
+            return;
+        }
+
+        // update the stats before completing the requests to make them visible to the callers
+        batchCount.incrementAndGet();
+        sampleCount.addAndGet(rows);
+        for (int i = 0; i < rows; i++) {
+            batch.get(i).complete(results[i]);
+        }
+    }
+
+    private static final class Request implements Future<float[]> {
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int CANCELLED = 2;
+
+        private final float[] sample;
+
+        private final AtomicInteger state = new AtomicInteger(NEW);
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        // the latch guarantees the visibility of the fields
+        private float[] result;
+
+        private Throwable error;
+
+        Request(float[] sample) {
+            this.sample = sample;
+        }
+
+        boolean start() {
+            return state.compareAndSet(NEW, RUNNING);
+        }
+
+        void complete(float[] value) {
+            result = value;
+            done.countDown();
+        }
+
+        void fail(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (state.compareAndSet(NEW, CANCELLED)) {
+                done.countDown();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public float[] get() throws InterruptedException, ExecutionException {
+            done.await();
+            return report();
+        }
+
+        @Override
+        public float[] get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return report();
+        }
+
+        private float[] report() throws ExecutionException {
+            if (state.get() == CANCELLED) {
+                throw new CancellationException();
+            }
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return result;
+        }
+    }
+}
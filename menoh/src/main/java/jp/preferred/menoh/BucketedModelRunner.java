@@ -0,0 +1,323 @@
+package jp.preferred.menoh;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>A runner which keeps the models built for a set of batch sizes, called buckets, and runs a batch of any
+ * size on the smallest bucket which fits it. It will be built by
+ * {@link ModelRunnerBuilder#buildBucketed(int[], long)}.</p>
+ *
+ * <p>The profiles of a <code>ModelRunnerBuilder</code> are fixed, so a model built for the largest batch wastes
+ * the computation of the padded rows on a small batch. This runner builds a model for each bucket lazily by
+ * replacing the first axis of the inputs with the batch size of the bucket, or eagerly by {@link #prebuild()}.
+ * A batch larger than the largest bucket is split into the runs of the largest bucket.</p>
+ *
+ * <p>The built models are kept in the least-recently-used order. When the bytes of the variables of the kept
+ * models exceed <code>memoryBudget</code>, the least recently used models are closed until they fit in the
+ * budget. The model used last is always kept. The memory allocated by the backend internally is not counted
+ * since it is not exposed by Menoh.</p>
+ *
+ * <p>Like {@link ModelRunner}, it can't be used from multiple threads at once. Make sure to {@link #close()}
+ * this object after finishing the process to free the underlying memory in the native heap. It doesn't close
+ * the builder.</p>
+ */
+public class BucketedModelRunner implements AutoCloseable {
+    private final ModelRunnerBuilder builder;
+
+    /**
+     * The distinct batch sizes of the buckets in the ascending order.
+     */
+    private final int[] batchSizes;
+
+    private final long memoryBudget;
+
+    /**
+     * The built buckets keyed by the batch size in the least-recently-used order.
+     */
+    private final LinkedHashMap<Integer, Bucket> buckets = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long residentBytes = 0;
+
+    private long buildCount = 0;
+
+    private long evictionCount = 0;
+
+    private boolean closed = false;
+
+    BucketedModelRunner(ModelRunnerBuilder builder, int[] batchSizes, long memoryBudget) {
+        if (batchSizes == null || batchSizes.length == 0) {
+            throw new IllegalArgumentException("batchSizes must not be null or empty");
+        }
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget must not be negative: " + memoryBudget);
+        }
+
+        final int[] sorted = batchSizes.clone();
+        Arrays.sort(sorted);
+        if (sorted[0] <= 0) {
+            throw new IllegalArgumentException("batchSizes must be positive: " + Arrays.toString(batchSizes));
+        }
+
+        int n = 0;
+        for (int size : sorted) {
+            if (n == 0 || sorted[n - 1] != size) {
+                sorted[n++] = size;
+            }
+        }
+
+        this.builder = builder;
+        this.batchSizes = Arrays.copyOf(sorted, n);
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * The batch sizes of the buckets in the ascending order.
+     */
+    public int[] batchSizes() {
+        return this.batchSizes.clone();
+    }
+
+    /**
+     * The maximum bytes of the variables of the models kept at once.
+     */
+    public long memoryBudget() {
+        return this.memoryBudget;
+    }
+
+    /**
+     * The bytes of the variables of the models kept at the moment.
+     */
+    public long residentBytes() {
+        return this.residentBytes;
+    }
+
+    /**
+     * The batch sizes of the models kept at the moment in the ascending order.
+     */
+    public int[] residentBatchSizes() {
+        final int[] sizes = new int[buckets.size()];
+        int i = 0;
+        for (Integer size : buckets.keySet()) {
+            sizes[i++] = size;
+        }
+        Arrays.sort(sizes);
+
+        return sizes;
+    }
+
+    /**
+     * The number of the models built so far.
+     */
+    public long buildCount() {
+        return this.buildCount;
+    }
+
+    /**
+     * The number of the models closed to fit in the memory budget so far.
+     */
+    public long evictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * <p>Returns the batch size of the smallest bucket which fits the specified number of samples, or the
+     * largest bucket if none fits.</p>
+     *
+     * @throws IllegalArgumentException if <code>samples</code> is not positive
+     */
+    public int bucketFor(int samples) {
+        if (samples <= 0) {
+            throw new IllegalArgumentException("samples must be positive: " + samples);
+        }
+
+        for (int size : batchSizes) {
+            if (samples <= size) {
+                return size;
+            }
+        }
+
+        return batchSizes[batchSizes.length - 1];
+    }
+
+    /**
+     * <p>Returns the runner of the bucket for the specified number of samples, building it if necessary.</p>
+     *
+     * <p>The returned runner is owned by this object. It may be closed by the following calls to evict it, so
+     * don't keep it.</p>
+     *
+     * @throws IllegalStateException if this object is closed
+     * @see #bucketFor(int)
+     */
+    public ModelRunner runner(int samples) {
+        return bucket(bucketFor(samples)).runner;
+    }
+
+    /**
+     * <p>Builds the models of all the buckets in the ascending order of the batch size. The models which don't
+     * fit in the memory budget are evicted as usual.</p>
+     *
+     * @throws IllegalStateException if this object is closed
+     */
+    public void prebuild() {
+        for (int size : batchSizes) {
+            bucket(size);
+        }
+    }
+
+    /**
+     * <p>Runs the samples on the smallest bucket which fits them and returns the rows of the output variable.
+     * The rest of the input rows of the bucket is padded with zeros.</p>
+     *
+     * @param inputName the name of the input variable
+     * @param samples the rows of the input variable
+     * @param outputName the name of the output variable
+     * @return the rows of the output variable corresponding to <code>samples</code>
+     * @throws IllegalArgumentException if <code>samples</code> is empty or the length of a sample mismatches
+     * @throws IllegalStateException if this object is closed
+     */
+    public float[][] run(String inputName, float[][] samples, String outputName) {
+        if (samples == null || samples.length == 0) {
+            throw new IllegalArgumentException("samples must not be null or empty");
+        }
+
+        final float[][] results = new float[samples.length][];
+        int offset = 0;
+        while (offset < samples.length) {
+            final Bucket bucket = bucket(bucketFor(samples.length - offset));
+            final int rows = Math.min(samples.length - offset, bucket.batchSize);
+            bucket.run(inputName, samples, offset, rows, outputName, results);
+            offset += rows;
+        }
+
+        return results;
+    }
+
+    private Bucket bucket(int batchSize) {
+        if (closed) {
+            throw new IllegalStateException("the runner has already been closed");
+        }
+
+        Bucket bucket = buckets.get(batchSize);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        final ModelRunner runner = builder.buildWithBatchSize(batchSize);
+        try {
+            long bytes = 0;
+            for (String name : builder.variableNames()) {
+                bytes += runner.variable(name).bufferLength();
+            }
+            bucket = new Bucket(batchSize, runner, bytes);
+        } catch (Throwable t) {
+            runner.close();
+            throw t;
+        }
+
+        buildCount++;
+        buckets.put(batchSize, bucket);
+        residentBytes += bucket.bytes;
+        evict(bucket);
+
+        return bucket;
+    }
+
+    /**
+     * Closes the least recently used buckets except the specified one until they fit in the memory budget.
+     */
+    private void evict(Bucket keep) {
+        final Iterator<Bucket> it = buckets.values().iterator();
+        while (residentBytes > memoryBudget && it.hasNext()) {
+            final Bucket b = it.next();
+            if (b != keep) {
+                it.remove();
+                residentBytes -= b.bytes;
+                evictionCount++;
+                b.runner.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        for (Bucket b : buckets.values()) {
+            b.runner.close();
+        }
+        buckets.clear();
+        residentBytes = 0;
+    }
+
+    /**
+     * A model built for a batch size with its bindings.
+     */
+    private static final class Bucket {
+        private final int batchSize;
+
+        private final ModelRunner runner;
+
+        private final long bytes;
+
+        private final Map<String, InputBinding> inputs = new HashMap<>();
+
+        private final Map<String, OutputBinding> outputs = new HashMap<>();
+
+        private float[] zeros = new float[0];
+
+        Bucket(int batchSize, ModelRunner runner, long bytes) {
+            this.batchSize = batchSize;
+            this.runner = runner;
+            this.bytes = bytes;
+        }
+
+        void run(String inputName, float[][] samples, int offset, int rows, String outputName, float[][] results) {
+            InputBinding input = inputs.get(inputName);
+            if (input == null) {
+                input = runner.inputBinding(inputName);
+                inputs.put(inputName, input);
+            }
+            OutputBinding output = outputs.get(outputName);
+            if (output == null) {
+                output = runner.outputBinding(outputName);
+                outputs.put(outputName, output);
+            }
+
+            final FloatBuffer inputBuf = input.buffer();
+            final int inputRowLength = inputBuf.capacity() / batchSize;
+            for (int i = 0; i < rows; i++) {
+                final float[] sample = samples[offset + i];
+                if (sample == null || sample.length != inputRowLength) {
+                    throw new IllegalArgumentException(String.format(
+                            "the length of the sample %d must be %d", offset + i, inputRowLength));
+                }
+                inputBuf.put(sample);
+            }
+
+            // pad the rest of the batch
+            if (zeros.length != inputRowLength) {
+                zeros = new float[inputRowLength];
+            }
+            for (int i = rows; i < batchSize; i++) {
+                inputBuf.put(zeros);
+            }
+
+            runner.run();
+
+            final FloatBuffer outputBuf = output.buffer();
+            final int outputRowLength = outputBuf.capacity() / batchSize;
+            for (int i = 0; i < rows; i++) {
+                results[offset + i] = new float[outputRowLength];
+                outputBuf.get(results[offset + i]);
+            }
+        }
+    }
+}
@@ -36,25 +36,63 @@ class BufferUtils {
             // return a pointer to the direct buffer without copying
             return Native.getDirectBufferPointer(buffer).share(offset, length);
         } else {
-            final Memory mem = new Memory(length);
-
-            int index;
-            byte[] bytes;
-            if (buffer.hasArray()) { // it is array-backed and not read-only
-                index = buffer.arrayOffset() + buffer.position();
-                bytes = buffer.array();
-            } else {
-                index = 0;
-                // use duplicated buffer to avoid changing `position`
-                bytes = new byte[length];
-                buffer.duplicate().get(bytes);
-            }
-            mem.write(0, bytes, index, length);
+            final Memory mem = new ExternalBufferMemory(length);
+            write(mem, buffer);
 
             return mem.share(0, length);
         }
     }
 
+    /**
+     * <p>Copies the content of a non-direct buffer to a temporary memory in the native heap ranging from
+     * <code>position()</code> to <code>(limit() - 1)</code> without changing its position. Unlike
+     * {@link #copyToNativeMemory(ByteBuffer)}, it is not counted as an external buffer and must be freed by
+     * {@link TemporaryMemory#free()} right after use.</p>
+     *
+     * @throws IllegalArgumentException if <code>buffer</code> is null or empty
+     */
+    static TemporaryMemory copyToTemporaryMemory(final ByteBuffer buffer) {
+        if (buffer == null || buffer.remaining() <= 0) {
+            throw new IllegalArgumentException("buffer must not be null or empty");
+        }
+
+        final TemporaryMemory mem = new TemporaryMemory(buffer.remaining());
+        write(mem, buffer);
+
+        return mem;
+    }
+
+    private static void write(final Memory mem, final ByteBuffer buffer) {
+        final int length = buffer.remaining();
+
+        int index;
+        byte[] bytes;
+        if (buffer.hasArray()) { // it is array-backed and not read-only
+            index = buffer.arrayOffset() + buffer.position();
+            bytes = buffer.array();
+        } else {
+            index = 0;
+            // use duplicated buffer to avoid changing `position`
+            bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+        }
+        mem.write(0, bytes, index, length);
+    }
+
+    /**
+     * <p>Encodes the string to a NUL-terminated C string in the native heap by the encoding of JNA. Passing
+     * the pointer instead of the <code>String</code> avoids converting it on every native call.</p>
+     *
+     * @return the pointer to the allocated native memory
+     */
+    static Pointer copyToNativeString(final String str) {
+        final byte[] bytes = Native.toByteArray(str);
+        final Memory mem = new Memory(bytes.length);
+        mem.write(0, bytes, 0, bytes.length);
+
+        return mem;
+    }
+
     /**
      * <p>Copies the array to a newly allocated memory in the native heap.</p>
      *
@@ -70,9 +108,43 @@ class BufferUtils {
             throw new IllegalArgumentException("values must not be null or empty");
         }
 
-        final Memory mem = new Memory((long) length * 4);
+        final Memory mem = new ExternalBufferMemory((long) length * 4);
         mem.write(0, values, offset, length);
 
         return mem.share(0, length);
     }
+
+    /**
+     * A native memory counted by {@link NativeResources#externalBufferBytes()} until it is freed.
+     */
+    static final class ExternalBufferMemory extends Memory {
+        ExternalBufferMemory(long size) {
+            super(size);
+            NativeResources.allocateExternalBuffer(size);
+        }
+
+        @Override
+        protected synchronized void dispose() {
+            if (peer != 0) {
+                NativeResources.freeExternalBuffer(size);
+            }
+            super.dispose();
+        }
+    }
+
+    /**
+     * A native memory which is freed explicitly without waiting for GC.
+     */
+    static final class TemporaryMemory extends Memory {
+        TemporaryMemory(long size) {
+            super(size);
+        }
+
+        /**
+         * Frees the memory. It must not be accessed after this call.
+         */
+        void free() {
+            dispose();
+        }
+    }
 }
@@ -0,0 +1,250 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * <p>Allocates the native memory backed by huge pages on Linux to reduce the page faults and the TLB misses on
+ * the large buffers.</p>
+ *
+ * <p>It maps anonymous memory aligned to {@link #HUGE_PAGE_SIZE} and requests transparent huge pages by
+ * <code>madvise(MADV_HUGEPAGE)</code>. If transparent huge pages are disabled by
+ * <code>/sys/kernel/mm/transparent_hugepage/enabled</code> or not built in the kernel, it falls back to
+ * <code>mmap(MAP_HUGETLB)</code> from the pool of hugetlbfs, which must be reserved by
+ * <code>vm.nr_hugepages</code>. The mapping is pre-faulted by writing zeros to it.</p>
+ */
+final class HugePages {
+    /**
+     * The size of the huge pages on x86-64 and AArch64 with 4 KB base pages.
+     */
+    static final long HUGE_PAGE_SIZE = 2L << 20;
+
+    private static final int PROT_READ = 0x1;
+
+    private static final int PROT_WRITE = 0x2;
+
+    private static final int MAP_PRIVATE = 0x02;
+
+    private static final int MAP_ANONYMOUS = 0x20;
+
+    private static final int MAP_HUGETLB = 0x40000;
+
+    private static final int MADV_HUGEPAGE = 14;
+
+    private static final Pointer MAP_FAILED = new Pointer(-1L);
+
+
+    private HugePages() {
+    }
+
+    /**
+     * The kinds of the huge pages.
+     */
+    enum Kind {
+        TRANSPARENT,
+        HUGETLBFS
+    }
+
+    interface LibC extends Library {
+        Pointer mmap(Pointer addr, NativeLong length, int prot, int flags, int fd, NativeLong offset);
+
+        int munmap(Pointer addr, NativeLong length);
+
+        int madvise(Pointer addr, NativeLong length, int advice);
+    }
+
+    /**
+     * Loads libc lazily, so that the other platforms never touch it.
+     */
+    private static final class LibCHolder {
+        static final LibC INSTANCE = load();
+
+        /**
+         * Whether transparent huge pages can be requested by <code>madvise</code>, i.e. the mode is not
+         * <code>[never]</code>.
+         */
+        static final boolean TRANSPARENT = INSTANCE != null && isTransparentEnabled();
+
+        /**
+         * The mode of transparent huge pages, <code>/sys/kernel/mm/transparent_hugepage/enabled</code>.
+         */
+        private static Path thpEnabledPath() {
+            return Paths.get(File.separator, "sys", "kernel", "mm", "transparent_hugepage", "enabled");
+        }
+
+        private static boolean isTransparentEnabled() {
+            try {
+                final String mode = new String(Files.readAllBytes(thpEnabledPath()), StandardCharsets.UTF_8);
+                return !mode.contains("[never]");
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private static LibC load() {
+            if (!Platform.isLinux() || !Platform.is64Bit()) {
+                return null;
+            }
+
+            try {
+                return (LibC) Native.loadLibrary(Platform.C_LIBRARY_NAME, LibC.class);
+            } catch (UnsatisfiedLinkError e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Whether the huge pages can be requested on this platform.
+     */
+    static boolean isSupported() {
+        return LibCHolder.INSTANCE != null;
+    }
+
+    /**
+     * Rounds up the size to a multiple of the huge page size.
+     */
+    static long roundUp(long size) {
+        return (size + HUGE_PAGE_SIZE - 1) / HUGE_PAGE_SIZE * HUGE_PAGE_SIZE;
+    }
+
+    /**
+     * <p>Maps the pre-faulted memory of at least the specified bytes backed by huge pages.</p>
+     *
+     * @return the mapping, or <code>null</code> if neither of the huge pages is available
+     */
+    static Mapping map(long size) {
+        final LibC libc = LibCHolder.INSTANCE;
+        if (libc == null) {
+            return null;
+        }
+
+        final long length = roundUp(size);
+        Mapping mapping = LibCHolder.TRANSPARENT ? mapTransparent(libc, length) : null;
+        if (mapping == null) {
+            mapping = mapHugetlbfs(libc, length);
+        }
+        if (mapping != null) {
+            preTouch(mapping.address, mapping.length);
+        }
+
+        return mapping;
+    }
+
+    private static Mapping mapTransparent(LibC libc, long length) {
+        // map an extra huge page to align the head, since the kernel aligns the mapping only to the base page
+        final long mappedLength = length + HUGE_PAGE_SIZE;
+        final Pointer base = libc.mmap(Pointer.NULL, new NativeLong(mappedLength), PROT_READ | PROT_WRITE,
+                MAP_PRIVATE | MAP_ANONYMOUS, -1, new NativeLong(0L));
+        if (base == null || MAP_FAILED.equals(base)) {
+            return null;
+        }
+
+        final long head = Pointer.nativeValue(base);
+        final long aligned = roundUp(head);
+        final Pointer address = new Pointer(aligned);
+        if (libc.madvise(address, new NativeLong(length), MADV_HUGEPAGE) != 0) {
+            // transparent huge pages are disabled or not built in the kernel
+            libc.munmap(base, new NativeLong(mappedLength));
+            return null;
+        }
+
+        return new Mapping(Kind.TRANSPARENT, base, mappedLength, address, length);
+    }
+
+    private static Mapping mapHugetlbfs(LibC libc, long length) {
+        final Pointer base = libc.mmap(Pointer.NULL, new NativeLong(length), PROT_READ | PROT_WRITE,
+                MAP_PRIVATE | MAP_ANONYMOUS | MAP_HUGETLB, -1, new NativeLong(0L));
+        if (base == null || MAP_FAILED.equals(base)) {
+            return null;
+        }
+
+        return new Mapping(Kind.HUGETLBFS, base, length, base, length);
+    }
+
+    static void unmap(Mapping mapping) {
+        LibCHolder.INSTANCE.munmap(mapping.base, new NativeLong(mapping.mappedLength));
+    }
+
+    /**
+     * <p>Requests transparent huge pages for the whole huge pages in the memory allocated by others, e.g. the
+     * buffers of the variables allocated by Menoh. It is a hint which is ignored on failure.</p>
+     */
+    static void advise(Pointer pointer, long length) {
+        final LibC libc = LibCHolder.INSTANCE;
+        if (libc == null || !LibCHolder.TRANSPARENT) {
+            return;
+        }
+
+        final long head = roundUp(Pointer.nativeValue(pointer));
+        final long tail = (Pointer.nativeValue(pointer) + length) / HUGE_PAGE_SIZE * HUGE_PAGE_SIZE;
+        if (head < tail) {
+            libc.madvise(new Pointer(head), new NativeLong(tail - head), MADV_HUGEPAGE);
+        }
+    }
+
+    /**
+     * Faults in all the pages of the memory by writing zeros to it.
+     */
+    static void preTouch(Pointer pointer, long length) {
+        pointer.setMemory(0, length, (byte) 0);
+    }
+
+    /**
+     * A mapping of huge pages.
+     */
+    static final class Mapping {
+        private final Kind kind;
+
+        private final Pointer base;
+
+        private final long mappedLength;
+
+        private final Pointer address;
+
+        private final long length;
+
+        Mapping(Kind kind, Pointer base, long mappedLength, Pointer address, long length) {
+            this.kind = kind;
+            this.base = base;
+            this.mappedLength = mappedLength;
+            this.address = address;
+            this.length = length;
+        }
+
+        Kind kind() {
+            return this.kind;
+        }
+
+        /**
+         * The head of the memory aligned to {@link #HUGE_PAGE_SIZE}.
+         */
+        Pointer address() {
+            return this.address;
+        }
+
+        /**
+         * The usable bytes from {@link #address()}, which is a multiple of {@link #HUGE_PAGE_SIZE}.
+         */
+        long length() {
+            return this.length;
+        }
+
+        /**
+         * The bytes actually mapped, including the padding for the alignment.
+         */
+        long mappedLength() {
+            return this.mappedLength;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package jp.preferred.menoh;
+
+import java.nio.FloatBuffer;
+
+/**
+ * <p>A handle to an input variable of {@link ModelRunner} resolved in advance. It exposes a writable view of
+ * the native buffer of the variable, so the input can be filled without looking up the variable by name or
+ * allocating a temporary buffer on every <code>run()</code>.</p>
+ *
+ * <p>The binding is valid only until the <code>ModelRunner</code> is closed. The copying methods fail after
+ * that, while the buffer must not be used any longer because it may be reused by another model.</p>
+ */
+public final class InputBinding {
+    private final String name;
+
+    private final Variable variable;
+
+    private final Model model;
+
+    private final FloatBuffer view;
+
+    private final ModelRunnerMetrics metrics;
+
+    InputBinding(String name, Variable variable, Model model, ModelRunnerMetrics metrics) throws MenohException {
+        this.name = name;
+        this.variable = variable;
+        this.model = model;
+        this.metrics = metrics;
+        // use its own view to keep the position independent of the other callers
+        this.view = variable.nativeFloatBuffer().duplicate();
+    }
+
+    /**
+     * The name of the variable.
+     */
+    public String name() {
+        return this.name;
+    }
+
+    /**
+     * The bound {@link Variable}.
+     */
+    public Variable variable() {
+        return this.variable;
+    }
+
+    /**
+     * <p>A {@link FloatBuffer} which points to the native buffer of the variable. It returns the same
+     * instance every time after resetting its position to zero and its limit to the capacity.</p>
+     */
+    public FloatBuffer buffer() {
+        view.clear();
+        return view;
+    }
+
+    /**
+     * <p>Copies the array to the native buffer of the variable.</p>
+     *
+     * @return this object
+     * @throws java.nio.BufferOverflowException if the array is longer than the variable
+     * @throws IllegalStateException if the <code>ModelRunner</code> is closed
+     */
+    public InputBinding put(float[] values) {
+        return put(values, 0, values.length);
+    }
+
+    /**
+     * <p>Copies the array to the native buffer of the variable ranging from <code>offset</code> to
+     * <code>(offset + length - 1)</code>.</p>
+     *
+     * @return this object
+     * @throws java.nio.BufferOverflowException if <code>length</code> exceeds the size of the variable
+     * @throws IllegalStateException if the <code>ModelRunner</code> is closed
+     */
+    public InputBinding put(float[] values, int offset, int length) {
+        final long start = System.nanoTime();
+        model.acquire();
+        try {
+            view.clear();
+            view.put(values, offset, length);
+        } finally {
+            model.release();
+        }
+        metrics.recordCopyIn(System.nanoTime() - start, (long) length * 4);
+        return this;
+    }
+}
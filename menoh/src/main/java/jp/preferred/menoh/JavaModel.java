@@ -0,0 +1,1154 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>A model run by the reference inference engine in Java, which is selected by the backend name
+ * <code>"java"</code>. It supports a core set of the ONNX operators on {@link DType#FLOAT}: <code>Gemm</code>,
+ * <code>MatMul</code>, <code>Add</code>, <code>Relu</code>, <code>Abs</code>, <code>Sigmoid</code>,
+ * <code>Softmax</code>, <code>Conv</code>, <code>MaxPool</code> and <code>Reshape</code>.</p>
+ *
+ * <p>The tensors are held in the primitive arrays allocated when the model is built, so a run doesn't
+ * allocate any object except for the fork-join tasks. The input and output variables are backed by the native
+ * buffers like the other backends, and they are copied from and to the arrays in each run.</p>
+ *
+ * <p>If every operator is independent among the samples in a batch, a large enough batch is split into chunks
+ * which run the whole graph in parallel on a shared {@link ForkJoinPool}.</p>
+ */
+final class JavaModel {
+    /**
+     * The name of the backend.
+     */
+    static final String BACKEND_NAME = "java";
+
+    /**
+     * The minimum number of the floating point operations in a chunk of the batch to run it in parallel.
+     */
+    private static final long MIN_FLOPS_PER_TASK = 1L << 15;
+
+    private final Map<String, Variable> variables;
+
+    private final Binding[] inputs;
+
+    private final Binding[] outputs;
+
+    private final Kernel[] kernels;
+
+    /**
+     * The root task to run the chunks in parallel, or <code>null</code> if the model runs sequentially.
+     */
+    private final RunChunks parallel;
+
+    private JavaModel(
+            Map<String, Variable> variables, Binding[] inputs, Binding[] outputs, Kernel[] kernels,
+            RunChunks parallel) {
+        this.variables = variables;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.kernels = kernels;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Builds a model from the graph.
+     *
+     * @param graph the graph of the model
+     * @param inputDims the dims of the inputs
+     * @param outputNames the names of the outputs
+     * @param externalBuffers the buffers attached to the variables
+     */
+    static JavaModel build(
+            OnnxGraph graph, Map<String, int[]> inputDims, List<String> outputNames,
+            Map<String, Pointer> externalBuffers) throws MenohException {
+        final Map<String, Value> values = new HashMap<>();
+        for (OnnxGraph.Tensor t : graph.initializers().values()) {
+            if (t.floats() != null) {
+                values.put(t.name(), new Value(t.dims(), t.floats(), true));
+            }
+        }
+
+        final Map<String, Variable> variables = new LinkedHashMap<>();
+        final List<Binding> inputs = new ArrayList<>();
+        for (Map.Entry<String, int[]> e : inputDims.entrySet()) {
+            final String name = e.getKey();
+            if (!graph.inputs().contains(name)) {
+                throw variableNotFound(name);
+            }
+
+            final Value v = new Value(e.getValue().clone(), new float[count(e.getValue())], false);
+            values.put(name, v);
+            inputs.add(bind(name, v, externalBuffers.get(name), variables));
+        }
+        for (String name : graph.inputs()) {
+            if (!values.containsKey(name)) {
+                throw new MenohException(ErrorCode.VARIABLE_NOT_FOUND, "the profile of the input is not given: " + name);
+            }
+        }
+
+        final List<Kernel> kernels = new ArrayList<>();
+        for (OnnxGraph.Node node : requiredNodes(graph, outputNames)) {
+            kernels.add(plan(node, values, graph));
+        }
+
+        final List<Binding> outputs = new ArrayList<>();
+        for (String name : outputNames) {
+            final Value v = values.get(name);
+            if (v == null || graph.initializers().containsKey(name)) {
+                throw variableNotFound(name);
+            }
+            if (!variables.containsKey(name)) {
+                outputs.add(bind(name, v, externalBuffers.get(name), variables));
+            }
+        }
+
+        final Kernel[] ks = kernels.toArray(new Kernel[kernels.size()]);
+        return new JavaModel(
+                variables,
+                inputs.toArray(new Binding[inputs.size()]),
+                outputs.toArray(new Binding[outputs.size()]),
+                ks,
+                planParallel(ks, inputs));
+    }
+
+    /**
+     * Returns the nodes required to compute the outputs in topological order.
+     */
+    private static List<OnnxGraph.Node> requiredNodes(OnnxGraph graph, List<String> outputNames) {
+        final Set<String> required = new HashSet<>(outputNames);
+        final List<OnnxGraph.Node> nodes = new ArrayList<>();
+
+        final List<OnnxGraph.Node> all = graph.nodes();
+        for (int i = all.size() - 1; i >= 0; i--) {
+            final OnnxGraph.Node node = all.get(i);
+            for (String output : node.outputs()) {
+                if (required.contains(output)) {
+                    nodes.add(node);
+                    required.addAll(node.inputs());
+                    break;
+                }
+            }
+        }
+
+        final List<OnnxGraph.Node> ordered = new ArrayList<>(nodes.size());
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            ordered.add(nodes.get(i));
+        }
+        return ordered;
+    }
+
+    private static RunChunks planParallel(Kernel[] kernels, List<Binding> inputs) {
+        if (kernels.length == 0 || inputs.isEmpty()) {
+            return null;
+        }
+
+        final int batchSize = inputs.get(0).value.rows();
+        long flopsPerSample = 0;
+        for (Kernel k : kernels) {
+            if (!k.separable || k.rows != batchSize) {
+                return null;
+            }
+            flopsPerSample += k.flopsPerRow;
+        }
+
+        final int parallelism = Parallelism.POOL.getParallelism();
+        final long byWork = flopsPerSample * batchSize / MIN_FLOPS_PER_TASK;
+        final int taskCount = (int) Math.min(Math.min(batchSize, parallelism), byWork);
+        if (taskCount < 2) {
+            return null;
+        }
+
+        final RunChunk[] chunks = new RunChunk[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            chunks[i] = new RunChunk(
+                    kernels, (int) ((long) batchSize * i / taskCount), (int) ((long) batchSize * (i + 1) / taskCount));
+        }
+        return new RunChunks(chunks);
+    }
+
+    private static Binding bind(String name, Value value, Pointer externalBuffer, Map<String, Variable> variables) {
+        final Binding b = new Binding(value, externalBuffer);
+        variables.put(name, new Variable(DType.FLOAT, value.dims.clone(), b.buffer));
+        return b;
+    }
+
+    /**
+     * Returns the variable with the specified name.
+     */
+    Variable variable(String name) throws MenohException {
+        final Variable v = variables.get(name);
+        if (v == null) {
+            throw variableNotFound(name);
+        }
+
+        return v;
+    }
+
+    /**
+     * Runs the model.
+     */
+    void run() {
+        for (Binding in : inputs) {
+            in.view.clear();
+            in.view.get(in.value.data);
+        }
+
+        final RunChunks p = parallel;
+        if (p != null) {
+            p.reinitialize();
+            Parallelism.POOL.invoke(p);
+        } else {
+            for (Kernel k : kernels) {
+                k.run(0, k.rows);
+            }
+        }
+
+        for (Binding out : outputs) {
+            out.view.clear();
+            out.view.put(out.value.data);
+        }
+    }
+
+    private static MenohException variableNotFound(String name) {
+        return new MenohException(ErrorCode.VARIABLE_NOT_FOUND, "variable not found: " + name);
+    }
+
+    private static MenohException dimensionMismatch(OnnxGraph.Node node, String message) {
+        return new MenohException(ErrorCode.DIMENSION_MISMATCH, node + ": " + message);
+    }
+
+    private static MenohException unsupported(OnnxGraph.Node node, String message) {
+        return new MenohException(ErrorCode.UNSUPPORTED_OPERATOR_ATTRIBUTE, node + ": " + message);
+    }
+
+    private static int count(int[] dims) {
+        long c = 1;
+        for (int d : dims) {
+            c *= d;
+        }
+        if (c > Integer.MAX_VALUE) {
+            throw new MenohException(ErrorCode.DIMENSION_MISMATCH, "too large tensor: " + Arrays.toString(dims));
+        }
+        return (int) c;
+    }
+
+    private static Value input(OnnxGraph.Node node, Map<String, Value> values, int index) {
+        if (index >= node.inputs().size() || node.inputs().get(index).isEmpty()) {
+            throw new MenohException(ErrorCode.VARIABLE_NOT_FOUND, node + ": input " + index + " is not given");
+        }
+
+        final Value v = values.get(node.inputs().get(index));
+        if (v == null) {
+            throw variableNotFound(node.inputs().get(index));
+        }
+        return v;
+    }
+
+    private static Value optionalInput(OnnxGraph.Node node, Map<String, Value> values, int index) {
+        return index < node.inputs().size() && !node.inputs().get(index).isEmpty()
+                ? input(node, values, index) : null;
+    }
+
+    private static Value output(OnnxGraph.Node node, Map<String, Value> values, int[] dims) {
+        boolean constant = true;
+        for (String name : node.inputs()) {
+            final Value in = values.get(name);
+            constant &= in == null || in.constant;
+        }
+
+        final Value v = new Value(dims, new float[count(dims)], constant);
+        values.put(node.outputs().get(0), v);
+        return v;
+    }
+
+    /**
+     * Infers the shape of the output of the node and creates its kernel.
+     */
+    private static Kernel plan(OnnxGraph.Node node, Map<String, Value> values, OnnxGraph graph) {
+        switch (node.opType()) {
+            case "Gemm":
+                return planGemm(node, values);
+            case "MatMul":
+                return planMatMul(node, values);
+            case "Add":
+                return planAdd(node, values, graph.opsetVersion());
+            case "Relu":
+            case "Abs":
+            case "Sigmoid": {
+                final Value x = input(node, values, 0);
+                return new UnaryKernel(node.opType(), x, output(node, values, x.dims.clone()));
+            }
+            case "Softmax":
+                return planSoftmax(node, values);
+            case "Conv":
+                return planConv(node, values);
+            case "MaxPool":
+                return planMaxPool(node, values);
+            case "Reshape":
+                return planReshape(node, values, graph);
+            default:
+                throw new MenohException(ErrorCode.UNSUPPORTED_OPERATOR, "unsupported operator: " + node.opType());
+        }
+    }
+
+    private static Kernel planGemm(OnnxGraph.Node node, Map<String, Value> values) {
+        final Value a = input(node, values, 0);
+        final Value b = input(node, values, 1);
+        final Value c = optionalInput(node, values, 2);
+        final boolean transA = node.intAttribute("transA", 0) != 0;
+        final boolean transB = node.intAttribute("transB", 0) != 0;
+        if (a.dims.length != 2 || b.dims.length != 2) {
+            throw dimensionMismatch(node, "A and B must be 2D");
+        }
+
+        final int m = transA ? a.dims[1] : a.dims[0];
+        final int k = transA ? a.dims[0] : a.dims[1];
+        final int n = transB ? b.dims[0] : b.dims[1];
+        if ((transB ? b.dims[1] : b.dims[0]) != k) {
+            throw dimensionMismatch(node, String.format(
+                    "A%s and B%s can't be multiplied", Arrays.toString(a.dims), Arrays.toString(b.dims)));
+        }
+
+        int cRowStride = 0;
+        int cColStride = 0;
+        if (c != null) {
+            final int[] cd = c.dims;
+            final int cRows = cd.length >= 2 ? cd[cd.length - 2] : 1;
+            final int cCols = cd.length >= 1 ? cd[cd.length - 1] : 1;
+            if (cd.length > 2 || (cRows != 1 && cRows != m) || (cCols != 1 && cCols != n)) {
+                throw dimensionMismatch(node, "C" + Arrays.toString(cd) + " can't be broadcast to [" + m + ", " + n
+                        + "]");
+            }
+            cRowStride = cRows == 1 ? 0 : cCols;
+            cColStride = cCols == 1 ? 0 : 1;
+        }
+
+        final Value y = output(node, values, new int[] {m, n});
+        final boolean separable = !transA && b.constant && (c == null || c.constant || cRowStride != 0);
+        return new GemmKernel(a.data, b.data, c != null ? c.data : null, y.data, m, k, n, transA, transB,
+                node.floatAttribute("alpha", 1f), node.floatAttribute("beta", 1f), cRowStride, cColStride, 1,
+                separable);
+    }
+
+    private static Kernel planMatMul(OnnxGraph.Node node, Map<String, Value> values) {
+        final Value a = input(node, values, 0);
+        final Value b = input(node, values, 1);
+        if (a.dims.length < 2 || b.dims.length != 2) {
+            throw unsupported(node, "only the product of an N-D tensor (N >= 2) and a 2D matrix is supported");
+        }
+
+        final int k = a.dims[a.dims.length - 1];
+        if (b.dims[0] != k) {
+            throw dimensionMismatch(node, String.format(
+                    "A%s and B%s can't be multiplied", Arrays.toString(a.dims), Arrays.toString(b.dims)));
+        }
+
+        final int n = b.dims[1];
+        final int[] dims = Arrays.copyOf(a.dims, a.dims.length);
+        dims[dims.length - 1] = n;
+        final int m = count(a.dims) / Math.max(k, 1);
+        final int rowsPerUnit = dims[0] > 0 ? m / dims[0] : 1;
+
+        final Value y = output(node, values, dims);
+        return new GemmKernel(
+                a.data, b.data, null, y.data, m, k, n, false, false, 1f, 0f, 0, 0, rowsPerUnit, b.constant);
+    }
+
+    private static Kernel planAdd(OnnxGraph.Node node, Map<String, Value> values, long opsetVersion) {
+        final Value a = input(node, values, 0);
+        final Value b = input(node, values, 1);
+
+        int[] bDims = b.dims;
+        if (opsetVersion < 7 && node.intAttribute("broadcast", 0) != 0 && node.hasAttribute("axis")) {
+            // the legacy broadcasting aligns B with A from the specified axis
+            final int axis = (int) node.intAttribute("axis", 0);
+            final int rank = a.dims.length;
+            if (axis < 0 || axis + bDims.length > rank) {
+                throw dimensionMismatch(node, "invalid axis for broadcasting: " + axis);
+            }
+            final int[] aligned = new int[rank - axis];
+            Arrays.fill(aligned, 1);
+            System.arraycopy(bDims, 0, aligned, 0, bDims.length);
+            bDims = aligned;
+        }
+
+        final int rank = Math.max(a.dims.length, bDims.length);
+        final int[] dims = new int[rank];
+        for (int i = 0; i < rank; i++) {
+            final int da = dimFromEnd(a.dims, rank - 1 - i);
+            final int db = dimFromEnd(bDims, rank - 1 - i);
+            if (da != db && da != 1 && db != 1) {
+                throw dimensionMismatch(node, String.format(
+                        "A%s and B%s can't be broadcast", Arrays.toString(a.dims), Arrays.toString(b.dims)));
+            }
+            dims[i] = da == 1 ? db : da;
+        }
+
+        final Value y = output(node, values, dims);
+        final boolean separable = rank > 0 && isAligned(a, a.dims, dims) && isAligned(b, bDims, dims);
+        if (a.data.length != y.data.length && b.data.length == y.data.length) {
+            // the addition is commutative, so let A be the one which is not broadcast
+            return new AddKernel(b.data, a.data, y.data, dims, strides(bDims, dims), strides(a.dims, dims), separable);
+        }
+        return new AddKernel(a.data, b.data, y.data, dims, strides(a.dims, dims), strides(bDims, dims), separable);
+    }
+
+    /**
+     * Returns true if the rows of the operand correspond to those of the output one by one, or it is a constant.
+     */
+    private static boolean isAligned(Value operand, int[] alignedDims, int[] dims) {
+        return operand.constant || (alignedDims.length == dims.length && alignedDims[0] == dims[0]);
+    }
+
+    /**
+     * Returns the dimension at the specified index from the end, or 1 if it doesn't exist.
+     */
+    private static int dimFromEnd(int[] dims, int indexFromEnd) {
+        final int i = dims.length - 1 - indexFromEnd;
+        return i >= 0 ? dims[i] : 1;
+    }
+
+    /**
+     * Returns the strides of the tensor broadcast to the specified dims, where the broadcast axes have zero.
+     */
+    private static int[] strides(int[] dims, int[] broadcastDims) {
+        final int rank = broadcastDims.length;
+        final int[] strides = new int[rank];
+        int stride = 1;
+        for (int i = rank - 1; i >= 0; i--) {
+            final int d = dimFromEnd(dims, rank - 1 - i);
+            strides[i] = d == 1 ? 0 : stride;
+            stride *= d;
+        }
+        return strides;
+    }
+
+    private static Kernel planSoftmax(OnnxGraph.Node node, Map<String, Value> values) {
+        final Value x = input(node, values, 0);
+        final int rank = x.dims.length;
+        int axis = (int) node.intAttribute("axis", 1);
+        if (axis < 0) {
+            axis += rank;
+        }
+        if (axis < 0 || axis > rank) {
+            throw dimensionMismatch(node, "invalid axis: " + axis);
+        }
+
+        int inner = 1;
+        for (int i = axis; i < rank; i++) {
+            inner *= x.dims[i];
+        }
+
+        final Value y = output(node, values, x.dims.clone());
+        return new SoftmaxKernel(x.data, y.data, rank > 0 ? x.dims[0] : 1, inner, axis >= 1);
+    }
+
+    private static Kernel planConv(OnnxGraph.Node node, Map<String, Value> values) {
+        final Value x = input(node, values, 0);
+        final Value w = input(node, values, 1);
+        final Value b = optionalInput(node, values, 2);
+        if (x.dims.length != 4 || w.dims.length != 4) {
+            throw unsupported(node, "only 2D convolution is supported");
+        }
+
+        final int group = (int) node.intAttribute("group", 1);
+        final int channels = x.dims[1];
+        final int filters = w.dims[0];
+        if (group <= 0 || channels % group != 0 || filters % group != 0 || w.dims[1] != channels / group) {
+            throw dimensionMismatch(node, String.format(
+                    "X%s and W%s don't match with group %d", Arrays.toString(x.dims), Arrays.toString(w.dims), group));
+        }
+        if (b != null && count(b.dims) != filters) {
+            throw dimensionMismatch(node, "B must have " + filters + " elements");
+        }
+
+        final Window window = Window.of(node, x.dims, new int[] {w.dims[2], w.dims[3]}, false);
+        final Value y = output(node, values, new int[] {x.dims[0], filters, window.outH, window.outW});
+        return new ConvKernel(x.data, w.data, b != null ? b.data : null, y.data, x.dims, filters, group, window,
+                w.constant && (b == null || b.constant));
+    }
+
+    private static Kernel planMaxPool(OnnxGraph.Node node, Map<String, Value> values) {
+        final Value x = input(node, values, 0);
+        if (x.dims.length != 4) {
+            throw unsupported(node, "only 2D pooling is supported");
+        }
+        if (node.outputs().size() > 1 && !node.outputs().get(1).isEmpty()) {
+            throw unsupported(node, "the output of the indices is not supported");
+        }
+        if (!node.hasAttribute("kernel_shape")) {
+            throw unsupported(node, "kernel_shape is required");
+        }
+
+        final long[] kernelShape = node.intsAttribute("kernel_shape", null);
+        if (kernelShape.length != 2) {
+            throw unsupported(node, "kernel_shape must have 2 elements");
+        }
+
+        final Window window = Window.of(node, x.dims, new int[] {(int) kernelShape[0], (int) kernelShape[1]},
+                node.intAttribute("ceil_mode", 0) != 0);
+        final Value y = output(node, values, new int[] {x.dims[0], x.dims[1], window.outH, window.outW});
+        return new MaxPoolKernel(x.data, y.data, x.dims, window);
+    }
+
+    /**
+     * Makes the output of <code>Reshape</code> a view of the input because a tensor is never modified once
+     * it is computed.
+     */
+    private static Kernel planReshape(OnnxGraph.Node node, Map<String, Value> values, OnnxGraph graph) {
+        final Value x = input(node, values, 0);
+
+        final long[] shape;
+        if (graph.opsetVersion() >= 5 || node.inputs().size() >= 2) {
+            final OnnxGraph.Tensor t = node.inputs().size() >= 2
+                    ? graph.initializers().get(node.inputs().get(1)) : null;
+            if (t == null || t.longs() == null) {
+                throw unsupported(node, "the shape must be a constant integer tensor");
+            }
+            shape = t.longs();
+        } else {
+            shape = node.intsAttribute("shape", new long[0]);
+        }
+
+        final int[] dims = new int[shape.length];
+        int inferred = -1;
+        long known = 1;
+        for (int i = 0; i < shape.length; i++) {
+            if (shape[i] == 0 && i < x.dims.length) {
+                dims[i] = x.dims[i];
+            } else if (shape[i] == -1 && inferred < 0) {
+                inferred = i;
+                continue;
+            } else if (shape[i] <= 0) {
+                throw dimensionMismatch(node, "invalid shape: " + Arrays.toString(shape));
+            } else {
+                dims[i] = (int) shape[i];
+            }
+            known *= dims[i];
+        }
+
+        final int total = x.data.length;
+        if (inferred >= 0) {
+            if (known == 0 || total % known != 0) {
+                throw dimensionMismatch(node, "can't reshape " + Arrays.toString(x.dims) + " to "
+                        + Arrays.toString(shape));
+            }
+            dims[inferred] = (int) (total / known);
+        } else if (known != total) {
+            throw dimensionMismatch(node, "can't reshape " + Arrays.toString(x.dims) + " to "
+                    + Arrays.toString(shape));
+        }
+
+        final Value y = new Value(dims, x.data, x.constant);
+        values.put(node.outputs().get(0), y);
+
+        // the rows of the view are computed along with those of the input only if the first axis is kept
+        return new ViewKernel(y.rows(), x.constant || (x.dims.length > 0 && x.rows() == y.rows()));
+    }
+
+    /**
+     * The sizes of a 2D sliding window on the spatial axes of a tensor in <code>NCHW</code>.
+     */
+    private static final class Window {
+        final int kernelH;
+        final int kernelW;
+        final int strideH;
+        final int strideW;
+        final int padTop;
+        final int padLeft;
+        final int dilationH;
+        final int dilationW;
+        final int outH;
+        final int outW;
+
+        private Window(int[] kernel, int[] strides, int[] pads, int[] dilations, int outH, int outW) {
+            this.kernelH = kernel[0];
+            this.kernelW = kernel[1];
+            this.strideH = strides[0];
+            this.strideW = strides[1];
+            this.padTop = pads[0];
+            this.padLeft = pads[1];
+            this.dilationH = dilations[0];
+            this.dilationW = dilations[1];
+            this.outH = outH;
+            this.outW = outW;
+        }
+
+        static Window of(OnnxGraph.Node node, int[] xDims, int[] kernel, boolean ceilMode) {
+            final int[] strides = ints(node, "strides", new int[] {1, 1}, 2);
+            final int[] dilations = ints(node, "dilations", new int[] {1, 1}, 2);
+            final int[] pads = ints(node, "pads", new int[] {0, 0, 0, 0}, 4);
+            final String autoPad = node.stringAttribute("auto_pad", "NOTSET");
+            for (int i = 0; i < 2; i++) {
+                if (kernel[i] <= 0 || strides[i] <= 0 || dilations[i] <= 0) {
+                    throw unsupported(node, "kernel_shape, strides and dilations must be positive");
+                }
+            }
+
+            final int[] out = new int[2];
+            for (int i = 0; i < 2; i++) {
+                final int in = xDims[2 + i];
+                final int extent = (kernel[i] - 1) * dilations[i] + 1;
+                switch (autoPad) {
+                    case "NOTSET":
+                        break;
+                    case "VALID":
+                        pads[i] = 0;
+                        pads[i + 2] = 0;
+                        break;
+                    case "SAME_UPPER":
+                    case "SAME_LOWER":
+                        final int target = (in + strides[i] - 1) / strides[i];
+                        final int total = Math.max((target - 1) * strides[i] + extent - in, 0);
+                        final int small = total / 2;
+                        pads[i] = autoPad.equals("SAME_UPPER") ? small : total - small;
+                        pads[i + 2] = total - pads[i];
+                        break;
+                    default:
+                        throw unsupported(node, "unknown auto_pad: " + autoPad);
+                }
+
+                final int span = in + pads[i] + pads[i + 2] - extent;
+                if (span < 0) {
+                    throw dimensionMismatch(node, "the window is larger than the input " + Arrays.toString(xDims));
+                }
+                out[i] = (ceilMode ? (span + strides[i] - 1) / strides[i] : span / strides[i]) + 1;
+            }
+
+            return new Window(kernel, strides, pads, dilations, out[0], out[1]);
+        }
+
+        private static int[] ints(OnnxGraph.Node node, String name, int[] defaultValue, int length) {
+            final long[] values = node.intsAttribute(name, null);
+            if (values == null) {
+                return defaultValue;
+            }
+            if (values.length != length) {
+                throw unsupported(node, name + " must have " + length + " elements");
+            }
+
+            final int[] ints = new int[length];
+            for (int i = 0; i < length; i++) {
+                ints[i] = (int) values[i];
+            }
+            return ints;
+        }
+    }
+
+    /**
+     * A tensor in the model.
+     */
+    private static final class Value {
+        final int[] dims;
+
+        final float[] data;
+
+        /**
+         * Whether the tensor is computed only from the initializers.
+         */
+        final boolean constant;
+
+        Value(int[] dims, float[] data, boolean constant) {
+            this.dims = dims;
+            this.data = data;
+            this.constant = constant;
+        }
+
+        /**
+         * The size of the first axis.
+         */
+        int rows() {
+            return dims.length > 0 ? dims[0] : 1;
+        }
+    }
+
+    /**
+     * An input or output variable of the model, which is copied between the native buffer and the array.
+     */
+    private static final class Binding {
+        final Value value;
+
+        final Pointer buffer;
+
+        final FloatBuffer view;
+
+        Binding(Value value, Pointer externalBuffer) {
+            final long bytes = 4L * value.data.length;
+            this.value = value;
+            this.buffer = externalBuffer != null ? externalBuffer : new Memory(Math.max(bytes, 1L));
+            this.view = buffer.getByteBuffer(0, bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    /**
+     * A shared pool to run the chunks of the batches in parallel.
+     */
+    private static final class Parallelism {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    private static final class RunChunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RunChunk[] chunks;
+
+        RunChunks(RunChunk[] chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        protected void compute() {
+            for (RunChunk c : chunks) {
+                c.reinitialize();
+            }
+            ForkJoinTask.invokeAll(chunks);
+        }
+    }
+
+    private static final class RunChunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Kernel[] kernels;
+
+        private final int from;
+
+        private final int to;
+
+        RunChunk(Kernel[] kernels, int from, int to) {
+            this.kernels = kernels;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            for (Kernel k : kernels) {
+                k.run(from, to);
+            }
+        }
+    }
+
+    /**
+     * <p>The computation of a node. It computes the rows of the output in the specified range, where a row is
+     * the slice at an index of the first axis of the output.</p>
+     */
+    private abstract static class Kernel {
+        /**
+         * The size of the first axis of the output.
+         */
+        final int rows;
+
+        /**
+         * Whether a row of the output depends only on the same row of the inputs, so that the kernels of a model
+         * can run on a part of the batch independently.
+         */
+        final boolean separable;
+
+        /**
+         * The approximate number of the floating point operations to compute a row.
+         */
+        final long flopsPerRow;
+
+        Kernel(int rows, boolean separable, long flopsPerRow) {
+            this.rows = rows;
+            this.separable = separable;
+            this.flopsPerRow = flopsPerRow;
+        }
+
+        abstract void run(int from, int to);
+    }
+
+    /**
+     * A no-op for the output which shares the array with the input.
+     */
+    private static final class ViewKernel extends Kernel {
+        ViewKernel(int rows, boolean separable) {
+            super(rows, separable, 0L);
+        }
+
+        @Override
+        void run(int from, int to) {
+            // nothing to compute
+        }
+    }
+
+    private static final class UnaryKernel extends Kernel {
+        private static final int RELU = 0;
+        private static final int ABS = 1;
+        private static final int SIGMOID = 2;
+
+        private final int op;
+
+        private final float[] x;
+
+        private final float[] y;
+
+        private final int rowSize;
+
+        UnaryKernel(String opType, Value x, Value y) {
+            super(y.rows(), true, y.rows() > 0 ? y.data.length / y.rows() : 0);
+            this.op = opType.equals("Relu") ? RELU : opType.equals("Abs") ? ABS : SIGMOID;
+            this.x = x.data;
+            this.y = y.data;
+            this.rowSize = y.rows() > 0 ? y.data.length / y.rows() : 0;
+        }
+
+        @Override
+        void run(int from, int to) {
+            final int begin = from * rowSize;
+            final int end = to * rowSize;
+            switch (op) {
+                case RELU:
+                    for (int i = begin; i < end; i++) {
+                        y[i] = Math.max(x[i], 0f);
+                    }
+                    break;
+                case ABS:
+                    for (int i = begin; i < end; i++) {
+                        y[i] = Math.abs(x[i]);
+                    }
+                    break;
+                default:
+                    for (int i = begin; i < end; i++) {
+                        y[i] = (float) (1.0 / (1.0 + Math.exp(-x[i])));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * <code>Y = alpha * A' * B' + beta * C</code> for <code>Gemm</code> and <code>MatMul</code>.
+     */
+    private static final class GemmKernel extends Kernel {
+        private final float[] a;
+        private final float[] b;
+        private final float[] c;
+        private final float[] y;
+        private final int m;
+        private final int k;
+        private final int n;
+        private final boolean transA;
+        private final boolean transB;
+        private final float alpha;
+        private final float beta;
+        private final int cRowStride;
+        private final int cColStride;
+        private final int rowsPerUnit;
+
+        GemmKernel(
+                float[] a, float[] b, float[] c, float[] y, int m, int k, int n, boolean transA, boolean transB,
+                float alpha, float beta, int cRowStride, int cColStride, int rowsPerUnit, boolean separable) {
+            super(m / Math.max(rowsPerUnit, 1), separable, 2L * k * n * rowsPerUnit);
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.y = y;
+            this.m = m;
+            this.k = k;
+            this.n = n;
+            this.transA = transA;
+            this.transB = transB;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.cRowStride = cRowStride;
+            this.cColStride = cColStride;
+            this.rowsPerUnit = Math.max(rowsPerUnit, 1);
+        }
+
+        @Override
+        void run(int from, int to) {
+            final int begin = from * rowsPerUnit;
+            final int end = Math.min(to * rowsPerUnit, m);
+            for (int i = begin; i < end; i++) {
+                final int yRow = i * n;
+                if (transB) {
+                    // B is [N, K], so the dot products run on the contiguous rows
+                    for (int j = 0; j < n; j++) {
+                        final int bRow = j * k;
+                        float sum = 0f;
+                        if (transA) {
+                            for (int p = 0; p < k; p++) {
+                                sum += a[p * m + i] * b[bRow + p];
+                            }
+                        } else {
+                            final int aRow = i * k;
+                            for (int p = 0; p < k; p++) {
+                                sum += a[aRow + p] * b[bRow + p];
+                            }
+                        }
+                        y[yRow + j] = alpha * sum;
+                    }
+                } else {
+                    // B is [K, N], so the row of Y is accumulated along the contiguous rows of B
+                    Arrays.fill(y, yRow, yRow + n, 0f);
+                    for (int p = 0; p < k; p++) {
+                        final float av = alpha * (transA ? a[p * m + i] : a[i * k + p]);
+                        final int bRow = p * n;
+                        for (int j = 0; j < n; j++) {
+                            y[yRow + j] += av * b[bRow + j];
+                        }
+                    }
+                }
+
+                if (c != null && beta != 0f) {
+                    final int cRow = i * cRowStride;
+                    for (int j = 0; j < n; j++) {
+                        y[yRow + j] += beta * c[cRow + j * cColStride];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <code>Add</code> with the multidirectional broadcasting.
+     */
+    private static final class AddKernel extends Kernel {
+        private final float[] a;
+        private final float[] b;
+        private final float[] y;
+        private final int[] dims;
+        private final int[] aStrides;
+        private final int[] bStrides;
+        private final int rowSize;
+
+        /**
+         * The size of B if it is broadcast to the trailing axes of A, or zero otherwise.
+         */
+        private final int bSuffixSize;
+
+        private final boolean sameShape;
+
+        AddKernel(float[] a, float[] b, float[] y, int[] dims, int[] aStrides, int[] bStrides, boolean separable) {
+            super(dims.length > 0 ? dims[0] : 1, separable, dims.length > 0 && dims[0] > 0 ? y.length / dims[0] : 0);
+            this.a = a;
+            this.b = b;
+            this.y = y;
+            this.dims = dims;
+            this.aStrides = aStrides;
+            this.bStrides = bStrides;
+            this.rowSize = dims.length > 0 && dims[0] > 0 ? y.length / dims[0] : y.length;
+            this.sameShape = a.length == y.length && b.length == y.length;
+            this.bSuffixSize = a.length == y.length ? suffixSize(dims, bStrides) : 0;
+        }
+
+        /**
+         * Returns the size of B if it is broadcast only along the leading axes of the output, or zero.
+         */
+        private static int suffixSize(int[] dims, int[] strides) {
+            int size = 1;
+            int d = dims.length - 1;
+            for (; d >= 0; d--) {
+                if (dims[d] != 1) {
+                    if (strides[d] != size) {
+                        break;
+                    }
+                    size *= dims[d];
+                }
+            }
+            for (; d >= 0; d--) {
+                if (dims[d] != 1 && strides[d] != 0) {
+                    return 0;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        void run(int from, int to) {
+            final int begin = from * rowSize;
+            final int end = Math.min(to * rowSize, y.length);
+            if (sameShape) {
+                for (int i = begin; i < end; i++) {
+                    y[i] = a[i] + b[i];
+                }
+            } else if (bSuffixSize > 0) {
+                for (int i = begin; i < end; i++) {
+                    y[i] = a[i] + b[i % bSuffixSize];
+                }
+            } else {
+                for (int i = begin; i < end; i++) {
+                    int rest = i;
+                    int ai = 0;
+                    int bi = 0;
+                    for (int d = dims.length - 1; d >= 0; d--) {
+                        final int index = rest % dims[d];
+                        rest /= dims[d];
+                        ai += index * aStrides[d];
+                        bi += index * bStrides[d];
+                    }
+                    y[i] = a[ai] + b[bi];
+                }
+            }
+        }
+    }
+
+    private static final class SoftmaxKernel extends Kernel {
+        private final float[] x;
+        private final float[] y;
+        private final int inner;
+        private final int rowSize;
+
+        SoftmaxKernel(float[] x, float[] y, int rows, int inner, boolean separable) {
+            super(separable ? rows : 1, separable, rows > 0 ? 4L * y.length / rows : 0);
+            this.x = x;
+            this.y = y;
+            this.inner = Math.max(inner, 1);
+            this.rowSize = separable && rows > 0 ? y.length / rows : y.length;
+        }
+
+        @Override
+        void run(int from, int to) {
+            final int end = Math.min(to * rowSize, y.length);
+            for (int offset = from * rowSize; offset < end; offset += inner) {
+                float max = Float.NEGATIVE_INFINITY;
+                for (int i = 0; i < inner; i++) {
+                    max = Math.max(max, x[offset + i]);
+                }
+
+                float sum = 0f;
+                for (int i = 0; i < inner; i++) {
+                    final float e = (float) Math.exp(x[offset + i] - max);
+                    y[offset + i] = e;
+                    sum += e;
+                }
+
+                final float scale = 1f / sum;
+                for (int i = 0; i < inner; i++) {
+                    y[offset + i] *= scale;
+                }
+            }
+        }
+    }
+
+    /**
+     * The direct 2D convolution on <code>NCHW</code>.
+     */
+    private static final class ConvKernel extends Kernel {
+        private final float[] x;
+        private final float[] w;
+        private final float[] bias;
+        private final float[] y;
+        private final int channels;
+        private final int height;
+        private final int width;
+        private final int filters;
+        private final int group;
+        private final Window window;
+
+        ConvKernel(
+                float[] x, float[] w, float[] bias, float[] y, int[] xDims, int filters, int group, Window window,
+                boolean separable) {
+            super(xDims[0], separable, 2L * filters * window.outH * window.outW * (xDims[1] / group)
+                    * window.kernelH * window.kernelW);
+            this.x = x;
+            this.w = w;
+            this.bias = bias;
+            this.y = y;
+            this.channels = xDims[1];
+            this.height = xDims[2];
+            this.width = xDims[3];
+            this.filters = filters;
+            this.group = group;
+            this.window = window;
+        }
+
+        @Override
+        void run(int from, int to) {
+            final Window win = window;
+            final int channelsPerGroup = channels / group;
+            final int filtersPerGroup = filters / group;
+            final int outSize = win.outH * win.outW;
+            for (int n = from; n < to; n++) {
+                for (int f = 0; f < filters; f++) {
+                    final int g = f / filtersPerGroup;
+                    final int yBase = (n * filters + f) * outSize;
+                    final float b0 = bias != null ? bias[f] : 0f;
+                    for (int oh = 0; oh < win.outH; oh++) {
+                        for (int ow = 0; ow < win.outW; ow++) {
+                            float sum = b0;
+                            for (int c = 0; c < channelsPerGroup; c++) {
+                                final int xBase = (n * channels + g * channelsPerGroup + c) * height * width;
+                                final int wBase = (f * channelsPerGroup + c) * win.kernelH * win.kernelW;
+                                for (int kh = 0; kh < win.kernelH; kh++) {
+                                    final int ih = oh * win.strideH - win.padTop + kh * win.dilationH;
+                                    if (ih < 0 || ih >= height) {
+                                        continue;
+                                    }
+                                    for (int kw = 0; kw < win.kernelW; kw++) {
+                                        final int iw = ow * win.strideW - win.padLeft + kw * win.dilationW;
+                                        if (iw >= 0 && iw < width) {
+                                            sum += x[xBase + ih * width + iw] * w[wBase + kh * win.kernelW + kw];
+                                        }
+                                    }
+                                }
+                            }
+                            y[yBase + oh * win.outW + ow] = sum;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class MaxPoolKernel extends Kernel {
+        private final float[] x;
+        private final float[] y;
+        private final int channels;
+        private final int height;
+        private final int width;
+        private final Window window;
+
+        MaxPoolKernel(float[] x, float[] y, int[] xDims, Window window) {
+            super(xDims[0], true, (long) xDims[1] * window.outH * window.outW * window.kernelH * window.kernelW);
+            this.x = x;
+            this.y = y;
+            this.channels = xDims[1];
+            this.height = xDims[2];
+            this.width = xDims[3];
+            this.window = window;
+        }
+
+        @Override
+        void run(int from, int to) {
+            final Window win = window;
+            for (int plane = from * channels; plane < to * channels; plane++) {
+                final int xBase = plane * height * width;
+                final int yBase = plane * win.outH * win.outW;
+                for (int oh = 0; oh < win.outH; oh++) {
+                    for (int ow = 0; ow < win.outW; ow++) {
+                        float max = Float.NEGATIVE_INFINITY;
+                        for (int kh = 0; kh < win.kernelH; kh++) {
+                            final int ih = oh * win.strideH - win.padTop + kh * win.dilationH;
+                            if (ih < 0 || ih >= height) {
+                                continue;
+                            }
+                            for (int kw = 0; kw < win.kernelW; kw++) {
+                                final int iw = ow * win.strideW - win.padLeft + kw * win.dilationW;
+                                if (iw >= 0 && iw < width) {
+                                    max = Math.max(max, x[xBase + ih * width + iw]);
+                                }
+                            }
+                        }
+                        y[yBase + oh * win.outW + ow] = max;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package jp.preferred.menoh;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A lock-free histogram of latencies in nanoseconds.</p>
+ *
+ * <p>The values are counted in log-linear buckets which divide each power of two into 16 sub-buckets, so
+ * a percentile is reported with a relative error of at most 1/16. Recording a value doesn't allocate any
+ * object and can be called from multiple threads concurrently.</p>
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * <p>Records a latency. A negative value is recorded as zero.</p>
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        final long v = Math.max(nanos, 0L);
+
+        counts.incrementAndGet(bucketIndex(v));
+        total.addAndGet(v);
+
+        long cur = min.get();
+        while (v < cur && !min.compareAndSet(cur, v)) {
+            cur = min.get();
+        }
+
+        cur = max.get();
+        while (v > cur && !max.compareAndSet(cur, v)) {
+            cur = max.get();
+        }
+    }
+
+    /**
+     * <p>Clears the recorded values. The values recorded concurrently may be partially discarded.</p>
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0L);
+        }
+        total.set(0L);
+        min.set(Long.MAX_VALUE);
+        max.set(0L);
+    }
+
+    /**
+     * <p>Takes a snapshot of the recorded values. The snapshot is not atomic with respect to the concurrent
+     * recordings, but each of them is counted at most once.</p>
+     */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+
+        return new Snapshot(copy, count, total.get(), count > 0 ? min.get() : 0L, max.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        final int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lower = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable snapshot of {@link LatencyHistogram}.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+
+        private final long count;
+
+        private final long total;
+
+        private final long min;
+
+        private final long max;
+
+        Snapshot(long[] counts, long count, long total, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * The number of the recorded values.
+         */
+        public long count() {
+            return this.count;
+        }
+
+        /**
+         * The sum of the recorded values in nanoseconds.
+         */
+        public long totalNanos() {
+            return this.total;
+        }
+
+        /**
+         * The minimum value in nanoseconds, or zero if no value is recorded.
+         */
+        public long minNanos() {
+            return this.min;
+        }
+
+        /**
+         * The maximum value in nanoseconds, or zero if no value is recorded.
+         */
+        public long maxNanos() {
+            return this.max;
+        }
+
+        /**
+         * The mean value in nanoseconds, or zero if no value is recorded.
+         */
+        public double meanNanos() {
+            return count > 0 ? (double) total / count : 0.0;
+        }
+
+        /**
+         * <p>Returns the value at the specified percentile in nanoseconds, or zero if no value is recorded.
+         * The value is the upper bound of the bucket to which the percentile belongs.</p>
+         *
+         * @param percentile the percentile in the range of [0, 100]
+         * @throws IllegalArgumentException if <code>percentile</code> is out of the range
+         */
+        public long percentileNanos(double percentile) {
+            if (!(percentile >= 0.0 && percentile <= 100.0)) {
+                throw new IllegalArgumentException("percentile must be in [0, 100]: " + percentile);
+            }
+
+            if (count == 0) {
+                return 0L;
+            }
+
+            final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.max(min, Math.min(bucketUpperBound(i), max));
+                }
+            }
+
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "count=%d, mean=%.1fns, min=%dns, p50=%dns, p90=%dns, p99=%dns, p999=%dns, max=%dns",
+                    count, meanNanos(), min, percentileNanos(50.0), percentileNanos(90.0), percentileNanos(99.0),
+                    percentileNanos(99.9), max);
+        }
+    }
+}
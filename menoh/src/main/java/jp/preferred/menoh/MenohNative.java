@@ -1,19 +1,31 @@
 package jp.preferred.menoh;
 
 import com.sun.jna.Library;
-import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.PointerByReference;
 
+/**
+ * <p>The native functions of Menoh Core. The methods correspond to the C API of <code>menoh.h</code> one by
+ * one: they return <code>menoh_error_code</code> and the message of the last error is available from
+ * {@link #menoh_get_last_error_message()} in the same thread.</p>
+ *
+ * <p>The implementation is selected once at startup by {@link MenohNativeProvider}. It is exposed only for
+ * implementing a provider, so the applications should use the high-level API instead.</p>
+ */
 // CHECKSTYLE:OFF
-interface MenohNative extends Library {
-    MenohNative INSTANCE = (MenohNative) Native.loadLibrary("menoh", MenohNative.class);
+public interface MenohNative extends Library {
+    /**
+     * The implementation selected by the system property <code>jp.preferred.menoh.binding</code>.
+     */
+    MenohNative INSTANCE = MenohNativeLoader.load();
 
     String menoh_get_last_error_message();
 
     int menoh_make_model_data_from_onnx(String onnx_filename, PointerByReference dst_handle);
 
+    int menoh_make_model_data_from_onnx_data_on_memory(Pointer onnx_data, int size, PointerByReference dst_handle);
+
     void menoh_delete_model_data(Pointer model_data);
 
     int menoh_model_data_optimize(Pointer model_data, Pointer variable_profile_table);
@@ -50,12 +62,20 @@ interface MenohNative extends Library {
 
     int menoh_model_get_variable_dtype(Pointer model, String variable_name, IntByReference dst_dtype);
 
+    int menoh_model_get_variable_dtype(Pointer model, Pointer variable_name, IntByReference dst_dtype);
+
     int menoh_model_run(Pointer model);
 
     int menoh_model_get_variable_dims_size(Pointer model, String variable_name, IntByReference dst_size);
 
+    int menoh_model_get_variable_dims_size(Pointer model, Pointer variable_name, IntByReference dst_size);
+
     int menoh_model_get_variable_dims_at(Pointer model, String variable_name, int index, IntByReference dst_size);
 
+    int menoh_model_get_variable_dims_at(Pointer model, Pointer variable_name, int index, IntByReference dst_size);
+
     int menoh_model_get_variable_buffer_handle(Pointer model, String variable_name, PointerByReference dst_data);
+
+    int menoh_model_get_variable_buffer_handle(Pointer model, Pointer variable_name, PointerByReference dst_data);
 }
 // CHECKSTYLE:ON
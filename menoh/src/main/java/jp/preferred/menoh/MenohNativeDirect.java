@@ -0,0 +1,224 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * <p>A {@link MenohNative} backed by the direct mapping of JNA. It binds the native functions to the static
+ * native methods by {@link Native#register(String)}, which avoids the reflective proxy of the interface
+ * mapping.</p>
+ */
+// CHECKSTYLE:OFF
+final class MenohNativeDirect implements MenohNative {
+    @Override
+    public String menoh_get_last_error_message() {
+        return Direct.menoh_get_last_error_message();
+    }
+
+    @Override
+    public int menoh_make_model_data_from_onnx(String onnx_filename, PointerByReference dst_handle) {
+        return Direct.menoh_make_model_data_from_onnx(onnx_filename, dst_handle);
+    }
+
+    @Override
+    public int menoh_make_model_data_from_onnx_data_on_memory(Pointer onnx_data, int size, PointerByReference dst_handle) {
+        return Direct.menoh_make_model_data_from_onnx_data_on_memory(onnx_data, size, dst_handle);
+    }
+
+    @Override
+    public void menoh_delete_model_data(Pointer model_data) {
+        Direct.menoh_delete_model_data(model_data);
+    }
+
+    @Override
+    public int menoh_model_data_optimize(Pointer model_data, Pointer variable_profile_table) {
+        return Direct.menoh_model_data_optimize(model_data, variable_profile_table);
+    }
+
+    @Override
+    public int menoh_make_variable_profile_table_builder(PointerByReference dst_handle) {
+        return Direct.menoh_make_variable_profile_table_builder(dst_handle);
+    }
+
+    @Override
+    public void menoh_delete_variable_profile_table_builder(Pointer builder) {
+        Direct.menoh_delete_variable_profile_table_builder(builder);
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_input_profile_dims_2(Pointer builder, String name, int dtype, int num, int size) {
+        return Direct.menoh_variable_profile_table_builder_add_input_profile_dims_2(builder, name, dtype, num, size);
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_input_profile_dims_4(Pointer builder, String name, int dtype, int num, int channel, int height, int width) {
+        return Direct.menoh_variable_profile_table_builder_add_input_profile_dims_4(builder, name, dtype, num, channel, height, width);
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_output_profile(Pointer builder, String name, int dtype) {
+        return Direct.menoh_variable_profile_table_builder_add_output_profile(builder, name, dtype);
+    }
+
+    @Override
+    public int menoh_build_variable_profile_table(Pointer builder, Pointer model_data, PointerByReference dst_handle) {
+        return Direct.menoh_build_variable_profile_table(builder, model_data, dst_handle);
+    }
+
+    @Override
+    public void menoh_delete_variable_profile_table(Pointer variable_profile_table) {
+        Direct.menoh_delete_variable_profile_table(variable_profile_table);
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dtype(Pointer variable_profile_table, String variable_name, IntByReference dst_dtype) {
+        return Direct.menoh_variable_profile_table_get_dtype(variable_profile_table, variable_name, dst_dtype);
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dims_size(Pointer variable_profile_table, String variable_name, IntByReference dst_size) {
+        return Direct.menoh_variable_profile_table_get_dims_size(variable_profile_table, variable_name, dst_size);
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dims_at(Pointer variable_profile_table, String variable_name, int index, IntByReference dst_size) {
+        return Direct.menoh_variable_profile_table_get_dims_at(variable_profile_table, variable_name, index, dst_size);
+    }
+
+    @Override
+    public int menoh_make_model_builder(Pointer variable_profile_table, PointerByReference dst_handle) {
+        return Direct.menoh_make_model_builder(variable_profile_table, dst_handle);
+    }
+
+    @Override
+    public void menoh_delete_model_builder(Pointer model_builder) {
+        Direct.menoh_delete_model_builder(model_builder);
+    }
+
+    @Override
+    public int menoh_model_builder_attach_external_buffer(Pointer builder, String variable_name, Pointer buffer_handle) {
+        return Direct.menoh_model_builder_attach_external_buffer(builder, variable_name, buffer_handle);
+    }
+
+    @Override
+    public int menoh_build_model(Pointer builder, Pointer model_data, String backend_name, String backend_config, PointerByReference dst_model_handle) {
+        return Direct.menoh_build_model(builder, model_data, backend_name, backend_config, dst_model_handle);
+    }
+
+    @Override
+    public void menoh_delete_model(Pointer model) {
+        Direct.menoh_delete_model(model);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dtype(Pointer model, String variable_name, IntByReference dst_dtype) {
+        return Direct.menoh_model_get_variable_dtype(model, variable_name, dst_dtype);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dtype(Pointer model, Pointer variable_name, IntByReference dst_dtype) {
+        return Direct.menoh_model_get_variable_dtype(model, variable_name, dst_dtype);
+    }
+
+    @Override
+    public int menoh_model_run(Pointer model) {
+        return Direct.menoh_model_run(model);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_size(Pointer model, String variable_name, IntByReference dst_size) {
+        return Direct.menoh_model_get_variable_dims_size(model, variable_name, dst_size);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_size(Pointer model, Pointer variable_name, IntByReference dst_size) {
+        return Direct.menoh_model_get_variable_dims_size(model, variable_name, dst_size);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_at(Pointer model, String variable_name, int index, IntByReference dst_size) {
+        return Direct.menoh_model_get_variable_dims_at(model, variable_name, index, dst_size);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_at(Pointer model, Pointer variable_name, int index, IntByReference dst_size) {
+        return Direct.menoh_model_get_variable_dims_at(model, variable_name, index, dst_size);
+    }
+
+    @Override
+    public int menoh_model_get_variable_buffer_handle(Pointer model, String variable_name, PointerByReference dst_data) {
+        return Direct.menoh_model_get_variable_buffer_handle(model, variable_name, dst_data);
+    }
+
+    @Override
+    public int menoh_model_get_variable_buffer_handle(Pointer model, Pointer variable_name, PointerByReference dst_data) {
+        return Direct.menoh_model_get_variable_buffer_handle(model, variable_name, dst_data);
+    }
+
+    private static final class Direct {
+        static {
+            Native.register(Direct.class, "menoh");
+        }
+
+        static native String menoh_get_last_error_message();
+
+        static native int menoh_make_model_data_from_onnx(String onnx_filename, PointerByReference dst_handle);
+
+        static native int menoh_make_model_data_from_onnx_data_on_memory(Pointer onnx_data, int size, PointerByReference dst_handle);
+
+        static native void menoh_delete_model_data(Pointer model_data);
+
+        static native int menoh_model_data_optimize(Pointer model_data, Pointer variable_profile_table);
+
+        static native int menoh_make_variable_profile_table_builder(PointerByReference dst_handle);
+
+        static native void menoh_delete_variable_profile_table_builder(Pointer builder);
+
+        static native int menoh_variable_profile_table_builder_add_input_profile_dims_2(Pointer builder, String name, int dtype, int num, int size);
+
+        static native int menoh_variable_profile_table_builder_add_input_profile_dims_4(Pointer builder, String name, int dtype, int num, int channel, int height, int width);
+
+        static native int menoh_variable_profile_table_builder_add_output_profile(Pointer builder, String name, int dtype);
+
+        static native int menoh_build_variable_profile_table(Pointer builder, Pointer model_data, PointerByReference dst_handle);
+
+        static native void menoh_delete_variable_profile_table(Pointer variable_profile_table);
+
+        static native int menoh_variable_profile_table_get_dtype(Pointer variable_profile_table, String variable_name, IntByReference dst_dtype);
+
+        static native int menoh_variable_profile_table_get_dims_size(Pointer variable_profile_table, String variable_name, IntByReference dst_size);
+
+        static native int menoh_variable_profile_table_get_dims_at(Pointer variable_profile_table, String variable_name, int index, IntByReference dst_size);
+
+        static native int menoh_make_model_builder(Pointer variable_profile_table, PointerByReference dst_handle);
+
+        static native void menoh_delete_model_builder(Pointer model_builder);
+
+        static native int menoh_model_builder_attach_external_buffer(Pointer builder, String variable_name, Pointer buffer_handle);
+
+        static native int menoh_build_model(Pointer builder, Pointer model_data, String backend_name, String backend_config, PointerByReference dst_model_handle);
+
+        static native void menoh_delete_model(Pointer model);
+
+        static native int menoh_model_get_variable_dtype(Pointer model, String variable_name, IntByReference dst_dtype);
+
+        static native int menoh_model_get_variable_dtype(Pointer model, Pointer variable_name, IntByReference dst_dtype);
+
+        static native int menoh_model_run(Pointer model);
+
+        static native int menoh_model_get_variable_dims_size(Pointer model, String variable_name, IntByReference dst_size);
+
+        static native int menoh_model_get_variable_dims_size(Pointer model, Pointer variable_name, IntByReference dst_size);
+
+        static native int menoh_model_get_variable_dims_at(Pointer model, String variable_name, int index, IntByReference dst_size);
+
+        static native int menoh_model_get_variable_dims_at(Pointer model, Pointer variable_name, int index, IntByReference dst_size);
+
+        static native int menoh_model_get_variable_buffer_handle(Pointer model, String variable_name, PointerByReference dst_data);
+
+        static native int menoh_model_get_variable_buffer_handle(Pointer model, Pointer variable_name, PointerByReference dst_data);
+    }
+}
+// CHECKSTYLE:ON
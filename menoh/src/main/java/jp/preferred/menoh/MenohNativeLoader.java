@@ -0,0 +1,123 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Native;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * <p>Loads the implementation of {@link MenohNative} selected by the system property
+ * <code>jp.preferred.menoh.binding</code> at startup:</p>
+ *
+ * <ul>
+ *     <li><code>auto</code> (default): <code>jna</code></li>
+ *     <li><code>jna</code>: the interface mapping of JNA</li>
+ *     <li><code>jna-direct</code>: the direct mapping of JNA, which has less overhead per call</li>
+ *     <li><code>panama</code>: the Foreign Function &amp; Memory API, which requires JDK 22 or later and
+ *     <code>menoh-panama</code> module in the class path. It is experimental, so it is used only if it is
+ *     specified explicitly</li>
+ *     <li>the {@link MenohNativeProvider#name()} of a provider in the class path, e.g. <code>simulated</code>
+ *     for {@link SimulatedMenohNative}</li>
+ * </ul>
+ */
+final class MenohNativeLoader {
+    static final String BINDING_PROPERTY = "jp.preferred.menoh.binding";
+
+    static final String AUTO = "auto";
+
+    static final String JNA = "jna";
+
+    static final String JNA_DIRECT = "jna-direct";
+
+    static final String PANAMA = "panama";
+
+    /**
+     * The implementation of <code>panama</code> binding in <code>menoh-panama</code> module.
+     */
+    static final String PANAMA_CLASS_NAME = "jp.preferred.menoh.MenohNativePanama";
+
+    /**
+     * The first version of Java SE in which the Foreign Function &amp; Memory API is final.
+     */
+    private static final int PANAMA_JAVA_VERSION = 22;
+
+    private MenohNativeLoader() {
+    }
+
+    static MenohNative load() {
+        return load(System.getProperty(BINDING_PROPERTY, AUTO));
+    }
+
+    /**
+     * Loads the specified binding.
+     *
+     * @throws IllegalArgumentException if the binding is unknown
+     */
+    static MenohNative load(String binding) {
+        switch (binding) {
+            case AUTO:
+                return load(JNA);
+            case JNA:
+                return (MenohNative) Native.loadLibrary("menoh", MenohNative.class);
+            case JNA_DIRECT:
+                return new MenohNativeDirect();
+            case PANAMA:
+                return loadPanama();
+            default:
+                return loadProvider(binding);
+        }
+    }
+
+    private static MenohNative loadProvider(String binding) {
+        final List<String> names = new ArrayList<>();
+        for (MenohNativeProvider provider
+                : ServiceLoader.load(MenohNativeProvider.class, MenohNativeLoader.class.getClassLoader())) {
+            if (provider.name().equals(binding)) {
+                return provider.create();
+            }
+            names.add(provider.name());
+        }
+
+        throw new IllegalArgumentException(String.format(
+                "unknown binding: %s (it must be \"%s\", \"%s\", \"%s\", \"%s\" or a provider in %s)",
+                binding, AUTO, JNA, JNA_DIRECT, PANAMA, names));
+    }
+
+    /**
+     * Returns the feature version of <code>java.specification.version</code>, e.g. 8 for "1.8" and 22 for "22".
+     */
+    static int javaVersion(String specVersion) {
+        if (specVersion == null) {
+            return 0;
+        }
+
+        final String v = specVersion.startsWith("1.") ? specVersion.substring(2) : specVersion;
+        final int dot = v.indexOf('.');
+        try {
+            return Integer.parseInt(dot >= 0 ? v.substring(0, dot) : v);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static MenohNative loadPanama() {
+        if (javaVersion(System.getProperty("java.specification.version")) < PANAMA_JAVA_VERSION) {
+            throw new IllegalStateException("panama binding requires JDK " + PANAMA_JAVA_VERSION + " or later");
+        }
+
+        final Class<?> clazz;
+        try {
+            clazz = Class.forName(PANAMA_CLASS_NAME, true, MenohNativeLoader.class.getClassLoader());
+        } catch (ClassNotFoundException | UnsupportedClassVersionError e) {
+            throw new IllegalStateException(
+                    "panama binding requires JDK " + PANAMA_JAVA_VERSION + " or later and menoh-panama module", e);
+        }
+
+        try {
+            return (MenohNative) clazz.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("failed to instantiate " + PANAMA_CLASS_NAME, e);
+        }
+    }
+}
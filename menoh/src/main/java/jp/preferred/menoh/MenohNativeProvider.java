@@ -0,0 +1,24 @@
+package jp.preferred.menoh;
+
+/**
+ * <p>A service provider interface to plug an implementation of {@link MenohNative} into menoh-java, e.g.
+ * a binding with another FFI library or a stand-in which runs without the native library.</p>
+ *
+ * <p>The providers are looked up by {@link java.util.ServiceLoader} in the class path and the one whose
+ * {@link #name()} is equal to the system property <code>jp.preferred.menoh.binding</code> is used for all
+ * the models in the JVM. The built-in bindings (<code>auto</code>, <code>jna</code>, <code>jna-direct</code>
+ * and <code>panama</code>) take precedence over the providers.</p>
+ */
+public interface MenohNativeProvider {
+    /**
+     * The name of the binding, which is specified by <code>jp.preferred.menoh.binding</code>.
+     */
+    String name();
+
+    /**
+     * Creates the implementation. It is called at most once in the JVM.
+     *
+     * @throws UnsatisfiedLinkError if the underlying library is not available
+     */
+    MenohNative create();
+}
@@ -0,0 +1,72 @@
+package jp.preferred.menoh;
+
+/**
+ * <p>A service provider interface to trace the major operations of menoh-java, e.g. emitting the events
+ * of Java Flight Recorder in the <code>menoh-jfr</code> module.</p>
+ *
+ * <p>The first implementation found by {@link java.util.ServiceLoader} in the class path is used. If no
+ * implementation is found, the operations are not traced at all.</p>
+ */
+public interface MenohTracer {
+    /**
+     * The traced operations.
+     */
+    enum Operation {
+        /**
+         * {@link ModelData#fromOnnxFile(String)} and the other factories of {@link ModelData}.
+         */
+        LOAD_MODEL_DATA,
+
+        /**
+         * {@link VariableProfileTableBuilder#build(ModelData)}.
+         */
+        BUILD_VARIABLE_PROFILE_TABLE,
+
+        /**
+         * {@link ModelData#optimize(VariableProfileTable)}.
+         */
+        OPTIMIZE_MODEL_DATA,
+
+        /**
+         * {@link ModelBuilder#build(ModelData, String, String)}.
+         */
+        BUILD_MODEL,
+
+        /**
+         * {@link Model#run()}.
+         */
+        RUN_MODEL,
+
+        /**
+         * Copying an input to a variable in {@link ModelRunner}.
+         */
+        ASSIGN_INPUT
+    }
+
+    /**
+     * <p>Begins tracing the specified operation. It is called on the hot path, so it should return
+     * <code>null</code> without allocating any object if the operation is not recorded.</p>
+     *
+     * @return a span which will be ended after the operation finished, or <code>null</code>
+     */
+    Span begin(Operation operation);
+
+    /**
+     * A traced operation in progress.
+     */
+    interface Span {
+        /**
+         * <p>Ends the operation with its attributes, whether it succeeded or not. The attributes not related to
+         * the operation are <code>null</code> or zero.</p>
+         *
+         * @param modelPath the path of the ONNX model
+         * @param backendName the name of the backend
+         * @param backendConfig the config of the backend
+         * @param variables the names and the dims of the variables (e.g. <code>"input[1, 3, 224, 224]"</code>)
+         * @param bytes the number of the processed bytes
+         * @param failed whether the operation threw an exception
+         */
+        void end(String modelPath, String backendName, String backendConfig, String variables, long bytes,
+                boolean failed);
+    }
+}
@@ -6,25 +6,114 @@ import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.PointerByReference;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * <p>A representation of the model. It will be built by {@link ModelBuilder}.</p>
  *
  * <p>Make sure to {@link #close()} this object after finishing the process to free the underlying memory
- * in the native heap.</p>
+ * in the native heap. It waits for the runs in progress on the other threads, so the model can be closed while
+ * it is used, e.g. to swap the model, without freeing the memory under the native code.</p>
  */
 public class Model implements AutoCloseable {
     private Pointer handle;
 
+    /**
+     * The tracked handle, or <code>null</code> if the model is run in Java.
+     */
+    private final NativeResources.Handle resource;
+
+    /**
+     * The number of the operations in progress on the native handle, with {@link #CLOSED} in the sign bit after
+     * <code>close()</code> starts. The operations only increment and decrement it without taking the monitor.
+     */
+    private final AtomicInteger state = new AtomicInteger();
+
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    /**
+     * The thread waiting in <code>close()</code> for the operations in progress, or <code>null</code>.
+     */
+    private volatile Thread closingThread;
+
+    /**
+     * The model run in Java if it is built with {@link JavaModel#BACKEND_NAME}, or <code>null</code>.
+     */
+    private JavaModel javaModel;
+
     /**
      * A reference to the pointers to prevent them from getting garbage collected.
      */
     private final List<Pointer> externalBuffers;
 
-    Model(Pointer handle, List<Pointer> externalBuffers) {
+    /**
+     * The blocks of {@link NativeArena} referenced by this model, which are released on <code>close()</code>.
+     */
+    private final List<NativeArena.Block> blocks;
+
+    /**
+     * A table of the variables which have already been resolved from the native model. The metadata and
+     * the buffer handle of a variable never change once the model is built.
+     */
+    private final ConcurrentMap<String, Variable> variables = new ConcurrentHashMap<>();
+
+    /**
+     * The attributes of the model for tracing.
+     */
+    private final String modelPath;
+
+    private final String backendName;
+
+    private final String backendConfig;
+
+    /**
+     * The dims of the inputs and their total bytes, which are traced for each run.
+     */
+    private final String inputVariables;
+
+    private final long inputBytes;
+
+    Model(Pointer handle, List<Pointer> externalBuffers, List<NativeArena.Block> blocks, String modelPath,
+            String backendName, String backendConfig, Map<String, int[]> inputDims) {
         this.handle = handle;
         this.externalBuffers = externalBuffers;
+        this.blocks = blocks;
+        this.modelPath = modelPath;
+        this.backendName = backendName;
+        this.backendConfig = backendConfig;
+
+        final StringBuilder variables = new StringBuilder();
+        long bytes = 0;
+        for (Map.Entry<String, int[]> e : inputDims.entrySet()) {
+            if (variables.length() > 0) {
+                variables.append(", ");
+            }
+            variables.append(Tracing.describe(e.getKey(), e.getValue()));
+
+            long length = DType.FLOAT.size();
+            for (int d : e.getValue()) {
+                length *= d;
+            }
+            bytes += length;
+        }
+        this.inputVariables = variables.toString();
+        this.inputBytes = bytes;
+
+        this.resource = handle != Pointer.NULL
+                ? NativeResources.track(this, NativeResources.Type.MODEL, handle)
+                : null;
+    }
+
+    Model(JavaModel javaModel, List<Pointer> externalBuffers, List<NativeArena.Block> blocks, String modelPath,
+            String backendConfig, Map<String, int[]> inputDims) {
+        this(Pointer.NULL, externalBuffers, blocks, modelPath, JavaModel.BACKEND_NAME, backendConfig, inputDims);
+        this.javaModel = javaModel;
     }
 
     Pointer nativeHandle() {
@@ -35,56 +124,183 @@ public class Model implements AutoCloseable {
         return this.externalBuffers;
     }
 
+    /**
+     * <p>Marks the beginning of an operation on the native handle, which must be followed by
+     * {@link #release()}.</p>
+     *
+     * @throws IllegalStateException if the model has been closed
+     */
+    void acquire() {
+        if (state.getAndIncrement() < 0) {
+            release();
+            throw new IllegalStateException("the model has already been closed");
+        }
+    }
+
+    /**
+     * Marks the end of an operation on the native handle, waking up <code>close()</code> after the last one.
+     */
+    void release() {
+        if (state.decrementAndGet() == CLOSED) {
+            final Thread t = closingThread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * <p>Frees the model after the runs in progress on the other threads are finished. The following runs fail
+     * with {@link IllegalStateException}.</p>
+     */
     @Override
     public void close() {
         synchronized (this) {
-            if (handle != Pointer.NULL) {
-                MenohNative.INSTANCE.menoh_delete_model(handle);
+            if (handle != Pointer.NULL || javaModel != null) {
+                awaitOperations();
+                if (handle != Pointer.NULL) {
+                    MenohNative.INSTANCE.menoh_delete_model(handle);
+                    resource.close();
+                }
                 handle = Pointer.NULL;
+                javaModel = null;
                 externalBuffers.clear();
+                variables.clear();
+                ModelBuilder.releaseAll(blocks);
             }
         }
     }
 
+    /**
+     * Rejects the new operations and waits for the ones in progress uninterruptibly.
+     */
+    private void awaitOperations() {
+        closingThread = Thread.currentThread();
+        int s;
+        do {
+            s = state.get();
+        } while (!state.compareAndSet(s, s | CLOSED));
+
+        boolean interrupted = false;
+        while (state.get() != CLOSED) {
+            LockSupport.park(this);
+            interrupted |= Thread.interrupted();
+        }
+        closingThread = null;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Creates a {@link ModelBuilder}.
      */
     public static ModelBuilder builder(VariableProfileTable vpt) throws MenohException {
+        final Map<String, Long> byteSizes = vpt.byteSizes();
         final PointerByReference ref = new PointerByReference();
         checkError(MenohNative.INSTANCE.menoh_make_model_builder(vpt.nativeHandle(), ref));
 
-        return new ModelBuilder(ref.getValue());
+        return new ModelBuilder(ref.getValue(), vpt.inputDims(), vpt.outputNames(), byteSizes);
     }
 
     /**
-     * Returns a {@link Variable} with the specified name.
+     * <p>Returns a {@link Variable} with the specified name.</p>
+     *
+     * <p>The variable is looked up from the native model only once and the same instance is returned
+     * afterwards.</p>
      */
     public Variable variable(String variableName) throws MenohException {
+        final Variable v = variables.get(variableName);
+        if (v != null) {
+            return v;
+        }
+
+        final Variable resolved = resolveVariable(variableName);
+        final Variable prev = variables.putIfAbsent(variableName, resolved);
+
+        return prev != null ? prev : resolved;
+    }
+
+    /**
+     * Resolves the specified variables in advance to avoid querying them on the first <code>run()</code>.
+     */
+    void resolveVariables(Collection<String> variableNames) throws MenohException {
+        for (String name : variableNames) {
+            variable(name);
+        }
+    }
+
+    private Variable resolveVariable(String variableName) throws MenohException {
+        acquire();
+        try {
+            return resolveVariableAcquired(variableName);
+        } finally {
+            release();
+        }
+    }
+
+    private Variable resolveVariableAcquired(String variableName) throws MenohException {
+        final JavaModel jm = javaModel;
+        if (jm != null) {
+            return jm.variable(variableName);
+        }
+
+        // encode the name only once for all the queries below
+        final Pointer name = BufferUtils.copyToNativeString(variableName);
         final IntByReference dtype = new IntByReference();
 
-        checkError(MenohNative.INSTANCE.menoh_model_get_variable_dtype(handle, variableName, dtype));
+        checkError(MenohNative.INSTANCE.menoh_model_get_variable_dtype(handle, name, dtype));
 
         final IntByReference dimsSize = new IntByReference();
-        checkError(MenohNative.INSTANCE.menoh_model_get_variable_dims_size(handle, variableName, dimsSize));
+        checkError(MenohNative.INSTANCE.menoh_model_get_variable_dims_size(handle, name, dimsSize));
 
         final int[] dims = new int[dimsSize.getValue()];
 
+        final IntByReference d = new IntByReference();
         for (int i = 0; i < dimsSize.getValue(); ++i) {
-            final IntByReference d = new IntByReference();
-            checkError(MenohNative.INSTANCE.menoh_model_get_variable_dims_at(handle, variableName, i, d));
+            checkError(MenohNative.INSTANCE.menoh_model_get_variable_dims_at(handle, name, i, d));
             dims[i] = d.getValue();
         }
 
         final PointerByReference buffer = new PointerByReference();
-        checkError(MenohNative.INSTANCE.menoh_model_get_variable_buffer_handle(handle, variableName, buffer));
+        checkError(MenohNative.INSTANCE.menoh_model_get_variable_buffer_handle(handle, name, buffer));
 
         return new Variable(DType.valueOf(dtype.getValue()), dims, buffer.getValue());
     }
 
     /**
-     * Run this model.
+     * <p>Run this model. It can be called concurrently with {@link #close()}, which waits for it.</p>
+     *
+     * @throws IllegalStateException if the model has been closed
      */
     public void run() throws MenohException {
-        checkError(MenohNative.INSTANCE.menoh_model_run(handle));
+        acquire();
+        try {
+            final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.RUN_MODEL);
+            boolean failed = true;
+            try {
+                final JavaModel jm = javaModel;
+                if (jm != null) {
+                    jm.run();
+                } else {
+                    checkError(MenohNative.INSTANCE.menoh_model_run(handle));
+                }
+                failed = false;
+            } finally {
+                if (span != null) {
+                    span.end(modelPath, backendName, backendConfig, inputVariables, inputBytes, failed);
+                }
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Ends the span of the specified operation on this model.
+     */
+    void endSpan(MenohTracer.Span span, String variables, long bytes, boolean failed) {
+        span.end(modelPath, backendName, backendConfig, variables, bytes, failed);
     }
 }
@@ -9,7 +9,9 @@ import com.sun.jna.ptr.PointerByReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>A builder object for {@link Model}.</p>
@@ -20,13 +22,39 @@ import java.util.List;
 public class ModelBuilder implements AutoCloseable {
     private Pointer handle;
 
+    private final NativeResources.Handle resource;
+
     /**
      * A reference to the pointers to prevent them from getting garbage collected.
      */
     private final List<Pointer> externalBuffers = new ArrayList<>();
 
-    ModelBuilder(Pointer handle) {
+    /**
+     * The blocks of {@link NativeArena} referenced by this builder, to which the attached buffers are copied.
+     */
+    private final List<NativeArena.Block> blocks = new ArrayList<>();
+
+    /**
+     * The profiles and the attached buffers for {@link JavaModel}.
+     */
+    private final Map<String, int[]> inputDims;
+
+    private final List<String> outputNames;
+
+    private final Map<String, Pointer> attachedBuffers = new HashMap<>();
+
+    /**
+     * The byte sizes of the profiled variables, which the attached buffers must have at least.
+     */
+    private final Map<String, Long> byteSizes;
+
+    ModelBuilder(Pointer handle, Map<String, int[]> inputDims, List<String> outputNames,
+                 Map<String, Long> byteSizes) {
         this.handle = handle;
+        this.inputDims = inputDims;
+        this.outputNames = outputNames;
+        this.byteSizes = byteSizes;
+        this.resource = NativeResources.track(this, NativeResources.Type.MODEL_BUILDER, handle);
     }
 
     Pointer nativeHandle() {
@@ -46,7 +74,10 @@ public class ModelBuilder implements AutoCloseable {
             if (handle != Pointer.NULL) {
                 MenohNative.INSTANCE.menoh_delete_model_builder(handle);
                 handle = Pointer.NULL;
+                resource.close();
                 externalBuffers.clear();
+                attachedBuffers.clear();
+                releaseAll(blocks);
             }
         }
     }
@@ -55,7 +86,7 @@ public class ModelBuilder implements AutoCloseable {
      * <p>Attaches a non-empty external buffer to the specified variable.</p>
      *
      * <p>If the specified <code>buffer</code> is direct, it will be attached to the model directly without
-     * copying. Otherwise, it copies the content to a newly allocated buffer in the native heap ranging from
+     * copying. Otherwise, it copies the content to a block of {@link NativeArena} ranging from
      * <code>position()</code> to <code>(limit() - 1)</code> without changing its position.</p>
      *
      * <p>The attached buffer can be accessed through {@link Model#variable(String)}.</p>
@@ -67,20 +98,28 @@ public class ModelBuilder implements AutoCloseable {
      * @param buffer the byte buffer from which to copy
      * @return this object
      *
-     * @throws IllegalArgumentException if <code>buffer</code> is null or empty
+     * @throws IllegalArgumentException if <code>buffer</code> is null or empty, or smaller than the variable in
+     *     the profile
      */
     public ModelBuilder attachExternalBuffer(String variableName, ByteBuffer buffer) throws MenohException {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer must not be null or empty");
+        }
+        if (!buffer.isDirect()) {
+            return attachBlock(variableName, NativeArena.copyOf(buffer), buffer.remaining());
+        }
+
         final Pointer bufferHandle = copyToNativeMemory(buffer);
         synchronized (this) {
             externalBuffers.add(bufferHandle);
         }
 
-        return attachImpl(variableName, bufferHandle);
+        return attachImpl(variableName, bufferHandle, buffer.remaining());
     }
 
     /**
      * <p>Attaches a non-empty external buffer to the specified variable. It also copies the content of the
-     * <code>values</code> to a newly allocated buffer in the native heap.</p>
+     * <code>values</code> to a block of {@link NativeArena}.</p>
      *
      * <p>The buffer can be accessed through {@link Model#variable(String)}.</p>
      *
@@ -88,7 +127,8 @@ public class ModelBuilder implements AutoCloseable {
      * @param values the byte buffer from which to copy
      * @return this object
      *
-     * @throws IllegalArgumentException if <code>values</code> is null or empty
+     * @throws IllegalArgumentException if <code>values</code> is null or empty, or smaller than the variable in
+     *     the profile
      */
     public ModelBuilder attachExternalBuffer(String variableName, float[] values) throws MenohException {
         return attachExternalBuffer(variableName, values, 0, values.length);
@@ -96,8 +136,8 @@ public class ModelBuilder implements AutoCloseable {
 
     /**
      * <p>Attaches a non-empty external buffer to the specified variable. It also copies the content of the
-     * <code>values</code> to a newly allocated buffer in the native heap ranging from <code>offset</code>
-     * to <code>(offset + length - 1)</code>.</p>
+     * <code>values</code> to a block of {@link NativeArena} ranging from <code>offset</code> to
+     * <code>(offset + length - 1)</code>.</p>
      *
      * <p>The buffer can be accessed through {@link Model#variable(String)}.</p>
      *
@@ -107,21 +147,51 @@ public class ModelBuilder implements AutoCloseable {
      * @param length the number of elements from <code>values</code> that must be copied
      * @return this object
      *
-     * @throws IllegalArgumentException if <code>values</code> is null or empty
+     * @throws IllegalArgumentException if <code>values</code> is null or empty, or smaller than the variable in
+     *     the profile
      */
     public ModelBuilder attachExternalBuffer(
             String variableName, float[] values, int offset, int length) throws MenohException {
-        final Pointer bufferHandle = copyToNativeMemory(values, offset, length);
+        return attachBlock(variableName, NativeArena.copyOf(values, offset, length), (long) length * 4);
+    }
+
+    /**
+     * Attaches the first <code>length</code> bytes of a block of {@link NativeArena} to the specified variable,
+     * adding a reference to it.
+     */
+    ModelBuilder attachExternalBuffer(
+            String variableName, NativeArena.Block block, long length) throws MenohException {
+        block.retain();
+        return attachBlock(variableName, block, length);
+    }
+
+    /**
+     * Attaches a block whose reference is taken over by this builder.
+     */
+    private ModelBuilder attachBlock(
+            String variableName, NativeArena.Block block, long length) throws MenohException {
         synchronized (this) {
-            externalBuffers.add(bufferHandle);
+            blocks.add(block);
+            externalBuffers.add(block.pointer());
         }
 
-        return attachImpl(variableName, bufferHandle);
+        return attachImpl(variableName, block.pointer(), length);
     }
 
-    private ModelBuilder attachImpl(String variableName, Pointer bufferHandle) throws MenohException {
+    private ModelBuilder attachImpl(String variableName, Pointer bufferHandle, long length) throws MenohException {
+        // Menoh reads and writes the buffer as large as the variable without knowing its length
+        final Long required = byteSizes.get(variableName);
+        if (required != null && length < required) {
+            throw new IllegalArgumentException(String.format(
+                    "the buffer of %d bytes is smaller than the variable %s of %d bytes",
+                    length, variableName, required));
+        }
+
         checkError(MenohNative.INSTANCE.menoh_model_builder_attach_external_buffer(
                 handle, variableName, bufferHandle));
+        synchronized (this) {
+            attachedBuffers.put(variableName, bufferHandle);
+        }
 
         return this;
     }
@@ -131,14 +201,77 @@ public class ModelBuilder implements AutoCloseable {
      *
      * <p>Menoh will allocate a new buffer for input and output variables to which an external buffer is not
      * attached. It can be accessed via {@link Model#variable(String)}.</p>
+     *
+     * <p>The backend <code>"java"</code> runs the model by the reference inference engine in Java instead of
+     * the native library. It parses the ONNX file of the <code>modelData</code> again, so the model data must
+     * be loaded from a file and it ignores the optimization of the model data.</p>
      */
     public Model build(ModelData modelData, String backendName, String backendConfig) throws MenohException {
+        if (JavaModel.BACKEND_NAME.equals(backendName)) {
+            return buildJavaModel(modelData, backendConfig);
+        }
+
+        final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.BUILD_MODEL);
         final PointerByReference ref = new PointerByReference();
-        checkError(MenohNative.INSTANCE.menoh_build_model(
-                this.handle, modelData.nativeHandle(), backendName, backendConfig, ref));
+        boolean failed = true;
+        try {
+            checkError(MenohNative.INSTANCE.menoh_build_model(
+                    this.handle, modelData.nativeHandle(), backendName, backendConfig, ref));
+            failed = false;
+        } finally {
+            if (span != null) {
+                span.end(modelData.path(), backendName, backendConfig, null, 0L, failed);
+            }
+        }
 
         synchronized (this) {
-            return new Model(ref.getValue(), new ArrayList<>(this.externalBuffers));
+            return new Model(ref.getValue(), new ArrayList<>(this.externalBuffers), retainAll(blocks), modelData.path(),
+                    backendName, backendConfig, inputDims);
+        }
+    }
+
+    private Model buildJavaModel(ModelData modelData, String backendConfig) throws MenohException {
+        if (modelData.path() == null) {
+            throw new MenohException(
+                    ErrorCode.INVALID_FILENAME, "the backend \"java\" requires the model data loaded from a file");
+        }
+
+        final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.BUILD_MODEL);
+        boolean failed = true;
+        try {
+            final OnnxGraph graph = OnnxGraph.fromFile(modelData.path());
+            synchronized (this) {
+                final JavaModel javaModel = JavaModel.build(graph, inputDims, outputNames, attachedBuffers);
+                failed = false;
+
+                return new Model(javaModel, new ArrayList<>(this.externalBuffers), retainAll(blocks),
+                        modelData.path(), backendConfig, inputDims);
+            }
+        } finally {
+            if (span != null) {
+                span.end(modelData.path(), JavaModel.BACKEND_NAME, backendConfig, null, 0L, failed);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the blocks after adding a reference to each of them for a model.
+     */
+    private static List<NativeArena.Block> retainAll(List<NativeArena.Block> blocks) {
+        for (NativeArena.Block b : blocks) {
+            b.retain();
+        }
+
+        return new ArrayList<>(blocks);
+    }
+
+    /**
+     * Releases the references to the blocks and clears the list.
+     */
+    static void releaseAll(List<NativeArena.Block> blocks) {
+        for (NativeArena.Block b : blocks) {
+            b.release();
         }
+        blocks.clear();
     }
 }
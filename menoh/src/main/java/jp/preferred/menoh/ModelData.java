@@ -5,6 +5,13 @@ import static jp.preferred.menoh.MenohException.checkError;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.PointerByReference;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
 /**
  * <p>A model data.</p>
  *
@@ -14,42 +21,242 @@ import com.sun.jna.ptr.PointerByReference;
 public class ModelData implements AutoCloseable {
     private Pointer handle;
 
-    private ModelData(Pointer handle) {
+    /**
+     * The path of the ONNX model, or <code>null</code> if it is unknown.
+     */
+    private final String path;
+
+    /**
+     * The entry of {@link ModelDataCache} which this object refers to, or <code>null</code> if this object owns
+     * the handle.
+     */
+    private final ModelDataCache.Entry sharedEntry;
+
+    /**
+     * The tracked handle, or <code>null</code> if the handle is owned by {@link ModelDataCache}.
+     */
+    private final NativeResources.Handle resource;
+
+    private ModelData(Pointer handle, String path) {
+        this(handle, path, null);
+    }
+
+    ModelData(Pointer handle, String path, ModelDataCache.Entry sharedEntry) {
         this.handle = handle;
+        this.path = path;
+        this.sharedEntry = sharedEntry;
+        this.resource = sharedEntry == null
+                ? NativeResources.track(this, NativeResources.Type.MODEL_DATA, handle)
+                : null;
     }
 
     Pointer nativeHandle() {
         return this.handle;
     }
 
+    String path() {
+        return this.path;
+    }
+
+    /**
+     * Whether this object is a reference to the model data shared by {@link ModelDataCache}.
+     */
+    public boolean isShared() {
+        return this.sharedEntry != null;
+    }
+
     /**
-     * Optimizes this model data.
+     * <p>Optimizes this model data.</p>
      *
      * @return this object
+     * @throws IllegalStateException if this model data is shared, which must not be modified in place
      */
     public ModelData optimize(VariableProfileTable vpt) throws MenohException {
-        checkError(MenohNative.INSTANCE.menoh_model_data_optimize(handle, vpt.nativeHandle()));
+        if (sharedEntry != null) {
+            throw new IllegalStateException("the shared model data can't be optimized: " + path);
+        }
+
+        final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.OPTIMIZE_MODEL_DATA);
+        boolean failed = true;
+        try {
+            checkError(MenohNative.INSTANCE.menoh_model_data_optimize(handle, vpt.nativeHandle()));
+            failed = false;
+        } finally {
+            if (span != null) {
+                span.end(path, null, null, null, 0L, failed);
+            }
+        }
 
         return this;
     }
 
+    /**
+     * <p>Frees the model data. If it is shared, it releases the reference to the shared data, which is freed
+     * after all the references are released.</p>
+     */
     @Override
     public void close() {
         synchronized (this) {
             if (handle != Pointer.NULL) {
-                MenohNative.INSTANCE.menoh_delete_model_data(handle);
+                if (sharedEntry != null) {
+                    sharedEntry.release();
+                } else {
+                    MenohNative.INSTANCE.menoh_delete_model_data(handle);
+                    resource.close();
+                }
                 handle = Pointer.NULL;
             }
         }
     }
 
     /**
-     * Loads an ONNX model from the specified file.
+     * <p>Loads an ONNX model from the specified file.</p>
+     *
+     * <p>The file may be compressed by gzip, e.g. <code>model.onnx.gz</code>, which is detected by its
+     * magic number. It is decompressed into a direct buffer in the native heap and passed to the native library
+     * without a temporary file.</p>
      */
     public static ModelData fromOnnxFile(String onnxModelPath) throws MenohException {
+        if (ModelFiles.compression(onnxModelPath) != ModelFiles.Compression.NONE) {
+            return fromCompressedOnnxFile(onnxModelPath);
+        }
+
+        final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.LOAD_MODEL_DATA);
         final PointerByReference handle = new PointerByReference();
-        checkError(MenohNative.INSTANCE.menoh_make_model_data_from_onnx(onnxModelPath, handle));
+        boolean failed = true;
+        try {
+            checkError(MenohNative.INSTANCE.menoh_make_model_data_from_onnx(onnxModelPath, handle));
+            failed = false;
+        } finally {
+            if (span != null) {
+                span.end(onnxModelPath, null, null, null, new File(onnxModelPath).length(), failed);
+            }
+        }
+
+        return new ModelData(handle.getValue(), onnxModelPath);
+    }
+
+    private static ModelData fromCompressedOnnxFile(String onnxModelPath) throws MenohException {
+        // the span includes the time to decompress the model
+        final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.LOAD_MODEL_DATA);
+        final ByteBuffer contents;
+        try {
+            contents = ModelFiles.read(onnxModelPath);
+        } catch (RuntimeException | Error e) {
+            if (span != null) {
+                span.end(onnxModelPath, null, null, null, 0L, true);
+            }
+            throw e;
+        }
+
+        return fromOnnxBytes(contents, onnxModelPath, span);
+    }
+
+    /**
+     * Loads an ONNX model from the contents of the compressed file which are already decompressed by
+     * {@link ModelFiles#read(String)}.
+     */
+    static ModelData fromDecompressedOnnxFile(String onnxModelPath, ByteBuffer contents) throws MenohException {
+        return fromOnnxBytes(contents, onnxModelPath, Tracing.begin(MenohTracer.Operation.LOAD_MODEL_DATA));
+    }
+
+    /**
+     * <p>Loads an ONNX model from <code>position()</code> to <code>(limit() - 1)</code> of the buffer without
+     * changing its position.</p>
+     *
+     * <p>If the <code>buffer</code> is direct, e.g. a {@link java.nio.MappedByteBuffer} of the model file, it is
+     * passed to the native library without copying. Otherwise, it is copied to the native heap first. The
+     * buffer is read only during this call.</p>
+     *
+     * @throws IllegalArgumentException if <code>buffer</code> is null or empty
+     */
+    public static ModelData fromOnnxBytes(ByteBuffer buffer) throws MenohException {
+        return fromOnnxBytes(buffer, null, Tracing.begin(MenohTracer.Operation.LOAD_MODEL_DATA));
+    }
+
+    private static ModelData fromOnnxBytes(ByteBuffer buffer, String path, MenohTracer.Span span)
+            throws MenohException {
+        final PointerByReference handle = new PointerByReference();
+        int size = 0;
+        boolean failed = true;
+        try {
+            if (buffer != null && buffer.isDirect()) {
+                final Pointer data = BufferUtils.copyToNativeMemory(buffer);
+                size = buffer.remaining();
+
+                // hold the lock to keep a direct buffer reachable, otherwise it may be freed while the native
+                // code reads it
+                synchronized (buffer) {
+                    checkError(MenohNative.INSTANCE.menoh_make_model_data_from_onnx_data_on_memory(
+                            data, size, handle));
+                }
+            } else {
+                // the copy of the model is needed only during this call, so it is freed right away
+                final BufferUtils.TemporaryMemory data = BufferUtils.copyToTemporaryMemory(buffer);
+                size = (int) data.size();
+                try {
+                    checkError(MenohNative.INSTANCE.menoh_make_model_data_from_onnx_data_on_memory(
+                            data, size, handle));
+                } finally {
+                    data.free();
+                }
+            }
+            failed = false;
+        } finally {
+            if (span != null) {
+                span.end(path, null, null, null, size, failed);
+            }
+        }
+
+        return new ModelData(handle.getValue(), path);
+    }
+
+    /**
+     * <p>Loads an ONNX model from the stream, e.g. a resource in a JAR file, without extracting it to a file.
+     * It reads the stream until the end into a direct buffer but doesn't close the stream.</p>
+     *
+     * @throws IOException if it fails to read the stream
+     * @throws IllegalArgumentException if the stream is empty or larger than 2 GB
+     */
+    public static ModelData fromInputStream(InputStream in) throws IOException, MenohException {
+        return fromOnnxBytes(readFully(in));
+    }
+
+    /**
+     * Reads the stream until the end into a direct buffer.
+     */
+    static ByteBuffer readFully(InputStream in) throws IOException {
+        return readFully(in, in.available());
+    }
+
+    /**
+     * <p>Reads the stream until the end into a direct buffer. If <code>expectedSize</code> is exact, the buffer
+     * is allocated only once.</p>
+     */
+    static ByteBuffer readFully(InputStream in, int expectedSize) throws IOException {
+        final ReadableByteChannel channel = Channels.newChannel(in);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expectedSize > 0 ? expectedSize : 64 * 1024);
+        while (channel.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) {
+                // check the end of the stream before growing the buffer which may be filled exactly
+                final int next = in.read();
+                if (next < 0) {
+                    break;
+                }
+                if (buffer.capacity() == Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("the model is larger than 2 GB");
+                }
+
+                final ByteBuffer larger = ByteBuffer.allocateDirect(
+                        (int) Math.min(Math.max(buffer.capacity() * 2L, 64 * 1024), Integer.MAX_VALUE));
+                buffer.flip();
+                larger.put(buffer);
+                larger.put((byte) next);
+                buffer = larger;
+            }
+        }
+        buffer.flip();
 
-        return new ModelData(handle.getValue());
+        return buffer;
     }
 }
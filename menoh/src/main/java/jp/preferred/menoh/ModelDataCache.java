@@ -0,0 +1,216 @@
+package jp.preferred.menoh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A process-wide cache of {@link ModelData} shared among the builders which load the same ONNX model.</p>
+ *
+ * <p>{@link #fromOnnxFile(String)} returns a reference to the model data parsed by the native library only once
+ * for the same file. The model data is identified by the canonical path, the size and the last modified time
+ * of the file, and by the SHA-256 digest of its content, so that the copies of a model at different paths are
+ * shared as well. A modified file is loaded again as another model data.</p>
+ *
+ * <p>Each reference must be closed by {@link ModelData#close()} as usual. The native model data is freed after
+ * all the references are closed.</p>
+ *
+ * <p>The shared model data is never modified: {@link ModelData#optimize(VariableProfileTable)} fails on it
+ * and {@link ModelRunnerBuilder} builds a model from it without optimizing it. The optimization only reduces
+ * the memory footprint of the model data, which is paid once for all the references.</p>
+ */
+public final class ModelDataCache {
+    private static final Object LOCK = new Object();
+
+    private static final Map<FileKey, Entry> ENTRIES_BY_FILE = new HashMap<>();
+
+    /**
+     * The entries keyed by the SHA-256 digest of the file wrapped in a {@link ByteBuffer}, which is compared
+     * by its content.
+     */
+    private static final Map<ByteBuffer, Entry> ENTRIES_BY_DIGEST = new HashMap<>();
+
+    private ModelDataCache() {
+    }
+
+    /**
+     * <p>Returns a reference to the model data of the specified file, which is loaded by
+     * {@link ModelData#fromOnnxFile(String)} if it is not cached yet.</p>
+     *
+     * <p>Make sure to {@link ModelData#close()} the reference after building the models.</p>
+     */
+    public static ModelData fromOnnxFile(String path) throws MenohException {
+        final FileKey key = FileKey.of(path);
+
+        ModelData reference = acquire(key, null);
+        if (reference != null) {
+            return reference;
+        }
+
+        // hash the file without holding the lock, which is still much faster than parsing it
+        final ByteBuffer digest = digest(key.path);
+        reference = acquire(key, digest);
+        if (reference != null) {
+            return reference;
+        }
+
+        final ModelData modelData = ModelData.fromOnnxFile(key.path);
+        synchronized (LOCK) {
+            // another thread may have loaded the same file in the meantime
+            reference = acquireLocked(key, digest);
+            if (reference == null) {
+                final Entry entry = new Entry(modelData, digest);
+                entry.keys.add(key);
+                ENTRIES_BY_FILE.put(key, entry);
+                ENTRIES_BY_DIGEST.put(digest, entry);
+
+                return entry.newReferenceLocked();
+            }
+        }
+
+        modelData.close();
+        return reference;
+    }
+
+    /**
+     * The number of the model data in the cache.
+     */
+    public static int size() {
+        synchronized (LOCK) {
+            return ENTRIES_BY_DIGEST.size();
+        }
+    }
+
+    private static ModelData acquire(FileKey key, ByteBuffer digest) {
+        synchronized (LOCK) {
+            return acquireLocked(key, digest);
+        }
+    }
+
+    /**
+     * Returns a new reference to the cached entry, or <code>null</code> if it is not found.
+     */
+    private static ModelData acquireLocked(FileKey key, ByteBuffer digest) {
+        Entry entry = ENTRIES_BY_FILE.get(key);
+        if (entry == null && digest != null) {
+            entry = ENTRIES_BY_DIGEST.get(digest);
+            if (entry != null) {
+                // a copy of the cached file
+                entry.keys.add(key);
+                ENTRIES_BY_FILE.put(key, entry);
+            }
+        }
+
+        return entry != null ? entry.newReferenceLocked() : null;
+    }
+
+    private static ByteBuffer digest(String path) throws MenohException {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(ModelFiles.map(path));
+            return ByteBuffer.wrap(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every implementation of the Java platform supports SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The identity of a file which is changed when the file is modified.
+     */
+    private static final class FileKey {
+        private final String path;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private FileKey(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static FileKey of(String path) throws MenohException {
+            try {
+                final File file = new File(path).getCanonicalFile();
+                if (!file.isFile()) {
+                    throw new MenohException(ErrorCode.INVALID_FILENAME, "failed to read the model: " + path);
+                }
+
+                return new FileKey(file.getPath(), file.length(), file.lastModified());
+            } catch (IOException e) {
+                throw new MenohException(ErrorCode.INVALID_FILENAME, "failed to read the model: " + path, e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileKey)) {
+                return false;
+            }
+
+            final FileKey other = (FileKey) o;
+            return path.equals(other.path) && size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return (path.hashCode() * 31 + (int) (size ^ (size >>> 32))) * 31
+                    + (int) (lastModified ^ (lastModified >>> 32));
+        }
+    }
+
+    /**
+     * A model data in the cache with the number of its references.
+     */
+    static final class Entry {
+        private final ModelData modelData;
+
+        private final ByteBuffer digest;
+
+        private final List<FileKey> keys = new ArrayList<>();
+
+        /**
+         * The number of the references, which is guarded by {@link #LOCK}.
+         */
+        private int refCount = 0;
+
+        private Entry(ModelData modelData, ByteBuffer digest) {
+            this.modelData = modelData;
+            this.digest = digest;
+        }
+
+        /**
+         * Returns a new reference, which must be called while holding {@link #LOCK}.
+         */
+        private ModelData newReferenceLocked() {
+            refCount++;
+            return new ModelData(modelData.nativeHandle(), modelData.path(), this);
+        }
+
+        /**
+         * Releases a reference, freeing the model data and removing it from the cache if it is the last one.
+         */
+        void release() {
+            synchronized (LOCK) {
+                if (--refCount > 0) {
+                    return;
+                }
+
+                for (FileKey key : keys) {
+                    ENTRIES_BY_FILE.remove(key);
+                }
+                ENTRIES_BY_DIGEST.remove(digest);
+            }
+
+            modelData.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package jp.preferred.menoh;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Reads ONNX model files, which may be compressed by gzip, into {@link ByteBuffer}s.</p>
+ */
+final class ModelFiles {
+    /**
+     * The compression format of a model file detected by its magic number.
+     */
+    enum Compression {
+        NONE,
+        GZIP,
+        ZSTD
+    }
+
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    private static final int ZSTD_MAGIC = 0x28b52ffd;
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private ModelFiles() {
+    }
+
+    /**
+     * <p>Detects the compression format of the file. It returns {@link Compression#NONE} if the file is not
+     * readable, so that the caller reports the error in the same way as an uncompressed file.</p>
+     */
+    static Compression compression(String path) {
+        try {
+            final RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                if (file.length() >= 4) {
+                    final int magic = file.readInt();
+                    if (magic >>> 16 == GZIP_MAGIC) {
+                        return Compression.GZIP;
+                    } else if (magic == ZSTD_MAGIC) {
+                        return Compression.ZSTD;
+                    }
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            // fall through
+        }
+
+        return Compression.NONE;
+    }
+
+    /**
+     * <p>Reads the model file. An uncompressed file is mapped into memory, which is read lazily by the operating
+     * system. A gzip file is decompressed into a direct buffer.</p>
+     */
+    static ByteBuffer read(String path) throws MenohException {
+        switch (compression(path)) {
+            case GZIP:
+                return decompressGzip(path);
+            case ZSTD:
+                throw new MenohException(ErrorCode.ONNX_PARSE_ERROR,
+                        "zstd-compressed model is not supported, use gzip instead: " + path);
+            default:
+                return map(path);
+        }
+    }
+
+    /**
+     * Maps the specified file into memory.
+     */
+    static ByteBuffer map(String path) throws MenohException {
+        try {
+            final FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            try {
+                // the mapping remains valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                channel.close();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // an invalid path or a file larger than 2 GB, which is the limit of protobuf as well
+            throw new MenohException(ErrorCode.INVALID_FILENAME, "failed to read the model: " + path, e);
+        }
+    }
+
+    /**
+     * <p>Decompresses the gzip file into a direct buffer, which is allocated in the size recorded in the trailer
+     * of the file so that the model is neither copied to the Java heap nor reallocated.</p>
+     */
+    static ByteBuffer decompressGzip(String path) throws MenohException {
+        try {
+            final InputStream in = new GZIPInputStream(new FileInputStream(path), GZIP_BUFFER_SIZE);
+            try {
+                return ModelData.readFully(in, gzipUncompressedSize(path));
+            } finally {
+                in.close();
+            }
+        } catch (ZipException | EOFException e) {
+            throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "failed to decompress the model: " + path, e);
+        } catch (IOException e) {
+            throw new MenohException(ErrorCode.INVALID_FILENAME, "failed to read the model: " + path, e);
+        }
+    }
+
+    /**
+     * <p>Returns the size of the uncompressed data recorded in the last 4 bytes of the gzip file, or zero if it
+     * is not reliable. It is the size modulo 2^32 of the last member, so it is used only as a hint.</p>
+     */
+    private static int gzipUncompressedSize(String path) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            if (file.length() < 4) {
+                return 0;
+            }
+            file.seek(file.length() - 4);
+            final int size = Integer.reverseBytes(file.readInt());
+
+            return size > 0 ? size : 0;
+        } finally {
+            file.close();
+        }
+    }
+}
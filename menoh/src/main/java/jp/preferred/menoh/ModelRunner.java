@@ -1,11 +1,21 @@
 package jp.preferred.menoh;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import javax.management.ObjectName;
+
 /**
  * <p>A convenient wrapper for building and running {@link Model}.</p>
  *
@@ -15,6 +25,25 @@ import java.util.Map;
 public class ModelRunner implements AutoCloseable {
     private final Model model;
 
+    private final ModelRunnerMetrics metrics = new ModelRunnerMetrics();
+
+    /**
+     * The name of the MBean of {@link #metrics}, or <code>null</code> if it is not registered.
+     */
+    private ObjectName mbeanName;
+
+    private WarmUpStats warmUpStats = new WarmUpStats(0, 0L, 0L, false);
+
+    /**
+     * The number of the runs whose median latency is compared with the previous ones in the warm-up.
+     */
+    private static final int WARM_UP_WINDOW = 5;
+
+    /**
+     * The number of the elements copied at once in the warm-up not to allocate a buffer as large as a variable.
+     */
+    private static final int WARM_UP_CHUNK_LENGTH = 4096;
+
     private static final String DEFAULT_BACKEND_NAME = "mkldnn";
 
     private static final String DEFAULT_BACKEND_CONFIG = "";
@@ -30,19 +59,146 @@ public class ModelRunner implements AutoCloseable {
         return this.model;
     }
 
+    /**
+     * <p>Returns the metrics of this runner. The latency of each phase is recorded by <code>run()</code>,
+     * <code>assign()</code> and the bindings of this runner.</p>
+     */
+    public ModelRunnerMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * <p>Returns the result of the warm-up configured by {@link ModelRunnerBuilder#warmUp(int, double)}. Its
+     * <code>runs()</code> is zero if the runner is not warmed up.</p>
+     */
+    public WarmUpStats warmUpStats() {
+        return this.warmUpStats;
+    }
+
+    /**
+     * <p>Runs the model with zeros in the specified inputs until the latency is stable or <code>maxRuns</code>
+     * runs are done, then clears the metrics recorded by them.</p>
+     *
+     * <p>The latency is regarded as stable when the median latency of the last {@link #WARM_UP_WINDOW} runs
+     * differs from the one of the previous runs by no more than <code>tolerance</code>.</p>
+     */
+    WarmUpStats warmUp(Collection<String> inputNames, Collection<String> outputNames, int maxRuns, double tolerance) {
+        final long start = System.nanoTime();
+        final List<InputBinding> inputs = new ArrayList<>();
+        for (String name : inputNames) {
+            inputs.add(inputBinding(name));
+        }
+        final List<OutputBinding> outputs = new ArrayList<>();
+        for (String name : outputNames) {
+            outputs.add(outputBinding(name));
+        }
+
+        final float[] chunk = new float[WARM_UP_CHUNK_LENGTH];
+        final long[] latencies = new long[maxRuns];
+        int runs = 0;
+        boolean stable = false;
+        while (runs < maxRuns && !stable) {
+            final long runStart = System.nanoTime();
+            for (InputBinding input : inputs) {
+                // touch every page of the buffer through the copy path of the runs
+                final FloatBuffer buf = input.buffer();
+                while (buf.hasRemaining()) {
+                    buf.put(chunk, 0, Math.min(chunk.length, buf.remaining()));
+                }
+            }
+            run();
+            for (OutputBinding output : outputs) {
+                final FloatBuffer buf = output.buffer();
+                while (buf.hasRemaining()) {
+                    buf.get(chunk, 0, Math.min(chunk.length, buf.remaining()));
+                }
+            }
+            latencies[runs++] = System.nanoTime() - runStart;
+
+            if (tolerance > 0 && runs >= WARM_UP_WINDOW * 2) {
+                final long previous = median(latencies, runs - WARM_UP_WINDOW * 2, runs - WARM_UP_WINDOW);
+                final long last = median(latencies, runs - WARM_UP_WINDOW, runs);
+                stable = Math.abs(last - previous) <= tolerance * previous;
+            }
+        }
+
+        // the warm-up is not a part of the workload
+        metrics.reset();
+
+        this.warmUpStats = new WarmUpStats(
+                runs, System.nanoTime() - start, median(latencies, Math.max(0, runs - WARM_UP_WINDOW), runs), stable);
+        return this.warmUpStats;
+    }
+
+    private static long median(long[] values, int from, int to) {
+        if (from >= to) {
+            return 0L;
+        }
+
+        final long[] sorted = Arrays.copyOfRange(values, from, to);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Registers the MBean of the metrics with the specified name.
+     */
+    synchronized void registerMBean(ObjectName name) {
+        metrics.registerMBean(name);
+        this.mbeanName = name;
+    }
+
     @Override
     public void close() {
+        synchronized (this) {
+            if (mbeanName != null) {
+                ModelRunnerMetrics.unregisterMBean(mbeanName);
+                mbeanName = null;
+            }
+        }
         model.close();
     }
 
     /**
-     * Loads an ONNX model from the specified file.
+     * <p>Loads an ONNX model from the specified file, which may be compressed by gzip.</p>
+     *
+     * @see ModelData#fromOnnxFile(String)
      */
     public static ModelRunnerBuilder fromOnnxFile(String path) {
-        ModelData modelData = null;
+        return builder(ModelData.fromOnnxFile(path));
+    }
+
+    /**
+     * <p>Loads an ONNX model from the specified file through {@link ModelDataCache}, sharing the model data
+     * with the other builders of the same model in this process.</p>
+     *
+     * @see ModelDataCache#fromOnnxFile(String)
+     */
+    public static ModelRunnerBuilder fromSharedOnnxFile(String path) {
+        return builder(ModelDataCache.fromOnnxFile(path));
+    }
+
+    /**
+     * <p>Loads an ONNX model from the buffer.</p>
+     *
+     * @see ModelData#fromOnnxBytes(ByteBuffer)
+     */
+    public static ModelRunnerBuilder fromOnnxBytes(ByteBuffer buffer) {
+        return builder(ModelData.fromOnnxBytes(buffer));
+    }
+
+    /**
+     * <p>Loads an ONNX model from the stream without closing it.</p>
+     *
+     * @see ModelData#fromInputStream(InputStream)
+     */
+    public static ModelRunnerBuilder fromInputStream(InputStream in) throws IOException {
+        return builder(ModelData.fromInputStream(in));
+    }
+
+    private static ModelRunnerBuilder builder(ModelData modelData) {
         VariableProfileTableBuilder vptBuilder = null;
         try {
-            modelData = ModelData.fromOnnxFile(path);
             vptBuilder = VariableProfileTable.builder();
 
             return new ModelRunnerBuilder(
@@ -52,9 +208,7 @@ public class ModelRunner implements AutoCloseable {
                     DEFAULT_BACKEND_CONFIG,
                     new HashMap<String, ByteBuffer>());
         } catch (Throwable t) {
-            if (modelData != null) {
-                modelData.close();
-            }
+            modelData.close();
             if (vptBuilder != null) {
                 vptBuilder.close();
             }
@@ -63,6 +217,77 @@ public class ModelRunner implements AutoCloseable {
         }
     }
 
+    /**
+     * <p>Loads an ONNX model from the specified file and adds the profiles of all the inputs and the outputs
+     * of the graph, which are read by {@link OnnxModelInfo}. The first axis of each input is the batch size
+     * and the other axes must be declared in the model.</p>
+     *
+     * <p>The model is inspected before loading it into the native library, so that an invalid profile fails
+     * fast.</p>
+     *
+     * @param path the path of the ONNX model
+     * @param batchSize the size of the first axis of the inputs
+     * @throws IllegalArgumentException if <code>batchSize</code> is not positive
+     */
+    public static ModelRunnerBuilder fromOnnxFile(String path, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+
+        // a compressed model is decompressed only once for both inspecting and loading it
+        final boolean compressed = ModelFiles.compression(path) != ModelFiles.Compression.NONE;
+        final ByteBuffer contents = ModelFiles.read(path);
+        final OnnxModelInfo info = OnnxModelInfo.parse(contents);
+        final Map<String, int[]> inputDims = new LinkedHashMap<>();
+        for (OnnxModelInfo.VariableInfo v : info.inputs()) {
+            inputDims.put(v.name(), profileDims(v, batchSize));
+        }
+
+        final ModelRunnerBuilder builder = builder(
+                compressed ? ModelData.fromDecompressedOnnxFile(path, contents) : ModelData.fromOnnxFile(path));
+        try {
+            for (Map.Entry<String, int[]> e : inputDims.entrySet()) {
+                builder.addInputProfile(e.getKey(), DType.FLOAT, e.getValue());
+            }
+            for (OnnxModelInfo.VariableInfo v : info.outputs()) {
+                // Menoh computes the outputs in float regardless of the declared type
+                builder.addOutputProfile(v.name(), DType.FLOAT);
+            }
+        } catch (Throwable t) {
+            builder.close();
+            throw t;
+        }
+
+        return builder;
+    }
+
+    /**
+     * Returns the dims of the input profile of the specified variable, replacing its first axis with
+     * the batch size.
+     */
+    static int[] profileDims(OnnxModelInfo.VariableInfo input, int batchSize) throws MenohException {
+        if (input.dtype() != DType.FLOAT) {
+            throw new MenohException(ErrorCode.INVALID_DTYPE, "the dtype of input " + input.name()
+                    + " is not supported");
+        }
+
+        final int[] dims = input.dims();
+        if (!input.hasShape() || dims.length == 0) {
+            throw new MenohException(ErrorCode.DIMENSION_MISMATCH, "the shape of input " + input.name()
+                    + " is not declared");
+        }
+
+        dims[0] = batchSize;
+        for (int d : dims) {
+            if (d == OnnxModelInfo.UNKNOWN_DIM) {
+                throw new MenohException(ErrorCode.DIMENSION_MISMATCH, "input " + input.name()
+                        + " has an unknown dimension other than the batch size: " + input);
+            }
+        }
+
+        return dims;
+    }
+
     /**
      * Returns a {@link Variable} with the specified name.
      */
@@ -70,6 +295,26 @@ public class ModelRunner implements AutoCloseable {
         return model.variable(variableName);
     }
 
+    /**
+     * <p>Resolves the specified input variable into an {@link InputBinding}. Fill the binding, call
+     * {@link #run()} and read the {@link OutputBinding}s to run the model without any lookup by name.</p>
+     *
+     * @param name the name of the input variable
+     */
+    public InputBinding inputBinding(String name) throws MenohException {
+        return new InputBinding(name, model.variable(name), model, metrics);
+    }
+
+    /**
+     * <p>Resolves the specified output variable into an {@link OutputBinding}.</p>
+     *
+     * @param name the name of the output variable
+     * @see #inputBinding(String)
+     */
+    public OutputBinding outputBinding(String name) throws MenohException {
+        return new OutputBinding(name, model.variable(name), model, metrics);
+    }
+
     /**
      * <p>Run this model after assigning a non-empty array to the specified variable.</p>
      *
@@ -82,16 +327,124 @@ public class ModelRunner implements AutoCloseable {
 
     /**
      * <p>Run this model after assigning a non-empty array to the specified variable. It copies the content
-     * ranging from <code>offset</code> to <code>(offset + length - 1)</code>.</p>
+     * ranging from <code>offset</code> to <code>(offset + length - 1)</code> directly into the buffer of
+     * the variable without allocating any temporary buffer.</p>
      *
      * @param name the name of the input variable
      * @param values the values to be copied to the input variable
      */
     public void run(String name, float[] values, int offset, int length) {
-        final ByteBuffer buffer = ByteBuffer.allocateDirect(length * 4).order(ByteOrder.nativeOrder());
-        buffer.asFloatBuffer().put(values, offset, length);
+        try {
+            assign(name, values, offset, length);
+            compute();
+        } catch (RuntimeException e) {
+            metrics.recordError();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Run this model after assigning a non-empty batch to the specified variable. It copies the rows of
+     * the <code>batch</code> consecutively into the buffer of the variable without allocating any temporary
+     * buffer.</p>
+     *
+     * @param name the name of the input variable
+     * @param batch the rows to be copied to the input variable
+     */
+    public void run(String name, float[][] batch) {
+        try {
+            assign(name, batch);
+            compute();
+        } catch (RuntimeException e) {
+            metrics.recordError();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Assigns a non-empty array to the specified variable without running the model.</p>
+     *
+     * @param name the name of the input variable
+     * @param values the values to be copied to the input variable
+     */
+    public void assign(String name, float[] values) {
+        assign(name, values, 0, values.length);
+    }
+
+    /**
+     * <p>Assigns a non-empty array to the specified variable without running the model. It copies the
+     * content ranging from <code>offset</code> to <code>(offset + length - 1)</code> directly into the buffer
+     * of the variable.</p>
+     *
+     * @param name the name of the input variable
+     * @param values the values to be copied to the input variable
+     */
+    public void assign(String name, float[] values, int offset, int length) {
+        if (values == null || values.length <= 0) {
+            throw new IllegalArgumentException("values must not be null or empty");
+        }
+
+        final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.ASSIGN_INPUT);
+        final long start = System.nanoTime();
+        Variable v = null;
+        boolean failed = true;
+        try {
+            v = model.variable(name);
+            checkLength(name, v.bufferLength(), (long) length * 4);
+
+            model.acquire();
+            try {
+                v.put(values, offset, length);
+            } finally {
+                model.release();
+            }
+            failed = false;
+        } finally {
+            if (span != null) {
+                endSpan(span, name, v, (long) length * 4, failed);
+            }
+        }
+        metrics.recordCopyIn(System.nanoTime() - start, (long) length * 4);
+    }
+
+    /**
+     * <p>Assigns a non-empty batch to the specified variable without running the model. It copies the rows
+     * of the <code>batch</code> consecutively into the buffer of the variable.</p>
+     *
+     * @param name the name of the input variable
+     * @param batch the rows to be copied to the input variable
+     */
+    public void assign(String name, float[][] batch) {
+        if (batch == null || batch.length <= 0) {
+            throw new IllegalArgumentException("batch must not be null or empty");
+        }
+
+        final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.ASSIGN_INPUT);
+        final long start = System.nanoTime();
+        long length = 0;
+        for (float[] row : batch) {
+            length += row.length;
+        }
+
+        Variable v = null;
+        boolean failed = true;
+        try {
+            v = model.variable(name);
+            checkLength(name, v.bufferLength(), length * 4);
 
-        run(name, buffer);
+            model.acquire();
+            try {
+                v.put(batch);
+            } finally {
+                model.release();
+            }
+            failed = false;
+        } finally {
+            if (span != null) {
+                endSpan(span, name, v, length * 4, failed);
+            }
+        }
+        metrics.recordCopyIn(System.nanoTime() - start, length * 4);
     }
 
     /**
@@ -122,37 +475,136 @@ public class ModelRunner implements AutoCloseable {
      * @param buffers the buffers to be copied to the variables
      */
     public void run(final Map<String, ByteBuffer> buffers) {
-        assignToVariables(buffers);
-        model.run();
+        try {
+            assignToVariables(buffers);
+            compute();
+        } catch (RuntimeException e) {
+            metrics.recordError();
+            throw e;
+        }
     }
 
     /**
      * Run this model.
      */
     public void run() {
+        try {
+            compute();
+        } catch (RuntimeException e) {
+            metrics.recordError();
+            throw e;
+        }
+    }
+
+    private void compute() {
+        final long start = System.nanoTime();
         model.run();
+        metrics.recordCompute(System.nanoTime() - start);
     }
 
     /**
      * Assign data to the variables in the model.
      */
     private void assignToVariables(final Map<String, ByteBuffer> data) {
+        model.acquire();
+        try {
+            assignToVariablesAcquired(data);
+        } finally {
+            model.release();
+        }
+    }
+
+    private void assignToVariablesAcquired(final Map<String, ByteBuffer> data) {
+        final long start = System.nanoTime();
+        long bytes = 0;
         for (Map.Entry<String, ByteBuffer> e : data.entrySet()) {
             final String name = e.getKey();
             final ByteBuffer dataBuf = e.getValue();
             final long dataLen = dataBuf.remaining();
 
-            final Variable v = model.variable(name);
-            final long varLen = v.bufferLength();
+            final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.ASSIGN_INPUT);
+            Variable v = null;
+            boolean failed = true;
+            try {
+                v = model.variable(name);
+                checkLength(name, v.bufferLength(), dataLen);
 
-            if (varLen < dataLen) {
-                throw new MenohRunnerException(String.format(
-                        "The data with length > %d can't be assigned to the variable `%s`.", varLen, name));
+                // copy through its own view not to move the position of the shared one
+                v.nativeBuffer().duplicate().put(dataBuf.duplicate());
+                failed = false;
+            } finally {
+                if (span != null) {
+                    endSpan(span, name, v, dataLen, failed);
+                }
             }
+            bytes += dataLen;
+        }
+        metrics.recordCopyIn(System.nanoTime() - start, bytes);
+    }
+
+    /**
+     * Ends the span of copying an input, which may have failed before resolving the variable.
+     */
+    private void endSpan(MenohTracer.Span span, String name, Variable v, long bytes, boolean failed) {
+        model.endSpan(span, v != null ? Tracing.describe(name, v.dims()) : name, bytes, failed);
+    }
+
+    private static void checkLength(String name, long varLen, long dataLen) {
+        if (varLen < dataLen) {
+            throw new MenohRunnerException(String.format(
+                    "The data with length > %d can't be assigned to the variable `%s`.", varLen, name));
+        }
+    }
+
+    /**
+     * The result of the warm-up of a {@link ModelRunner}.
+     */
+    public static final class WarmUpStats {
+        private final int runs;
+        private final long durationNanos;
+        private final long steadyStateLatencyNanos;
+        private final boolean stable;
+
+        WarmUpStats(int runs, long durationNanos, long steadyStateLatencyNanos, boolean stable) {
+            this.runs = runs;
+            this.durationNanos = durationNanos;
+            this.steadyStateLatencyNanos = steadyStateLatencyNanos;
+            this.stable = stable;
+        }
+
+        /**
+         * The number of the runs in the warm-up.
+         */
+        public int runs() {
+            return this.runs;
+        }
+
+        /**
+         * The time taken by the warm-up in nanoseconds.
+         */
+        public long durationNanos() {
+            return this.durationNanos;
+        }
+
+        /**
+         * The median latency of the last runs in the warm-up in nanoseconds, including copying the inputs and
+         * the outputs.
+         */
+        public long steadyStateLatencyNanos() {
+            return this.steadyStateLatencyNanos;
+        }
+
+        /**
+         * Whether the latency became stable before the maximum number of the runs.
+         */
+        public boolean stable() {
+            return this.stable;
+        }
 
-            final ByteBuffer varBuf = v.buffer();
-            varBuf.clear();
-            varBuf.put(dataBuf.duplicate()).rewind();
+        @Override
+        public String toString() {
+            return String.format("WarmUpStats(runs=%d, duration=%.3f ms, steadyStateLatency=%.3f ms, stable=%s)",
+                    runs, durationNanos / 1e6, steadyStateLatencyNanos / 1e6, stable);
         }
     }
 }
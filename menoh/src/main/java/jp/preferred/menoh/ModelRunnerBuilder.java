@@ -2,7 +2,22 @@ package jp.preferred.menoh;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
 
 /**
  * <p>A builder object for {@link ModelRunner}.</p>
@@ -21,6 +36,27 @@ public class ModelRunnerBuilder implements AutoCloseable {
 
     private final Map<String, ByteBuffer> externalBuffers;
 
+    /**
+     * The blocks of {@link NativeArena} which back the arrays attached to the variables in
+     * {@link #externalBuffers}.
+     */
+    private final Map<String, NativeArena.Block> externalBlocks = new HashMap<>();
+
+    private String jmxName;
+
+    private int warmUpRuns = 0;
+
+    private double warmUpTolerance = DEFAULT_WARM_UP_TOLERANCE;
+
+    private static final double DEFAULT_WARM_UP_TOLERANCE = 0.1;
+
+    private boolean hugePages = false;
+
+    /**
+     * The names of the input and output variables to be resolved right after building a model.
+     */
+    private final Set<String> variableNames = new LinkedHashSet<>();
+
     ModelRunnerBuilder(
             ModelData modelData,
             VariableProfileTableBuilder vptBuilder,
@@ -60,10 +96,107 @@ public class ModelRunnerBuilder implements AutoCloseable {
         return this;
     }
 
+    public String jmxName() {
+        return this.jmxName;
+    }
+
+    /**
+     * <p>Registers the {@link ModelRunnerMetrics} of the built runner to the platform MBean server as
+     * <code>jp.preferred.menoh:type=ModelRunner,name="jmxName"</code>. The replicas of {@link #buildPool(int)}
+     * are distinguished by an additional <code>replica</code> key. The MBean is unregistered when the runner
+     * is closed.</p>
+     *
+     * @param jmxName the name of the MBean, or <code>null</code> not to register it
+     * @return this object
+     */
+    public ModelRunnerBuilder jmxName(String jmxName) {
+        this.jmxName = jmxName;
+        return this;
+    }
+
+    public int warmUpRuns() {
+        return this.warmUpRuns;
+    }
+
+    public double warmUpTolerance() {
+        return this.warmUpTolerance;
+    }
+
+    /**
+     * <p>Warms up the built runners by running them up to <code>maxRuns</code> times until the latency is
+     * stable within 10%.</p>
+     *
+     * @return this object
+     * @see #warmUp(int, double)
+     */
+    public ModelRunnerBuilder warmUp(int maxRuns) {
+        return warmUp(maxRuns, DEFAULT_WARM_UP_TOLERANCE);
+    }
+
+    /**
+     * <p>Warms up the built runners before returning them, so that the first requests don't pay for creating the
+     * primitives of the backend, the page faults on the fresh buffers and the JIT compilation of the copy
+     * paths.</p>
+     *
+     * <p>The runner is run with zeros in its inputs, except the ones to which an external buffer is attached,
+     * until the median latency of the last 5 runs differs from the one of the previous 5 runs by no more than
+     * <code>tolerance</code>, or <code>maxRuns</code> runs are done. The result is reported by
+     * {@link ModelRunner#warmUpStats()} and the metrics recorded by the warm-up are cleared. The replicas of
+     * {@link #buildReplicas(int)} and the buckets of {@link #buildBucketed(int[], long)} are warmed up as
+     * well.</p>
+     *
+     * @param maxRuns the maximum number of the runs, or zero not to warm up
+     * @param tolerance the relative difference of the latency regarded as stable, or zero to run
+     *                  <code>maxRuns</code> times
+     * @return this object
+     * @throws IllegalArgumentException if <code>maxRuns</code> or <code>tolerance</code> is negative
+     */
+    public ModelRunnerBuilder warmUp(int maxRuns, double tolerance) {
+        if (maxRuns < 0) {
+            throw new IllegalArgumentException("maxRuns must not be negative: " + maxRuns);
+        }
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("tolerance must not be negative: " + tolerance);
+        }
+
+        this.warmUpRuns = maxRuns;
+        this.warmUpTolerance = tolerance;
+        return this;
+    }
+
+    public boolean hugePages() {
+        return this.hugePages;
+    }
+
+    /**
+     * <p>Backs the buffers of the variables by huge pages on Linux and pre-faults them in building, so that the
+     * runs of a model with large inputs and outputs don't pay for the page faults and the TLB misses.</p>
+     *
+     * <p>The arrays and the non-direct buffers of at least {@link NativeArena#HUGE_PAGE_THRESHOLD} bytes are
+     * copied to the native memory mapped with transparent huge pages, or with the huge pages of hugetlbfs if
+     * transparent huge pages are disabled. The buffers allocated by Menoh are advised to use transparent huge
+     * pages, which applies to their aligned huge pages only. The direct buffers are attached as they are
+     * except to the replicas of {@link #buildReplicas(int)} and the buckets of
+     * {@link #buildBucketed(int[], long)}, which have their own copies.</p>
+     *
+     * <p>It falls back to the pre-faulted buffers of {@link NativeArena} if the huge pages are not available
+     * on the platform.</p>
+     *
+     * @return this object
+     */
+    public ModelRunnerBuilder hugePages(boolean hugePages) {
+        this.hugePages = hugePages;
+        return this;
+    }
+
     Map<String, ByteBuffer> externalBuffers() {
         return this.externalBuffers;
     }
 
+    Set<String> variableNames() {
+        return this.variableNames;
+    }
+
     @Override
     public void close() {
         vptBuilder.close();
@@ -71,6 +204,7 @@ public class ModelRunnerBuilder implements AutoCloseable {
 
         // allow the attached external buffers to GC its allocated memory
         externalBuffers.clear();
+        releaseAll(externalBlocks);
     }
 
     /**
@@ -80,6 +214,7 @@ public class ModelRunnerBuilder implements AutoCloseable {
      */
     public ModelRunnerBuilder addInputProfile(String name, DType dtype, int[] dims) {
         vptBuilder.addInputProfile(name, dtype, dims);
+        variableNames.add(name);
         return this;
     }
 
@@ -90,6 +225,7 @@ public class ModelRunnerBuilder implements AutoCloseable {
      */
     public ModelRunnerBuilder addOutputProfile(String name, DType dtype) {
         vptBuilder.addOutputProfile(name, dtype);
+        variableNames.add(name);
         return this;
     }
 
@@ -112,13 +248,14 @@ public class ModelRunnerBuilder implements AutoCloseable {
      * @throws IllegalArgumentException if <code>buffer</code> is null or empty
      */
     public ModelRunnerBuilder attachExternalBuffer(String variableName, ByteBuffer buffer) throws MenohException {
+        releaseBlock(variableName);
         externalBuffers.put(variableName, buffer);
         return this;
     }
 
     /**
      * <p>Attaches a non-empty external buffer to the specified variable. It also copies the content of the
-     * <code>values</code> to a newly allocated buffer in the native heap.</p>
+     * <code>values</code> to a block of {@link NativeArena}.</p>
 
      * <p>The buffer can be accessed through {@link Model#variable(String)}.</p>
      *
@@ -134,8 +271,9 @@ public class ModelRunnerBuilder implements AutoCloseable {
 
     /**
      * <p>Attaches a non-empty external buffer to the specified variable. It also copies the content of the
-     * <code>values</code> to a newly allocated buffer in the native heap ranging from <code>offset</code>
-     * to <code>(offset + length - 1)</code>.</p>
+     * <code>values</code> to a block of {@link NativeArena} ranging from <code>offset</code> to
+     * <code>(offset + length - 1)</code>. The block is shared with the models built by {@link #build()} and
+     * returned to the arena after this builder and the models are closed.</p>
      *
      * <p>The buffer can be accessed through {@link Model#variable(String)}.</p>
      *
@@ -152,14 +290,27 @@ public class ModelRunnerBuilder implements AutoCloseable {
             float[] values,
             int offset,
             int length) throws MenohException {
-        // copy the array to a direct buffer
-        final ByteBuffer buffer = ByteBuffer.allocateDirect(length * 4).order(ByteOrder.nativeOrder());
-        buffer.asFloatBuffer().put(values, offset, length);
-
-        externalBuffers.put(variableName, buffer);
+        final NativeArena.Block block = NativeArena.copyOf(values, offset, length, hugePages);
+        releaseBlock(variableName);
+        externalBlocks.put(variableName, block);
+        externalBuffers.put(variableName, block.buffer((long) length * 4));
         return this;
     }
 
+    private void releaseBlock(String variableName) {
+        final NativeArena.Block block = externalBlocks.remove(variableName);
+        if (block != null) {
+            block.release();
+        }
+    }
+
+    private static void releaseAll(Map<String, NativeArena.Block> blocks) {
+        for (NativeArena.Block b : blocks.values()) {
+            b.release();
+        }
+        blocks.clear();
+    }
+
     /**
      * <p>Builds a {@link ModelRunner} to <code>run()</code> by using the specified backend (e.g. "mkldnn").</p>
      *
@@ -167,19 +318,374 @@ public class ModelRunnerBuilder implements AutoCloseable {
      * attached. It can be accessed via {@link Model#variable(String)} in the <code>ModelRunner</code> object.</p>
      */
     public ModelRunner build() {
-        try (
-                VariableProfileTable vpt = vptBuilder.build(modelData);
-                ModelBuilder modelBuilder = Model.builder(vpt)
-        ) {
-            for (Map.Entry<String, ByteBuffer> e : externalBuffers.entrySet()) {
-                modelBuilder.attachExternalBuffer(e.getKey(), e.getValue());
+        final VariableProfileTable vpt = prepare();
+        try {
+            final ObjectName mbeanName = jmxName != null ? ModelRunnerMetrics.objectName(jmxName) : null;
+            if (!hugePages) {
+                return build(vpt, externalBuffers, externalBlocks, mbeanName);
             }
 
-            // reduce the memory footprint of the model data
-            modelData.optimize(vpt);
+            // copy the buffers attached before enabling the huge pages
+            final Map<String, NativeArena.Block> copies = copyOfBuffers(false);
+            final Map<String, NativeArena.Block> blocks = new HashMap<>(externalBlocks);
+            blocks.putAll(copies);
+            try {
+                return build(vpt, externalBuffers, blocks, mbeanName);
+            } finally {
+                releaseAll(copies);
+            }
+        } finally {
+            vpt.close();
+        }
+    }
+
+    /**
+     * Builds the variable profile table and optimizes the model data for it.
+     */
+    private VariableProfileTable prepare() {
+        final VariableProfileTable vpt = vptBuilder.build(modelData);
+        try {
+            // reduce the memory footprint of the model data unless it is shared with other builders
+            if (!modelData.isShared()) {
+                modelData.optimize(vpt);
+            }
+        } catch (Throwable t) {
+            vpt.close();
+            throw t;
+        }
+
+        return vpt;
+    }
+
+    /**
+     * Builds a runner attaching the buffers, or the blocks instead of the buffers of the same names.
+     */
+    private ModelRunner build(
+            VariableProfileTable vpt,
+            Map<String, ByteBuffer> buffers,
+            Map<String, NativeArena.Block> blocks,
+            ObjectName mbeanName) {
+        try (ModelBuilder modelBuilder = Model.builder(vpt)) {
+            for (Map.Entry<String, ByteBuffer> e : buffers.entrySet()) {
+                final NativeArena.Block block = blocks.get(e.getKey());
+                if (block != null) {
+                    modelBuilder.attachExternalBuffer(e.getKey(), block, e.getValue().remaining());
+                } else {
+                    modelBuilder.attachExternalBuffer(e.getKey(), e.getValue());
+                }
+            }
 
             final Model model = modelBuilder.build(modelData, backendName, backendConfig);
-            return new ModelRunner(model);
+            final ModelRunner runner = new ModelRunner(model);
+            try {
+                // resolve the variables in advance to keep them away from the hot path
+                model.resolveVariables(variableNames);
+
+                if (hugePages) {
+                    for (String name : variableNames) {
+                        if (!buffers.containsKey(name)) {
+                            final Variable v = model.variable(name);
+                            HugePages.advise(v.bufferHandle(), v.bufferLength());
+                            HugePages.preTouch(v.bufferHandle(), v.bufferLength());
+                        }
+                    }
+                }
+
+                if (warmUpRuns > 0) {
+                    // don't overwrite the attached buffers which may hold the constants
+                    final Set<String> inputNames = new LinkedHashSet<>(vpt.inputDims().keySet());
+                    inputNames.removeAll(buffers.keySet());
+                    runner.warmUp(inputNames, vpt.outputNames(), warmUpRuns, warmUpTolerance);
+                }
+
+                if (mbeanName != null) {
+                    runner.registerMBean(mbeanName);
+                }
+            } catch (Throwable t) {
+                runner.close();
+                throw t;
+            }
+
+            return runner;
+        }
+    }
+
+    /**
+     * <p>Builds a {@link ModelRunner} whose inputs have the specified batch size in the first axis instead of
+     * the one in the profiles. The model data is not optimized, so that it can be built for another batch size
+     * again.</p>
+     *
+     * <p>The external buffers smaller than the variables of the batch size are replaced with the blocks large
+     * enough, which have the content of the buffers at the head and zero in the rest.</p>
+     */
+    ModelRunner buildWithBatchSize(int batchSize) {
+        final VariableProfileTableBuilder builder = vptBuilder.withBatchSize(batchSize);
+        try {
+            final VariableProfileTable vpt = builder.build(modelData);
+            try {
+                final Map<String, ByteBuffer> buffers = new HashMap<>(externalBuffers);
+                final Map<String, NativeArena.Block> copies = copyOfBuffers(true);
+                try {
+                    resizeBuffers(vpt.byteSizes(), buffers, copies);
+                } catch (Throwable t) {
+                    releaseAll(copies);
+                    throw t;
+                }
+
+                return buildWithCopies(vpt, buffers, copies, null);
+            } finally {
+                vpt.close();
+            }
+        } finally {
+            builder.close();
+        }
+    }
+
+    /**
+     * <p>Builds a {@link BucketedModelRunner} which runs a batch of any size on the smallest one of the models
+     * built for the specified batch sizes.</p>
+     *
+     * <p>The models are built lazily from this builder, so this builder must not be closed until the returned
+     * runner is closed.</p>
+     *
+     * @param batchSizes the batch sizes of the buckets, e.g. <code>{1, 4, 16, 64}</code>
+     * @param memoryBudget the maximum bytes of the variables of the models kept at once
+     * @throws IllegalArgumentException if <code>batchSizes</code> is empty or contains a non-positive size
+     * @see BucketedModelRunner
+     */
+    public BucketedModelRunner buildBucketed(int[] batchSizes, long memoryBudget) {
+        return new BucketedModelRunner(this, batchSizes, memoryBudget);
+    }
+
+    /**
+     * <p>Builds a {@link ModelRunnerPool} which consists of the specified number of {@link ModelRunner}s.
+     * Each replica owns its model and buffers, so they can be run in parallel.</p>
+     *
+     * @param size the number of the replicas
+     * @throws IllegalArgumentException if <code>size</code> is not positive
+     * @see #buildReplicas(int)
+     */
+    public ModelRunnerPool buildPool(int size) {
+        return new ModelRunnerPool(buildReplicas(size));
+    }
+
+    /**
+     * <p>Builds the specified number of independent {@link ModelRunner}s in parallel on a temporary thread pool
+     * of up to {@link Runtime#availableProcessors()} threads.</p>
+     *
+     * @param count the number of the replicas
+     * @throws IllegalArgumentException if <code>count</code> is not positive
+     * @see #buildReplicas(int, Executor)
+     */
+    public List<ModelRunner> buildReplicas(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(count, Runtime.getRuntime().availableProcessors()), new BuilderThreadFactory());
+        try {
+            return buildReplicas(count, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * <p>Builds the specified number of independent {@link ModelRunner}s in parallel on the executor.</p>
+     *
+     * <p>The variable profile table is built and the model data is optimized only once, then the models are
+     * built from them concurrently. Each replica owns its model and its input and output buffers, and the
+     * attached external buffers are copied for each replica. If any of the replicas fails to be built, the
+     * others are closed and the first failure is thrown after all the builds are finished. If the executor
+     * rejects a build, the replicas already submitted are closed after they are finished and the rejection is
+     * thrown.</p>
+     *
+     * @param count the number of the replicas
+     * @param executor the executor to run the builds, e.g. <code>ForkJoinPool.commonPool()</code>
+     * @throws IllegalArgumentException if <code>count</code> is not positive
+     */
+    public List<ModelRunner> buildReplicas(int count, Executor executor) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+
+        final VariableProfileTable vpt = prepare();
+        try {
+            final List<FutureTask<ModelRunner>> tasks = new ArrayList<>(count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    // copy the buffers in this thread so that the tasks don't touch the buffers of this builder
+                    final Map<String, ByteBuffer> buffers = new HashMap<>(externalBuffers);
+                    final Map<String, NativeArena.Block> copies = copyOfBuffers(true);
+                    final ObjectName mbeanName = jmxName != null ? ModelRunnerMetrics.objectName(jmxName, i) : null;
+                    final FutureTask<ModelRunner> task = new FutureTask<>(new Callable<ModelRunner>() {
+                        @Override
+                        public ModelRunner call() {
+                            return buildWithCopies(vpt, buffers, copies, mbeanName);
+                        }
+                    });
+                    try {
+                        executor.execute(task);
+                    } catch (RuntimeException | Error e) {
+                        // the task never runs, so it doesn't release the copies
+                        releaseAll(copies);
+                        throw e;
+                    }
+                    tasks.add(task);
+                }
+            } catch (RuntimeException | Error e) {
+                discardReplicas(tasks, e);
+                throw e;
+            }
+
+            return awaitReplicas(tasks);
+        } finally {
+            vpt.close();
+        }
+    }
+
+    /**
+     * Waits for all the builds without being interrupted, so that no replica is leaked.
+     */
+    private static List<ModelRunner> awaitReplicas(List<FutureTask<ModelRunner>> tasks) {
+        final List<ModelRunner> replicas = new ArrayList<>(tasks.size());
+        Throwable failure = null;
+        boolean interrupted = false;
+
+        for (FutureTask<ModelRunner> task : tasks) {
+            while (true) {
+                try {
+                    replicas.add(task.get());
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            for (ModelRunner r : replicas) {
+                r.close();
+            }
+
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new MenohException(ErrorCode.UNDEFINED, "failed to build a replica", failure);
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Waits for the submitted builds and closes their replicas, adding the failures to <code>cause</code>.
+     */
+    private static void discardReplicas(List<FutureTask<ModelRunner>> tasks, Throwable cause) {
+        try {
+            for (ModelRunner r : awaitReplicas(tasks)) {
+                r.close();
+            }
+        } catch (RuntimeException | Error e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private static final class BuilderThreadFactory implements ThreadFactory {
+        private static final AtomicInteger poolNumber = new AtomicInteger();
+
+        private final int number = poolNumber.incrementAndGet();
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r,
+                    String.format("menoh-runner-builder-%d-worker-%d", number, threadNumber.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Builds a runner from the copies of the direct buffers, releasing them after the model takes them over.
+     */
+    private ModelRunner buildWithCopies(
+            VariableProfileTable vpt,
+            Map<String, ByteBuffer> buffers,
+            Map<String, NativeArena.Block> copies,
+            ObjectName mbeanName) {
+        try {
+            return build(vpt, buffers, copies, mbeanName);
+        } finally {
+            releaseAll(copies);
+        }
+    }
+
+    /**
+     * Copies the direct buffers to the blocks of {@link NativeArena} not to share them among the replicas if
+     * <code>replica</code> is <code>true</code>. A non-direct buffer is copied to the arena in attaching. If
+     * {@link #hugePages(boolean)} is enabled, the buffers not backed by huge pages yet are copied to huge pages
+     * as well, except the small ones.
+     */
+    private Map<String, NativeArena.Block> copyOfBuffers(boolean replica) {
+        final Map<String, NativeArena.Block> copies = new HashMap<>();
+        try {
+            for (Map.Entry<String, ByteBuffer> e : externalBuffers.entrySet()) {
+                final ByteBuffer buffer = e.getValue();
+                final NativeArena.Block block = externalBlocks.get(e.getKey());
+                final boolean copy = (replica && buffer.isDirect())
+                        || (hugePages && buffer.remaining() >= NativeArena.HUGE_PAGE_THRESHOLD
+                                && (block != null ? !block.isHugePages() : !buffer.isDirect()));
+                if (copy) {
+                    copies.put(e.getKey(), NativeArena.copyOf(buffer, hugePages));
+                }
+            }
+        } catch (Throwable t) {
+            releaseAll(copies);
+            throw t;
+        }
+
+        return copies;
+    }
+
+    /**
+     * Replaces the buffers smaller than the specified byte sizes with the blocks of the sizes, copying the
+     * content to the head of each block and filling the rest with zero. The blocks are put into the copies.
+     */
+    private void resizeBuffers(
+            Map<String, Long> byteSizes,
+            Map<String, ByteBuffer> buffers,
+            Map<String, NativeArena.Block> copies) {
+        for (Map.Entry<String, ByteBuffer> e : buffers.entrySet()) {
+            final Long size = byteSizes.get(e.getKey());
+            final ByteBuffer buffer = e.getValue();
+            if (size == null || buffer.remaining() >= size) {
+                continue;
+            }
+
+            final NativeArena.Block block = hugePages
+                    ? NativeArena.allocateHugePages(size)
+                    : NativeArena.allocate(size);
+            final NativeArena.Block previous = copies.put(e.getKey(), block);
+            if (previous != null) {
+                previous.release();
+            }
+
+            block.buffer(size).put(buffer.duplicate());
+            block.pointer().setMemory(buffer.remaining(), size - buffer.remaining(), (byte) 0);
+            e.setValue(block.buffer(size));
         }
     }
 }
@@ -0,0 +1,322 @@
+package jp.preferred.menoh;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * <p>The built-in metrics of a {@link ModelRunner}. It measures the latency of each {@link Phase} of the runs,
+ * the number of the runs and the errors, and the bytes copied between the JVM and the native buffers.</p>
+ *
+ * <p>Recording a run doesn't allocate any object. The metrics can be read via {@link #snapshot()} or
+ * the JMX MBean registered by {@link ModelRunnerBuilder#jmxName(String)}.</p>
+ */
+public final class ModelRunnerMetrics {
+    /**
+     * The phases of a run.
+     */
+    public enum Phase {
+        /**
+         * Copying the inputs to the native buffers of the variables.
+         */
+        COPY_IN,
+
+        /**
+         * Running the model in the native library.
+         */
+        COMPUTE,
+
+        /**
+         * Copying the outputs from the native buffers of the variables.
+         */
+        COPY_OUT
+    }
+
+    /**
+     * The domain of the names of the MBeans.
+     */
+    static final String JMX_DOMAIN = "jp.preferred.menoh";
+
+    private final LatencyHistogram[] latencies;
+
+    private final AtomicLong runCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    ModelRunnerMetrics() {
+        final Phase[] phases = Phase.values();
+        this.latencies = new LatencyHistogram[phases.length];
+        for (Phase p : phases) {
+            latencies[p.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    void recordCopyIn(long nanos, long bytes) {
+        latencies[Phase.COPY_IN.ordinal()].record(nanos);
+        bytesIn.addAndGet(bytes);
+    }
+
+    void recordCompute(long nanos) {
+        latencies[Phase.COMPUTE.ordinal()].record(nanos);
+        runCount.incrementAndGet();
+    }
+
+    void recordCopyOut(long nanos, long bytes) {
+        latencies[Phase.COPY_OUT.ordinal()].record(nanos);
+        bytesOut.addAndGet(bytes);
+    }
+
+    void recordError() {
+        errorCount.incrementAndGet();
+    }
+
+    /**
+     * Takes a snapshot of the metrics.
+     */
+    public Snapshot snapshot() {
+        final LatencyHistogram.Snapshot[] s = new LatencyHistogram.Snapshot[latencies.length];
+        for (int i = 0; i < latencies.length; i++) {
+            s[i] = latencies[i].snapshot();
+        }
+
+        return new Snapshot(runCount.get(), errorCount.get(), bytesIn.get(), bytesOut.get(), s);
+    }
+
+    /**
+     * <p>Clears the metrics. The values recorded concurrently may be partially discarded.</p>
+     */
+    public void reset() {
+        for (LatencyHistogram h : latencies) {
+            h.reset();
+        }
+        runCount.set(0L);
+        errorCount.set(0L);
+        bytesIn.set(0L);
+        bytesOut.set(0L);
+    }
+
+    /**
+     * Returns the name of the MBean of the runner with the specified name.
+     *
+     * @throws IllegalArgumentException if the name can't be a part of <code>ObjectName</code>
+     */
+    static ObjectName objectName(String name) {
+        return newObjectName(JMX_DOMAIN + ":type=ModelRunner,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Returns the name of the MBean of the specified replica in {@link ModelRunnerPool}.
+     */
+    static ObjectName objectName(String name, int replica) {
+        return newObjectName(JMX_DOMAIN + ":type=ModelRunner,name=" + ObjectName.quote(name) + ",replica=" + replica);
+    }
+
+    static ObjectName newObjectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("invalid name for the MBean: " + name, e);
+        }
+    }
+
+    /**
+     * Registers these metrics to the platform MBean server.
+     */
+    void registerMBean(ObjectName name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new StandardMBean(new MXBeanImpl(this), ModelRunnerMetricsMXBean.class, true), name);
+        } catch (JMException e) {
+            throw new MenohRunnerException("failed to register the MBean: " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters the MBean with the specified name if it exists.
+     */
+    static void unregisterMBean(ObjectName name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            // the MBean has been unregistered by another caller
+        }
+    }
+
+    /**
+     * An immutable snapshot of {@link ModelRunnerMetrics}.
+     */
+    public static final class Snapshot {
+        private final long runCount;
+
+        private final long errorCount;
+
+        private final long bytesIn;
+
+        private final long bytesOut;
+
+        private final LatencyHistogram.Snapshot[] latencies;
+
+        Snapshot(long runCount, long errorCount, long bytesIn, long bytesOut, LatencyHistogram.Snapshot[] latencies) {
+            this.runCount = runCount;
+            this.errorCount = errorCount;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.latencies = latencies;
+        }
+
+        /**
+         * The number of the successful runs of the model.
+         */
+        public long runCount() {
+            return this.runCount;
+        }
+
+        /**
+         * The number of the runs failed in copying the inputs or running the model.
+         */
+        public long errorCount() {
+            return this.errorCount;
+        }
+
+        /**
+         * The number of the bytes copied to the input variables.
+         */
+        public long bytesIn() {
+            return this.bytesIn;
+        }
+
+        /**
+         * The number of the bytes copied from the output variables.
+         */
+        public long bytesOut() {
+            return this.bytesOut;
+        }
+
+        /**
+         * The latencies of the specified phase.
+         */
+        public LatencyHistogram.Snapshot latency(Phase phase) {
+            return latencies[phase.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("runCount=%d, errorCount=%d, bytesIn=%d, bytesOut=%d",
+                    runCount, errorCount, bytesIn, bytesOut));
+            for (Phase p : Phase.values()) {
+                sb.append(", ").append(p).append("=[").append(latency(p)).append(']');
+            }
+
+            return sb.toString();
+        }
+    }
+
+    private static final class MXBeanImpl implements ModelRunnerMetricsMXBean {
+        private final ModelRunnerMetrics metrics;
+
+        MXBeanImpl(ModelRunnerMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        private LatencyHistogram.Snapshot latency(Phase phase) {
+            return metrics.latencies[phase.ordinal()].snapshot();
+        }
+
+        @Override
+        public long getRunCount() {
+            return metrics.runCount.get();
+        }
+
+        @Override
+        public long getErrorCount() {
+            return metrics.errorCount.get();
+        }
+
+        @Override
+        public long getBytesIn() {
+            return metrics.bytesIn.get();
+        }
+
+        @Override
+        public long getBytesOut() {
+            return metrics.bytesOut.get();
+        }
+
+        @Override
+        public double getCopyInMeanNanos() {
+            return latency(Phase.COPY_IN).meanNanos();
+        }
+
+        @Override
+        public long getCopyInP50Nanos() {
+            return latency(Phase.COPY_IN).percentileNanos(50.0);
+        }
+
+        @Override
+        public long getCopyInP99Nanos() {
+            return latency(Phase.COPY_IN).percentileNanos(99.0);
+        }
+
+        @Override
+        public long getCopyInMaxNanos() {
+            return latency(Phase.COPY_IN).maxNanos();
+        }
+
+        @Override
+        public double getComputeMeanNanos() {
+            return latency(Phase.COMPUTE).meanNanos();
+        }
+
+        @Override
+        public long getComputeP50Nanos() {
+            return latency(Phase.COMPUTE).percentileNanos(50.0);
+        }
+
+        @Override
+        public long getComputeP99Nanos() {
+            return latency(Phase.COMPUTE).percentileNanos(99.0);
+        }
+
+        @Override
+        public long getComputeMaxNanos() {
+            return latency(Phase.COMPUTE).maxNanos();
+        }
+
+        @Override
+        public double getCopyOutMeanNanos() {
+            return latency(Phase.COPY_OUT).meanNanos();
+        }
+
+        @Override
+        public long getCopyOutP50Nanos() {
+            return latency(Phase.COPY_OUT).percentileNanos(50.0);
+        }
+
+        @Override
+        public long getCopyOutP99Nanos() {
+            return latency(Phase.COPY_OUT).percentileNanos(99.0);
+        }
+
+        @Override
+        public long getCopyOutMaxNanos() {
+            return latency(Phase.COPY_OUT).maxNanos();
+        }
+
+        @Override
+        public void reset() {
+            metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package jp.preferred.menoh;
+
+/**
+ * <p>The JMX interface of {@link ModelRunnerMetrics}. The latencies are in nanoseconds.</p>
+ */
+public interface ModelRunnerMetricsMXBean {
+    long getRunCount();
+
+    long getErrorCount();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getCopyInMeanNanos();
+
+    long getCopyInP50Nanos();
+
+    long getCopyInP99Nanos();
+
+    long getCopyInMaxNanos();
+
+    double getComputeMeanNanos();
+
+    long getComputeP50Nanos();
+
+    long getComputeP99Nanos();
+
+    long getComputeMaxNanos();
+
+    double getCopyOutMeanNanos();
+
+    long getCopyOutP50Nanos();
+
+    long getCopyOutP99Nanos();
+
+    long getCopyOutMaxNanos();
+
+    /**
+     * Clears the metrics.
+     */
+    void reset();
+}
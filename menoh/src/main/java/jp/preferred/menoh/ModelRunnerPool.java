@@ -0,0 +1,418 @@
+package jp.preferred.menoh;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A pool of {@link ModelRunner} replicas built from the same {@link ModelRunnerBuilder} configuration.
+ * It will be built by {@link ModelRunnerBuilder#buildPool(int)}.</p>
+ *
+ * <p>A <code>ModelRunner</code> can't be used from multiple threads at once because <code>run()</code>
+ * mutates its variable buffers. The pool lends each replica to a single thread at a time, so that the
+ * inference can be scaled across the cores. Check out a replica by {@link #acquire()} and give it back by
+ * {@link #release(ModelRunner)}, or let the pool do it by {@link #execute(Task)} and {@link #submit(Task)}.
+ * </p>
+ *
+ * <p>Make sure to {@link #close()} this object after finishing the process to free the underlying memory
+ * in the native heap.</p>
+ */
+public class ModelRunnerPool implements AutoCloseable {
+    /**
+     * A unit of work which runs on a replica checked out from the pool.
+     *
+     * @param <T> the type of the result
+     */
+    public interface Task<T> {
+        /**
+         * Runs the task with the replica. The replica must not be used after returning from this method.
+         */
+        T run(ModelRunner runner) throws Exception;
+    }
+
+    private final List<ModelRunner> replicas;
+
+    private final Set<ModelRunner> members;
+
+    /**
+     * The replicas not checked out, guarded by <code>lock</code>.
+     */
+    private final ArrayDeque<ModelRunner> idle;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a replica is given back or the pool is closed.
+     */
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * The replicas checked out at the moment, which can be given back only once.
+     */
+    private final Set<ModelRunner> checkedOut =
+            Collections.newSetFromMap(new ConcurrentHashMap<ModelRunner, Boolean>());
+
+    private final AtomicLong acquireCount = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private ExecutorService executor;
+
+    private volatile boolean closed = false;
+
+    ModelRunnerPool(List<ModelRunner> replicas) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("replicas must not be empty");
+        }
+
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.members = Collections.newSetFromMap(new IdentityHashMap<ModelRunner, Boolean>());
+        this.members.addAll(replicas);
+        this.idle = new ArrayDeque<>(replicas);
+    }
+
+    List<ModelRunner> replicas() {
+        return this.replicas;
+    }
+
+    /**
+     * The number of the replicas in this pool.
+     */
+    public int size() {
+        return replicas.size();
+    }
+
+    /**
+     * The number of the replicas which are not checked out at the moment.
+     */
+    public int available() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>Checks out a replica from the pool, waiting until one becomes available.</p>
+     *
+     * <p>Make sure to {@link #release(ModelRunner)} the replica after using it.</p>
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the pool is closed, or closed while waiting
+     */
+    public ModelRunner acquire() throws InterruptedException {
+        final long start = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            ensureOpen();
+            while (idle.isEmpty()) {
+                changed.await();
+                ensureOpen();
+            }
+            recordWait(System.nanoTime() - start);
+
+            return checkOut(idle.pollFirst());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>Checks out a replica from the pool, waiting up to the specified time if necessary.</p>
+     *
+     * <p>Make sure to {@link #release(ModelRunner)} the replica after using it.</p>
+     *
+     * @return the replica, or <code>null</code> if the specified waiting time elapses
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the pool is closed, or closed while waiting
+     */
+    public ModelRunner tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        final long start = System.nanoTime();
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            ensureOpen();
+            while (idle.isEmpty()) {
+                if (remaining <= 0) {
+                    timeoutCount.incrementAndGet();
+                    return null;
+                }
+                remaining = changed.awaitNanos(remaining);
+                ensureOpen();
+            }
+            recordWait(System.nanoTime() - start);
+
+            return checkOut(idle.pollFirst());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>Gives back the replica checked out by {@link #acquire()} or {@link #tryAcquire(long, TimeUnit)}.
+     * If the pool has already been closed, the replica is closed instead.</p>
+     *
+     * @throws IllegalArgumentException if the replica doesn't belong to this pool
+     * @throws IllegalStateException if the replica is not checked out, e.g. it has already been given back
+     */
+    public void release(ModelRunner runner) {
+        if (runner == null || !members.contains(runner)) {
+            throw new IllegalArgumentException("the runner doesn't belong to this pool");
+        }
+        if (!checkedOut.remove(runner)) {
+            throw new IllegalStateException("the runner is not checked out from this pool");
+        }
+
+        lock.lock();
+        try {
+            if (!closed) {
+                idle.addLast(runner);
+                changed.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        runner.close();
+    }
+
+    /**
+     * <p>Runs the task on a replica in the calling thread. It waits until a replica becomes available and
+     * gives it back after the task finishes.</p>
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws Exception if the task throws an exception
+     */
+    public <T> T execute(Task<T> task) throws Exception {
+        final ModelRunner runner = acquire();
+        try {
+            return task.run(runner);
+        } finally {
+            release(runner);
+        }
+    }
+
+    /**
+     * <p>Submits the task to run on a replica asynchronously. The tasks are run by the worker threads owned
+     * by this pool, one for each replica.</p>
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the pool is closed
+     */
+    public <T> Future<T> submit(final Task<T> task) {
+        return executor().submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return execute(task);
+            }
+        });
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this pool.
+     */
+    public Stats stats() {
+        return new Stats(
+                replicas.size(),
+                available(),
+                acquireCount.get(),
+                timeoutCount.get(),
+                totalWaitNanos.get(),
+                maxWaitNanos.get());
+    }
+
+    /**
+     * <p>Closes all the replicas. The replicas checked out at the moment are closed when they are given back
+     * to the pool, and the threads waiting for a replica fail with {@link IllegalStateException}.</p>
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        final List<ModelRunner> runners;
+        lock.lock();
+        try {
+            // wake up the threads waiting for a replica to fail
+            runners = new ArrayList<>(idle);
+            idle.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (ModelRunner runner : runners) {
+            runner.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("the pool has already been closed");
+        }
+    }
+
+    private ModelRunner checkOut(ModelRunner runner) {
+        checkedOut.add(runner);
+
+        return runner;
+    }
+
+    private void recordWait(long waitNanos) {
+        acquireCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+
+        long max = maxWaitNanos.get();
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(replicas.size(), new WorkerThreadFactory());
+            if (closed) {
+                executor.shutdown();
+            }
+        }
+
+        return executor;
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger poolNumber = new AtomicInteger();
+
+        private final int number = poolNumber.incrementAndGet();
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r,
+                    String.format("menoh-runner-pool-%d-worker-%d", number, threadNumber.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of {@link ModelRunnerPool}.
+     */
+    public static final class Stats {
+        private final int size;
+        private final int available;
+        private final long acquireCount;
+        private final long timeoutCount;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        Stats(int size, int available, long acquireCount, long timeoutCount, long totalWaitNanos,
+              long maxWaitNanos) {
+            this.size = size;
+            this.available = available;
+            this.acquireCount = acquireCount;
+            this.timeoutCount = timeoutCount;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        /**
+         * The number of the replicas in the pool.
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * The number of the replicas which were not checked out.
+         */
+        public int available() {
+            return this.available;
+        }
+
+        /**
+         * The number of the replicas which were checked out.
+         */
+        public int inUse() {
+            return this.size - this.available;
+        }
+
+        /**
+         * The ratio of the replicas which were checked out, ranging from 0.0 to 1.0.
+         */
+        public double utilization() {
+            return (double) inUse() / this.size;
+        }
+
+        /**
+         * The number of the successful check-outs.
+         */
+        public long acquireCount() {
+            return this.acquireCount;
+        }
+
+        /**
+         * The number of the check-outs which gave up waiting.
+         */
+        public long timeoutCount() {
+            return this.timeoutCount;
+        }
+
+        /**
+         * The total time spent on waiting for a replica in the successful check-outs.
+         */
+        public long totalWaitNanos() {
+            return this.totalWaitNanos;
+        }
+
+        /**
+         * The longest time spent on waiting for a replica in a successful check-out.
+         */
+        public long maxWaitNanos() {
+            return this.maxWaitNanos;
+        }
+
+        /**
+         * The average time spent on waiting for a replica in the successful check-outs.
+         */
+        public double averageWaitNanos() {
+            return acquireCount > 0 ? (double) totalWaitNanos / acquireCount : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Stats{size=%d, inUse=%d, acquireCount=%d, timeoutCount=%d, averageWaitNanos=%.1f, "
+                            + "maxWaitNanos=%d}",
+                    size, inUse(), acquireCount, timeoutCount, averageWaitNanos(), maxWaitNanos);
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A process-wide pool of the native memory for the external buffers attached by {@link ModelBuilder} and
+ * {@link ModelRunnerBuilder}.</p>
+ *
+ * <p>The blocks are aligned to {@link #ALIGNMENT} bytes for the vectorized kernels of the backends and
+ * rounded up to a power of two from {@link #MIN_BLOCK_SIZE} to {@link #MAX_BLOCK_SIZE} bytes. A block is
+ * referenced by the builder which attaches it and by the models built from the builder, and returned to the
+ * pool after all of them are closed, so building and closing the models repeatedly doesn't call
+ * <code>malloc</code> and <code>free</code> for every buffer. A larger block is allocated for each request and
+ * freed after it is released.</p>
+ *
+ * <p>The blocks of at least {@link #HUGE_PAGE_THRESHOLD} bytes can be allocated from {@link HugePages}
+ * instead, which are pre-faulted and freed after they are released without being pooled.</p>
+ *
+ * <p>The pooled blocks are kept up to {@link #maxPooledBytes()} bytes, which is configured by the system
+ * property <code>jp.preferred.menoh.arena.maxPooledBytes</code>, and freed by {@link #trim()}.</p>
+ */
+public final class NativeArena {
+    /**
+     * The alignment of the blocks in bytes.
+     */
+    public static final int ALIGNMENT = 64;
+
+    public static final long MIN_BLOCK_SIZE = 64L;
+
+    public static final long MAX_BLOCK_SIZE = 64L << 20;
+
+    /**
+     * The minimum bytes of the blocks backed by huge pages. The smaller ones are allocated from the pool and
+     * pre-faulted, since a huge page would be wasted mostly for them.
+     */
+    public static final long HUGE_PAGE_THRESHOLD = 256L << 10;
+
+    static final String MAX_POOLED_BYTES_PROPERTY = "jp.preferred.menoh.arena.maxPooledBytes";
+
+    private static final long DEFAULT_MAX_POOLED_BYTES = 256L << 20;
+
+    private static final int MIN_SHIFT = Long.numberOfTrailingZeros(MIN_BLOCK_SIZE);
+
+    private static final int SIZE_CLASSES = Long.numberOfTrailingZeros(MAX_BLOCK_SIZE) - MIN_SHIFT + 1;
+
+    private static final long MAX_POOLED_BYTES = loadMaxPooledBytes();
+
+    private static final Object LOCK = new Object();
+
+    /**
+     * The free blocks of each size class, which are guarded by {@link #LOCK} with the counters below.
+     */
+    private static final List<ArrayDeque<Block>> FREE_BLOCKS = newFreeBlocks();
+
+    private static long allocations = 0;
+
+    private static long reuses = 0;
+
+    private static long blocksInUse = 0;
+
+    private static long bytesInUse = 0;
+
+    private static long pooledBytes = 0;
+
+    private static long hugePageBytesInUse = 0;
+
+    private NativeArena() {
+    }
+
+    private static List<ArrayDeque<Block>> newFreeBlocks() {
+        final List<ArrayDeque<Block>> blocks = new ArrayList<>(SIZE_CLASSES);
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            blocks.add(new ArrayDeque<Block>());
+        }
+
+        return blocks;
+    }
+
+    private static long loadMaxPooledBytes() {
+        final String value = System.getProperty(MAX_POOLED_BYTES_PROPERTY);
+        if (value == null) {
+            return DEFAULT_MAX_POOLED_BYTES;
+        }
+
+        try {
+            return Math.max(0L, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            // keep working with the default limit
+            return DEFAULT_MAX_POOLED_BYTES;
+        }
+    }
+
+    /**
+     * The maximum bytes of the free blocks kept in the pool.
+     */
+    public static long maxPooledBytes() {
+        return MAX_POOLED_BYTES;
+    }
+
+    /**
+     * Returns the index of the size class of the specified size, or <code>-1</code> if it is not pooled.
+     */
+    static int sizeClass(long size) {
+        if (size > MAX_BLOCK_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_BLOCK_SIZE) {
+            return 0;
+        }
+
+        return 64 - Long.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * <p>Takes a block of at least the specified bytes from the pool, or allocates a new one. The content of
+     * the block is undefined.</p>
+     *
+     * @return the block with a reference, which must be released by {@link Block#release()}
+     * @throws IllegalArgumentException if <code>size</code> is not positive
+     */
+    static Block allocate(long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+
+        final int sizeClass = sizeClass(size);
+        Block block = null;
+        synchronized (LOCK) {
+            allocations++;
+            if (sizeClass >= 0) {
+                block = FREE_BLOCKS.get(sizeClass).pollFirst();
+            }
+            if (block != null) {
+                reuses++;
+                pooledBytes -= block.capacity;
+                blocksInUse++;
+                bytesInUse += block.capacity;
+            }
+        }
+
+        if (block == null) {
+            final long capacity = sizeClass >= 0
+                    ? MIN_BLOCK_SIZE << sizeClass
+                    : (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            block = new Block(sizeClass, capacity);
+            synchronized (LOCK) {
+                blocksInUse++;
+                bytesInUse += block.capacity;
+            }
+        }
+
+        block.refCount.set(1);
+        return block;
+    }
+
+    /**
+     * <p>Allocates a pre-faulted block of at least the specified bytes backed by huge pages. If the size is less
+     * than {@link #HUGE_PAGE_THRESHOLD} or the huge pages are not available, it takes a block from the pool
+     * and pre-faults it instead.</p>
+     *
+     * @return the block with a reference, which must be released by {@link Block#release()}
+     * @throws IllegalArgumentException if <code>size</code> is not positive
+     */
+    static Block allocateHugePages(long size) {
+        final HugePages.Mapping mapping = size >= HUGE_PAGE_THRESHOLD ? HugePages.map(size) : null;
+        if (mapping == null) {
+            final Block block = allocate(size);
+            HugePages.preTouch(block.pointer, block.capacity);
+            return block;
+        }
+
+        final Block block = new Block(mapping);
+        synchronized (LOCK) {
+            allocations++;
+            blocksInUse++;
+            bytesInUse += block.capacity;
+            hugePageBytesInUse += block.capacity;
+        }
+
+        block.refCount.set(1);
+        return block;
+    }
+
+    /**
+     * Copies a non-empty buffer ranging from <code>position()</code> to <code>(limit() - 1)</code> to a block
+     * without changing its position.
+     *
+     * @throws IllegalArgumentException if <code>buffer</code> is null or empty
+     */
+    static Block copyOf(ByteBuffer buffer) {
+        return copyOf(buffer, false);
+    }
+
+    /**
+     * Copies a non-empty buffer to a block, which is backed by huge pages if <code>hugePages</code> is
+     * <code>true</code>.
+     *
+     * @throws IllegalArgumentException if <code>buffer</code> is null or empty
+     * @see #allocateHugePages(long)
+     */
+    static Block copyOf(ByteBuffer buffer, boolean hugePages) {
+        if (buffer == null || buffer.remaining() <= 0) {
+            throw new IllegalArgumentException("buffer must not be null or empty");
+        }
+
+        final Block block = hugePages ? allocateHugePages(buffer.remaining()) : allocate(buffer.remaining());
+        block.buffer(buffer.remaining()).put(buffer.duplicate());
+
+        return block;
+    }
+
+    /**
+     * Copies the array ranging from <code>offset</code> to <code>(offset + length - 1)</code> to a block.
+     *
+     * @throws IllegalArgumentException if <code>values</code> is null or empty
+     */
+    static Block copyOf(float[] values, int offset, int length) {
+        return copyOf(values, offset, length, false);
+    }
+
+    /**
+     * Copies the array to a block, which is backed by huge pages if <code>hugePages</code> is <code>true</code>.
+     *
+     * @throws IllegalArgumentException if <code>values</code> is null or empty
+     * @see #allocateHugePages(long)
+     */
+    static Block copyOf(float[] values, int offset, int length, boolean hugePages) {
+        if (values == null || values.length <= 0) {
+            throw new IllegalArgumentException("values must not be null or empty");
+        }
+
+        final long size = (long) length * 4;
+        final Block block = hugePages ? allocateHugePages(size) : allocate(size);
+        block.pointer.write(0, values, offset, length);
+
+        return block;
+    }
+
+    /**
+     * Frees all the free blocks in the pool.
+     */
+    public static void trim() {
+        final List<Block> blocks = new ArrayList<>();
+        synchronized (LOCK) {
+            for (ArrayDeque<Block> free : FREE_BLOCKS) {
+                blocks.addAll(free);
+                free.clear();
+            }
+            pooledBytes = 0;
+        }
+
+        for (Block b : blocks) {
+            b.memory.dispose();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the statistics.
+     */
+    public static Stats stats() {
+        synchronized (LOCK) {
+            long pooledBlocks = 0;
+            for (ArrayDeque<Block> free : FREE_BLOCKS) {
+                pooledBlocks += free.size();
+            }
+
+            return new Stats(
+                    allocations, reuses, blocksInUse, bytesInUse, pooledBlocks, pooledBytes, hugePageBytesInUse);
+        }
+    }
+
+    private static void recycle(Block block) {
+        synchronized (LOCK) {
+            blocksInUse--;
+            bytesInUse -= block.capacity;
+            if (block.mapping != null) {
+                hugePageBytesInUse -= block.capacity;
+            } else if (block.sizeClass >= 0 && pooledBytes + block.capacity <= MAX_POOLED_BYTES) {
+                // reuse the most recently used block first, which is likely to be in the cache
+                FREE_BLOCKS.get(block.sizeClass).addFirst(block);
+                pooledBytes += block.capacity;
+                return;
+            }
+        }
+
+        block.free();
+    }
+
+    /**
+     * A block of the native memory with the number of its references.
+     */
+    static final class Block {
+        private final int sizeClass;
+
+        private final long capacity;
+
+        /**
+         * The allocated memory, which is freed explicitly instead of by GC, or <code>null</code> if the block is
+         * backed by huge pages.
+         */
+        private final BufferUtils.ExternalBufferMemory memory;
+
+        /**
+         * The mapping of the huge pages, or <code>null</code>.
+         */
+        private final HugePages.Mapping mapping;
+
+        private final Pointer pointer;
+
+        private final AtomicInteger refCount = new AtomicInteger();
+
+        private Block(int sizeClass, long capacity) {
+            this.sizeClass = sizeClass;
+            this.capacity = capacity;
+            this.memory = new BufferUtils.ExternalBufferMemory(capacity + ALIGNMENT - 1);
+            this.mapping = null;
+            this.pointer = memory.align(ALIGNMENT);
+        }
+
+        private Block(HugePages.Mapping mapping) {
+            this.sizeClass = -1;
+            this.capacity = mapping.length();
+            this.memory = null;
+            this.mapping = mapping;
+            this.pointer = mapping.address();
+            NativeResources.allocateExternalBuffer(mapping.mappedLength());
+        }
+
+        private void free() {
+            if (mapping != null) {
+                HugePages.unmap(mapping);
+                NativeResources.freeExternalBuffer(mapping.mappedLength());
+            } else {
+                memory.dispose();
+            }
+        }
+
+        /**
+         * Whether this block is backed by huge pages.
+         */
+        boolean isHugePages() {
+            return this.mapping != null;
+        }
+
+        /**
+         * The pointer to the head of the block aligned to {@link #ALIGNMENT} bytes.
+         */
+        Pointer pointer() {
+            return this.pointer;
+        }
+
+        long capacity() {
+            return this.capacity;
+        }
+
+        /**
+         * Returns a direct buffer in the native byte order which points to the head of the block.
+         */
+        ByteBuffer buffer(long length) {
+            return pointer.getByteBuffer(0, length).order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * Adds a reference to this block.
+         *
+         * @throws IllegalStateException if this block has already been released
+         */
+        void retain() {
+            int n;
+            do {
+                n = refCount.get();
+                if (n <= 0) {
+                    throw new IllegalStateException("the block has already been released");
+                }
+            } while (!refCount.compareAndSet(n, n + 1));
+        }
+
+        /**
+         * Releases a reference to this block, returning it to the pool if it is the last one.
+         */
+        void release() {
+            final int n = refCount.decrementAndGet();
+            if (n == 0) {
+                recycle(this);
+            } else if (n < 0) {
+                throw new IllegalStateException("the block has already been released");
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of the statistics of {@link NativeArena}.
+     */
+    public static final class Stats {
+        private final long allocations;
+
+        private final long reuses;
+
+        private final long blocksInUse;
+
+        private final long bytesInUse;
+
+        private final long pooledBlocks;
+
+        private final long pooledBytes;
+
+        private final long hugePageBytesInUse;
+
+        Stats(long allocations, long reuses, long blocksInUse, long bytesInUse, long pooledBlocks,
+                long pooledBytes, long hugePageBytesInUse) {
+            this.allocations = allocations;
+            this.reuses = reuses;
+            this.blocksInUse = blocksInUse;
+            this.bytesInUse = bytesInUse;
+            this.pooledBlocks = pooledBlocks;
+            this.pooledBytes = pooledBytes;
+            this.hugePageBytesInUse = hugePageBytesInUse;
+        }
+
+        /**
+         * The number of the blocks requested so far.
+         */
+        public long allocations() {
+            return this.allocations;
+        }
+
+        /**
+         * The number of the requests served by the pooled blocks so far.
+         */
+        public long reuses() {
+            return this.reuses;
+        }
+
+        public long blocksInUse() {
+            return this.blocksInUse;
+        }
+
+        /**
+         * The bytes of the blocks in use, which are rounded up to the size classes.
+         */
+        public long bytesInUse() {
+            return this.bytesInUse;
+        }
+
+        public long pooledBlocks() {
+            return this.pooledBlocks;
+        }
+
+        public long pooledBytes() {
+            return this.pooledBytes;
+        }
+
+        /**
+         * The bytes of the blocks in use backed by huge pages, which are included in {@link #bytesInUse()}.
+         */
+        public long hugePageBytesInUse() {
+            return this.hugePageBytesInUse;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "allocations=%d, reuses=%d, blocksInUse=%d, bytesInUse=%d, pooledBlocks=%d, pooledBytes=%d, "
+                            + "hugePageBytesInUse=%d",
+                    allocations, reuses, blocksInUse, bytesInUse, pooledBlocks, pooledBytes, hugePageBytesInUse);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Pointer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * <p>The accounting of the native memory held by menoh-java. It counts the live native handles of each
+ * {@link Type} and the native buffers allocated for the external buffers, and detects the objects which are
+ * garbage collected without being closed.</p>
+ *
+ * <p>The leak detection is configured by the system property <code>jp.preferred.menoh.leakDetection</code>
+ * or {@link #setLeakDetection(LeakDetection)}. An unclosed object is found after it is garbage collected, when
+ * a new handle is created or {@link #detectLeaks()} is called, and reported to the {@link LeakListener} with
+ * the stack trace of where it was created. The default listener prints it to the standard error.</p>
+ *
+ * <p>The blocks of {@link NativeArena} are counted by {@link #externalBufferBytes()} while they are allocated,
+ * including the ones kept in the pool. The other native copies are freed when they are garbage collected, so
+ * they may be counted until the next GC.</p>
+ *
+ * <p>The totals can be read via the JMX MBean registered by {@link #registerMBean()} as well.</p>
+ */
+public final class NativeResources {
+    /**
+     * The types of the native handles.
+     */
+    public enum Type {
+        MODEL_DATA,
+        VARIABLE_PROFILE_TABLE_BUILDER,
+        VARIABLE_PROFILE_TABLE,
+        MODEL_BUILDER,
+        MODEL;
+
+        /**
+         * Frees the native handle of this type.
+         */
+        void delete(Pointer handle) {
+            switch (this) {
+                case MODEL_DATA:
+                    MenohNative.INSTANCE.menoh_delete_model_data(handle);
+                    break;
+                case VARIABLE_PROFILE_TABLE_BUILDER:
+                    MenohNative.INSTANCE.menoh_delete_variable_profile_table_builder(handle);
+                    break;
+                case VARIABLE_PROFILE_TABLE:
+                    MenohNative.INSTANCE.menoh_delete_variable_profile_table(handle);
+                    break;
+                case MODEL_BUILDER:
+                    MenohNative.INSTANCE.menoh_delete_model_builder(handle);
+                    break;
+                case MODEL:
+                    MenohNative.INSTANCE.menoh_delete_model(handle);
+                    break;
+                default:
+                    throw new AssertionError(this);
+            }
+        }
+    }
+
+    /**
+     * The modes of the leak detection.
+     */
+    public enum LeakDetection {
+        /**
+         * Only counts the handles. The unclosed objects are not detected.
+         */
+        DISABLED,
+
+        /**
+         * Reports the unclosed objects (default).
+         */
+        REPORT,
+
+        /**
+         * Reports the unclosed objects and frees their native handles.
+         */
+        FREE
+    }
+
+    /**
+     * A callback which receives the unclosed objects.
+     */
+    public interface LeakListener {
+        /**
+         * Called with an unclosed object. It may be called on any thread creating a new handle.
+         */
+        void leaked(Leak leak);
+    }
+
+    static final String LEAK_DETECTION_PROPERTY = "jp.preferred.menoh.leakDetection";
+
+    private static final AtomicLongArray LIVE_HANDLES = new AtomicLongArray(Type.values().length);
+
+    private static final AtomicLong EXTERNAL_BUFFER_COUNT = new AtomicLong();
+
+    private static final AtomicLong EXTERNAL_BUFFER_BYTES = new AtomicLong();
+
+    private static final AtomicLong LEAK_COUNT = new AtomicLong();
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    /**
+     * The open handles tracked for the leak detection, which keeps their references reachable until they are
+     * enqueued.
+     */
+    private static final Set<Handle> HANDLES = Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+
+    private static final LeakListener DEFAULT_LISTENER = new LeakListener() {
+        @Override
+        public void leaked(Leak leak) {
+            System.err.println("menoh-java: " + leak);
+            if (leak.allocationSite() != null) {
+                leak.allocationSite().printStackTrace();
+            }
+        }
+    };
+
+    private static volatile LeakDetection leakDetection = loadLeakDetection();
+
+    private static volatile LeakListener leakListener = DEFAULT_LISTENER;
+
+    private static final ObjectName MBEAN_NAME =
+            ModelRunnerMetrics.newObjectName(ModelRunnerMetrics.JMX_DOMAIN + ":type=NativeResources");
+
+    private NativeResources() {
+    }
+
+    private static LeakDetection loadLeakDetection() {
+        final String mode = System.getProperty(LEAK_DETECTION_PROPERTY);
+        if (mode == null) {
+            return LeakDetection.REPORT;
+        }
+
+        try {
+            return LeakDetection.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            // keep working with the default mode
+            return LeakDetection.REPORT;
+        }
+    }
+
+    /**
+     * The number of the live native handles of the specified type.
+     */
+    public static long liveHandles(Type type) {
+        return LIVE_HANDLES.get(type.ordinal());
+    }
+
+    /**
+     * The number of the native buffers allocated for the external buffers which are not freed yet.
+     */
+    public static long externalBufferCount() {
+        return EXTERNAL_BUFFER_COUNT.get();
+    }
+
+    /**
+     * The bytes of the native buffers allocated for the external buffers which are not freed yet.
+     */
+    public static long externalBufferBytes() {
+        return EXTERNAL_BUFFER_BYTES.get();
+    }
+
+    /**
+     * The number of the unclosed objects detected so far.
+     */
+    public static long leakCount() {
+        return LEAK_COUNT.get();
+    }
+
+    public static LeakDetection leakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * Changes the mode of the leak detection. It applies to the handles created after this call.
+     */
+    public static void setLeakDetection(LeakDetection mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("mode must not be null");
+        }
+
+        leakDetection = mode;
+    }
+
+    /**
+     * Changes the listener of the unclosed objects, or restores the default one if <code>listener</code> is
+     * <code>null</code>.
+     */
+    public static void setLeakListener(LeakListener listener) {
+        leakListener = listener != null ? listener : DEFAULT_LISTENER;
+    }
+
+    /**
+     * <p>Reports the unclosed objects which have been garbage collected since the last detection.</p>
+     *
+     * @return the number of the detected objects
+     */
+    public static int detectLeaks() {
+        int n = 0;
+        Reference<?> ref;
+        while ((ref = QUEUE.poll()) != null) {
+            if (((Handle) ref).leak()) {
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Starts tracking the native handle owned by the specified object.
+     *
+     * @return the tracked handle to be closed together with the owner
+     */
+    static Handle track(Object owner, Type type, Pointer handle) {
+        detectLeaks();
+
+        final boolean detect = leakDetection != LeakDetection.DISABLED;
+        final Handle h = new Handle(
+                owner, detect ? QUEUE : null, type, handle, detect ? new Throwable(type + " was created") : null);
+        if (detect) {
+            HANDLES.add(h);
+        }
+        LIVE_HANDLES.incrementAndGet(type.ordinal());
+
+        return h;
+    }
+
+    static void allocateExternalBuffer(long bytes) {
+        EXTERNAL_BUFFER_COUNT.incrementAndGet();
+        EXTERNAL_BUFFER_BYTES.addAndGet(bytes);
+    }
+
+    static void freeExternalBuffer(long bytes) {
+        EXTERNAL_BUFFER_COUNT.decrementAndGet();
+        EXTERNAL_BUFFER_BYTES.addAndGet(-bytes);
+    }
+
+    /**
+     * <p>Registers the MBean of the totals to the platform MBean server with the name
+     * <code>jp.preferred.menoh:type=NativeResources</code> if it is not registered yet.</p>
+     *
+     * @return the name of the MBean
+     */
+    public static synchronized ObjectName registerMBean() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (!server.isRegistered(MBEAN_NAME)) {
+                server.registerMBean(new StandardMBean(new MXBeanImpl(), NativeResourcesMXBean.class, true), MBEAN_NAME);
+            }
+        } catch (JMException e) {
+            throw new MenohRunnerException("failed to register the MBean: " + MBEAN_NAME, e);
+        }
+
+        return MBEAN_NAME;
+    }
+
+    /**
+     * A native handle owned by an object, which is enqueued when the owner is garbage collected.
+     */
+    static final class Handle extends PhantomReference<Object> {
+        private final Type type;
+
+        private final Pointer handle;
+
+        private final Throwable allocationSite;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Handle(Object owner, ReferenceQueue<Object> queue, Type type, Pointer handle, Throwable allocationSite) {
+            super(owner, queue);
+            this.type = type;
+            this.handle = handle;
+            this.allocationSite = allocationSite;
+        }
+
+        /**
+         * Stops tracking the handle after the owner frees it.
+         */
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                HANDLES.remove(this);
+                LIVE_HANDLES.decrementAndGet(type.ordinal());
+                clear();
+            }
+        }
+
+        /**
+         * Reports the handle whose owner has been garbage collected without being closed.
+         *
+         * @return <code>true</code> if the handle was not closed
+         */
+        private boolean leak() {
+            if (!closed.compareAndSet(false, true)) {
+                return false;
+            }
+            HANDLES.remove(this);
+
+            final boolean free = leakDetection == LeakDetection.FREE && handle != Pointer.NULL;
+            if (free) {
+                type.delete(handle);
+                LIVE_HANDLES.decrementAndGet(type.ordinal());
+            }
+            LEAK_COUNT.incrementAndGet();
+
+            try {
+                leakListener.leaked(new Leak(type, allocationSite, free));
+            } catch (RuntimeException e) {
+                // keep detecting the other leaks
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * An object which was garbage collected without being closed.
+     */
+    public static final class Leak {
+        private final Type type;
+
+        private final Throwable allocationSite;
+
+        private final boolean freed;
+
+        Leak(Type type, Throwable allocationSite, boolean freed) {
+            this.type = type;
+            this.allocationSite = allocationSite;
+            this.freed = freed;
+        }
+
+        public Type type() {
+            return this.type;
+        }
+
+        /**
+         * The stack trace of where the object was created.
+         */
+        public Throwable allocationSite() {
+            return this.allocationSite;
+        }
+
+        /**
+         * Whether the native handle has been freed by {@link LeakDetection#FREE}.
+         */
+        public boolean freed() {
+            return this.freed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s was garbage collected without being closed (%s)",
+                    type, freed ? "freed" : "leaked");
+        }
+    }
+
+    private static final class MXBeanImpl implements NativeResourcesMXBean {
+        private static long live(Type type) {
+            detectLeaks();
+            return liveHandles(type);
+        }
+
+        @Override
+        public long getModelDataHandles() {
+            return live(Type.MODEL_DATA);
+        }
+
+        @Override
+        public long getVariableProfileTableBuilderHandles() {
+            return live(Type.VARIABLE_PROFILE_TABLE_BUILDER);
+        }
+
+        @Override
+        public long getVariableProfileTableHandles() {
+            return live(Type.VARIABLE_PROFILE_TABLE);
+        }
+
+        @Override
+        public long getModelBuilderHandles() {
+            return live(Type.MODEL_BUILDER);
+        }
+
+        @Override
+        public long getModelHandles() {
+            return live(Type.MODEL);
+        }
+
+        @Override
+        public long getExternalBufferCount() {
+            return externalBufferCount();
+        }
+
+        @Override
+        public long getExternalBufferBytes() {
+            return externalBufferBytes();
+        }
+
+        @Override
+        public long getLeakCount() {
+            detectLeaks();
+            return leakCount();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package jp.preferred.menoh;
+
+/**
+ * <p>The JMX interface of {@link NativeResources}. The unclosed objects are detected on reading the handles.</p>
+ */
+public interface NativeResourcesMXBean {
+    long getModelDataHandles();
+
+    long getVariableProfileTableBuilderHandles();
+
+    long getVariableProfileTableHandles();
+
+    long getModelBuilderHandles();
+
+    long getModelHandles();
+
+    long getExternalBufferCount();
+
+    long getExternalBufferBytes();
+
+    long getLeakCount();
+}
@@ -0,0 +1,561 @@
+package jp.preferred.menoh;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The computation graph of an ONNX model parsed in Java. Only the parts required to run the graph are
+ * read: the nodes, the initializers and the names of the inputs and the outputs.</p>
+ */
+final class OnnxGraph {
+    // ModelProto
+    static final int MODEL_GRAPH = 7;
+    static final int MODEL_OPSET_IMPORT = 8;
+
+    // OperatorSetIdProto
+    private static final int OPSET_DOMAIN = 1;
+    private static final int OPSET_VERSION = 2;
+
+    // GraphProto
+    private static final int GRAPH_NODE = 1;
+    static final int GRAPH_INITIALIZER = 5;
+    static final int GRAPH_INPUT = 11;
+    static final int GRAPH_OUTPUT = 12;
+
+    // NodeProto
+    private static final int NODE_INPUT = 1;
+    private static final int NODE_OUTPUT = 2;
+    private static final int NODE_OP_TYPE = 4;
+    private static final int NODE_ATTRIBUTE = 5;
+
+    // AttributeProto
+    private static final int ATTR_NAME = 1;
+    private static final int ATTR_F = 2;
+    private static final int ATTR_I = 3;
+    private static final int ATTR_S = 4;
+    private static final int ATTR_T = 5;
+    private static final int ATTR_INTS = 8;
+
+    // TensorProto
+    private static final int TENSOR_DIMS = 1;
+    private static final int TENSOR_DATA_TYPE = 2;
+    private static final int TENSOR_FLOAT_DATA = 4;
+    private static final int TENSOR_INT32_DATA = 5;
+    private static final int TENSOR_INT64_DATA = 7;
+    static final int TENSOR_NAME = 8;
+    private static final int TENSOR_RAW_DATA = 9;
+
+    // ValueInfoProto
+    static final int VALUE_INFO_NAME = 1;
+
+    // TensorProto.DataType
+    static final int DATA_TYPE_FLOAT = 1;
+    static final int DATA_TYPE_INT32 = 6;
+    static final int DATA_TYPE_INT64 = 7;
+
+    private final List<Node> nodes;
+
+    private final Map<String, Tensor> initializers;
+
+    private final List<String> inputs;
+
+    private final List<String> outputs;
+
+    private final long opsetVersion;
+
+    private OnnxGraph(
+            List<Node> nodes, Map<String, Tensor> initializers, List<String> inputs, List<String> outputs,
+            long opsetVersion) {
+        this.nodes = nodes;
+        this.initializers = initializers;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.opsetVersion = opsetVersion;
+    }
+
+    /**
+     * The nodes in topological order.
+     */
+    List<Node> nodes() {
+        return this.nodes;
+    }
+
+    /**
+     * The constant tensors keyed by their names.
+     */
+    Map<String, Tensor> initializers() {
+        return this.initializers;
+    }
+
+    /**
+     * The names of the inputs of the graph except the initializers.
+     */
+    List<String> inputs() {
+        return this.inputs;
+    }
+
+    /**
+     * The names of the outputs of the graph.
+     */
+    List<String> outputs() {
+        return this.outputs;
+    }
+
+    /**
+     * The version of the default operator set, or zero if it is not specified.
+     */
+    long opsetVersion() {
+        return this.opsetVersion;
+    }
+
+    /**
+     * Parses the ONNX model in the specified file.
+     */
+    static OnnxGraph fromFile(String path) throws MenohException {
+        return parse(ModelFiles.read(path));
+    }
+
+    /**
+     * Parses the ONNX model from <code>position()</code> to <code>limit()</code> of the buffer.
+     */
+    static OnnxGraph parse(ByteBuffer buffer) throws MenohException {
+        ProtoReader graph = null;
+        long opsetVersion = 0;
+
+        final ProtoReader model = new ProtoReader(buffer);
+        while (model.next()) {
+            if (model.field() == MODEL_GRAPH && model.wireType() == ProtoReader.WIRE_LENGTH_DELIMITED) {
+                graph = model.readMessage();
+            } else if (model.field() == MODEL_OPSET_IMPORT && model.wireType() == ProtoReader.WIRE_LENGTH_DELIMITED) {
+                opsetVersion = Math.max(opsetVersion, readDefaultOpsetVersion(model.readMessage()));
+            } else {
+                model.skip();
+            }
+        }
+
+        if (graph == null) {
+            throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "the model has no graph");
+        }
+
+        return readGraph(graph, opsetVersion);
+    }
+
+    static long readDefaultOpsetVersion(ProtoReader opset) {
+        String domain = "";
+        long version = 0;
+        while (opset.next()) {
+            if (opset.field() == OPSET_DOMAIN) {
+                domain = opset.readString();
+            } else if (opset.field() == OPSET_VERSION) {
+                version = opset.readVarint();
+            } else {
+                opset.skip();
+            }
+        }
+
+        return domain.isEmpty() || domain.equals("ai.onnx") ? version : 0;
+    }
+
+    private static OnnxGraph readGraph(ProtoReader graph, long opsetVersion) {
+        final List<Node> nodes = new ArrayList<>();
+        final Map<String, Tensor> initializers = new HashMap<>();
+        final List<String> inputs = new ArrayList<>();
+        final List<String> outputs = new ArrayList<>();
+
+        while (graph.next()) {
+            switch (graph.field()) {
+                case GRAPH_NODE:
+                    nodes.add(readNode(graph.readMessage()));
+                    break;
+                case GRAPH_INITIALIZER:
+                    final Tensor t = readTensor(graph.readMessage());
+                    initializers.put(t.name(), t);
+                    break;
+                case GRAPH_INPUT:
+                    inputs.add(readValueInfoName(graph.readMessage()));
+                    break;
+                case GRAPH_OUTPUT:
+                    outputs.add(readValueInfoName(graph.readMessage()));
+                    break;
+                default:
+                    graph.skip();
+                    break;
+            }
+        }
+
+        // old exporters list the initializers in the inputs as well
+        final List<String> variableInputs = new ArrayList<>();
+        for (String name : inputs) {
+            if (!initializers.containsKey(name)) {
+                variableInputs.add(name);
+            }
+        }
+
+        return new OnnxGraph(
+                Collections.unmodifiableList(nodes),
+                Collections.unmodifiableMap(initializers),
+                Collections.unmodifiableList(variableInputs),
+                Collections.unmodifiableList(outputs),
+                opsetVersion);
+    }
+
+    private static String readValueInfoName(ProtoReader valueInfo) {
+        String name = "";
+        while (valueInfo.next()) {
+            if (valueInfo.field() == VALUE_INFO_NAME) {
+                name = valueInfo.readString();
+            } else {
+                valueInfo.skip();
+            }
+        }
+
+        return name;
+    }
+
+    private static Node readNode(ProtoReader node) {
+        final List<String> inputs = new ArrayList<>();
+        final List<String> outputs = new ArrayList<>();
+        final Map<String, Attribute> attributes = new LinkedHashMap<>();
+        String opType = "";
+
+        while (node.next()) {
+            switch (node.field()) {
+                case NODE_INPUT:
+                    inputs.add(node.readString());
+                    break;
+                case NODE_OUTPUT:
+                    outputs.add(node.readString());
+                    break;
+                case NODE_OP_TYPE:
+                    opType = node.readString();
+                    break;
+                case NODE_ATTRIBUTE:
+                    final Attribute a = readAttribute(node.readMessage());
+                    attributes.put(a.name, a);
+                    break;
+                default:
+                    node.skip();
+                    break;
+            }
+        }
+
+        return new Node(opType, inputs, outputs, attributes);
+    }
+
+    private static Attribute readAttribute(ProtoReader attr) {
+        String name = "";
+        float f = 0f;
+        long i = 0;
+        String str = null;
+        Tensor t = null;
+        final LongList ints = new LongList();
+
+        while (attr.next()) {
+            switch (attr.field()) {
+                case ATTR_NAME:
+                    name = attr.readString();
+                    break;
+                case ATTR_F:
+                    f = attr.readFloat();
+                    break;
+                case ATTR_I:
+                    i = attr.readVarint();
+                    break;
+                case ATTR_S:
+                    str = attr.readString();
+                    break;
+                case ATTR_T:
+                    t = readTensor(attr.readMessage());
+                    break;
+                case ATTR_INTS:
+                    readInt64s(attr, ints);
+                    break;
+                default:
+                    attr.skip();
+                    break;
+            }
+        }
+
+        return new Attribute(name, f, i, str, ints.toArray(), t);
+    }
+
+    private static Tensor readTensor(ProtoReader tensor) {
+        String name = "";
+        int dataType = 0;
+        final LongList dims = new LongList();
+        final LongList int64s = new LongList();
+        final List<Float> floats = new ArrayList<>();
+        ByteBuffer raw = null;
+
+        while (tensor.next()) {
+            switch (tensor.field()) {
+                case TENSOR_DIMS:
+                    readInt64s(tensor, dims);
+                    break;
+                case TENSOR_DATA_TYPE:
+                    dataType = (int) tensor.readVarint();
+                    break;
+                case TENSOR_FLOAT_DATA:
+                    if (tensor.wireType() == ProtoReader.WIRE_LENGTH_DELIMITED) {
+                        final ProtoReader packed = tensor.readMessage();
+                        while (packed.remaining() > 0) {
+                            floats.add(packed.readFloat());
+                        }
+                    } else {
+                        floats.add(tensor.readFloat());
+                    }
+                    break;
+                case TENSOR_INT32_DATA:
+                case TENSOR_INT64_DATA:
+                    readInt64s(tensor, int64s);
+                    break;
+                case TENSOR_NAME:
+                    name = tensor.readString();
+                    break;
+                case TENSOR_RAW_DATA:
+                    raw = tensor.readBytes();
+                    break;
+                default:
+                    tensor.skip();
+                    break;
+            }
+        }
+
+        final int[] shape = new int[dims.size()];
+        long count = 1;
+        for (int k = 0; k < shape.length; k++) {
+            shape[k] = (int) dims.get(k);
+            count *= shape[k];
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "too large tensor: " + name);
+        }
+
+        switch (dataType) {
+            case DATA_TYPE_FLOAT:
+                final float[] fs = new float[(int) count];
+                if (raw != null) {
+                    checkSize(name, raw.remaining(), count * 4);
+                    raw.asFloatBuffer().get(fs);
+                } else {
+                    checkSize(name, floats.size(), count);
+                    for (int k = 0; k < fs.length; k++) {
+                        fs[k] = floats.get(k);
+                    }
+                }
+                return new Tensor(name, dataType, shape, fs, null);
+            case DATA_TYPE_INT32:
+            case DATA_TYPE_INT64:
+                final long[] ls = new long[(int) count];
+                if (raw != null) {
+                    final int width = dataType == DATA_TYPE_INT64 ? 8 : 4;
+                    checkSize(name, raw.remaining(), count * width);
+                    for (int k = 0; k < ls.length; k++) {
+                        ls[k] = width == 8 ? raw.getLong() : raw.getInt();
+                    }
+                } else {
+                    checkSize(name, int64s.size(), count);
+                    for (int k = 0; k < ls.length; k++) {
+                        ls[k] = int64s.get(k);
+                    }
+                }
+                return new Tensor(name, dataType, shape, null, ls);
+            default:
+                // the tensors of the other types are rejected by the operators which use them
+                return new Tensor(name, dataType, shape, null, null);
+        }
+    }
+
+    private static void checkSize(String name, long actual, long expected) {
+        if (actual != expected) {
+            throw new MenohException(ErrorCode.ONNX_PARSE_ERROR,
+                    String.format("the size of tensor %s is %d but it must be %d", name, actual, expected));
+        }
+    }
+
+    private static void readInt64s(ProtoReader reader, LongList dst) {
+        if (reader.wireType() == ProtoReader.WIRE_LENGTH_DELIMITED) {
+            final ProtoReader packed = reader.readMessage();
+            while (packed.remaining() > 0) {
+                dst.add(packed.readVarint());
+            }
+        } else {
+            dst.add(reader.readVarint());
+        }
+    }
+
+    /**
+     * A growable array of <code>long</code>.
+     */
+    private static final class LongList {
+        private long[] values = new long[8];
+
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * A node of the graph.
+     */
+    static final class Node {
+        private final String opType;
+
+        private final List<String> inputs;
+
+        private final List<String> outputs;
+
+        private final Map<String, Attribute> attributes;
+
+        Node(String opType, List<String> inputs, List<String> outputs, Map<String, Attribute> attributes) {
+            this.opType = opType;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.attributes = attributes;
+        }
+
+        String opType() {
+            return this.opType;
+        }
+
+        List<String> inputs() {
+            return this.inputs;
+        }
+
+        List<String> outputs() {
+            return this.outputs;
+        }
+
+        boolean hasAttribute(String name) {
+            return attributes.containsKey(name);
+        }
+
+        long intAttribute(String name, long defaultValue) {
+            final Attribute a = attributes.get(name);
+            return a != null ? a.i : defaultValue;
+        }
+
+        float floatAttribute(String name, float defaultValue) {
+            final Attribute a = attributes.get(name);
+            return a != null ? a.f : defaultValue;
+        }
+
+        String stringAttribute(String name, String defaultValue) {
+            final Attribute a = attributes.get(name);
+            return a != null && a.s != null ? a.s : defaultValue;
+        }
+
+        long[] intsAttribute(String name, long[] defaultValue) {
+            final Attribute a = attributes.get(name);
+            return a != null ? a.ints.clone() : defaultValue;
+        }
+
+        Tensor tensorAttribute(String name) {
+            final Attribute a = attributes.get(name);
+            return a != null ? a.t : null;
+        }
+
+        @Override
+        public String toString() {
+            return opType + inputs + "->" + outputs;
+        }
+    }
+
+    /**
+     * An attribute of a node.
+     */
+    private static final class Attribute {
+        final String name;
+
+        final float f;
+
+        final long i;
+
+        final String s;
+
+        final long[] ints;
+
+        final Tensor t;
+
+        Attribute(String name, float f, long i, String s, long[] ints, Tensor t) {
+            this.name = name;
+            this.f = f;
+            this.i = i;
+            this.s = s;
+            this.ints = ints;
+            this.t = t;
+        }
+    }
+
+    /**
+     * A constant tensor.
+     */
+    static final class Tensor {
+        private final String name;
+
+        private final int dataType;
+
+        private final int[] dims;
+
+        private final float[] floats;
+
+        private final long[] longs;
+
+        Tensor(String name, int dataType, int[] dims, float[] floats, long[] longs) {
+            this.name = name;
+            this.dataType = dataType;
+            this.dims = dims;
+            this.floats = floats;
+            this.longs = longs;
+        }
+
+        String name() {
+            return this.name;
+        }
+
+        int dataType() {
+            return this.dataType;
+        }
+
+        int[] dims() {
+            return this.dims;
+        }
+
+        /**
+         * The values of a float tensor, or <code>null</code> if it is not a float tensor.
+         */
+        float[] floats() {
+            return this.floats;
+        }
+
+        /**
+         * The values of an integer tensor, or <code>null</code> if it is not an integer tensor.
+         */
+        long[] longs() {
+            return this.longs;
+        }
+    }
+}
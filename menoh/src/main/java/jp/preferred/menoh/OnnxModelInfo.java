@@ -0,0 +1,270 @@
+package jp.preferred.menoh;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>The inputs and the outputs of an ONNX model read in Java without loading the native library.</p>
+ *
+ * <p>The file is mapped into memory and only the metadata of the graph is read, so the weights of a large
+ * model are neither copied to the Java heap nor read from the disk. A gzip file is decompressed into the native
+ * heap first.</p>
+ */
+public final class OnnxModelInfo {
+    // ValueInfoProto
+    private static final int VALUE_INFO_TYPE = 2;
+
+    // TypeProto
+    private static final int TYPE_TENSOR_TYPE = 1;
+
+    // TypeProto.Tensor
+    private static final int TENSOR_TYPE_ELEM_TYPE = 1;
+    private static final int TENSOR_TYPE_SHAPE = 2;
+
+    // TensorShapeProto
+    private static final int SHAPE_DIM = 1;
+
+    // TensorShapeProto.Dimension
+    private static final int DIM_VALUE = 1;
+
+    /**
+     * The dimension which is unknown or symbolic.
+     */
+    public static final int UNKNOWN_DIM = -1;
+
+    private final List<VariableInfo> inputs;
+
+    private final List<VariableInfo> outputs;
+
+    private final long opsetVersion;
+
+    private OnnxModelInfo(List<VariableInfo> inputs, List<VariableInfo> outputs, long opsetVersion) {
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.opsetVersion = opsetVersion;
+    }
+
+    /**
+     * The inputs of the graph except the initializers.
+     */
+    public List<VariableInfo> inputs() {
+        return this.inputs;
+    }
+
+    /**
+     * The outputs of the graph.
+     */
+    public List<VariableInfo> outputs() {
+        return this.outputs;
+    }
+
+    /**
+     * The version of the default operator set, or zero if it is not specified.
+     */
+    public long opsetVersion() {
+        return this.opsetVersion;
+    }
+
+    /**
+     * Reads the information of the ONNX model in the specified file.
+     */
+    public static OnnxModelInfo fromOnnxFile(String path) throws MenohException {
+        return parse(ModelFiles.read(path));
+    }
+
+    /**
+     * Reads the information of the ONNX model from <code>position()</code> to <code>limit()</code> of
+     * the buffer.
+     */
+    static OnnxModelInfo parse(ByteBuffer buffer) throws MenohException {
+        ProtoReader graph = null;
+        long opsetVersion = 0;
+
+        final ProtoReader model = new ProtoReader(buffer);
+        while (model.next()) {
+            if (model.field() == OnnxGraph.MODEL_GRAPH && model.wireType() == ProtoReader.WIRE_LENGTH_DELIMITED) {
+                graph = model.readMessage();
+            } else if (model.field() == OnnxGraph.MODEL_OPSET_IMPORT
+                    && model.wireType() == ProtoReader.WIRE_LENGTH_DELIMITED) {
+                opsetVersion = Math.max(opsetVersion, OnnxGraph.readDefaultOpsetVersion(model.readMessage()));
+            } else {
+                model.skip();
+            }
+        }
+
+        if (graph == null) {
+            throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "the model has no graph");
+        }
+
+        final Set<String> initializers = new HashSet<>();
+        final List<VariableInfo> inputs = new ArrayList<>();
+        final List<VariableInfo> outputs = new ArrayList<>();
+        while (graph.next()) {
+            switch (graph.field()) {
+                case OnnxGraph.GRAPH_INITIALIZER:
+                    initializers.add(readTensorName(graph.readMessage()));
+                    break;
+                case OnnxGraph.GRAPH_INPUT:
+                    inputs.add(readValueInfo(graph.readMessage()));
+                    break;
+                case OnnxGraph.GRAPH_OUTPUT:
+                    outputs.add(readValueInfo(graph.readMessage()));
+                    break;
+                default:
+                    // skip the nodes without reading them
+                    graph.skip();
+                    break;
+            }
+        }
+
+        // old exporters list the initializers in the inputs as well
+        final List<VariableInfo> variableInputs = new ArrayList<>();
+        for (VariableInfo v : inputs) {
+            if (!initializers.contains(v.name())) {
+                variableInputs.add(v);
+            }
+        }
+
+        return new OnnxModelInfo(
+                Collections.unmodifiableList(variableInputs), Collections.unmodifiableList(outputs), opsetVersion);
+    }
+
+    /**
+     * Reads only the name of the tensor. Its data is skipped without being touched.
+     */
+    private static String readTensorName(ProtoReader tensor) {
+        String name = "";
+        while (tensor.next()) {
+            if (tensor.field() == OnnxGraph.TENSOR_NAME) {
+                name = tensor.readString();
+            } else {
+                tensor.skip();
+            }
+        }
+
+        return name;
+    }
+
+    private static VariableInfo readValueInfo(ProtoReader valueInfo) {
+        String name = "";
+        int elemType = 0;
+        int[] dims = null;
+
+        while (valueInfo.next()) {
+            if (valueInfo.field() == OnnxGraph.VALUE_INFO_NAME) {
+                name = valueInfo.readString();
+            } else if (valueInfo.field() == VALUE_INFO_TYPE) {
+                final ProtoReader type = valueInfo.readMessage();
+                while (type.next()) {
+                    if (type.field() != TYPE_TENSOR_TYPE) {
+                        type.skip();
+                        continue;
+                    }
+
+                    final ProtoReader tensorType = type.readMessage();
+                    while (tensorType.next()) {
+                        if (tensorType.field() == TENSOR_TYPE_ELEM_TYPE) {
+                            elemType = (int) tensorType.readVarint();
+                        } else if (tensorType.field() == TENSOR_TYPE_SHAPE) {
+                            dims = readShape(tensorType.readMessage());
+                        } else {
+                            tensorType.skip();
+                        }
+                    }
+                }
+            } else {
+                valueInfo.skip();
+            }
+        }
+
+        return new VariableInfo(
+                name, elemType == OnnxGraph.DATA_TYPE_FLOAT ? DType.FLOAT : DType.UNDEFINED, dims);
+    }
+
+    private static int[] readShape(ProtoReader shape) {
+        final List<Integer> dims = new ArrayList<>();
+        while (shape.next()) {
+            if (shape.field() != SHAPE_DIM) {
+                shape.skip();
+                continue;
+            }
+
+            // a dimension without the value is either a symbol or unknown
+            int value = UNKNOWN_DIM;
+            final ProtoReader dim = shape.readMessage();
+            while (dim.next()) {
+                if (dim.field() == DIM_VALUE) {
+                    final long v = dim.readVarint();
+                    value = 0 <= v && v <= Integer.MAX_VALUE ? (int) v : UNKNOWN_DIM;
+                } else {
+                    dim.skip();
+                }
+            }
+            dims.add(value);
+        }
+
+        final int[] result = new int[dims.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = dims.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "OnnxModelInfo(inputs=" + inputs + ", outputs=" + outputs + ", opsetVersion=" + opsetVersion + ")";
+    }
+
+    /**
+     * The name, the dtype and the dims of an input or an output of a model.
+     */
+    public static final class VariableInfo {
+        private final String name;
+
+        private final DType dtype;
+
+        private final int[] dims;
+
+        VariableInfo(String name, DType dtype, int[] dims) {
+            this.name = name;
+            this.dtype = dtype;
+            this.dims = dims;
+        }
+
+        public String name() {
+            return this.name;
+        }
+
+        /**
+         * The dtype of the variable, or {@link DType#UNDEFINED} if it is not supported by Menoh.
+         */
+        public DType dtype() {
+            return this.dtype;
+        }
+
+        /**
+         * Whether the model declares the shape of the variable.
+         */
+        public boolean hasShape() {
+            return this.dims != null;
+        }
+
+        /**
+         * <p>The dims of the variable, where {@link #UNKNOWN_DIM} stands for a dimension which is unknown or
+         * symbolic (e.g. the batch size). It is empty if the model doesn't declare the shape.</p>
+         */
+        public int[] dims() {
+            return this.dims != null ? this.dims.clone() : new int[0];
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + dtype + " " + Arrays.toString(dims);
+        }
+    }
+}
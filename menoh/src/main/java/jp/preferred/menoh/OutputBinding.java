@@ -0,0 +1,101 @@
+package jp.preferred.menoh;
+
+import java.nio.FloatBuffer;
+
+/**
+ * <p>A handle to an output variable of {@link ModelRunner} resolved in advance. It exposes a readable view of
+ * the native buffer of the variable, so the output can be read without looking up the variable by name or
+ * allocating a temporary buffer after every <code>run()</code>.</p>
+ *
+ * <p>The binding is valid only until the <code>ModelRunner</code> is closed. The copying methods fail after
+ * that, while the buffer must not be used any longer because it may be reused by another model.</p>
+ */
+public final class OutputBinding {
+    private final String name;
+
+    private final Variable variable;
+
+    private final Model model;
+
+    private final FloatBuffer view;
+
+    private final ModelRunnerMetrics metrics;
+
+    OutputBinding(String name, Variable variable, Model model, ModelRunnerMetrics metrics) throws MenohException {
+        this.name = name;
+        this.variable = variable;
+        this.model = model;
+        this.metrics = metrics;
+        // use its own view to keep the position independent of the other callers
+        this.view = variable.nativeFloatBuffer().duplicate();
+    }
+
+    /**
+     * The name of the variable.
+     */
+    public String name() {
+        return this.name;
+    }
+
+    /**
+     * The bound {@link Variable}.
+     */
+    public Variable variable() {
+        return this.variable;
+    }
+
+    /**
+     * <p>A {@link FloatBuffer} which points to the native buffer of the variable. It returns the same
+     * instance every time after resetting its position to zero and its limit to the capacity.</p>
+     */
+    public FloatBuffer buffer() {
+        view.clear();
+        return view;
+    }
+
+    /**
+     * <p>Returns the value at the specified index in the variable.</p>
+     *
+     * @throws IllegalStateException if the <code>ModelRunner</code> is closed
+     */
+    public float get(int index) {
+        model.acquire();
+        try {
+            return view.get(index);
+        } finally {
+            model.release();
+        }
+    }
+
+    /**
+     * <p>Copies the content of the variable to the array from its head.</p>
+     *
+     * @return this object
+     * @throws java.nio.BufferUnderflowException if the array is longer than the variable
+     * @throws IllegalStateException if the <code>ModelRunner</code> is closed
+     */
+    public OutputBinding get(float[] dst) {
+        return get(dst, 0, dst.length);
+    }
+
+    /**
+     * <p>Copies the content of the variable from its head to the array ranging from <code>offset</code> to
+     * <code>(offset + length - 1)</code>.</p>
+     *
+     * @return this object
+     * @throws java.nio.BufferUnderflowException if <code>length</code> exceeds the size of the variable
+     * @throws IllegalStateException if the <code>ModelRunner</code> is closed
+     */
+    public OutputBinding get(float[] dst, int offset, int length) {
+        final long start = System.nanoTime();
+        model.acquire();
+        try {
+            view.clear();
+            view.get(dst, offset, length);
+        } finally {
+            model.release();
+        }
+        metrics.recordCopyOut(System.nanoTime() - start, (long) length * 4);
+        return this;
+    }
+}
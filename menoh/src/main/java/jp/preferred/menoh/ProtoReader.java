@@ -0,0 +1,164 @@
+package jp.preferred.menoh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * <p>A minimal reader of the protocol buffers wire format over a {@link ByteBuffer}. The length-delimited
+ * fields are returned as the slices of the underlying buffer without copying, so it works on a memory-mapped
+ * file as well as on a heap buffer.</p>
+ */
+final class ProtoReader {
+    static final int WIRE_VARINT = 0;
+
+    static final int WIRE_FIXED64 = 1;
+
+    static final int WIRE_LENGTH_DELIMITED = 2;
+
+    static final int WIRE_FIXED32 = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+
+    private int tag;
+
+    /**
+     * Creates a reader from <code>position()</code> to <code>limit()</code> of the buffer.
+     */
+    ProtoReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads the next tag.
+     *
+     * @return false if the message has no more field
+     */
+    boolean next() {
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+
+        final long t = readVarint();
+        if ((t >>> 3) == 0 || (t >>> 3) > Integer.MAX_VALUE) {
+            throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "invalid tag: " + t);
+        }
+        tag = (int) t;
+
+        return true;
+    }
+
+    /**
+     * The field number of the current tag.
+     */
+    int field() {
+        return tag >>> 3;
+    }
+
+    /**
+     * The wire type of the current tag.
+     */
+    int wireType() {
+        return tag & 0x7;
+    }
+
+    /**
+     * The number of the bytes remaining in the message.
+     */
+    int remaining() {
+        return buffer.remaining();
+    }
+
+    long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "malformed varint");
+    }
+
+    int readFixed32() {
+        require(4);
+        return buffer.getInt();
+    }
+
+    long readFixed64() {
+        require(8);
+        return buffer.getLong();
+    }
+
+    float readFloat() {
+        return Float.intBitsToFloat(readFixed32());
+    }
+
+    /**
+     * Reads a length-delimited field as a slice of the buffer.
+     */
+    ByteBuffer readBytes() {
+        final long length = readVarint();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "truncated field: " + field());
+        }
+
+        final ByteBuffer slice = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        slice.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+
+        return slice;
+    }
+
+    String readString() {
+        final ByteBuffer bytes = readBytes();
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), UTF_8);
+        }
+
+        final byte[] b = new byte[bytes.remaining()];
+        bytes.get(b);
+        return new String(b, UTF_8);
+    }
+
+    ProtoReader readMessage() {
+        return new ProtoReader(readBytes());
+    }
+
+    /**
+     * Skips the value of the current field.
+     */
+    void skip() {
+        switch (wireType()) {
+            case WIRE_VARINT:
+                readVarint();
+                break;
+            case WIRE_FIXED64:
+                readFixed64();
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                readBytes();
+                break;
+            case WIRE_FIXED32:
+                readFixed32();
+                break;
+            default:
+                throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "unsupported wire type: " + wireType());
+        }
+    }
+
+    private byte get() {
+        require(1);
+        return buffer.get();
+    }
+
+    private void require(int bytes) {
+        if (buffer.remaining() < bytes) {
+            throw new MenohException(ErrorCode.ONNX_PARSE_ERROR, "truncated message");
+        }
+    }
+}
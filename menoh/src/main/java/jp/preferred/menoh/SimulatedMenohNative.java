@@ -0,0 +1,591 @@
+package jp.preferred.menoh;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A pure-Java stand-in of {@link MenohNative} which simulates Menoh Core without the native library. It is
+ * useful to test and benchmark the features built on top of the binding (copying, pooling, batching, etc.)
+ * isolated from the computation of the model.</p>
+ *
+ * <p>It accepts any existing model file, variable names and backend. The variables are allocated in the native
+ * heap by JNA as Menoh Core does, and each output has the dims of <code>[batch size, output size]</code>, where
+ * the batch size is that of the first input. {@link #menoh_model_run(Pointer)} spins for the configured latency
+ * and fills each sample of the outputs with the sum of the corresponding sample of all the inputs. Only
+ * {@link DType#FLOAT} is supported.</p>
+ *
+ * <p>It is selected by <code>-Djp.preferred.menoh.binding=simulated</code> and configured by the system
+ * properties:</p>
+ *
+ * <ul>
+ *     <li><code>jp.preferred.menoh.simulated.latency</code>: the latency of a run in nanoseconds
+ *     (default: 0)</li>
+ *     <li><code>jp.preferred.menoh.simulated.outputSize</code>: the number of the elements in a sample of each
+ *     output (default: 1)</li>
+ * </ul>
+ */
+// CHECKSTYLE:OFF
+public final class SimulatedMenohNative implements MenohNative {
+    static final String LATENCY_PROPERTY = "jp.preferred.menoh.simulated.latency";
+
+    static final String OUTPUT_SIZE_PROPERTY = "jp.preferred.menoh.simulated.outputSize";
+
+    private final long latencyNanos;
+
+    private final int outputSize;
+
+    /**
+     * The objects behind the handles, keyed by the address of the handles.
+     */
+    private final ConcurrentMap<Long, Handle> handles = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<String> lastErrorMessage = new ThreadLocal<>();
+
+    /**
+     * Creates a simulator.
+     *
+     * @param latencyNanos the latency of a run in nanoseconds
+     * @param outputSize the number of the elements in a sample of each output
+     * @throws IllegalArgumentException if <code>latencyNanos</code> is negative or <code>outputSize</code> is
+     *                                  not positive
+     */
+    public SimulatedMenohNative(long latencyNanos, int outputSize) {
+        if (latencyNanos < 0) {
+            throw new IllegalArgumentException("latencyNanos must not be negative: " + latencyNanos);
+        }
+        if (outputSize <= 0) {
+            throw new IllegalArgumentException("outputSize must be positive: " + outputSize);
+        }
+
+        this.latencyNanos = latencyNanos;
+        this.outputSize = outputSize;
+    }
+
+    /**
+     * Creates a simulator configured by the system properties.
+     */
+    static SimulatedMenohNative fromSystemProperties() {
+        return new SimulatedMenohNative(
+                Long.getLong(LATENCY_PROPERTY, 0L), Integer.getInteger(OUTPUT_SIZE_PROPERTY, 1));
+    }
+
+    /**
+     * The latency of a run in nanoseconds.
+     */
+    public long latencyNanos() {
+        return this.latencyNanos;
+    }
+
+    /**
+     * The number of the elements in a sample of each output.
+     */
+    public int outputSize() {
+        return this.outputSize;
+    }
+
+    @Override
+    public String menoh_get_last_error_message() {
+        final String message = lastErrorMessage.get();
+        return message != null ? message : "";
+    }
+
+    @Override
+    public int menoh_make_model_data_from_onnx(String onnx_filename, PointerByReference dst_handle) {
+        if (!new File(onnx_filename).isFile()) {
+            return fail(ErrorCode.INVALID_FILENAME, "menoh invalid filename error: " + onnx_filename);
+        }
+
+        dst_handle.setValue(register(new ModelDataHandle()));
+        return success();
+    }
+
+    @Override
+    public int menoh_make_model_data_from_onnx_data_on_memory(Pointer onnx_data, int size, PointerByReference dst_handle) {
+        if (onnx_data == null || size <= 0) {
+            return fail(ErrorCode.ONNX_PARSE_ERROR, "menoh onnx parse error: the model data is empty");
+        }
+
+        dst_handle.setValue(register(new ModelDataHandle()));
+        return success();
+    }
+
+    @Override
+    public void menoh_delete_model_data(Pointer model_data) {
+        unregister(model_data);
+    }
+
+    @Override
+    public int menoh_model_data_optimize(Pointer model_data, Pointer variable_profile_table) {
+        if (lookup(model_data, ModelDataHandle.class) == null
+                || lookup(variable_profile_table, VariableProfileTableHandle.class) == null) {
+            return invalidHandle();
+        }
+
+        return success();
+    }
+
+    @Override
+    public int menoh_make_variable_profile_table_builder(PointerByReference dst_handle) {
+        dst_handle.setValue(register(new VariableProfileTableBuilderHandle()));
+        return success();
+    }
+
+    @Override
+    public void menoh_delete_variable_profile_table_builder(Pointer builder) {
+        unregister(builder);
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_input_profile_dims_2(
+            Pointer builder, String name, int dtype, int num, int size) {
+        return addInputProfile(builder, name, dtype, new int[] {num, size});
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_input_profile_dims_4(
+            Pointer builder, String name, int dtype, int num, int channel, int height, int width) {
+        return addInputProfile(builder, name, dtype, new int[] {num, channel, height, width});
+    }
+
+    private int addInputProfile(Pointer builder, String name, int dtype, int[] dims) {
+        final VariableProfileTableBuilderHandle b = lookup(builder, VariableProfileTableBuilderHandle.class);
+        if (b == null) {
+            return invalidHandle();
+        }
+        if (dtype != DType.FLOAT.getId()) {
+            return fail(ErrorCode.INVALID_DTYPE, "menoh invalid dtype error: " + dtype);
+        }
+        if (b.inputs.containsKey(name) || b.outputs.contains(name)) {
+            return sameNamedVariable(name);
+        }
+
+        b.inputs.put(name, new Profile(dtype, dims));
+        return success();
+    }
+
+    @Override
+    public int menoh_variable_profile_table_builder_add_output_profile(Pointer builder, String name, int dtype) {
+        final VariableProfileTableBuilderHandle b = lookup(builder, VariableProfileTableBuilderHandle.class);
+        if (b == null) {
+            return invalidHandle();
+        }
+        if (dtype != DType.FLOAT.getId()) {
+            return fail(ErrorCode.INVALID_DTYPE, "menoh invalid dtype error: " + dtype);
+        }
+        if (b.inputs.containsKey(name) || b.outputs.contains(name)) {
+            return sameNamedVariable(name);
+        }
+
+        b.outputs.add(name);
+        return success();
+    }
+
+    @Override
+    public int menoh_build_variable_profile_table(Pointer builder, Pointer model_data, PointerByReference dst_handle) {
+        final VariableProfileTableBuilderHandle b = lookup(builder, VariableProfileTableBuilderHandle.class);
+        if (b == null || lookup(model_data, ModelDataHandle.class) == null) {
+            return invalidHandle();
+        }
+
+        final int batchSize = b.inputs.isEmpty() ? 1 : b.inputs.values().iterator().next().dims[0];
+        final VariableProfileTableHandle vpt = new VariableProfileTableHandle();
+        vpt.inputs.putAll(b.inputs);
+        for (String name : b.outputs) {
+            vpt.outputs.put(name, new Profile(DType.FLOAT.getId(), new int[] {batchSize, outputSize}));
+        }
+
+        dst_handle.setValue(register(vpt));
+        return success();
+    }
+
+    @Override
+    public void menoh_delete_variable_profile_table(Pointer variable_profile_table) {
+        unregister(variable_profile_table);
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dtype(
+            Pointer variable_profile_table, String variable_name, IntByReference dst_dtype) {
+        final VariableProfileTableHandle vpt = lookup(variable_profile_table, VariableProfileTableHandle.class);
+        if (vpt == null) {
+            return invalidHandle();
+        }
+        final Profile p = vpt.profile(variable_name);
+        if (p == null) {
+            return variableNotFound(variable_name);
+        }
+
+        dst_dtype.setValue(p.dtype);
+        return success();
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dims_size(
+            Pointer variable_profile_table, String variable_name, IntByReference dst_size) {
+        final VariableProfileTableHandle vpt = lookup(variable_profile_table, VariableProfileTableHandle.class);
+        if (vpt == null) {
+            return invalidHandle();
+        }
+        final Profile p = vpt.profile(variable_name);
+        if (p == null) {
+            return variableNotFound(variable_name);
+        }
+
+        dst_size.setValue(p.dims.length);
+        return success();
+    }
+
+    @Override
+    public int menoh_variable_profile_table_get_dims_at(
+            Pointer variable_profile_table, String variable_name, int index, IntByReference dst_size) {
+        final VariableProfileTableHandle vpt = lookup(variable_profile_table, VariableProfileTableHandle.class);
+        if (vpt == null) {
+            return invalidHandle();
+        }
+        final Profile p = vpt.profile(variable_name);
+        if (p == null) {
+            return variableNotFound(variable_name);
+        }
+
+        return dimsAt(p, index, dst_size);
+    }
+
+    @Override
+    public int menoh_make_model_builder(Pointer variable_profile_table, PointerByReference dst_handle) {
+        final VariableProfileTableHandle vpt = lookup(variable_profile_table, VariableProfileTableHandle.class);
+        if (vpt == null) {
+            return invalidHandle();
+        }
+
+        dst_handle.setValue(register(new ModelBuilderHandle(vpt)));
+        return success();
+    }
+
+    @Override
+    public void menoh_delete_model_builder(Pointer model_builder) {
+        unregister(model_builder);
+    }
+
+    @Override
+    public int menoh_model_builder_attach_external_buffer(
+            Pointer builder, String variable_name, Pointer buffer_handle) {
+        final ModelBuilderHandle b = lookup(builder, ModelBuilderHandle.class);
+        if (b == null) {
+            return invalidHandle();
+        }
+        if (b.profiles.profile(variable_name) == null) {
+            return variableNotFound(variable_name);
+        }
+
+        b.externalBuffers.put(variable_name, buffer_handle);
+        return success();
+    }
+
+    @Override
+    public int menoh_build_model(
+            Pointer builder, Pointer model_data, String backend_name, String backend_config,
+            PointerByReference dst_model_handle) {
+        final ModelBuilderHandle b = lookup(builder, ModelBuilderHandle.class);
+        if (b == null || lookup(model_data, ModelDataHandle.class) == null) {
+            return invalidHandle();
+        }
+
+        dst_model_handle.setValue(register(new ModelHandle(b)));
+        return success();
+    }
+
+    @Override
+    public void menoh_delete_model(Pointer model) {
+        unregister(model);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dtype(Pointer model, String variable_name, IntByReference dst_dtype) {
+        final ModelHandle m = lookup(model, ModelHandle.class);
+        if (m == null) {
+            return invalidHandle();
+        }
+        final SimulatedVariable v = m.variables.get(variable_name);
+        if (v == null) {
+            return variableNotFound(variable_name);
+        }
+
+        dst_dtype.setValue(v.profile.dtype);
+        return success();
+    }
+
+    @Override
+    public int menoh_model_get_variable_dtype(Pointer model, Pointer variable_name, IntByReference dst_dtype) {
+        return menoh_model_get_variable_dtype(model, variable_name.getString(0), dst_dtype);
+    }
+
+    @Override
+    public int menoh_model_run(Pointer model) {
+        final long start = System.nanoTime();
+
+        final ModelHandle m = lookup(model, ModelHandle.class);
+        if (m == null) {
+            return invalidHandle();
+        }
+        m.run();
+
+        while (System.nanoTime() - start < latencyNanos) {
+            // simulate the computation
+        }
+
+        return success();
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_size(Pointer model, String variable_name, IntByReference dst_size) {
+        final ModelHandle m = lookup(model, ModelHandle.class);
+        if (m == null) {
+            return invalidHandle();
+        }
+        final SimulatedVariable v = m.variables.get(variable_name);
+        if (v == null) {
+            return variableNotFound(variable_name);
+        }
+
+        dst_size.setValue(v.profile.dims.length);
+        return success();
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_size(Pointer model, Pointer variable_name, IntByReference dst_size) {
+        return menoh_model_get_variable_dims_size(model, variable_name.getString(0), dst_size);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_at(
+            Pointer model, String variable_name, int index, IntByReference dst_size) {
+        final ModelHandle m = lookup(model, ModelHandle.class);
+        if (m == null) {
+            return invalidHandle();
+        }
+        final SimulatedVariable v = m.variables.get(variable_name);
+        if (v == null) {
+            return variableNotFound(variable_name);
+        }
+
+        return dimsAt(v.profile, index, dst_size);
+    }
+
+    @Override
+    public int menoh_model_get_variable_dims_at(
+            Pointer model, Pointer variable_name, int index, IntByReference dst_size) {
+        return menoh_model_get_variable_dims_at(model, variable_name.getString(0), index, dst_size);
+    }
+
+    @Override
+    public int menoh_model_get_variable_buffer_handle(
+            Pointer model, String variable_name, PointerByReference dst_data) {
+        final ModelHandle m = lookup(model, ModelHandle.class);
+        if (m == null) {
+            return invalidHandle();
+        }
+        final SimulatedVariable v = m.variables.get(variable_name);
+        if (v == null) {
+            return variableNotFound(variable_name);
+        }
+
+        dst_data.setValue(v.buffer);
+        return success();
+    }
+
+    @Override
+    public int menoh_model_get_variable_buffer_handle(
+            Pointer model, Pointer variable_name, PointerByReference dst_data) {
+        return menoh_model_get_variable_buffer_handle(model, variable_name.getString(0), dst_data);
+    }
+    private int dimsAt(Profile p, int index, IntByReference dst_size) {
+        if (index < 0 || index >= p.dims.length) {
+            return fail(ErrorCode.INDEX_OUT_OF_RANGE, "menoh index out of range error: " + index);
+        }
+
+        dst_size.setValue(p.dims[index]);
+        return success();
+    }
+
+    private Pointer register(Handle handle) {
+        handles.put(Pointer.nativeValue(handle.address), handle);
+        return handle.address;
+    }
+
+    private void unregister(Pointer handle) {
+        if (handle != null) {
+            handles.remove(Pointer.nativeValue(handle));
+        }
+    }
+
+    private <T extends Handle> T lookup(Pointer handle, Class<T> type) {
+        final Handle h = handle != null ? handles.get(Pointer.nativeValue(handle)) : null;
+        return type.isInstance(h) ? type.cast(h) : null;
+    }
+
+    private int success() {
+        return ErrorCode.SUCCESS.getId();
+    }
+
+    private int fail(ErrorCode code, String message) {
+        lastErrorMessage.set(message);
+        return code.getId();
+    }
+
+    private int invalidHandle() {
+        return fail(ErrorCode.STD_ERROR, "menoh std error: invalid handle");
+    }
+
+    private int variableNotFound(String name) {
+        return fail(ErrorCode.VARIABLE_NOT_FOUND, "menoh variable not found error: " + name);
+    }
+
+    private int sameNamedVariable(String name) {
+        return fail(ErrorCode.SAME_NAMED_VARIABLE_ALREADY_EXIST,
+                "menoh same named variable already exist error: " + name);
+    }
+
+    /**
+     * An object behind a handle. The address of the handle is owned by the object, so it is not reused while
+     * the object is alive.
+     */
+    private abstract static class Handle {
+        final Memory address = new Memory(1);
+    }
+
+    private static final class Profile {
+        final int dtype;
+
+        final int[] dims;
+
+        Profile(int dtype, int[] dims) {
+            this.dtype = dtype;
+            this.dims = dims;
+        }
+
+        int elementCount() {
+            int count = 1;
+            for (int d : dims) {
+                count *= d;
+            }
+            return count;
+        }
+    }
+
+    private static final class ModelDataHandle extends Handle {
+    }
+
+    private static final class VariableProfileTableBuilderHandle extends Handle {
+        final Map<String, Profile> inputs = new LinkedHashMap<>();
+
+        final List<String> outputs = new ArrayList<>();
+    }
+
+    private static final class VariableProfileTableHandle extends Handle {
+        final Map<String, Profile> inputs = new LinkedHashMap<>();
+
+        final Map<String, Profile> outputs = new LinkedHashMap<>();
+
+        Profile profile(String name) {
+            final Profile p = inputs.get(name);
+            return p != null ? p : outputs.get(name);
+        }
+    }
+
+    private static final class ModelBuilderHandle extends Handle {
+        final VariableProfileTableHandle profiles;
+
+        final Map<String, Pointer> externalBuffers = new LinkedHashMap<>();
+
+        ModelBuilderHandle(VariableProfileTableHandle profiles) {
+            this.profiles = profiles;
+        }
+    }
+
+    private static final class SimulatedVariable {
+        final Profile profile;
+
+        final Pointer buffer;
+
+        /**
+         * A view of the buffer as the array of the samples.
+         */
+        final FloatBuffer data;
+
+        final int sampleSize;
+
+        SimulatedVariable(Profile profile, Pointer externalBuffer) {
+            final long bytes = 4L * profile.elementCount();
+            this.profile = profile;
+            this.buffer = externalBuffer != null ? externalBuffer : new Memory(Math.max(bytes, 1L));
+            this.data = buffer.getByteBuffer(0, bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            this.sampleSize = profile.dims[0] > 0 ? data.capacity() / profile.dims[0] : 0;
+        }
+
+        int batchSize() {
+            return profile.dims[0];
+        }
+    }
+
+    private static final class ModelHandle extends Handle {
+        final Map<String, SimulatedVariable> variables = new LinkedHashMap<>();
+
+        final SimulatedVariable[] inputs;
+
+        final SimulatedVariable[] outputs;
+
+        ModelHandle(ModelBuilderHandle builder) {
+            final VariableProfileTableHandle profiles = builder.profiles;
+            this.inputs = variables(profiles.inputs, builder.externalBuffers);
+            this.outputs = variables(profiles.outputs, builder.externalBuffers);
+        }
+
+        private SimulatedVariable[] variables(Map<String, Profile> profiles, Map<String, Pointer> externalBuffers) {
+            final SimulatedVariable[] vs = new SimulatedVariable[profiles.size()];
+            int i = 0;
+            for (Map.Entry<String, Profile> e : profiles.entrySet()) {
+                vs[i] = new SimulatedVariable(e.getValue(), externalBuffers.get(e.getKey()));
+                variables.put(e.getKey(), vs[i]);
+                i++;
+            }
+            return vs;
+        }
+
+        /**
+         * Fills each sample of the outputs with the sum of the corresponding sample of the inputs.
+         */
+        void run() {
+            for (SimulatedVariable out : outputs) {
+                for (int n = 0; n < out.batchSize(); n++) {
+                    float sum = 0f;
+                    for (SimulatedVariable in : inputs) {
+                        if (n < in.batchSize()) {
+                            final int offset = n * in.sampleSize;
+                            for (int i = 0; i < in.sampleSize; i++) {
+                                sum += in.data.get(offset + i);
+                            }
+                        }
+                    }
+
+                    final int offset = n * out.sampleSize;
+                    for (int i = 0; i < out.sampleSize; i++) {
+                        out.data.put(offset + i, sum);
+                    }
+                }
+            }
+        }
+    }
+}
+// CHECKSTYLE:ON
@@ -0,0 +1,18 @@
+package jp.preferred.menoh;
+
+/**
+ * The provider of {@link SimulatedMenohNative}, which is selected by <code>simulated</code> binding.
+ */
+public final class SimulatedMenohNativeProvider implements MenohNativeProvider {
+    static final String NAME = "simulated";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public MenohNative create() {
+        return SimulatedMenohNative.fromSystemProperties();
+    }
+}
@@ -0,0 +1,47 @@
+package jp.preferred.menoh;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The {@link MenohTracer} loaded from the class path.
+ */
+final class Tracing {
+    /**
+     * The tracer, or <code>null</code> if it is not provided. JIT compiler eliminates the tracing code
+     * entirely in the latter case.
+     */
+    private static final MenohTracer TRACER = load();
+
+    private Tracing() {
+    }
+
+    private static MenohTracer load() {
+        try {
+            final Iterator<MenohTracer> it = ServiceLoader.load(MenohTracer.class).iterator();
+            return it.hasNext() ? it.next() : null;
+        } catch (ServiceConfigurationError e) {
+            // keep working without tracing
+            return null;
+        }
+    }
+
+    /**
+     * Begins tracing the specified operation.
+     *
+     * @return a span, or <code>null</code> if the operation is not traced
+     */
+    static MenohTracer.Span begin(MenohTracer.Operation operation) {
+        final MenohTracer tracer = TRACER;
+        return tracer != null ? tracer.begin(operation) : null;
+    }
+
+    /**
+     * Formats a variable with its dims, e.g. <code>"input[1, 3, 224, 224]"</code>.
+     */
+    static String describe(String name, int[] dims) {
+        return name + Arrays.toString(dims);
+    }
+}
@@ -2,7 +2,10 @@ package jp.preferred.menoh;
 
 import com.sun.jna.Pointer;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
 /**
  * An input or output variable in the model.
@@ -12,10 +15,38 @@ public class Variable {
     private final int[] dims;
     private final Pointer bufferHandle;
 
+    /**
+     * A view of the native buffer shared by the internal callers, or <code>null</code> if the buffer is not
+     * available. Its position and limit must not be changed.
+     */
+    private final ByteBuffer view;
+
+    /**
+     * A float view of {@link #view}, or <code>null</code> if the dtype is not float.
+     */
+    private final FloatBuffer floatView;
+
     Variable(DType dtype, int[] dims, Pointer bufferHandle) {
         this.dtype = dtype;
         this.dims = dims;
         this.bufferHandle = bufferHandle;
+
+        // create the views before publishing this object because it is shared among the threads
+        this.view = createView();
+        this.floatView = (view != null && dtype == DType.FLOAT) ? view.asFloatBuffer() : null;
+    }
+
+    private ByteBuffer createView() {
+        if (bufferHandle == null) {
+            return null;
+        }
+
+        try {
+            return bufferHandle.getByteBuffer(0, bufferLength());
+        } catch (MenohException e) {
+            // the reason is reported when the buffer is accessed
+            return null;
+        }
     }
 
     /**
@@ -36,12 +67,87 @@ public class Variable {
         }
     }
 
+    /**
+     * The pointer to the native buffer of the variable.
+     */
+    Pointer bufferHandle() {
+        return this.bufferHandle;
+    }
+
     /**
      * A direct {@link ByteBuffer} which points to the native buffer of the variable. The buffer can be read
      * and written via the methods of <code>ByteBuffer</code> before and after running the model.
      */
     public ByteBuffer buffer() throws MenohException {
-        return this.bufferHandle.getByteBuffer(0, bufferLength());
+        // duplicate() resets the byte order to big endian
+        return nativeBuffer().duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * A direct {@link ByteBuffer} which points to the native buffer of the variable. Unlike {@link #buffer()},
+     * it returns the same instance every time, so the caller must not change its position and limit. Use
+     * <code>duplicate()</code> to read or write it relatively.
+     */
+    ByteBuffer nativeBuffer() throws MenohException {
+        if (view == null) {
+            // throws the reason why the buffer is not available
+            bufferLength();
+            throw new MenohException(ErrorCode.UNDEFINED, "buffer is not available");
+        }
+
+        return view;
+    }
+
+    /**
+     * A {@link FloatBuffer} view of {@link #nativeBuffer()}. It returns the same instance every time, so the
+     * caller must not change its position and limit.
+     */
+    FloatBuffer nativeFloatBuffer() throws MenohException {
+        if (floatView == null) {
+            if (dtype != DType.FLOAT) {
+                throw new MenohException(ErrorCode.INVALID_DTYPE, "the dtype of the variable is not float: " + dtype);
+            }
+            nativeBuffer();
+        }
+
+        return floatView;
+    }
+
+    /**
+     * <p>Copies the array to the native buffer of the variable ranging from <code>offset</code> to
+     * <code>(offset + length - 1)</code>. It writes the values directly into the native memory at the absolute
+     * offset without allocating any temporary buffer, so it can be called from multiple threads.</p>
+     *
+     * @throws java.nio.BufferOverflowException if <code>length</code> exceeds the size of the variable
+     */
+    void put(float[] values, int offset, int length) throws MenohException {
+        if (length > nativeFloatBuffer().capacity()) {
+            throw new BufferOverflowException();
+        }
+        bufferHandle.write(0, values, offset, length);
+    }
+
+    /**
+     * <p>Copies the rows of the batch to the native buffer of the variable consecutively. It writes the
+     * values directly into the native memory at the absolute offsets without allocating any temporary
+     * buffer.</p>
+     *
+     * @throws java.nio.BufferOverflowException if the total length exceeds the size of the variable
+     */
+    void put(float[][] batch) throws MenohException {
+        long total = 0;
+        for (float[] row : batch) {
+            total += row.length;
+        }
+        if (total > nativeFloatBuffer().capacity()) {
+            throw new BufferOverflowException();
+        }
+
+        long offset = 0;
+        for (float[] row : batch) {
+            bufferHandle.write(offset, row, 0, row.length);
+            offset += (long) row.length * 4;
+        }
     }
 
     /**
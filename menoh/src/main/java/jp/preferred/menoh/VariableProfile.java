@@ -29,4 +29,18 @@ public class VariableProfile {
             return new int[0];
         }
     }
+
+    /**
+     * The byte size of the buffer holding the variable.
+     */
+    long byteSize() throws MenohException {
+        long size = dtype.size();
+        if (dims != null) {
+            for (int d : dims) {
+                size *= d;
+            }
+        }
+
+        return size;
+    }
 }
@@ -6,6 +6,10 @@ import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.PointerByReference;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>A table which holds {@link VariableProfile}s for the {@link Model}. It will be built by
  * {@link VariableProfileTableBuilder}.</p>
@@ -16,20 +20,57 @@ import com.sun.jna.ptr.PointerByReference;
 public class VariableProfileTable implements AutoCloseable {
     private Pointer handle;
 
-    VariableProfileTable(Pointer handle) {
+    private final NativeResources.Handle resource;
+
+    /**
+     * The dims of the inputs in the order of the profiles added to the builder.
+     */
+    private final Map<String, int[]> inputDims;
+
+    private final List<String> outputNames;
+
+    VariableProfileTable(Pointer handle, Map<String, int[]> inputDims, List<String> outputNames) {
         this.handle = handle;
+        this.inputDims = inputDims;
+        this.outputNames = outputNames;
+        this.resource = NativeResources.track(this, NativeResources.Type.VARIABLE_PROFILE_TABLE, handle);
     }
 
     Pointer nativeHandle() {
         return this.handle;
     }
 
+    Map<String, int[]> inputDims() {
+        return this.inputDims;
+    }
+
+    List<String> outputNames() {
+        return this.outputNames;
+    }
+
+    /**
+     * The byte sizes of the inputs and the outputs, which the external buffers attached to them must have at
+     * least.
+     */
+    Map<String, Long> byteSizes() throws MenohException {
+        final Map<String, Long> sizes = new HashMap<>();
+        for (String name : inputDims.keySet()) {
+            sizes.put(name, variableProfile(name).byteSize());
+        }
+        for (String name : outputNames) {
+            sizes.put(name, variableProfile(name).byteSize());
+        }
+
+        return sizes;
+    }
+
     @Override
     public void close() {
         synchronized (this) {
             if (handle != Pointer.NULL) {
                 MenohNative.INSTANCE.menoh_delete_variable_profile_table(handle);
                 handle = Pointer.NULL;
+                resource.close();
             }
         }
     }
@@ -5,6 +5,11 @@ import static jp.preferred.menoh.MenohException.checkError;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.PointerByReference;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>A builder object for {@link VariableProfileTable}.</p>
  *
@@ -14,8 +19,28 @@ import com.sun.jna.ptr.PointerByReference;
 public class VariableProfileTableBuilder implements AutoCloseable {
     private Pointer handle;
 
+    private final NativeResources.Handle resource;
+
+    /**
+     * The descriptions of the added profiles for tracing.
+     */
+    private final List<String> profiles = new ArrayList<>();
+
+    /**
+     * The dims of the inputs and the names of the outputs for the backends in Java.
+     */
+    private final Map<String, int[]> inputDims = new LinkedHashMap<>();
+
+    private final List<String> outputNames = new ArrayList<>();
+
+    /**
+     * The dtypes of the inputs and the outputs to copy the profiles by {@link #withBatchSize(int)}.
+     */
+    private final Map<String, DType> dtypes = new LinkedHashMap<>();
+
     VariableProfileTableBuilder(Pointer handle) {
         this.handle = handle;
+        this.resource = NativeResources.track(this, NativeResources.Type.VARIABLE_PROFILE_TABLE_BUILDER, handle);
     }
 
     Pointer nativeHandle() {
@@ -28,6 +53,7 @@ public class VariableProfileTableBuilder implements AutoCloseable {
             if (handle != Pointer.NULL) {
                 MenohNative.INSTANCE.menoh_delete_variable_profile_table_builder(handle);
                 handle = Pointer.NULL;
+                resource.close();
             }
         }
     }
@@ -51,6 +77,9 @@ public class VariableProfileTableBuilder implements AutoCloseable {
                     ErrorCode.UNDEFINED,
                     String.format("%s has an invalid dims size: %d (it must be 2 or 4)", name, dims.length));
         }
+        profiles.add(Tracing.describe(name, dims));
+        inputDims.put(name, dims.clone());
+        dtypes.put(name, dtype);
 
         return this;
     }
@@ -63,6 +92,9 @@ public class VariableProfileTableBuilder implements AutoCloseable {
     public VariableProfileTableBuilder addOutputProfile(String name, DType dtype) throws MenohException {
         checkError(MenohNative.INSTANCE.menoh_variable_profile_table_builder_add_output_profile(
                 handle, name, dtype.getId()));
+        profiles.add(name);
+        outputNames.add(name);
+        dtypes.put(name, dtype);
 
         return this;
     }
@@ -71,10 +103,43 @@ public class VariableProfileTableBuilder implements AutoCloseable {
      * Builds a {@link VariableProfileTable}. It is used for making {@link ModelBuilder}.
      */
     public VariableProfileTable build(ModelData modelData) throws MenohException {
+        final MenohTracer.Span span = Tracing.begin(MenohTracer.Operation.BUILD_VARIABLE_PROFILE_TABLE);
         final PointerByReference ref = new PointerByReference();
-        checkError(MenohNative.INSTANCE.menoh_build_variable_profile_table(
-                this.handle, modelData.nativeHandle(), ref));
+        boolean failed = true;
+        try {
+            checkError(MenohNative.INSTANCE.menoh_build_variable_profile_table(
+                    this.handle, modelData.nativeHandle(), ref));
+            failed = false;
+        } finally {
+            if (span != null) {
+                span.end(modelData.path(), null, null, profiles.toString(), 0L, failed);
+            }
+        }
+
+        return new VariableProfileTable(
+                ref.getValue(), new LinkedHashMap<>(inputDims), new ArrayList<>(outputNames));
+    }
+
+    /**
+     * Makes a new builder which has the same profiles as this builder except that the first axis of the inputs
+     * is replaced with the specified batch size.
+     */
+    VariableProfileTableBuilder withBatchSize(int batchSize) throws MenohException {
+        final VariableProfileTableBuilder builder = VariableProfileTable.builder();
+        try {
+            for (Map.Entry<String, int[]> e : inputDims.entrySet()) {
+                final int[] dims = e.getValue().clone();
+                dims[0] = batchSize;
+                builder.addInputProfile(e.getKey(), dtypes.get(e.getKey()), dims);
+            }
+            for (String name : outputNames) {
+                builder.addOutputProfile(name, dtypes.get(name));
+            }
+        } catch (Throwable t) {
+            builder.close();
+            throw t;
+        }
 
-        return new VariableProfileTable(ref.getValue());
+        return builder;
     }
 }
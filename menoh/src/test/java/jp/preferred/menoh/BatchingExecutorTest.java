@@ -0,0 +1,143 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("simulated")
+public class BatchingExecutorTest {
+    private static final float[][] inputs = new float[][] {{0f, 0f}, {0f, 1f}, {1f, 0f}, {1f, 1f}};
+
+    @Test
+    public void coalesceSamplesIntoBatches() throws Exception {
+        final int batchSize = 4;
+        final int sampleNum = 64;
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(batchSize);
+                ModelRunner runner = builder.build();
+                BatchingExecutor executor = new BatchingExecutor(
+                        runner, "input", "output", 100, TimeUnit.MILLISECONDS)
+        ) {
+            assertAll("executor",
+                    () -> assertEquals(batchSize, executor.maxBatchSize()),
+                    () -> assertEquals(2, executor.inputRowLength()),
+                    () -> assertEquals(1, executor.outputRowLength())
+            );
+
+            final List<Future<float[]>> futures = new ArrayList<>();
+            for (int i = 0; i < sampleNum; i++) {
+                futures.add(executor.submit(inputs[i % inputs.length]));
+            }
+
+            for (int i = 0; i < sampleNum; i++) {
+                assertArrayEquals(
+                        new float[] {andOp(inputs[i % inputs.length])},
+                        futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+
+            assertEquals(sampleNum, executor.sampleCount());
+            assertTrue(executor.batchCount() < sampleNum, "samples should be batched");
+        }
+    }
+
+    @Test
+    public void runPartialBatchAfterMaxWaitTime() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(4);
+                ModelRunner runner = builder.build();
+                BatchingExecutor executor = new BatchingExecutor(
+                        runner, "input", "output", 1, TimeUnit.MILLISECONDS)
+        ) {
+            final float[] sample = new float[] {1f, 1f};
+            final Future<float[]> f = executor.submit(sample);
+            assertArrayEquals(new float[] {andOp(sample)}, f.get(10, TimeUnit.SECONDS));
+            assertAll("stats",
+                    () -> assertEquals(1, executor.batchCount()),
+                    () -> assertEquals(1, executor.sampleCount())
+            );
+        }
+    }
+
+    @Test
+    public void rejectInvalidSample() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(4);
+                ModelRunner runner = builder.build();
+                BatchingExecutor executor = new BatchingExecutor(
+                        runner, "input", "output", 1, TimeUnit.MILLISECONDS)
+        ) {
+            assertThrows(IllegalArgumentException.class, () -> executor.submit(new float[] {1f, 1f, 1f}));
+            assertThrows(IllegalArgumentException.class,
+                    () -> new BatchingExecutor(runner, "input", "output", 5, 1, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void closeExecutorDrainsSubmittedSamples() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(4);
+                ModelRunner runner = builder.build()
+        ) {
+            final BatchingExecutor executor = new BatchingExecutor(
+                    runner, "input", "output", 10, TimeUnit.SECONDS);
+            final float[] sample = new float[] {1f, 1f};
+            final Future<float[]> f = executor.submit(sample);
+
+            executor.close();
+            assertTrue(f.isDone(), "the submitted sample should be processed");
+            assertArrayEquals(new float[] {andOp(sample)}, f.get());
+            assertThrows(IllegalStateException.class, () -> executor.submit(sample));
+        }
+    }
+
+    @Test
+    public void closeExecutorRacingWithSubmit() throws Exception {
+        final float[] sample = new float[] {1f, 1f};
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(4);
+                ModelRunner runner = builder.build()
+        ) {
+            for (int i = 0; i < 100; i++) {
+                final BatchingExecutor executor = new BatchingExecutor(
+                        runner, "input", "output", 10, TimeUnit.SECONDS);
+                final List<Future<float[]>> futures = new CopyOnWriteArrayList<>();
+                final CountDownLatch submitting = new CountDownLatch(1);
+                final Thread submitter = new Thread(() -> {
+                    try {
+                        while (true) {
+                            futures.add(executor.submit(sample));
+                            submitting.countDown();
+                        }
+                    } catch (IllegalStateException e) {
+                        // closed
+                    }
+                });
+                submitter.start();
+                submitting.await();
+
+                final Thread closer = new Thread(executor::close);
+                closer.start();
+                closer.join(TimeUnit.SECONDS.toMillis(10));
+                assertFalse(closer.isAlive(), "close() should not hang");
+                submitter.join();
+
+                for (Future<float[]> f : futures) {
+                    assertTrue(f.isDone(), "every submitted sample should be processed or failed");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class BindingTest {
+    @Test
+    public void inputBindingWritesToVariable() throws Exception {
+        final float[] values = new float[] {0f, 1f, 2f, 3f, 4f, 5f, 6f, 7f};
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(4);
+                ModelRunner runner = builder.build()
+        ) {
+            final InputBinding binding = runner.inputBinding("input");
+            final FloatBuffer mem = runner.variable("input").buffer().asFloatBuffer();
+
+            binding.put(values);
+            final float[] written = new float[values.length];
+            mem.get(written);
+            assertArrayEquals(values, written);
+
+            final FloatBuffer buf = binding.buffer();
+            assertAll("input buffer",
+                    () -> assertEquals("input", binding.name()),
+                    () -> assertSame(buf, binding.buffer()),
+                    () -> assertEquals(0, buf.position()),
+                    () -> assertEquals(values.length, buf.remaining())
+            );
+
+            buf.put(3, 42f);
+            assertEquals(42f, mem.get(3));
+        }
+    }
+
+    @Test
+    public void inputBindingRejectsTooLongArray() throws Exception {
+        final float[] values = new float[9]; // test case
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(4);
+                ModelRunner runner = builder.build()
+        ) {
+            final InputBinding binding = runner.inputBinding("input");
+
+            assertThrows(BufferOverflowException.class, () -> binding.put(values));
+        }
+    }
+
+    @Test
+    public void outputBindingReadsFromVariable() throws Exception {
+        final float[] values = new float[] {0f, 1f, 2f, 3f};
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(4);
+                ModelRunner runner = builder.build()
+        ) {
+            runner.variable("output").buffer().asFloatBuffer().put(values);
+            final OutputBinding binding = runner.outputBinding("output");
+
+            final float[] dst = new float[values.length];
+            binding.get(dst);
+            assertAll("output",
+                    () -> assertEquals("output", binding.name()),
+                    () -> assertArrayEquals(values, dst),
+                    () -> assertEquals(2f, binding.get(2))
+            );
+        }
+    }
+
+    @Test
+    public void bindingsFailAfterClose() throws Exception {
+        try (ModelRunnerBuilder builder = andOpBuilder(4)) {
+            final ModelRunner runner = builder.build();
+            final InputBinding input = runner.inputBinding("input");
+            final OutputBinding output = runner.outputBinding("output");
+            runner.close();
+
+            // the buffers may have been given to another model
+            assertAll("closed bindings",
+                    () -> assertThrows(IllegalStateException.class, () -> input.put(new float[8])),
+                    () -> assertThrows(IllegalStateException.class, () -> output.get(new float[4])),
+                    () -> assertThrows(IllegalStateException.class, () -> output.get(0))
+            );
+        }
+    }
+
+    @Test
+    public void bindingsDoNotAllocate() throws Exception {
+        final float[] values = new float[] {0f, 1f, 2f, 3f, 4f, 5f, 6f, 7f};
+        final float[] dst = new float[4];
+        final int iterations = 100_000;
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(4);
+                ModelRunner runner = builder.build()
+        ) {
+            final InputBinding input = runner.inputBinding("input");
+            final OutputBinding output = runner.outputBinding("output");
+
+            final long allocated = allocatedBytes(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    input.put(values);
+                    output.get(dst);
+                }
+            });
+
+            assertTrue(allocated < iterations,
+                    String.format("%d bytes allocated in %d calls", allocated, iterations));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("simulated")
+public class BucketedModelRunnerTest {
+    private static final float[][] SAMPLES = new float[][] {{0f, 0f}, {0f, 1f}, {1f, 0f}, {1f, 1f}};
+
+    private static float[][] samples(int n) {
+        final float[][] samples = new float[n][];
+        for (int i = 0; i < n; i++) {
+            samples[i] = SAMPLES[i % SAMPLES.length];
+        }
+        return samples;
+    }
+
+    private static void assertOutputs(int n, float[][] outputs) {
+        assertEquals(n, outputs.length);
+        for (int i = 0; i < n; i++) {
+            assertArrayEquals(new float[] {andOp(SAMPLES[i % SAMPLES.length])}, outputs[i]);
+        }
+    }
+
+    @Test
+    public void runOnSmallestBucket() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                BucketedModelRunner runner = builder.buildBucketed(new int[] {16, 1, 4, 4}, Long.MAX_VALUE)
+        ) {
+            assertAll("buckets",
+                    () -> assertArrayEquals(new int[] {1, 4, 16}, runner.batchSizes()),
+                    () -> assertEquals(1, runner.bucketFor(1)),
+                    () -> assertEquals(4, runner.bucketFor(3)),
+                    () -> assertEquals(16, runner.bucketFor(5)),
+                    () -> assertEquals(16, runner.bucketFor(100)),
+                    () -> assertEquals(0, runner.buildCount())
+            );
+
+            // the bucket of 4 is built lazily and the last row is padded
+            assertOutputs(3, runner.run("input", samples(3), "output"));
+            assertArrayEquals(new int[] {4}, runner.residentBatchSizes());
+            assertArrayEquals(new int[] {4, 2}, runner.runner(3).variable("input").dims());
+
+            assertOutputs(1, runner.run("input", samples(1), "output"));
+            assertArrayEquals(new int[] {1, 4}, runner.residentBatchSizes());
+
+            // a batch larger than the largest bucket is split into 16 + 4
+            assertOutputs(20, runner.run("input", samples(20), "output"));
+            assertAll("built buckets",
+                    () -> assertArrayEquals(new int[] {1, 4, 16}, runner.residentBatchSizes()),
+                    () -> assertEquals(3, runner.buildCount()),
+                    () -> assertEquals(0, runner.evictionCount()),
+                    () -> assertEquals((1 + 4 + 16) * (2 + 1) * 4, runner.residentBytes())
+            );
+        }
+    }
+
+    @Test
+    public void evictUnderMemoryBudget() throws Exception {
+        // the variables of a bucket take 12 bytes per sample, so two of the buckets fit in the budget
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                BucketedModelRunner runner = builder.buildBucketed(new int[] {1, 2, 4}, 72)
+        ) {
+            runner.prebuild();
+            assertAll("after prebuild",
+                    () -> assertArrayEquals(new int[] {2, 4}, runner.residentBatchSizes()),
+                    () -> assertEquals(72, runner.residentBytes()),
+                    () -> assertEquals(3, runner.buildCount()),
+                    () -> assertEquals(1, runner.evictionCount())
+            );
+
+            // the bucket of 4 is the least recently used one
+            assertOutputs(2, runner.run("input", samples(2), "output"));
+            assertOutputs(1, runner.run("input", samples(1), "output"));
+            assertAll("after running small batches",
+                    () -> assertArrayEquals(new int[] {1, 2}, runner.residentBatchSizes()),
+                    () -> assertEquals(36, runner.residentBytes()),
+                    () -> assertEquals(4, runner.buildCount()),
+                    () -> assertEquals(2, runner.evictionCount())
+            );
+        }
+
+        // the bucket used last is kept even if it exceeds the budget
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                BucketedModelRunner runner = builder.buildBucketed(new int[] {1, 4}, 0)
+        ) {
+            assertOutputs(4, runner.run("input", samples(4), "output"));
+            assertOutputs(1, runner.run("input", samples(1), "output"));
+            assertAll("over budget",
+                    () -> assertArrayEquals(new int[] {1}, runner.residentBatchSizes()),
+                    () -> assertEquals(1, runner.evictionCount())
+            );
+        }
+    }
+
+    @Test
+    public void runWithAttachedInputOnLargerBucket() throws Exception {
+        final long blocksInUse = NativeArena.stats().blocksInUse();
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1).attachExternalBuffer("input", new float[] {1f, 1f});
+                BucketedModelRunner runner = builder.buildBucketed(new int[] {1, 4}, Long.MAX_VALUE)
+        ) {
+            runner.prebuild();
+
+            // the input attached for a sample is extended to the bucket of 4 with zero
+            final float[] inputBuf = new float[8];
+            runner.runner(4).variable("input").buffer().asFloatBuffer().get(inputBuf);
+            assertArrayEquals(new float[] {1f, 1f, 0f, 0f, 0f, 0f, 0f, 0f}, inputBuf);
+
+            assertOutputs(3, runner.run("input", samples(3), "output"));
+            assertOutputs(1, runner.run("input", samples(1), "output"));
+        }
+
+        assertEquals(blocksInUse, NativeArena.stats().blocksInUse());
+    }
+
+    @Test
+    public void runWithInvalidArguments() throws Exception {
+        try (ModelRunnerBuilder builder = andOpBuilder(1)) {
+            assertThrows(IllegalArgumentException.class, () -> builder.buildBucketed(new int[0], 0));
+            assertThrows(IllegalArgumentException.class, () -> builder.buildBucketed(new int[] {0, 1}, 0));
+            assertThrows(IllegalArgumentException.class, () -> builder.buildBucketed(new int[] {1}, -1));
+
+            final BucketedModelRunner runner = builder.buildBucketed(new int[] {1, 4}, Long.MAX_VALUE);
+            try {
+                assertThrows(IllegalArgumentException.class, () -> runner.run("input", new float[0][], "output"));
+                assertThrows(IllegalArgumentException.class,
+                        () -> runner.run("input", new float[][] {{0f, 0f, 0f}}, "output"));
+                assertThrows(IllegalArgumentException.class, () -> runner.bucketFor(0));
+            } finally {
+                runner.close();
+            }
+
+            assertEquals(0, runner.residentBytes());
+            assertThrows(IllegalStateException.class, () -> runner.run("input", samples(1), "output"));
+
+            // close() is an idempotent operation
+            runner.close();
+        }
+    }
+}
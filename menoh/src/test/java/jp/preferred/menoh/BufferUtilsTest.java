@@ -216,4 +216,12 @@ public class BufferUtilsTest {
                 IllegalArgumentException.class,
                 () -> BufferUtils.copyToNativeMemory(values, offset, length));
     }
+
+    @Test
+    public void copyStringToNativeString() {
+        final String str = "conv1_1_in"; // test case
+
+        final Pointer ptr = BufferUtils.copyToNativeString(str);
+        assertEquals(str, ptr.getString(0));
+    }
 }
@@ -0,0 +1,243 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.testing.OnnxWriter.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class JavaModelTest {
+    @Test
+    public void runMlp() throws Exception {
+        // the same as MLP in make_onnx.py
+        final float[] w1 = new float[12];
+        for (int i = 0; i < w1.length; i++) {
+            w1[i] = i - 6;
+        }
+        final float[] w2 = new float[20];
+        for (int i = 0; i < w2.length; i++) {
+            w2[i] = i - 10;
+        }
+
+        final byte[] model = model(9, graph(
+                Arrays.asList(
+                        node("Gemm", inputs("input", "w1", "b1"), "h1", intAttr("transB", 1)),
+                        node("Relu", inputs("h1"), "fc1"),
+                        node("Gemm", inputs("fc1", "w2", "b2"), "h2", intAttr("transB", 1)),
+                        node("Relu", inputs("h2"), "fc2")),
+                Arrays.asList(
+                        floatTensor("w1", new long[] {4, 3}, w1),
+                        floatTensor("b1", new long[] {4}, -2f, -1f, 0f, 1f),
+                        floatTensor("w2", new long[] {5, 4}, w2),
+                        floatTensor("b2", new long[] {5}, -2f, -1f, 0f, 1f, 2f)),
+                inputs("input"),
+                inputs("fc2")));
+
+        final JavaModel m = build(model, Collections.singletonMap("input", new int[] {2, 3}), "fc1", "fc2");
+        put(m, "input", 0f, 1f, 2f, 3f, 4f, 5f);
+        m.run();
+
+        assertAll("outputs",
+                () -> assertArrayEquals(new int[] {2, 5}, m.variable("fc2").dims()),
+                () -> assertArrayEquals(new float[] {0f, 0f, 15f, 96f, 177f, 0f, 0f, 51f, 312f, 573f},
+                        get(m, "fc2")),
+                () -> assertArrayEquals(new float[] {0f, 0f, 5f, 15f, 0f, 0f, 14f, 51f}, get(m, "fc1"))
+        );
+    }
+
+    @Test
+    public void runConvAndMaxPool() throws Exception {
+        final byte[] model = model(9, graph(
+                Arrays.asList(
+                        node("Conv", inputs("x", "w", "b"), "c", intsAttr("pads", 1, 1, 1, 1)),
+                        node("MaxPool", inputs("c"), "y",
+                                intsAttr("kernel_shape", 2, 2), intsAttr("strides", 2, 2))),
+                Arrays.asList(
+                        floatTensor("w", new long[] {2, 1, 2, 2}, 1f, 1f, 1f, 1f, 0f, 0f, 0f, -1f),
+                        floatTensor("b", new long[] {2}, 0f, 10f)),
+                inputs("x"),
+                inputs("y")));
+
+        final JavaModel m = build(model, Collections.singletonMap("x", new int[] {1, 1, 3, 3}), "c", "y");
+        put(m, "x", 1f, 2f, 3f, 4f, 5f, 6f, 7f, 8f, 9f);
+        m.run();
+
+        assertAll("outputs",
+                () -> assertArrayEquals(new int[] {1, 2, 4, 4}, m.variable("c").dims()),
+                () -> assertArrayEquals(new float[] {
+                    1f, 3f, 5f, 3f,
+                    5f, 12f, 16f, 9f,
+                    11f, 24f, 28f, 15f,
+                    7f, 15f, 17f, 9f,
+                    9f, 8f, 7f, 10f,
+                    6f, 5f, 4f, 10f,
+                    3f, 2f, 1f, 10f,
+                    10f, 10f, 10f, 10f}, get(m, "c")),
+                () -> assertArrayEquals(new int[] {1, 2, 2, 2}, m.variable("y").dims()),
+                () -> assertArrayEquals(new float[] {12f, 16f, 24f, 28f, 9f, 10f, 10f, 10f}, get(m, "y"))
+        );
+    }
+
+    @Test
+    public void runReshapeAndSoftmax() throws Exception {
+        final float ln3 = (float) Math.log(3.0);
+        final byte[] model = model(9, graph(
+                Arrays.asList(
+                        node("Reshape", inputs("x", "shape"), "r"),
+                        node("Softmax", inputs("r"), "y", intAttr("axis", 1))),
+                Collections.singletonList(int64Tensor("shape", new long[] {2}, -1, 2)),
+                inputs("x"),
+                inputs("y")));
+
+        final JavaModel m = build(model, Collections.singletonMap("x", new int[] {1, 4}), "y");
+        put(m, "x", 0f, ln3, 5f, 5f);
+        m.run();
+
+        assertAll("output",
+                () -> assertArrayEquals(new int[] {2, 2}, m.variable("y").dims()),
+                () -> assertArrayEquals(new float[] {0.25f, 0.75f, 0.5f, 0.5f}, get(m, "y"), 1e-6f)
+        );
+    }
+
+    @Test
+    public void runMatMulAndAddWithBroadcast() throws Exception {
+        final byte[] model = model(9, graph(
+                Arrays.asList(
+                        node("MatMul", inputs("x", "w"), "p"),
+                        node("Add", inputs("p", "b"), "y"),
+                        node("Sigmoid", inputs("y"), "s")),
+                Arrays.asList(
+                        floatTensor("w", new long[] {3, 2}, 1f, 0f, 0f, 1f, 1f, 1f),
+                        floatTensor("b", new long[] {2}, 100f, 200f)),
+                inputs("x"),
+                inputs("y", "s")));
+
+        final JavaModel m = build(model, Collections.singletonMap("x", new int[] {2, 3}), "y", "s");
+        put(m, "x", 1f, 2f, 3f, 4f, 5f, 6f);
+        m.run();
+
+        assertAll("outputs",
+                () -> assertArrayEquals(new float[] {104f, 205f, 110f, 211f}, get(m, "y")),
+                () -> assertArrayEquals(new float[] {1f, 1f, 1f, 1f}, get(m, "s"))
+        );
+    }
+
+    @Test
+    public void runLegacyBroadcastAdd() throws Exception {
+        // Add in opset 6 broadcasts B from the axis
+        final byte[] model = model(6, graph(
+                Collections.singletonList(
+                        node("Add", inputs("x", "b"), "y", intAttr("broadcast", 1), intAttr("axis", 1))),
+                Collections.singletonList(floatTensor("b", new long[] {2}, 10f, 20f)),
+                inputs("x"),
+                inputs("y")));
+
+        final JavaModel m = build(model, Collections.singletonMap("x", new int[] {1, 2, 1, 2}), "y");
+        put(m, "x", 1f, 2f, 3f, 4f);
+        m.run();
+
+        assertArrayEquals(new float[] {11f, 12f, 23f, 24f}, get(m, "y"));
+    }
+
+    @Test
+    public void runLargeBatchInParallel() throws Exception {
+        final int batchSize = 256;
+        final int k = 64;
+        final int n = 64;
+        final float[] w = new float[k * n];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = (i % 7) - 3;
+        }
+        final float[] x = new float[batchSize * k];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = (i % 5) - 2;
+        }
+
+        final byte[] model = model(9, graph(
+                Arrays.asList(
+                        node("Gemm", inputs("x", "w"), "h"),
+                        node("Abs", inputs("h"), "y")),
+                Collections.singletonList(floatTensor("w", new long[] {k, n}, w)),
+                inputs("x"),
+                inputs("y")));
+
+        final JavaModel m = build(model, Collections.singletonMap("x", new int[] {batchSize, k}), "y");
+        put(m, "x", x);
+        m.run();
+
+        final float[] expected = new float[batchSize * n];
+        for (int i = 0; i < batchSize; i++) {
+            for (int j = 0; j < n; j++) {
+                float sum = 0f;
+                for (int p = 0; p < k; p++) {
+                    sum += x[i * k + p] * w[p * n + j];
+                }
+                expected[i * n + j] = Math.abs(sum);
+            }
+        }
+
+        // the result must be the same regardless of the chunks
+        assertArrayEquals(expected, get(m, "y"));
+        m.run();
+        assertArrayEquals(expected, get(m, "y"));
+    }
+
+    @Test
+    public void buildUnsupportedOperator() throws Exception {
+        final byte[] model = model(9, graph(
+                Collections.singletonList(node("LRN", inputs("x"), "y")),
+                Collections.<byte[]>emptyList(),
+                inputs("x"),
+                inputs("y")));
+
+        MenohException e = assertThrows(
+                MenohException.class,
+                () -> build(model, Collections.singletonMap("x", new int[] {1, 2}), "y"));
+        assertAll("unsupported operator",
+                () -> assertEquals(ErrorCode.UNSUPPORTED_OPERATOR, e.getErrorCode()),
+                () -> assertEquals("unsupported operator: LRN", e.getMessage())
+        );
+    }
+
+    @Test
+    public void buildWithUnknownVariable() throws Exception {
+        final byte[] model = model(9, graph(
+                Collections.singletonList(node("Relu", inputs("x"), "y")),
+                Collections.<byte[]>emptyList(),
+                inputs("x"),
+                inputs("y")));
+
+        MenohException e = assertThrows(
+                MenohException.class,
+                () -> build(model, Collections.singletonMap("x", new int[] {1, 2}), "z"));
+        assertEquals(ErrorCode.VARIABLE_NOT_FOUND, e.getErrorCode());
+    }
+
+    private static JavaModel build(byte[] model, Map<String, int[]> inputDims, String... outputNames) {
+        return JavaModel.build(
+                OnnxGraph.parse(ByteBuffer.wrap(model)),
+                new LinkedHashMap<>(inputDims),
+                Arrays.asList(outputNames),
+                Collections.<String, Pointer>emptyMap());
+    }
+
+    private static void put(JavaModel model, String name, float... values) {
+        model.variable(name).buffer().asFloatBuffer().put(values);
+    }
+
+    private static float[] get(JavaModel model, String name) {
+        final Variable v = model.variable(name);
+        final float[] values = new float[v.buffer().remaining() / 4];
+        v.buffer().asFloatBuffer().get(values);
+        return values;
+    }
+}
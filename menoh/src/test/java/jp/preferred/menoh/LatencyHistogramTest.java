@@ -0,0 +1,83 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketIndexIsMonotonic() {
+        int prev = -1;
+        for (long v = 0; v < 1_000_000; v++) {
+            final int index = LatencyHistogram.bucketIndex(v);
+            assertTrue(index == prev || index == prev + 1, "bucket index of " + v);
+            assertTrue(v <= LatencyHistogram.bucketUpperBound(index), "upper bound of " + v);
+            prev = index;
+        }
+
+        final int last = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(last));
+    }
+
+    @Test
+    public void emptySnapshot() {
+        final LatencyHistogram.Snapshot s = new LatencyHistogram().snapshot();
+
+        assertAll("empty snapshot",
+                () -> assertEquals(0L, s.count()),
+                () -> assertEquals(0L, s.minNanos()),
+                () -> assertEquals(0L, s.maxNanos()),
+                () -> assertEquals(0.0, s.meanNanos()),
+                () -> assertEquals(0L, s.percentileNanos(99.0))
+        );
+    }
+
+    @Test
+    public void percentiles() {
+        final LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 10_000; v++) {
+            h.record(v * 1000);
+        }
+        final LatencyHistogram.Snapshot s = h.snapshot();
+
+        assertAll("snapshot",
+                () -> assertEquals(10_000L, s.count()),
+                () -> assertEquals(1000L, s.minNanos()),
+                () -> assertEquals(10_000_000L, s.maxNanos()),
+                () -> assertEquals(5_000_500.0, s.meanNanos()),
+                () -> assertEquals(1000.0, s.percentileNanos(0.0), 1000.0 / 16),
+                () -> assertEquals(5_000_000.0, s.percentileNanos(50.0), 5_000_000.0 / 16),
+                () -> assertEquals(9_900_000.0, s.percentileNanos(99.0), 9_900_000.0 / 16),
+                () -> assertEquals(10_000_000L, s.percentileNanos(100.0))
+        );
+        assertThrows(IllegalArgumentException.class, () -> s.percentileNanos(100.1));
+        assertThrows(IllegalArgumentException.class, () -> s.percentileNanos(Double.NaN));
+    }
+
+    @Test
+    public void reset() {
+        final LatencyHistogram h = new LatencyHistogram();
+        h.record(42L);
+        h.record(-1L); // test case
+        h.reset();
+
+        assertEquals(0L, h.snapshot().count());
+    }
+
+    @Test
+    public void recordDoesNotAllocate() {
+        final LatencyHistogram h = new LatencyHistogram();
+        final int iterations = 100_000;
+
+        final long allocated = allocatedBytes(() -> {
+            for (int i = 0; i < iterations; i++) {
+                h.record(i);
+            }
+        });
+
+        assertTrue(allocated < iterations, String.format("%d bytes allocated in %d calls", allocated, iterations));
+    }
+}
@@ -0,0 +1,62 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+import org.junit.jupiter.api.Test;
+
+public class MenohNativeLoaderTest {
+    @Test
+    public void loadUnknownBinding() {
+        assertThrows(IllegalArgumentException.class, () -> MenohNativeLoader.load("unknown"));
+    }
+
+    @Test
+    public void parseJavaVersion() {
+        assertAll("java.specification.version",
+                () -> assertEquals(8, MenohNativeLoader.javaVersion("1.8")),
+                () -> assertEquals(17, MenohNativeLoader.javaVersion("17")),
+                () -> assertEquals(22, MenohNativeLoader.javaVersion("22")),
+                () -> assertEquals(0, MenohNativeLoader.javaVersion("unknown")),
+                () -> assertEquals(0, MenohNativeLoader.javaVersion(null))
+        );
+    }
+
+    @Test
+    public void loadPanamaWithoutModule() {
+        assertThrows(IllegalStateException.class, () -> MenohNativeLoader.load(MenohNativeLoader.PANAMA));
+    }
+
+    @Test
+    public void directBindingIsCompatible() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final MenohNative direct = MenohNativeLoader.load(MenohNativeLoader.JNA_DIRECT);
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {4, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                ModelRunner runner = builder.build()
+        ) {
+            final Pointer handle = runner.model().nativeHandle();
+            final Pointer name = BufferUtils.copyToNativeString("output");
+            final IntByReference dtype = new IntByReference();
+            final PointerByReference buffer = new PointerByReference();
+
+            assertEquals(ErrorCode.SUCCESS.getId(), direct.menoh_model_get_variable_dtype(handle, "output", dtype));
+            assertEquals(DType.FLOAT.getId(), dtype.getValue());
+
+            assertEquals(ErrorCode.SUCCESS.getId(), direct.menoh_model_get_variable_buffer_handle(handle, name, buffer));
+            assertEquals(runner.variable("output").buffer(), buffer.getValue().getByteBuffer(0, 4 * 4));
+
+            assertEquals(ErrorCode.SUCCESS.getId(), direct.menoh_model_run(handle));
+        }
+    }
+}
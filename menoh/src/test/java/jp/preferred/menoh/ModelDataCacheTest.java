@@ -0,0 +1,99 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import com.sun.jna.Pointer;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+
+public class ModelDataCacheTest {
+    @Test
+    public void shareModelData() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int size = ModelDataCache.size();
+
+        final ModelData first = ModelDataCache.fromOnnxFile(path);
+        final ModelData second = ModelDataCache.fromOnnxFile(path);
+        final Pointer handle = first.nativeHandle();
+        try {
+            assertAll("shared model data",
+                    () -> assertTrue(first.isShared()),
+                    () -> assertNotSame(first, second),
+                    () -> assertEquals(handle, second.nativeHandle()),
+                    () -> assertEquals(size + 1, ModelDataCache.size())
+            );
+        } finally {
+            first.close();
+        }
+
+        // close() is an idempotent operation which releases the reference only once
+        first.close();
+        assertAll("after releasing a reference",
+                () -> assertNull(first.nativeHandle()),
+                () -> assertEquals(handle, second.nativeHandle()),
+                () -> assertEquals(size + 1, ModelDataCache.size())
+        );
+
+        second.close();
+        assertEquals(size, ModelDataCache.size());
+    }
+
+    @Test
+    public void shareCopiedModelData() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final String copy = createTempFile(".onnx", Files.readAllBytes(Paths.get(path)));
+
+        try (
+                ModelData original = ModelDataCache.fromOnnxFile(path);
+                ModelData copied = ModelDataCache.fromOnnxFile(copy)
+        ) {
+            // the same content is shared regardless of the path
+            assertEquals(original.nativeHandle(), copied.nativeHandle());
+        }
+    }
+
+    @Test
+    public void reloadModifiedModelData() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final String copy = createTempFile(".onnx", Files.readAllBytes(Paths.get(path)));
+
+        try (ModelData before = ModelDataCache.fromOnnxFile(copy)) {
+            // append an unknown field (100: 1) to the model
+            Files.write(Paths.get(copy), new byte[] {(byte) 0xa0, 0x06, 0x01}, StandardOpenOption.APPEND);
+            assertTrue(new File(copy).setLastModified(new File(copy).lastModified() + 2000));
+
+            try (ModelData after = ModelDataCache.fromOnnxFile(copy)) {
+                assertNotEquals(before.nativeHandle(), after.nativeHandle());
+            }
+        }
+    }
+
+    @Test
+    public void optimizeSharedModelData() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+
+        try (
+                ModelData modelData = ModelDataCache.fromOnnxFile(path);
+                VariableProfileTableBuilder vptBuilder = VariableProfileTable.builder()
+                        .addInputProfile("input", DType.FLOAT, new int[] {1, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                VariableProfileTable vpt = vptBuilder.build(modelData)
+        ) {
+            assertThrows(IllegalStateException.class, () -> modelData.optimize(vpt));
+        }
+    }
+
+    @Test
+    public void loadNonExistentOnnxFile() {
+        MenohException e = assertThrows(
+                MenohException.class, () -> ModelDataCache.fromOnnxFile("__NON_EXISTENT_FILENAME__"));
+        assertEquals(ErrorCode.INVALID_FILENAME, e.getErrorCode());
+    }
+}
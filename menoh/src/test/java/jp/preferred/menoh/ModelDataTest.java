@@ -5,6 +5,15 @@ import static jp.preferred.menoh.TestUtils.*;
 import static org.junit.jupiter.api.Assertions.*;
 // CHECKSTYLE:ON
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 import org.junit.jupiter.api.Test;
 
 public class ModelDataTest {
@@ -33,6 +42,36 @@ public class ModelDataTest {
         }
     }
 
+    @Test
+    public void makeFromGzipOnnxFile() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx.gz");
+
+        try (ModelData modelData = ModelData.fromOnnxFile(path)) {
+            assertAll("model data from a gzip file",
+                    () -> assertNotNull(modelData.nativeHandle()),
+                    () -> assertEquals(path, modelData.path())
+            );
+        }
+    }
+
+    @Test
+    public void makeFromCorruptedGzipOnnxFile() throws Exception {
+        // a gzip header followed by an invalid deflate block
+        final String path = createTempFile(".onnx.gz", new byte[] {
+                0x1f, (byte) 0x8b, 0x08, 0, 0, 0, 0, 0, 0, 0x03, (byte) 0xff, (byte) 0xff, 0, 0, 0, 0, 0, 0});
+
+        MenohException e = assertThrows(MenohException.class, () -> ModelData.fromOnnxFile(path));
+        assertEquals(ErrorCode.ONNX_PARSE_ERROR, e.getErrorCode());
+    }
+
+    @Test
+    public void makeFromZstdOnnxFile() throws Exception {
+        final String path = createTempFile(".onnx.zst", new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0});
+
+        MenohException e = assertThrows(MenohException.class, () -> ModelData.fromOnnxFile(path));
+        assertEquals(ErrorCode.ONNX_PARSE_ERROR, e.getErrorCode());
+    }
+
     @Test
     public void makeFromNonExistentOnnxFile() {
         MenohException e = assertThrows(
@@ -89,4 +128,108 @@ public class ModelDataTest {
             modelData.optimize(vpt);
         }
     }
+
+    @Test
+    public void makeFromOnnxBytes() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final byte[] bytes = Files.readAllBytes(Paths.get(path));
+
+        // a heap buffer is copied to the native heap, which is freed without being counted as an external buffer
+        final ByteBuffer heap = ByteBuffer.wrap(bytes);
+        final long externalBufferBytes = NativeResources.externalBufferBytes();
+        try (ModelData modelData = ModelData.fromOnnxBytes(heap)) {
+            assertAll("model data from a heap buffer",
+                    () -> assertNotNull(modelData.nativeHandle()),
+                    () -> assertNull(modelData.path()),
+                    () -> assertEquals(0, heap.position()),
+                    () -> assertEquals(externalBufferBytes, NativeResources.externalBufferBytes())
+            );
+        }
+
+        // a direct buffer is passed without copying
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3);
+        direct.position(3);
+        direct.put(bytes).position(3);
+        try (ModelData modelData = ModelData.fromOnnxBytes(direct)) {
+            assertAll("model data from a direct buffer",
+                    () -> assertNotNull(modelData.nativeHandle()),
+                    () -> assertEquals(3, direct.position())
+            );
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try (ModelData modelData = ModelData.fromOnnxBytes(mapped)) {
+                assertNotNull(modelData.nativeHandle());
+            }
+        }
+    }
+
+    @Test
+    public void makeFromEmptyOnnxBytes() {
+        assertThrows(IllegalArgumentException.class, () -> ModelData.fromOnnxBytes(ByteBuffer.allocate(0)));
+        assertThrows(IllegalArgumentException.class, () -> ModelData.fromOnnxBytes(null));
+    }
+
+    @Test
+    public void makeFromInputStream() throws Exception {
+        try (
+                InputStream in = ModelDataTest.class.getClassLoader().getResourceAsStream("models/and_op.onnx");
+                ModelData modelData = ModelData.fromInputStream(in)
+        ) {
+            assertAll("model data from a stream",
+                    () -> assertNotNull(modelData.nativeHandle()),
+                    () -> assertNull(modelData.path())
+            );
+        }
+    }
+
+    @Test
+    public void readFullyLargeStream() throws Exception {
+        final byte[] bytes = new byte[200 * 1024 + 1];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        // a stream which doesn't know the available bytes in advance
+        final InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+
+        final ByteBuffer buffer = ModelData.readFully(in);
+        assertAll("read buffer",
+                () -> assertTrue(buffer.isDirect()),
+                () -> assertEquals(bytes.length, buffer.remaining())
+        );
+        final byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertArrayEquals(bytes, actual);
+    }
+
+    @Test
+    public void readFullyWithExactSize() throws Exception {
+        final byte[] bytes = new byte[100 * 1024];
+        final ByteBuffer buffer = ModelData.readFully(new ByteArrayInputStream(bytes), bytes.length);
+
+        // the buffer is not reallocated after it is filled
+        assertAll("read buffer",
+                () -> assertEquals(bytes.length, buffer.remaining()),
+                () -> assertEquals(bytes.length, buffer.capacity())
+        );
+    }
+
+    @Test
+    public void readGzipOnnxFile() throws Exception {
+        final ByteBuffer expected = ModelFiles.read(getResourceFilePath("models/and_op.onnx"));
+        final ByteBuffer actual = ModelFiles.read(getResourceFilePath("models/and_op.onnx.gz"));
+
+        assertAll("decompressed model",
+                () -> assertTrue(actual.isDirect()),
+                () -> assertEquals(expected.remaining(), actual.capacity()),
+                () -> assertEquals(expected, actual)
+        );
+    }
 }
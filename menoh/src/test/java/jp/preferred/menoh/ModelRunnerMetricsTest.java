@@ -0,0 +1,59 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+public class ModelRunnerMetricsTest {
+    @Test
+    public void snapshot() {
+        final ModelRunnerMetrics metrics = new ModelRunnerMetrics();
+        metrics.recordCopyIn(100L, 32L);
+        metrics.recordCompute(1000L);
+        metrics.recordCopyOut(10L, 16L);
+        metrics.recordError();
+
+        final ModelRunnerMetrics.Snapshot s = metrics.snapshot();
+        assertAll("snapshot",
+                () -> assertEquals(1L, s.runCount()),
+                () -> assertEquals(1L, s.errorCount()),
+                () -> assertEquals(32L, s.bytesIn()),
+                () -> assertEquals(16L, s.bytesOut()),
+                () -> assertEquals(100L, s.latency(ModelRunnerMetrics.Phase.COPY_IN).maxNanos()),
+                () -> assertEquals(1000L, s.latency(ModelRunnerMetrics.Phase.COMPUTE).maxNanos()),
+                () -> assertEquals(10L, s.latency(ModelRunnerMetrics.Phase.COPY_OUT).maxNanos())
+        );
+
+        metrics.reset();
+        assertEquals(0L, metrics.snapshot().runCount());
+    }
+
+    @Test
+    public void registerMBean() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = ModelRunnerMetrics.objectName("ModelRunnerMetricsTest, \"quoted\"", 0);
+        final ModelRunnerMetrics metrics = new ModelRunnerMetrics();
+        metrics.recordCompute(1000L);
+
+        metrics.registerMBean(name);
+        try {
+            assertAll("mbean",
+                    () -> assertEquals(1L, server.getAttribute(name, "RunCount")),
+                    () -> assertEquals(1000L, server.getAttribute(name, "ComputeMaxNanos"))
+            );
+            assertThrows(MenohRunnerException.class, () -> metrics.registerMBean(name));
+
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, server.getAttribute(name, "RunCount"));
+        } finally {
+            ModelRunnerMetrics.unregisterMBean(name);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,306 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+// CHECKSTYLE:ON
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("simulated")
+public class ModelRunnerPoolTest {
+    @Test
+    public void submitTasksToPool() throws Exception {
+        final int poolSize = 4;
+        final int taskNum = 100;
+        final float[][] inputs = new float[][] {{0f, 0f}, {0f, 1f}, {1f, 0f}, {1f, 1f}};
+
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(poolSize)
+        ) {
+            assertAll("pool",
+                    () -> assertEquals(poolSize, pool.size()),
+                    () -> assertEquals(poolSize, pool.available())
+            );
+
+            final List<Future<Float>> futures = new ArrayList<>();
+            for (int i = 0; i < taskNum; i++) {
+                final float[] input = inputs[i % inputs.length];
+                futures.add(pool.submit(runner -> {
+                    runner.run("input", input);
+                    return runner.variable("output").buffer().asFloatBuffer().get(0);
+                }));
+            }
+
+            for (int i = 0; i < taskNum; i++) {
+                assertEquals(andOp(inputs[i % inputs.length]), (float) futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+
+            final ModelRunnerPool.Stats stats = pool.stats();
+            assertAll("stats",
+                    () -> assertEquals(poolSize, stats.size()),
+                    () -> assertEquals(0, stats.inUse()),
+                    () -> assertEquals(0.0, stats.utilization()),
+                    () -> assertEquals(taskNum, stats.acquireCount()),
+                    () -> assertEquals(0, stats.timeoutCount())
+            );
+        }
+    }
+
+    @Test
+    public void replicasDoNotShareBuffers() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1).attachExternalBuffer("input", new float[] {1f, 1f});
+                ModelRunnerPool pool = builder.buildPool(2)
+        ) {
+            final ModelRunner r1 = pool.acquire();
+            final ModelRunner r2 = pool.acquire();
+            try {
+                assertNotSame(r1, r2);
+
+                r1.assign("input", new float[] {0f, 0f});
+                final float[] input2 = new float[2];
+                r2.variable("input").buffer().asFloatBuffer().get(input2);
+                assertArrayEquals(new float[] {1f, 1f}, input2);
+            } finally {
+                pool.release(r1);
+                pool.release(r2);
+            }
+        }
+    }
+
+    @Test
+    public void buildReplicasInParallel() throws Exception {
+        final int count = 8;
+        final AtomicInteger executed = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (ModelRunnerBuilder builder = andOpBuilder(1).attachExternalBuffer("input", new float[] {1f, 1f})) {
+            final List<ModelRunner> replicas = builder.buildReplicas(count, task -> {
+                executed.incrementAndGet();
+                executor.execute(task);
+            });
+            try {
+                assertEquals(count, replicas.size());
+                assertEquals(count, executed.get());
+
+                final Set<ModelRunner> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+                distinct.addAll(replicas);
+                assertEquals(count, distinct.size());
+
+                // each replica owns its buffers
+                replicas.get(0).assign("input", new float[] {0f, 0f});
+                for (int i = 1; i < count; i++) {
+                    final ModelRunner r = replicas.get(i);
+                    r.run();
+                    assertEquals(andOp(new float[] {1f, 1f}), r.variable("output").buffer().asFloatBuffer().get(0));
+                }
+            } finally {
+                for (ModelRunner r : replicas) {
+                    r.close();
+                }
+            }
+
+            // the builder can be used again
+            try (ModelRunner runner = builder.build()) {
+                final float[] sample = new float[] {0f, 1f};
+                runner.run("input", sample);
+                assertEquals(andOp(sample), runner.variable("output").buffer().asFloatBuffer().get(0));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void buildReplicasWithRejectingExecutor() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (ModelRunnerBuilder builder = andOpBuilder(1).attachExternalBuffer("input", new float[] {1f, 1f})) {
+            final long blocksInUse = NativeArena.stats().blocksInUse();
+            final long models = NativeResources.liveHandles(NativeResources.Type.MODEL);
+
+            assertThrows(RejectedExecutionException.class, () -> builder.buildReplicas(4, task -> {
+                if (executed.incrementAndGet() > 2) {
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(task);
+            }));
+
+            // the replicas already submitted are closed and the copies of the buffers are released
+            assertAll("resources",
+                    () -> assertEquals(3, executed.get()),
+                    () -> assertEquals(blocksInUse, NativeArena.stats().blocksInUse()),
+                    () -> assertEquals(models, NativeResources.liveHandles(NativeResources.Type.MODEL))
+            );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void buildReplicasWithInvalidBackend() throws Exception {
+        // the simulated binding accepts any backend
+        assumeFalse(isSimulated());
+
+        try (ModelRunnerBuilder builder = andOpBuilder(1).backendName("__INVALID_BACKEND__")) {
+            MenohException e = assertThrows(MenohException.class, () -> builder.buildReplicas(4));
+            assertEquals(ErrorCode.INVALID_BACKEND_NAME, e.getErrorCode());
+
+            assertThrows(IllegalArgumentException.class, () -> builder.buildReplicas(0));
+        }
+    }
+
+    @Test
+    public void tryAcquireTimesOut() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1)
+        ) {
+            final ModelRunner runner = pool.acquire();
+            try {
+                assertEquals(0, pool.available());
+                assertEquals(1.0, pool.stats().utilization());
+                final long start = System.nanoTime();
+                assertNull(pool.tryAcquire(50, TimeUnit.MILLISECONDS));
+                assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50),
+                        "tryAcquire() should wait for the timeout");
+                assertEquals(1, pool.stats().timeoutCount());
+            } finally {
+                pool.release(runner);
+            }
+
+            final ModelRunner runner2 = pool.tryAcquire(10, TimeUnit.MILLISECONDS);
+            assertSame(runner, runner2);
+            pool.release(runner2);
+        }
+    }
+
+    @Test
+    public void releaseForeignRunner() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1);
+                ModelRunner foreign = builder.build()
+        ) {
+            assertThrows(IllegalArgumentException.class, () -> pool.release(foreign));
+        }
+    }
+
+    @Test
+    public void releaseRunnerTwice() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(2)
+        ) {
+            final ModelRunner runner = pool.acquire();
+            pool.release(runner);
+            assertThrows(IllegalStateException.class, () -> pool.release(runner));
+
+            // the replica is not lent to two threads at once
+            final ModelRunner r1 = pool.acquire();
+            final ModelRunner r2 = pool.acquire();
+            try {
+                assertNotSame(r1, r2);
+                assertEquals(0, pool.available());
+            } finally {
+                pool.release(r1);
+                pool.release(r2);
+            }
+
+            // a replica which has never been checked out
+            final ModelRunner idle = pool.replicas().get(0);
+            assertThrows(IllegalStateException.class, () -> pool.release(idle));
+            assertEquals(2, pool.available());
+        }
+    }
+
+    @Test
+    public void releaseWakesWaiter() throws Exception {
+        try (
+                ModelRunnerBuilder builder = andOpBuilder(1);
+                ModelRunnerPool pool = builder.buildPool(1)
+        ) {
+            final ModelRunner runner = pool.acquire();
+
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                final Future<ModelRunner> waiter = executor.submit(() -> pool.acquire());
+                Thread.sleep(50);
+                assertFalse(waiter.isDone());
+
+                pool.release(runner);
+                final ModelRunner handedOver = waiter.get(10, TimeUnit.SECONDS);
+                assertSame(runner, handedOver);
+                pool.release(handedOver);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void closePoolWakesWaiters() throws Exception {
+        try (ModelRunnerBuilder builder = andOpBuilder(1)) {
+            final ModelRunnerPool pool = builder.buildPool(1);
+            final ModelRunner checkedOut = pool.acquire();
+
+            final ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                final Future<ModelRunner> waiter = executor.submit(() -> pool.acquire());
+                final Future<ModelRunner> timedWaiter = executor.submit(() -> pool.tryAcquire(1, TimeUnit.MINUTES));
+                Thread.sleep(50);
+
+                pool.close();
+                for (Future<ModelRunner> f : Arrays.asList(waiter, timedWaiter)) {
+                    final ExecutionException e =
+                            assertThrows(ExecutionException.class, () -> f.get(10, TimeUnit.SECONDS));
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            } finally {
+                executor.shutdownNow();
+                pool.release(checkedOut);
+            }
+        }
+    }
+
+    @Test
+    public void closePool() throws Exception {
+        try (ModelRunnerBuilder builder = andOpBuilder(1)) {
+            final ModelRunnerPool pool = builder.buildPool(2);
+            final ModelRunner checkedOut = pool.acquire();
+
+            pool.close();
+            assertThrows(IllegalStateException.class, () -> pool.acquire());
+            for (ModelRunner r : pool.replicas()) {
+                if (r != checkedOut) {
+                    assertNull(r.model().nativeHandle());
+                }
+            }
+
+            // the replica checked out is closed when it is given back
+            assertNotNull(checkedOut.model().nativeHandle());
+            pool.release(checkedOut);
+            assertNull(checkedOut.model().nativeHandle());
+
+            // close() is an idempotent operation
+            pool.close();
+        }
+    }
+}
@@ -5,6 +5,12 @@ import static jp.preferred.menoh.TestUtils.*;
 import static org.junit.jupiter.api.Assertions.*;
 // CHECKSTYLE:ON
 
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
 public class ModelRunnerTest {
@@ -144,4 +150,367 @@ public class ModelRunnerTest {
             runner.close();
         }
     }
+
+    @Test
+    @Tag("simulated")
+    public void runModelRunnerWithBatch() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int batchSize = 4;
+        final int inputDim = 2;
+        final float[][] inputData = new float[][] {{0f, 0f}, {0f, 1f}, {1f, 0f}, {1f, 1f}};
+        final float[] expectedOutput = new float[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            expectedOutput[i] = andOp(inputData[i]);
+        }
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                        .addOutputProfile("output", DType.FLOAT);
+                ModelRunner runner = builder.build()
+        ) {
+            runner.run("input", inputData);
+
+            final float[] outputBuf = new float[batchSize];
+            runner.variable("output").buffer().asFloatBuffer().get(outputBuf);
+            assertArrayEquals(expectedOutput, outputBuf);
+
+            // the data longer than the variable can't be assigned
+            final float[][] tooLongData = new float[][] {{0f, 0f}, {0f, 1f}, {1f, 0f}, {1f, 1f}, {1f, 1f}};
+            assertThrows(MenohRunnerException.class, () -> runner.run("input", tooLongData));
+        }
+    }
+
+    @Test
+    public void runModelRunnerWithBindings() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int batchSize = 4;
+        final int inputDim = 2;
+        final float[] inputData1 = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+        final float[] inputData2 = new float[] {1f, 1f, 1f, 0f, 0f, 1f, 0f, 0f};
+        final float[] expectedOutput1 = new float[] {0f, 0f, 0f, 1f};
+        final float[] expectedOutput2 = new float[] {1f, 0f, 0f, 0f};
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                        .addOutputProfile("output", DType.FLOAT);
+                ModelRunner runner = builder.build()
+        ) {
+            final InputBinding input = runner.inputBinding("input");
+            final OutputBinding output = runner.outputBinding("output");
+            final float[] outputBuf = new float[batchSize];
+
+            input.put(inputData1);
+            runner.run();
+            output.get(outputBuf);
+            assertArrayEquals(expectedOutput1, outputBuf);
+
+            input.buffer().put(inputData2);
+            runner.run();
+            output.get(outputBuf);
+            assertArrayEquals(expectedOutput2, outputBuf);
+        }
+    }
+
+    @Test
+    public void runModelRunnerWithProfilesFromModel() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int batchSize = 4;
+        final float[] inputData = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+        final float[] expectedOutput = new float[] {0f, 0f, 0f, 1f};
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner.fromOnnxFile(path, batchSize);
+                ModelRunner runner = builder.build()
+        ) {
+            assertArrayEquals(new int[] {batchSize, 2}, runner.variable("input").dims());
+
+            final float[] outputBuf = new float[batchSize];
+            runner.run("input", inputData);
+            runner.outputBinding("output").get(outputBuf);
+            assertArrayEquals(expectedOutput, outputBuf);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> ModelRunner.fromOnnxFile(path, 0));
+    }
+
+    @Test
+    public void runModelRunnerFromGzipOnnxFile() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx.gz");
+        final int batchSize = 4;
+        final float[] inputData = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+        final float[] expectedOutput = new float[] {0f, 0f, 0f, 1f};
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner.fromOnnxFile(path, batchSize);
+                ModelRunner runner = builder.build()
+        ) {
+            final float[] outputBuf = new float[batchSize];
+            runner.run("input", inputData);
+            runner.outputBinding("output").get(outputBuf);
+            assertArrayEquals(expectedOutput, outputBuf);
+        }
+    }
+
+    @Test
+    public void runModelRunnersWithSharedModelData() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int batchSize = 4;
+        final float[] inputData = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+        final float[] expectedOutput = new float[] {0f, 0f, 0f, 1f};
+        final int size = ModelDataCache.size();
+
+        try (
+                ModelRunnerBuilder builder1 = ModelRunner.fromSharedOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                ModelRunnerBuilder builder2 = ModelRunner.fromSharedOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                ModelRunner runner1 = builder1.build();
+                ModelRunner runner2 = builder2.build()
+        ) {
+            assertEquals(builder1.modelData().nativeHandle(), builder2.modelData().nativeHandle());
+
+            // the shared model data is kept after one of the builders is closed
+            builder1.close();
+            try (ModelRunner runner3 = builder2.build()) {
+                for (ModelRunner runner : new ModelRunner[] {runner1, runner2, runner3}) {
+                    final float[] outputBuf = new float[batchSize];
+                    runner.run("input", inputData);
+                    runner.outputBinding("output").get(outputBuf);
+                    assertArrayEquals(expectedOutput, outputBuf);
+                }
+            }
+        }
+
+        assertEquals(size, ModelDataCache.size());
+    }
+
+    @Test
+    public void runModelRunnerFromInputStream() throws Exception {
+        final int batchSize = 4;
+        final float[] inputData = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+        final float[] expectedOutput = new float[] {0f, 0f, 0f, 1f};
+
+        try (
+                InputStream in = ModelRunnerTest.class.getClassLoader().getResourceAsStream("models/and_op.onnx");
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromInputStream(in)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                ModelRunner runner = builder.build()
+        ) {
+            final float[] outputBuf = new float[batchSize];
+            runner.run("input", inputData);
+            runner.outputBinding("output").get(outputBuf);
+            assertArrayEquals(expectedOutput, outputBuf);
+        }
+    }
+
+    @Test
+    public void runModelRunnerOnJavaBackend() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int batchSize = 4;
+        final int inputDim = 2;
+        final float[] inputData1 = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+        final float[] inputData2 = new float[] {1f, 1f, 1f, 0f, 0f, 1f, 0f, 0f};
+        final float[] expectedOutput1 = new float[] {0f, 0f, 0f, 1f};
+        final float[] expectedOutput2 = new float[] {1f, 0f, 0f, 0f};
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                        .addOutputProfile("output", DType.FLOAT)
+                        .attachExternalBuffer("input", inputData1)
+                        .backendName("java");
+                ModelRunner runner = builder.build()
+        ) {
+            assertAll("model in runner",
+                    () -> assertNotNull(runner.model()),
+                    () -> assertNull(runner.model().nativeHandle())
+            );
+
+            final float[] outputBuf = new float[batchSize];
+            runner.run();
+            runner.outputBinding("output").get(outputBuf);
+            assertArrayEquals(expectedOutput1, outputBuf);
+
+            runner.run("input", inputData2);
+            runner.outputBinding("output").get(outputBuf);
+            assertArrayEquals(expectedOutput2, outputBuf);
+
+            final Variable outputVar = runner.variable("output");
+            assertAll("output variable",
+                    () -> assertEquals(DType.FLOAT, outputVar.dtype()),
+                    () -> assertArrayEquals(new int[] {batchSize, 1}, outputVar.dims())
+            );
+        }
+    }
+
+    @Test
+    @Tag("simulated")
+    public void runModelRunnerWithMetrics() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int batchSize = 4;
+        final int inputDim = 2;
+        final float[] inputData = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+        final ObjectName name = new ObjectName("jp.preferred.menoh:type=ModelRunner,name=\"runModelRunnerWithMetrics\"");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                        .addOutputProfile("output", DType.FLOAT)
+                        .jmxName("runModelRunnerWithMetrics");
+                ModelRunner runner = builder.build()
+        ) {
+            final OutputBinding output = runner.outputBinding("output");
+            final float[] outputBuf = new float[batchSize];
+
+            runner.run("input", inputData);
+            output.get(outputBuf);
+            assertThrows(MenohRunnerException.class, () -> runner.run("input", new float[inputData.length + 1]));
+
+            final ModelRunnerMetrics.Snapshot s = runner.metrics().snapshot();
+            assertAll("metrics",
+                    () -> assertEquals(1L, s.runCount()),
+                    () -> assertEquals(1L, s.errorCount()),
+                    () -> assertEquals(inputData.length * 4L, s.bytesIn()),
+                    () -> assertEquals(batchSize * 4L, s.bytesOut()),
+                    () -> assertEquals(1L, s.latency(ModelRunnerMetrics.Phase.COMPUTE).count()),
+                    () -> assertEquals(1L, s.latency(ModelRunnerMetrics.Phase.COPY_OUT).count())
+            );
+            assertEquals(1L, server.getAttribute(name, "RunCount"));
+        }
+
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void warmUpModelRunner() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int batchSize = 4;
+        final int inputDim = 2;
+        final float[] inputData = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                        .addOutputProfile("output", DType.FLOAT)
+                        .warmUp(5, 0.0);
+                ModelRunner runner = builder.build()
+        ) {
+            // run exactly 5 times without checking the stability
+            final ModelRunner.WarmUpStats stats = runner.warmUpStats();
+            assertAll("fixed warm-up",
+                    () -> assertEquals(5, stats.runs()),
+                    () -> assertFalse(stats.stable()),
+                    () -> assertTrue(stats.durationNanos() > 0L),
+                    () -> assertEquals(0L, runner.metrics().snapshot().runCount())
+            );
+
+            runner.run("input", inputData);
+            final float[] outputBuf = new float[batchSize];
+            runner.outputBinding("output").get(outputBuf);
+            assertArrayEquals(new float[] {0f, 0f, 0f, 1f}, outputBuf);
+        }
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                        .addOutputProfile("output", DType.FLOAT)
+                        .attachExternalBuffer("input", inputData)
+                        .warmUp(100, Double.MAX_VALUE);
+                ModelRunner runner = builder.build()
+        ) {
+            // any latency is stable once both of the windows are filled
+            assertAll("stable warm-up",
+                    () -> assertEquals(10, runner.warmUpStats().runs()),
+                    () -> assertTrue(runner.warmUpStats().stable())
+            );
+
+            // the attached buffer is not overwritten by the warm-up
+            runner.run();
+            final float[] outputBuf = new float[batchSize];
+            runner.outputBinding("output").get(outputBuf);
+            assertArrayEquals(new float[] {0f, 0f, 0f, 1f}, outputBuf);
+        }
+    }
+
+    @Test
+    public void warmUpModelRunnerWithInvalidArguments() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {1, 2})
+                        .addOutputProfile("output", DType.FLOAT)
+        ) {
+            assertAll("invalid arguments",
+                    () -> assertThrows(IllegalArgumentException.class, () -> builder.warmUp(-1)),
+                    () -> assertThrows(IllegalArgumentException.class, () -> builder.warmUp(1, -0.1)),
+                    () -> assertThrows(IllegalArgumentException.class, () -> builder.warmUp(1, Double.NaN))
+            );
+
+            // the warm-up is disabled by default
+            try (ModelRunner runner = builder.build()) {
+                assertAll("no warm-up",
+                        () -> assertEquals(0, builder.warmUpRuns()),
+                        () -> assertEquals(0, runner.warmUpStats().runs()),
+                        () -> assertFalse(runner.warmUpStats().stable())
+                );
+            }
+        }
+    }
+
+    @Test
+    public void buildModelRunnerOnHugePages() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        // large enough to be backed by huge pages
+        final int batchSize = 64 * 1024;
+        final int inputDim = 2;
+        final float[] inputData = new float[batchSize * inputDim];
+        final float[] expectedOutput = new float[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            inputData[i * inputDim] = (i & 1);
+            inputData[i * inputDim + 1] = (i >> 1) & 1;
+            expectedOutput[i] = (i & 3) == 3 ? 1f : 0f;
+        }
+        final long blocksInUse = NativeArena.stats().blocksInUse();
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                        .addOutputProfile("output", DType.FLOAT)
+                        .hugePages(true)
+                        .attachExternalBuffer("input", inputData)
+        ) {
+            assertTrue(builder.hugePages());
+
+            try (ModelRunner runner = builder.build()) {
+                runner.run();
+
+                final float[] outputBuf = new float[batchSize];
+                runner.outputBinding("output").get(outputBuf);
+                assertArrayEquals(expectedOutput, outputBuf);
+            }
+
+            // each replica has a copy of the buffer
+            try (ModelRunnerPool pool = builder.buildPool(2)) {
+                assertEquals(blocksInUse + 3, NativeArena.stats().blocksInUse());
+            }
+        }
+
+        assertEquals(blocksInUse, NativeArena.stats().blocksInUse());
+    }
 }
@@ -7,6 +7,11 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.jupiter.api.Test;
 
@@ -447,6 +452,33 @@ public class ModelTest {
         }
     }
 
+    @Test
+    public void attachExternalBufferSmallerThanVariable() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+
+        try (
+                ModelData modelData = ModelData.fromOnnxFile(path);
+                VariableProfileTableBuilder vptBuilder = VariableProfileTable.builder()
+                        .addInputProfile("input", DType.FLOAT, new int[] {4, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                VariableProfileTable vpt = vptBuilder.build(modelData);
+                ModelBuilder modelBuilder = Model.builder(vpt)
+        ) {
+            final ByteBuffer direct = ByteBuffer.allocateDirect(28).order(ByteOrder.nativeOrder());
+            assertAll("buffers smaller than the variables",
+                    () -> assertThrows(IllegalArgumentException.class,
+                            () -> modelBuilder.attachExternalBuffer("input", new float[] {0f, 0f})),
+                    () -> assertThrows(IllegalArgumentException.class,
+                            () -> modelBuilder.attachExternalBuffer("input", direct)),
+                    () -> assertThrows(IllegalArgumentException.class,
+                            () -> modelBuilder.attachExternalBuffer("output", new float[3]))
+            );
+
+            // a buffer as large as the variable can be attached
+            modelBuilder.attachExternalBuffer("input", new float[8]);
+        }
+    }
+
     @Test
     public void buildAndRunModelIfInputIsFloatArray() throws Exception {
         // [[0, 0], [0, 1], [1, 0], [1, 1]] -> [[0], [0], [0], [1]]
@@ -492,4 +524,137 @@ public class ModelTest {
             assertArrayEquals(expectedOutput, outputBuf);
         }
     }
+
+    @Test
+    public void variableIsResolvedOnlyOnce() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int batchSize = 4;
+        final int inputDim = 2;
+
+        try (
+                ModelData modelData = ModelData.fromOnnxFile(path);
+                VariableProfileTableBuilder vptBuilder = VariableProfileTable.builder()
+                        .addInputProfile("input", DType.FLOAT, new int[] {batchSize, inputDim})
+                        .addOutputProfile("output", DType.FLOAT);
+                VariableProfileTable vpt = vptBuilder.build(modelData);
+                ModelBuilder modelBuilder = Model.builder(vpt);
+                Model model = modelBuilder.build(modelData, "mkldnn", "")
+        ) {
+            final Variable inputVar = model.variable("input");
+            final Variable outputVar = model.variable("output");
+            assertAll("cached variables",
+                    () -> assertSame(inputVar, model.variable("input")),
+                    () -> assertSame(outputVar, model.variable("output")),
+                    () -> assertSame(inputVar.nativeBuffer(), inputVar.nativeBuffer())
+            );
+
+            // buffer() returns an independent view of the same native memory
+            final ByteBuffer buf1 = inputVar.buffer();
+            final ByteBuffer buf2 = inputVar.buffer();
+            assertAll("buffer views",
+                    () -> assertNotSame(buf1, buf2),
+                    () -> assertTrue(buf1.isDirect(), "buffer should be direct"),
+                    () -> assertEquals(ByteOrder.nativeOrder(), buf1.order()),
+                    () -> assertEquals(batchSize * inputDim * 4, buf1.remaining())
+            );
+
+            buf1.putFloat(0, 42f);
+            assertEquals(42f, buf2.getFloat(0));
+        }
+    }
+
+    @Test
+    public void closeModelWhileRunning() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+
+        try (
+                ModelData modelData = ModelData.fromOnnxFile(path);
+                VariableProfileTableBuilder vptBuilder = VariableProfileTable.builder()
+                        .addInputProfile("input", DType.FLOAT, new int[] {1, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                VariableProfileTable vpt = vptBuilder.build(modelData);
+                ModelBuilder modelBuilder = Model.builder(vpt)
+        ) {
+            final Model model = modelBuilder.build(modelData, "mkldnn", "");
+
+            // close() waits for the operation in progress
+            model.acquire();
+            final Thread closer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    model.close();
+                }
+            });
+            closer.start();
+            closer.join(100);
+            assertAll("in progress",
+                    () -> assertTrue(closer.isAlive(), "close() should wait for the operation"),
+                    () -> assertNotNull(model.nativeHandle())
+            );
+
+            model.release();
+            closer.join();
+            assertNull(model.nativeHandle());
+            assertThrows(IllegalStateException.class, model::run);
+            assertThrows(IllegalStateException.class, () -> model.variable("input"));
+
+            // close() is an idempotent operation
+            model.close();
+        }
+    }
+
+    @Test
+    public void closeModelUnderConcurrentRuns() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final int threads = 4;
+
+        try (
+                ModelData modelData = ModelData.fromOnnxFile(path);
+                VariableProfileTableBuilder vptBuilder = VariableProfileTable.builder()
+                        .addInputProfile("input", DType.FLOAT, new int[] {1, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                VariableProfileTable vpt = vptBuilder.build(modelData);
+                ModelBuilder modelBuilder = Model.builder(vpt)
+        ) {
+            final Model model = modelBuilder.build(modelData, "mkldnn", "");
+            final CountDownLatch started = new CountDownLatch(threads);
+            final List<Throwable> errors = new CopyOnWriteArrayList<>();
+            final AtomicLong runs = new AtomicLong();
+            final List<Thread> runners = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                runners.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            while (true) {
+                                model.run();
+                                runs.incrementAndGet();
+                            }
+                        } catch (IllegalStateException e) {
+                            // the model is closed
+                        } catch (Throwable t) {
+                            errors.add(t);
+                        }
+                    }
+                }));
+            }
+            for (Thread t : runners) {
+                t.start();
+            }
+
+            started.await();
+            Thread.sleep(50);
+            model.close();
+            for (Thread t : runners) {
+                t.join();
+            }
+
+            assertAll("closed under runs",
+                    () -> assertEquals(new ArrayList<Throwable>(), errors),
+                    () -> assertTrue(runs.get() > 0, "the model should have run"),
+                    () -> assertNull(model.nativeHandle())
+            );
+        }
+    }
 }
@@ -0,0 +1,159 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import com.sun.jna.Pointer;
+
+import org.junit.jupiter.api.Test;
+
+public class NativeArenaTest {
+    @Test
+    public void roundUpToSizeClass() {
+        assertAll("size classes",
+                () -> assertEquals(0, NativeArena.sizeClass(1)),
+                () -> assertEquals(0, NativeArena.sizeClass(64)),
+                () -> assertEquals(1, NativeArena.sizeClass(65)),
+                () -> assertEquals(1, NativeArena.sizeClass(128)),
+                () -> assertEquals(2, NativeArena.sizeClass(129)),
+                () -> assertEquals(20, NativeArena.sizeClass(NativeArena.MAX_BLOCK_SIZE)),
+                () -> assertEquals(-1, NativeArena.sizeClass(NativeArena.MAX_BLOCK_SIZE + 1))
+        );
+    }
+
+    @Test
+    public void recycleBlock() {
+        // start with the empty pool not to reuse the blocks of the other tests
+        NativeArena.trim();
+        final NativeArena.Stats before = NativeArena.stats();
+
+        final NativeArena.Block block = NativeArena.allocate(100);
+        final Pointer pointer = block.pointer();
+        assertAll("allocated block",
+                () -> assertEquals(128, block.capacity()),
+                () -> assertEquals(0L, Pointer.nativeValue(pointer) % NativeArena.ALIGNMENT),
+                () -> assertEquals(before.blocksInUse() + 1, NativeArena.stats().blocksInUse())
+        );
+
+        // the block is returned to the pool after the last reference is released
+        block.retain();
+        block.release();
+        assertEquals(before.blocksInUse() + 1, NativeArena.stats().blocksInUse());
+        block.release();
+        assertThrows(IllegalStateException.class, block::release);
+        assertThrows(IllegalStateException.class, block::retain);
+
+        final NativeArena.Block reused = NativeArena.allocate(120);
+        try {
+            final NativeArena.Stats s = NativeArena.stats();
+            assertAll("reused block",
+                    () -> assertSame(block, reused),
+                    () -> assertEquals(before.allocations() + 2, s.allocations()),
+                    () -> assertEquals(before.reuses() + 1, s.reuses()),
+                    () -> assertEquals(before.blocksInUse() + 1, s.blocksInUse())
+            );
+        } finally {
+            reused.release();
+        }
+    }
+
+    @Test
+    public void freeLargeBlock() {
+        final NativeArena.Stats before = NativeArena.stats();
+        final long bytes = NativeResources.externalBufferBytes();
+
+        final NativeArena.Block block = NativeArena.allocate(NativeArena.MAX_BLOCK_SIZE + 1);
+        assertEquals(NativeArena.MAX_BLOCK_SIZE + NativeArena.ALIGNMENT, block.capacity());
+        block.release();
+
+        // a block larger than the size classes is freed instead of pooled
+        final NativeArena.Stats s = NativeArena.stats();
+        assertAll("freed block",
+                () -> assertEquals(before.pooledBytes(), s.pooledBytes()),
+                () -> assertEquals(before.blocksInUse(), s.blocksInUse()),
+                () -> assertEquals(bytes, NativeResources.externalBufferBytes())
+        );
+
+        assertThrows(IllegalArgumentException.class, () -> NativeArena.allocate(0));
+    }
+
+    @Test
+    public void copyToBlock() {
+        final NativeArena.Block block = NativeArena.copyOf(new float[] {1f, 2f, 3f, 4f}, 1, 2);
+        try {
+            assertArrayEquals(new float[] {2f, 3f}, block.pointer().getFloatArray(0, 2));
+        } finally {
+            block.release();
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> NativeArena.copyOf(new float[0], 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> NativeArena.copyOf(null));
+    }
+
+    @Test
+    public void recycleBlocksOfClosedModels() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final float[] inputData = new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f};
+        final long blocksInUse = NativeArena.stats().blocksInUse();
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(path)
+                        .addInputProfile("input", DType.FLOAT, new int[] {4, 2})
+                        .addOutputProfile("output", DType.FLOAT)
+                        .attachExternalBuffer("input", inputData)
+        ) {
+            final ModelRunner runner = builder.build();
+            runner.close();
+            // the block is still referenced by the builder
+            assertEquals(blocksInUse + 1, NativeArena.stats().blocksInUse());
+
+            try (ModelRunnerPool pool = builder.buildPool(2)) {
+                // each replica has a copy of the buffer
+                assertEquals(blocksInUse + 3, NativeArena.stats().blocksInUse());
+            }
+        }
+
+        assertEquals(blocksInUse, NativeArena.stats().blocksInUse());
+    }
+
+    @Test
+    public void allocateHugePages() {
+        final NativeArena.Stats before = NativeArena.stats();
+
+        final NativeArena.Block block = NativeArena.allocateHugePages(NativeArena.HUGE_PAGE_THRESHOLD + 1);
+        try {
+            // falls back to the pool if the huge pages are not available
+            final long hugePageBytes = block.isHugePages() ? block.capacity() : 0L;
+            assertAll("huge pages",
+                    () -> assertTrue(block.capacity() > NativeArena.HUGE_PAGE_THRESHOLD),
+                    () -> assertEquals(0L, Pointer.nativeValue(block.pointer()) % NativeArena.ALIGNMENT),
+                    () -> assertEquals(0, block.pointer().getByte(block.capacity() - 1)),
+                    () -> assertEquals(before.hugePageBytesInUse() + hugePageBytes,
+                            NativeArena.stats().hugePageBytesInUse()),
+                    () -> assertEquals(before.blocksInUse() + 1, NativeArena.stats().blocksInUse())
+            );
+
+            block.pointer().setFloat(0, 1f);
+            assertEquals(1f, block.buffer(4).getFloat(0));
+        } finally {
+            block.release();
+        }
+
+        final NativeArena.Block small = NativeArena.allocateHugePages(100);
+        try {
+            assertFalse(small.isHugePages());
+            assertEquals(128, small.capacity());
+        } finally {
+            small.release();
+        }
+
+        final NativeArena.Stats s = NativeArena.stats();
+        assertAll("released blocks",
+                () -> assertEquals(before.hugePageBytesInUse(), s.hugePageBytesInUse()),
+                () -> assertEquals(before.blocksInUse(), s.blocksInUse())
+        );
+    }
+}
@@ -0,0 +1,165 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+public class NativeResourcesTest {
+    @Test
+    public void countLiveHandles() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final long modelData = NativeResources.liveHandles(NativeResources.Type.MODEL_DATA);
+        final long vptBuilders = NativeResources.liveHandles(NativeResources.Type.VARIABLE_PROFILE_TABLE_BUILDER);
+        final long vpts = NativeResources.liveHandles(NativeResources.Type.VARIABLE_PROFILE_TABLE);
+        final long modelBuilders = NativeResources.liveHandles(NativeResources.Type.MODEL_BUILDER);
+        final long models = NativeResources.liveHandles(NativeResources.Type.MODEL);
+        final long blocks = NativeArena.stats().blocksInUse();
+
+        try (
+                ModelData md = ModelData.fromOnnxFile(path);
+                VariableProfileTableBuilder vptBuilder = VariableProfileTable.builder()
+                        .addInputProfile("input", DType.FLOAT, new int[] {1, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                VariableProfileTable vpt = vptBuilder.build(md);
+                ModelBuilder modelBuilder = Model.builder(vpt).attachExternalBuffer("input", new float[] {0f, 1f});
+                Model model = modelBuilder.build(md, "mkldnn", "")
+        ) {
+            assertAll("live handles",
+                    () -> assertEquals(modelData + 1, NativeResources.liveHandles(NativeResources.Type.MODEL_DATA)),
+                    () -> assertEquals(vptBuilders + 1,
+                            NativeResources.liveHandles(NativeResources.Type.VARIABLE_PROFILE_TABLE_BUILDER)),
+                    () -> assertEquals(vpts + 1,
+                            NativeResources.liveHandles(NativeResources.Type.VARIABLE_PROFILE_TABLE)),
+                    () -> assertEquals(modelBuilders + 1,
+                            NativeResources.liveHandles(NativeResources.Type.MODEL_BUILDER)),
+                    () -> assertEquals(models + 1, NativeResources.liveHandles(NativeResources.Type.MODEL)),
+                    () -> assertEquals(blocks + 1, NativeArena.stats().blocksInUse())
+            );
+        }
+
+        assertAll("closed handles",
+                () -> assertEquals(modelData, NativeResources.liveHandles(NativeResources.Type.MODEL_DATA)),
+                () -> assertEquals(vptBuilders,
+                        NativeResources.liveHandles(NativeResources.Type.VARIABLE_PROFILE_TABLE_BUILDER)),
+                () -> assertEquals(vpts, NativeResources.liveHandles(NativeResources.Type.VARIABLE_PROFILE_TABLE)),
+                () -> assertEquals(modelBuilders, NativeResources.liveHandles(NativeResources.Type.MODEL_BUILDER)),
+                () -> assertEquals(models, NativeResources.liveHandles(NativeResources.Type.MODEL)),
+                () -> assertEquals(blocks, NativeArena.stats().blocksInUse())
+        );
+    }
+
+    @Test
+    public void countExternalBuffers() {
+        final long count = NativeResources.externalBufferCount();
+        final long bytes = NativeResources.externalBufferBytes();
+
+        final BufferUtils.ExternalBufferMemory mem = new BufferUtils.ExternalBufferMemory(64);
+        assertAll("allocated",
+                () -> assertEquals(count + 1, NativeResources.externalBufferCount()),
+                () -> assertEquals(bytes + 64, NativeResources.externalBufferBytes())
+        );
+
+        // dispose() is an idempotent operation which is called by the finalizer as well
+        mem.dispose();
+        mem.dispose();
+        assertAll("freed",
+                () -> assertEquals(count, NativeResources.externalBufferCount()),
+                () -> assertEquals(bytes, NativeResources.externalBufferBytes())
+        );
+    }
+
+    @Test
+    public void detectUnclosedModelData() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final List<NativeResources.Leak> leaks = new CopyOnWriteArrayList<>();
+        final NativeResources.LeakDetection mode = NativeResources.leakDetection();
+        NativeResources.setLeakListener(new NativeResources.LeakListener() {
+            @Override
+            public void leaked(NativeResources.Leak leak) {
+                leaks.add(leak);
+            }
+        });
+        NativeResources.setLeakDetection(NativeResources.LeakDetection.FREE);
+        try {
+            NativeResources.detectLeaks();
+            leaks.clear();
+            final long live = NativeResources.liveHandles(NativeResources.Type.MODEL_DATA);
+            final long leakCount = NativeResources.leakCount();
+
+            loadWithoutClosing(path);
+            assertEquals(live + 1, NativeResources.liveHandles(NativeResources.Type.MODEL_DATA));
+
+            NativeResources.Leak leak = null;
+            for (int i = 0; i < 100 && leak == null; i++) {
+                System.gc();
+                Thread.sleep(10);
+                NativeResources.detectLeaks();
+                leak = find(leaks, "loadWithoutClosing");
+            }
+
+            // the other tests may leak their objects as well
+            long freed = 0;
+            for (NativeResources.Leak l : leaks) {
+                if (l.type() == NativeResources.Type.MODEL_DATA && l.freed()) {
+                    freed++;
+                }
+            }
+
+            assertNotNull(leak);
+            final NativeResources.Leak found = leak;
+            final long expectedLive = live + 1 - freed;
+            assertAll("leak",
+                    () -> assertEquals(NativeResources.Type.MODEL_DATA, found.type()),
+                    () -> assertTrue(found.freed()),
+                    () -> assertEquals(expectedLive, NativeResources.liveHandles(NativeResources.Type.MODEL_DATA)),
+                    () -> assertEquals(leakCount + leaks.size(), NativeResources.leakCount())
+            );
+        } finally {
+            NativeResources.setLeakDetection(mode);
+            NativeResources.setLeakListener(null);
+        }
+    }
+
+    private static void loadWithoutClosing(String path) {
+        ModelData.fromOnnxFile(path);
+    }
+
+    /**
+     * Returns the leak created in the specified method, or <code>null</code> if it is not found.
+     */
+    private static NativeResources.Leak find(List<NativeResources.Leak> leaks, String methodName) {
+        for (NativeResources.Leak leak : leaks) {
+            for (StackTraceElement e : leak.allocationSite().getStackTrace()) {
+                if (e.getMethodName().equals(methodName)) {
+                    return leak;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Test
+    public void registerMBean() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        final ObjectName name = NativeResources.registerMBean();
+        assertAll("MBean",
+                () -> assertEquals(new ObjectName("jp.preferred.menoh:type=NativeResources"), name),
+                () -> assertEquals(name, NativeResources.registerMBean()),
+                () -> assertEquals(NativeResources.externalBufferBytes(),
+                        server.getAttribute(name, "ExternalBufferBytes")),
+                () -> assertEquals(NativeResources.liveHandles(NativeResources.Type.MODEL),
+                        server.getAttribute(name, "ModelHandles"))
+        );
+    }
+}
@@ -0,0 +1,90 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.testing.OnnxWriter.*;
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+public class OnnxModelInfoTest {
+    @Test
+    public void readFromOnnxFile() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+
+        final OnnxModelInfo info = OnnxModelInfo.fromOnnxFile(path);
+        assertAll("model info",
+                () -> assertEquals(1, info.inputs().size()),
+                () -> assertEquals("input", info.inputs().get(0).name()),
+                () -> assertEquals(DType.FLOAT, info.inputs().get(0).dtype()),
+                () -> assertArrayEquals(new int[] {1, 2}, info.inputs().get(0).dims()),
+                () -> assertEquals(1, info.outputs().size()),
+                () -> assertEquals("output", info.outputs().get(0).name()),
+                () -> assertEquals(DType.FLOAT, info.outputs().get(0).dtype()),
+                () -> assertArrayEquals(new int[] {1, 1}, info.outputs().get(0).dims()),
+                () -> assertEquals(4L, info.opsetVersion())
+        );
+    }
+
+    @Test
+    public void readFromGzipOnnxFile() throws Exception {
+        final OnnxModelInfo info = OnnxModelInfo.fromOnnxFile(getResourceFilePath("models/and_op.onnx.gz"));
+        assertAll("model info",
+                () -> assertEquals("input", info.inputs().get(0).name()),
+                () -> assertArrayEquals(new int[] {1, 2}, info.inputs().get(0).dims()),
+                () -> assertEquals("output", info.outputs().get(0).name()),
+                () -> assertEquals(4L, info.opsetVersion())
+        );
+    }
+
+    @Test
+    public void readSymbolicDimsAndSkipInitializers() throws Exception {
+        final byte[] model = model(9, graphWithValueInfos(
+                Collections.singletonList(node("Gemm", inputs("x", "w"), "y")),
+                Collections.singletonList(floatTensor("w", new long[] {2, 3}, new float[6])),
+                Arrays.asList(
+                        valueInfo("x", OnnxGraph.DATA_TYPE_FLOAT, "N", "2"),
+                        valueInfo("w", OnnxGraph.DATA_TYPE_FLOAT, "2", "3"),
+                        valueInfo("ids", OnnxGraph.DATA_TYPE_INT64, "N")),
+                Collections.singletonList(valueInfo("y"))));
+
+        final OnnxModelInfo info = OnnxModelInfo.parse(ByteBuffer.wrap(model));
+        assertAll("model info",
+                () -> assertEquals(2, info.inputs().size()),
+                () -> assertEquals("x", info.inputs().get(0).name()),
+                () -> assertArrayEquals(new int[] {OnnxModelInfo.UNKNOWN_DIM, 2}, info.inputs().get(0).dims()),
+                () -> assertEquals("ids", info.inputs().get(1).name()),
+                () -> assertEquals(DType.UNDEFINED, info.inputs().get(1).dtype()),
+                () -> assertEquals("y", info.outputs().get(0).name()),
+                () -> assertFalse(info.outputs().get(0).hasShape()),
+                () -> assertEquals(9L, info.opsetVersion())
+        );
+
+        // the first axis is replaced with the batch size
+        assertArrayEquals(new int[] {8, 2}, ModelRunner.profileDims(info.inputs().get(0), 8));
+
+        MenohException e = assertThrows(
+                MenohException.class, () -> ModelRunner.profileDims(info.inputs().get(1), 8));
+        assertEquals(ErrorCode.INVALID_DTYPE, e.getErrorCode());
+    }
+
+    @Test
+    public void readFromNonExistentOnnxFile() {
+        MenohException e = assertThrows(
+                MenohException.class, () -> OnnxModelInfo.fromOnnxFile("__NON_EXISTENT_FILENAME__"));
+        assertEquals(ErrorCode.INVALID_FILENAME, e.getErrorCode());
+    }
+
+    @Test
+    public void readFromInvalidOnnxFile() throws Exception {
+        final String path = getResourceFilePath("models/invalid_format.onnx");
+
+        MenohException e = assertThrows(MenohException.class, () -> OnnxModelInfo.fromOnnxFile(path));
+        assertEquals(ErrorCode.ONNX_PARSE_ERROR, e.getErrorCode());
+    }
+}
@@ -0,0 +1,148 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+// CHECKSTYLE:ON
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The tests which run without the native library. Run them alone by <code>mvn test -P simulated</code>.
+ */
+@Tag("simulated")
+public class SimulatedMenohNativeTest {
+    private static Pointer check(int err, PointerByReference handle) {
+        assertEquals(ErrorCode.SUCCESS.getId(), err);
+        return handle.getValue();
+    }
+
+    @Test
+    public void loadSimulatedBinding() {
+        assertTrue(MenohNativeLoader.load(SimulatedMenohNativeProvider.NAME) instanceof SimulatedMenohNative);
+    }
+
+    @Test
+    public void runSimulatedModel() throws Exception {
+        final String path = getResourceFilePath("models/and_op.onnx");
+        final SimulatedMenohNative lib = new SimulatedMenohNative(0L, 3);
+        final PointerByReference ref = new PointerByReference();
+
+        final Pointer modelData = check(lib.menoh_make_model_data_from_onnx(path, ref), ref);
+        final Pointer vptBuilder = check(lib.menoh_make_variable_profile_table_builder(ref), ref);
+        assertEquals(ErrorCode.SUCCESS.getId(), lib.menoh_variable_profile_table_builder_add_input_profile_dims_2(
+                vptBuilder, "input", DType.FLOAT.getId(), 2, 2));
+        assertEquals(ErrorCode.SUCCESS.getId(), lib.menoh_variable_profile_table_builder_add_output_profile(
+                vptBuilder, "output", DType.FLOAT.getId()));
+        final Pointer vpt = check(lib.menoh_build_variable_profile_table(vptBuilder, modelData, ref), ref);
+        final Pointer modelBuilder = check(lib.menoh_make_model_builder(vpt, ref), ref);
+        final Pointer model = check(lib.menoh_build_model(modelBuilder, modelData, "mkldnn", "", ref), ref);
+
+        final IntByReference size = new IntByReference();
+        assertEquals(ErrorCode.SUCCESS.getId(), lib.menoh_model_get_variable_dims_at(model, "output", 1, size));
+        assertEquals(3, size.getValue());
+
+        final Pointer input = check(lib.menoh_model_get_variable_buffer_handle(model, "input", ref), ref);
+        input.write(0, new float[] {1f, 2f, 3f, 4f}, 0, 4);
+        assertEquals(ErrorCode.SUCCESS.getId(), lib.menoh_model_run(model));
+
+        final Pointer output = check(lib.menoh_model_get_variable_buffer_handle(
+                model, BufferUtils.copyToNativeString("output"), ref), ref);
+        assertArrayEquals(new float[] {3f, 3f, 3f, 7f, 7f, 7f}, output.getFloatArray(0, 6));
+
+        lib.menoh_delete_model(model);
+        lib.menoh_delete_model_builder(modelBuilder);
+        lib.menoh_delete_variable_profile_table(vpt);
+        lib.menoh_delete_variable_profile_table_builder(vptBuilder);
+        lib.menoh_delete_model_data(modelData);
+    }
+
+    @Test
+    public void simulateLatency() throws Exception {
+        final long latency = 1_000_000L;
+        final SimulatedMenohNative lib = new SimulatedMenohNative(latency, 1);
+        final PointerByReference ref = new PointerByReference();
+
+        final Pointer modelData = check(lib.menoh_make_model_data_from_onnx(
+                getResourceFilePath("models/and_op.onnx"), ref), ref);
+        final Pointer vptBuilder = check(lib.menoh_make_variable_profile_table_builder(ref), ref);
+        final Pointer vpt = check(lib.menoh_build_variable_profile_table(vptBuilder, modelData, ref), ref);
+        final Pointer model = check(lib.menoh_build_model(
+                check(lib.menoh_make_model_builder(vpt, ref), ref), modelData, "mkldnn", "", ref), ref);
+
+        final long start = System.nanoTime();
+        assertEquals(ErrorCode.SUCCESS.getId(), lib.menoh_model_run(model));
+        assertTrue(System.nanoTime() - start >= latency);
+    }
+
+    @Test
+    public void reportErrors() throws Exception {
+        final SimulatedMenohNative lib = new SimulatedMenohNative(0L, 1);
+        final PointerByReference ref = new PointerByReference();
+
+        assertAll("non-existent onnx file",
+                () -> assertEquals(ErrorCode.INVALID_FILENAME.getId(),
+                        lib.menoh_make_model_data_from_onnx("__NON_EXISTENT_FILENAME__", ref)),
+                () -> assertEquals("menoh invalid filename error: __NON_EXISTENT_FILENAME__",
+                        lib.menoh_get_last_error_message())
+        );
+        assertEquals(ErrorCode.ONNX_PARSE_ERROR.getId(),
+                lib.menoh_make_model_data_from_onnx_data_on_memory(Pointer.NULL, 0, ref));
+
+        final Pointer vptBuilder = check(lib.menoh_make_variable_profile_table_builder(ref), ref);
+        assertEquals(ErrorCode.SUCCESS.getId(), lib.menoh_variable_profile_table_builder_add_output_profile(
+                vptBuilder, "output", DType.FLOAT.getId()));
+        assertAll("invalid profiles",
+                () -> assertEquals(ErrorCode.SAME_NAMED_VARIABLE_ALREADY_EXIST.getId(),
+                        lib.menoh_variable_profile_table_builder_add_output_profile(
+                                vptBuilder, "output", DType.FLOAT.getId())),
+                () -> assertEquals(ErrorCode.INVALID_DTYPE.getId(),
+                        lib.menoh_variable_profile_table_builder_add_input_profile_dims_2(
+                                vptBuilder, "input", DType.UNDEFINED.getId(), 1, 1)),
+                () -> assertEquals(ErrorCode.STD_ERROR.getId(), lib.menoh_model_run(vptBuilder))
+        );
+    }
+
+    @Test
+    public void invalidConfig() {
+        assertAll("config",
+                () -> assertThrows(IllegalArgumentException.class, () -> new SimulatedMenohNative(-1L, 1)),
+                () -> assertThrows(IllegalArgumentException.class, () -> new SimulatedMenohNative(0L, 0))
+        );
+    }
+
+    @Test
+    public void runModelRunnerOnSimulatedBinding() throws Exception {
+        assumeTrue(isSimulated());
+
+        try (
+                ModelRunnerBuilder builder = ModelRunner
+                        .fromOnnxFile(getResourceFilePath("models/and_op.onnx"))
+                        .addInputProfile("input", DType.FLOAT, new int[] {4, 2})
+                        .addOutputProfile("output", DType.FLOAT);
+                ModelRunnerPool pool = builder.buildPool(2)
+        ) {
+            final float[] output = pool.submit(runner -> {
+                runner.run("input", new float[] {0f, 0f, 0f, 1f, 1f, 0f, 1f, 1f});
+                final FloatBuffer out = runner.variable("output").buffer().order(ByteOrder.nativeOrder())
+                        .asFloatBuffer();
+                final float[] values = new float[out.remaining()];
+                out.get(values);
+                return values;
+            }).get();
+
+            final int outputSize = ((SimulatedMenohNative) MenohNative.INSTANCE).outputSize();
+            assertEquals(4 * outputSize, output.length);
+            assertEquals(2f, output[3 * outputSize]);
+        }
+    }
+}
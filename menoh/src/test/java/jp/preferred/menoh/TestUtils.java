@@ -2,8 +2,11 @@ package jp.preferred.menoh;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public class TestUtils {
@@ -19,4 +22,52 @@ public class TestUtils {
             throw new FileNotFoundException("The specified resource not found: " + name);
         }
     }
+
+    /**
+     * Whether the tests are run on the simulated binding, e.g. by <code>mvn test -P simulated</code>.
+     */
+    public static boolean isSimulated() {
+        return SimulatedMenohNativeProvider.NAME.equals(System.getProperty(MenohNativeLoader.BINDING_PROPERTY));
+    }
+
+    /**
+     * The expected output of <code>and_op.onnx</code> for a sample. The simulated binding outputs the sum of
+     * the sample instead.
+     */
+    public static float andOp(float[] sample) {
+        return isSimulated() ? sample[0] + sample[1] : sample[0] * sample[1];
+    }
+
+    /**
+     * A builder of <code>and_op.onnx</code> whose input has the specified batch size.
+     */
+    public static ModelRunnerBuilder andOpBuilder(int batchSize) throws IOException, URISyntaxException {
+        return ModelRunner
+                .fromOnnxFile(getResourceFilePath("models/and_op.onnx"))
+                .addInputProfile("input", DType.FLOAT, new int[] {batchSize, 2})
+                .addOutputProfile("output", DType.FLOAT);
+    }
+
+    /**
+     * Writes the bytes to a temporary file which is deleted on exit.
+     */
+    public static String createTempFile(String suffix, byte[] bytes) throws IOException {
+        final Path path = Files.createTempFile("menoh", suffix);
+        path.toFile().deleteOnExit();
+        Files.write(path, bytes);
+        return path.toString();
+    }
+
+    /**
+     * Measures the bytes allocated in the Java heap by the current thread while running the task.
+     */
+    public static long allocatedBytes(Runnable task) {
+        final com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final long before = bean.getThreadAllocatedBytes(threadId);
+        task.run();
+        return bean.getThreadAllocatedBytes(threadId) - before;
+    }
 }
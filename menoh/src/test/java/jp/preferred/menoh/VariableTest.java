@@ -0,0 +1,139 @@
+package jp.preferred.menoh;
+
+// CHECKSTYLE:OFF
+import static jp.preferred.menoh.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+// CHECKSTYLE:ON
+
+import com.sun.jna.Memory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class VariableTest {
+    @Test
+    public void putFloatArray() {
+        final float[] values = new float[] {0f, 1f, 2f, 3f, 4f, 5f, 6f, 7f};
+        final Memory mem = new Memory(values.length * 4);
+        final Variable v = new Variable(DType.FLOAT, new int[] {4, 2}, mem);
+
+        v.put(values, 0, values.length);
+        assertArrayEquals(values, mem.getFloatArray(0, values.length));
+
+        // check the byte order
+        final ByteBuffer valuesBuf = ByteBuffer.allocate(values.length * 4).order(ByteOrder.nativeOrder());
+        valuesBuf.asFloatBuffer().put(values);
+        assertArrayEquals(valuesBuf.array(), mem.getByteArray(0, values.length * 4));
+    }
+
+    @Test
+    public void putSlicedFloatArray() {
+        final float[] values = new float[] {0f, 1f, 2f, 3f};
+        final float[] slicedValues = new float[] {1f, 2f};
+        final Memory mem = new Memory(slicedValues.length * 4);
+        final Variable v = new Variable(DType.FLOAT, new int[] {1, 2}, mem);
+
+        v.put(values, 1, 2);
+        assertArrayEquals(slicedValues, mem.getFloatArray(0, slicedValues.length));
+    }
+
+    @Test
+    public void putTooLongFloatArray() {
+        final float[] values = new float[] {0f, 1f, 2f, 3f, 4f};
+        final Memory mem = new Memory(4 * 4);
+        final Variable v = new Variable(DType.FLOAT, new int[] {2, 2}, mem);
+
+        assertThrows(BufferOverflowException.class, () -> v.put(values, 0, values.length));
+    }
+
+    @Test
+    public void putBatch() {
+        final float[][] batch = new float[][] {{0f, 1f}, {2f, 3f}, {4f, 5f}};
+        final float[] expected = new float[] {0f, 1f, 2f, 3f, 4f, 5f};
+        final Memory mem = new Memory(expected.length * 4);
+        final Variable v = new Variable(DType.FLOAT, new int[] {3, 2}, mem);
+
+        v.put(batch);
+        assertArrayEquals(expected, mem.getFloatArray(0, expected.length));
+    }
+
+    @Test
+    public void putDoesNotAllocate() {
+        final float[] values = new float[] {0f, 1f, 2f, 3f, 4f, 5f, 6f, 7f};
+        final float[][] batch = new float[][] {{0f, 1f}, {2f, 3f}, {4f, 5f}, {6f, 7f}};
+        final Memory mem = new Memory(values.length * 4);
+        final Variable v = new Variable(DType.FLOAT, new int[] {4, 2}, mem);
+        final int iterations = 100_000;
+
+        // create the cached views before measuring
+        v.put(values, 0, values.length);
+
+        final long allocated = allocatedBytes(() -> {
+            for (int i = 0; i < iterations; i++) {
+                v.put(values, 0, values.length);
+                v.put(batch);
+            }
+        });
+
+        // allow a small constant overhead of the measurement itself, but nothing per call
+        assertTrue(allocated < iterations, String.format("%d bytes allocated in %d calls", allocated, iterations));
+    }
+
+    @Test
+    public void bufferIsIndependentView() {
+        final Memory mem = new Memory(4 * 4);
+        final Variable v = new Variable(DType.FLOAT, new int[] {2, 2}, mem);
+
+        final ByteBuffer buf1 = v.buffer();
+        final ByteBuffer buf2 = v.buffer();
+        buf1.position(4);
+
+        assertAll("buffer views",
+                () -> assertNotSame(buf1, buf2),
+                () -> assertEquals(0, buf2.position()),
+                () -> assertEquals(ByteOrder.nativeOrder(), buf2.order()),
+                () -> assertSame(v.nativeBuffer(), v.nativeBuffer())
+        );
+    }
+
+    @Test
+    public void putFromMultipleThreads() throws Exception {
+        final float[] values = new float[] {0f, 1f, 2f, 3f, 4f, 5f, 6f, 7f};
+        final float[][] batch = new float[][] {{0f, 1f}, {2f, 3f}, {4f, 5f}, {6f, 7f}};
+        final Memory mem = new Memory(values.length * 4);
+        final Variable v = new Variable(DType.FLOAT, new int[] {4, 2}, mem);
+
+        // the writers don't share the position of a buffer, which would overflow it
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                final boolean useBatch = i % 2 == 0;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 200_000; j++) {
+                        if (useBatch) {
+                            v.put(batch);
+                        } else {
+                            v.put(values, 0, values.length);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertArrayEquals(values, mem.getFloatArray(0, values.length));
+    }
+}